@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.model.API;
+import org.wso2.carbon.apimgt.api.model.Scope;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class keeps the scopes of the APIs registered with the key manager, so that scope lookups for APIs can be
+ * answered without going to NetIQ Access Manager or the API Manager database.
+ */
+class ApiScopeIndex {
+    private final ScopeRegistry registry;
+    private final ConcurrentMap<String, Entry> apis = new ConcurrentHashMap<>();
+
+    ApiScopeIndex(ScopeRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * This method adds or replaces the scopes of the given API.
+     *
+     * @param api API which is registered or updated
+     */
+    void put(API api) {
+        if (api == null || api.getId() == null) {
+            return;
+        }
+        Set<Scope> scopes = api.getScopes() == null ? Collections.<Scope>emptySet()
+                : Collections.unmodifiableSet(new LinkedHashSet<>(api.getScopes()));
+        List<String> keys = new ArrayList<>(scopes.size());
+        for (Scope scope : scopes) {
+            keys.add(scope.getKey());
+        }
+        apis.put(api.getId().toString(), new Entry(scopes, registry.toScopeSet(keys)));
+    }
+
+    void remove(String apiId) {
+        if (apiId != null) {
+            apis.remove(apiId.trim());
+        }
+    }
+
+    /**
+     * @param apiId identifier of the API
+     * @return scope set of the API, or null if the API is not known
+     */
+    ScopeSet getScopeSet(String apiId) {
+        Entry entry = apiId == null ? null : apis.get(apiId.trim());
+        return entry == null ? null : entry.scopeSet;
+    }
+
+    /**
+     * This method looks up the scopes of the given APIs. The index only knows the APIs registered or updated through
+     * this key manager since it was started, so it can answer only when every requested API is known.
+     *
+     * @param apiIds comma separated list of API identifiers
+     * @return scopes of each API, keyed by the API identifier, or null if any of the APIs is not known
+     */
+    Map<String, Set<Scope>> getScopes(String apiIds) {
+        if (apiIds == null) {
+            return null;
+        }
+        Map<String, Set<Scope>> scopes = new HashMap<>();
+        for (String apiId : apiIds.split(NAMConstants.API_ID_SEPARATOR)) {
+            String key = apiId.trim();
+            if (key.isEmpty()) {
+                continue;
+            }
+            Entry entry = apis.get(key);
+            if (entry == null) {
+                return null;
+            }
+            scopes.put(key, entry.scopes);
+        }
+        return scopes;
+    }
+
+    private static final class Entry {
+        private final Set<Scope> scopes;
+        private final ScopeSet scopeSet;
+
+        private Entry(Set<Scope> scopes, ScopeSet scopeSet) {
+            this.scopes = scopes;
+            this.scopeSet = scopeSet;
+        }
+    }
+}
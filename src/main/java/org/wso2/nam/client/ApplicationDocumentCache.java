@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class keeps the latest client registration documents received from NetIQ Access Manager, so that an update
+ * of an OAuth application does not have to fetch the document again before merging its changes into it. A known
+ * document is not trusted to show that an update changes nothing, since the client may have been changed in NetIQ
+ * directly; such updates read the document again before they are skipped.
+ */
+class ApplicationDocumentCache {
+    private final ConcurrentMap<String, Entry> documents = new ConcurrentHashMap<>();
+    private volatile long timeToLiveMillis;
+
+    ApplicationDocumentCache(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    void setTimeToLive(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        if (timeToLiveMillis <= 0) {
+            documents.clear();
+        }
+    }
+
+    /**
+     * This method returns a copy of the registration document known for the given client id.
+     *
+     * @param clientId client id of the OAuth application
+     * @return copy of the document, or null if the document is unknown or older than the configured time to live
+     */
+    JSONObject get(String clientId) {
+        if (clientId == null) {
+            return null;
+        }
+        Entry entry = documents.get(clientId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.storedTime > timeToLiveMillis) {
+            documents.remove(clientId, entry);
+            return null;
+        }
+        return copy(entry.document);
+    }
+
+    void put(String clientId, JSONObject document) {
+        if (clientId == null || document == null || timeToLiveMillis <= 0) {
+            return;
+        }
+        documents.put(clientId, new Entry(copy(document), System.currentTimeMillis()));
+    }
+
+    void remove(String clientId) {
+        if (clientId != null) {
+            documents.remove(clientId);
+        }
+    }
+
+    void clear() {
+        documents.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject copy(JSONObject document) {
+        JSONObject copy = new JSONObject();
+        copy.putAll(document);
+        return copy;
+    }
+
+    private static final class Entry {
+        private final JSONObject document;
+        private final long storedTime;
+
+        private Entry(JSONObject document, long storedTime) {
+            this.document = document;
+            this.storedTime = storedTime;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.OAuthApplicationInfo;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of a client registration request sent to NetIQ Access Manager. The fields are resolved from an
+ * OAuthApplicationInfo into a table indexed by {@link #FIELDS}, and written straight into a reusable byte buffer,
+ * without building an intermediate JSONObject.
+ */
+final class ClientRegistrationPayload {
+    private static final Log log = LogFactory.getLog(ClientRegistrationPayload.class);
+
+    private static final int CLIENT_NAME = 0;
+    private static final int CLIENT_ID = 1;
+    private static final int REDIRECT_URIS = 2;
+    private static final int GRANT_TYPES = 3;
+    private static final int RESPONSE_TYPES = 4;
+    /**
+     * Index of the first field which is copied as it is from the JSON string of the application info.
+     */
+    private static final int FIRST_COPIED_FIELD = 5;
+
+    private static final Field[] FIELDS = {
+            new Field(NAMConstants.CLIENT_NAME),
+            new Field(NAMConstants.CLIENT_ID),
+            new Field(NAMConstants.REDIRECT_URIS, true),
+            new Field(NAMConstants.GRANT_TYPES, true),
+            new Field(NAMConstants.RESPONSE_TYPES, true),
+            new Field(NAMConstants.APPLICATION_TYPE),
+            new Field(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN),
+            new Field(NAMConstants.AUTH_CODE_TTL),
+            new Field(NAMConstants.ACCESS_TOKEN_TTL),
+            new Field(NAMConstants.REFRESH_TOKEN_TTL),
+            new Field(NAMConstants.CORS_DOMAINS, true),
+            new Field(NAMConstants.LOGO_URI),
+            new Field(NAMConstants.POLICY_URI),
+            new Field(NAMConstants.TOS_URI),
+            new Field(NAMConstants.CONTACTS, true),
+            new Field(NAMConstants.JWKS_URI),
+            new Field(NAMConstants.ID_TOKEN_SIGNED_RESPONSE_ALG),
+            new Field(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ALG),
+            new Field(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ENC)
+    };
+    private static final Map<String, Integer> FIELD_INDEXES = new HashMap<>();
+    private static final String[] DEFAULT_REDIRECT_URIS = split(NAMConstants.DEFAULT_REDIRECT_URI,
+            NAMConstants.URI_SEPARATOR.charAt(0));
+    private static final String[] DEFAULT_RESPONSE_TYPES = split(NAMConstants.DEFAULT_RESPONSE_TYPE,
+            NAMConstants.URI_SEPARATOR.charAt(0));
+
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            FIELD_INDEXES.put(FIELDS[i].name, i);
+        }
+    }
+
+    /**
+     * Value of each field, either a String or a String[], or null if the field is not part of the payload.
+     */
+    private final Object[] values = new Object[FIELDS.length];
+
+    private ClientRegistrationPayload() {
+    }
+
+    /**
+     * This method resolves the fields of the registration request of an OAuth application.
+     *
+     * @param appInfo oAuthApplicationInfo of the application that is going to be created or updated
+     * @return the payload
+     * @throws APIManagementException if a mandatory parameter is missing or the JSON string can not be parsed
+     */
+    static ClientRegistrationPayload from(OAuthApplicationInfo appInfo) throws APIManagementException {
+        String clientId = appInfo.getClientId();
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Creating payload of OAuth application creation request for client id %s.",
+                    clientId));
+        }
+        ClientRegistrationPayload payload = new ClientRegistrationPayload();
+        Object[] values = payload.values;
+
+        String keyType = (String) appInfo.getParameter(NAMConstants.KEY_TYPE);
+        String clientName = appInfo.getClientName() + '_' + keyType;
+        if (StringUtils.isEmpty(clientName)) {
+            String msg = "Mandatory parameter " + NAMConstants.CLIENT_NAME + " is missing.";
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        values[CLIENT_NAME] = clientName;
+
+        if (!StringUtils.isEmpty(clientId)) {
+            values[CLIENT_ID] = clientId;
+        }
+
+        String redirectionUri = appInfo.getCallBackURL();
+        if (!StringUtils.isEmpty(redirectionUri)) {
+            values[REDIRECT_URIS] = split(redirectionUri, NAMConstants.URI_SEPARATOR.charAt(0));
+        } else {
+            values[REDIRECT_URIS] = DEFAULT_REDIRECT_URIS;
+        }
+
+        String grantTypes = (String) appInfo.getParameter(NAMConstants.GRANT_TYPES);
+        if (grantTypes != null) {
+            values[GRANT_TYPES] = split(grantTypes, NAMConstants.INFO_GRANT_TYPE_SEPARATOR.charAt(0));
+        }
+
+        JSONObject jsonObject;
+        String jsonString = appInfo.getJsonString();
+        try {
+            jsonObject = (JSONObject) new JSONParser().parse(jsonString);
+        } catch (ParseException e) {
+            throw new APIManagementException("Error while parsing json string of oAuthApplicationInfo " +
+                    jsonString);
+        }
+
+        if (jsonObject != null) {
+            String responseTypes = (String) jsonObject.get(NAMConstants.RESPONSE_TYPES);
+            values[RESPONSE_TYPES] = StringUtils.isEmpty(responseTypes) ? DEFAULT_RESPONSE_TYPES : responseTypes;
+            for (int i = FIRST_COPIED_FIELD; i < FIELDS.length; i++) {
+                String value = (String) jsonObject.get(FIELDS[i].name);
+                if (!StringUtils.isEmpty(value)) {
+                    values[i] = value;
+                }
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * This method checks whether sending this payload as an update would leave a registration document unchanged.
+     * The payload holds every value as a string, while the registration server returns numbers, booleans and arrays
+     * (RFC 7591). Hence a string equals a number or boolean it spells exactly, and a single value equals a single
+     * element array for fields which hold an array. Strings are not trimmed, so differences in whitespace count as
+     * changes.
+     *
+     * @param current registration document currently held by NetIQ, may be null
+     * @return true if the update does not change the registration document
+     */
+    boolean isUnchanged(JSONObject current) {
+        if (current == null) {
+            return false;
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            Object value = values[i];
+            if (value != null && !FIELDS[i].matches(value, current.get(FIELDS[i].name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method returns the request entity of this payload, merged into the fields of a base document.
+     *
+     * @param base registration document which the fields of this payload are applied to, null for a new client
+     * @return JSON request entity
+     */
+    ByteArrayEntity toEntity(Map<?, ?> base) {
+        return new ByteArrayEntity(write(base), ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * @param base registration document which the fields of this payload are applied to, may be null
+     * @return the UTF-8 encoded JSON document
+     */
+    byte[] write(Map<?, ?> base) {
+        JsonPayloadBuffer buffer = JsonPayloadBuffer.acquire();
+        buffer.writeByte('{');
+        boolean first = true;
+        if (base != null) {
+            for (Map.Entry<?, ?> entry : base.entrySet()) {
+                String name = String.valueOf(entry.getKey());
+                Integer index = FIELD_INDEXES.get(name);
+                if (index != null && values[index] != null) {
+                    continue;
+                }
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                first = false;
+                buffer.writeString(name).writeByte(':').writeValue(entry.getValue());
+            }
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (!first) {
+                buffer.writeByte(',');
+            }
+            first = false;
+            buffer.writeRaw(FIELDS[i].encodedName);
+            if (value instanceof String[]) {
+                buffer.writeStringArray((String[]) value);
+            } else {
+                buffer.writeString((String) value);
+            }
+        }
+        buffer.writeByte('}');
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param value value of the payload
+     * @param current value held by the registration server, a string, number, boolean, list, map or null
+     * @return true if the value of the registration server is the one the payload spells
+     */
+    private static boolean matchesScalar(String value, Object current) {
+        if (current instanceof String || current instanceof Boolean) {
+            return value.equals(current.toString());
+        }
+        if (current instanceof Number) {
+            try {
+                return new BigDecimal(value).compareTo(new BigDecimal(current.toString())) == 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method splits a string the same way as {@link String#split(String)} does for a single literal
+     * character, i.e. trailing empty strings are dropped.
+     *
+     * @param value the string
+     * @param separator separator character
+     * @return the parts of the string
+     */
+    static String[] split(String value, char separator) {
+        int count = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == separator) {
+                count++;
+            }
+        }
+        String[] parts = new String[count];
+        int start = 0;
+        int part = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == separator) {
+                parts[part++] = value.substring(start, i);
+                start = i + 1;
+            }
+        }
+        parts[part] = value.substring(start);
+        int size = parts.length;
+        while (size > 0 && parts[size - 1].isEmpty()) {
+            size--;
+        }
+        if (size == 0 && value.isEmpty()) {
+            return new String[]{value};
+        }
+        return size == parts.length ? parts : Arrays.copyOf(parts, size);
+    }
+
+    private static final class Field {
+        private final String name;
+        private final byte[] encodedName;
+        /**
+         * Whether the registration server holds the field as an array.
+         */
+        private final boolean array;
+
+        private Field(String name) {
+            this(name, false);
+        }
+
+        private Field(String name, boolean array) {
+            this.name = name;
+            this.encodedName = JsonPayloadBuffer.encodeFieldName(name);
+            this.array = array;
+        }
+
+        /**
+         * @param value value of the payload, a String or a String[]
+         * @param current value held by the registration server
+         * @return true if the value of the registration server is the one the payload spells
+         */
+        private boolean matches(Object value, Object current) {
+            String[] values = value instanceof String[] ? (String[]) value : new String[]{(String) value};
+            if (current instanceof List) {
+                List<?> currentValues = (List<?>) current;
+                if (!(array || value instanceof String[]) || currentValues.size() != values.length) {
+                    return false;
+                }
+                for (int i = 0; i < values.length; i++) {
+                    if (!matchesScalar(values[i], currentValues.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return (array || value instanceof String) && values.length == 1 && matchesScalar(values[0], current);
+        }
+    }
+}
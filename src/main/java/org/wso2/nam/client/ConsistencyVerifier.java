@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Verifies a sample of the token validation results which are served from the local token state against NetIQ, to
+ * show whether serving results locally diverges from what NetIQ would answer. Sampled results are verified on the
+ * revalidation executor, off the request path, at a limited rate of their own. A verification compares the user,
+ * the audience, the scopes and the validity of the served result with a fresh tokenInfo response.
+ * <p>
+ * Divergences are counted by attribute and the most recent ones are kept as examples, which identify the token by a
+ * prefix of its fingerprint only. If enabled, the time to live of the validation cache is halved whenever the share
+ * of divergent results within a window of verifications exceeds the threshold.
+ */
+class ConsistencyVerifier implements ConsistencyVerifierMXBean {
+    private static final Log log = LogFactory.getLog(ConsistencyVerifier.class);
+    static final String OBJECT_NAME_PREFIX = "org.wso2.nam.client:type=NamConsistencyVerifier,name=";
+
+    /**
+     * Source of the NetIQ responses the served results are compared with.
+     */
+    interface Introspector {
+
+        /**
+         * @param accessToken the access token
+         * @return the tokenInfo response of NetIQ, null if NetIQ does not consider the token valid
+         * @throws APIManagementException if NetIQ could not be asked
+         */
+        JSONObject introspect(String accessToken) throws APIManagementException;
+    }
+
+    private final Introspector introspector;
+    private volatile double sampleRate;
+    private volatile int maxRate;
+    private volatile int window;
+    private volatile double divergenceThreshold;
+    private volatile boolean shortenTimeToLive;
+    private final Object permitLock = new Object();
+    private double permits;
+    private long permitTime = System.nanoTime();
+    private final Object windowLock = new Object();
+    private int windowVerified;
+    private int windowDivergent;
+    private final Deque<String> recentDivergences = new ArrayDeque<>();
+    private final AtomicLong sampledResults = new AtomicLong();
+    private final AtomicLong droppedVerifications = new AtomicLong();
+    private final AtomicLong verifiedResults = new AtomicLong();
+    private final AtomicLong failedVerifications = new AtomicLong();
+    private final AtomicLong divergentResults = new AtomicLong();
+    private final AtomicLong scopeDivergences = new AtomicLong();
+    private final AtomicLong audienceDivergences = new AtomicLong();
+    private final AtomicLong userDivergences = new AtomicLong();
+    private final AtomicLong validityDivergences = new AtomicLong();
+    private final AtomicLong timeToLiveReductions = new AtomicLong();
+    private volatile long reducedTimeToLive = -1;
+    private ObjectName objectName;
+
+    ConsistencyVerifier(Introspector introspector) {
+        this.introspector = introspector;
+    }
+
+    /**
+     * @param settings active configuration
+     */
+    void configure(NamConfigurationSnapshot settings) {
+        maxRate = settings.consistencyMaxRate;
+        window = settings.consistencyWindow;
+        divergenceThreshold = settings.consistencyDivergenceThreshold;
+        shortenTimeToLive = settings.consistencyShortenTTL;
+        sampleRate = settings.consistencySampleRate;
+    }
+
+    boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * This method picks a locally served validation result for verification with the configured probability, and
+     * queues its verification if the rate limit allows. It never blocks the caller.
+     *
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token
+     * @param tokenInfo the validation result which was served
+     * @param servedFrom where the result was served from, e.g. {@link NAMConstants#SERVED_STALE}
+     * @param cache validation cache the result was served from
+     */
+    void sample(final String accessToken, final TokenFingerprint fingerprint, AccessTokenInfo tokenInfo,
+                final String servedFrom, final TokenValidationCache cache) {
+        double rate = sampleRate;
+        if (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) {
+            return;
+        }
+        sampledResults.incrementAndGet();
+        if (!tryAcquirePermit()) {
+            droppedVerifications.incrementAndGet();
+            return;
+        }
+        // The caller owns the served result and may change it, hence the verification works on a copy.
+        final AccessTokenInfo served = new AccessTokenInfo();
+        served.setEndUserName(tokenInfo.getEndUserName());
+        served.setConsumerKey(tokenInfo.getConsumerKey());
+        served.setIssuedTime(tokenInfo.getIssuedTime());
+        served.setValidityPeriod(tokenInfo.getValidityPeriod());
+        served.setScope(tokenInfo.getScopes() == null ? null : tokenInfo.getScopes().clone());
+        try {
+            NamExecutors.revalidation().execute(new Runnable() {
+                @Override
+                public void run() {
+                    verify(accessToken, fingerprint, served, servedFrom, cache);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedVerifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method takes a permit of the verification rate limit, a token bucket which holds up to one second worth
+     * of permits.
+     *
+     * @return true if a permit was taken
+     */
+    private boolean tryAcquirePermit() {
+        int rate = maxRate;
+        if (rate <= 0) {
+            return true;
+        }
+        synchronized (permitLock) {
+            long now = System.nanoTime();
+            permits = Math.min(rate, permits + (now - permitTime) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+            permitTime = now;
+            if (permits < 1) {
+                return false;
+            }
+            permits--;
+            return true;
+        }
+    }
+
+    /**
+     * This method compares a served validation result with the response of NetIQ. A divergent result is dropped from
+     * the validation cache, so that the token is validated against NetIQ when it is used next.
+     */
+    void verify(String accessToken, TokenFingerprint fingerprint, AccessTokenInfo tokenInfo, String servedFrom,
+                TokenValidationCache cache) {
+        JSONObject response;
+        try {
+            response = introspector.introspect(accessToken);
+        } catch (APIManagementException | RuntimeException e) {
+            failedVerifications.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Could not verify a locally served validation result against NetIQ.", e);
+            }
+            return;
+        }
+        List<String> divergences = compare(tokenInfo, response, System.currentTimeMillis());
+        verifiedResults.incrementAndGet();
+        boolean divergent = !divergences.isEmpty();
+        if (divergent) {
+            divergentResults.incrementAndGet();
+            cache.remove(fingerprint);
+            String example = String.format("%s token %s... served from %s diverged: %s", Instant.now(),
+                    fingerprint.redacted(), servedFrom,
+                    StringUtils.join(divergences.toArray(), "; "));
+            synchronized (recentDivergences) {
+                if (recentDivergences.size() >= NAMConstants.CONSISTENCY_MAX_EXAMPLES) {
+                    recentDivergences.removeFirst();
+                }
+                recentDivergences.addLast(example);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Locally served validation result diverged from NetIQ. " + example);
+            }
+        }
+        evaluateWindow(divergent, cache);
+    }
+
+    /**
+     * @param tokenInfo the validation result which was served
+     * @param response tokenInfo response of NetIQ, null if NetIQ does not consider the token valid
+     * @param now current time
+     * @return descriptions of the attributes which diverge, empty if the result matches the response
+     */
+    private List<String> compare(AccessTokenInfo tokenInfo, JSONObject response, long now) {
+        List<String> divergences = new ArrayList<>();
+        Object expiresIn = response == null ? null : response.get(NAMConstants.EXPIRES_IN);
+        if (!(expiresIn instanceof Long) || (Long) expiresIn <= 0) {
+            validityDivergences.incrementAndGet();
+            divergences.add("validity local=valid nam=invalid");
+            return divergences;
+        }
+        long localExpiryTime = tokenInfo.getIssuedTime() + tokenInfo.getValidityPeriod();
+        long namExpiryTime = now + (Long) expiresIn * 1000;
+        if (Math.abs(localExpiryTime - namExpiryTime) > NAMConstants.CONSISTENCY_EXPIRY_TOLERANCE) {
+            validityDivergences.incrementAndGet();
+            divergences.add(String.format("expiry local=%s nam=%s", Instant.ofEpochMilli(localExpiryTime),
+                    Instant.ofEpochMilli(namExpiryTime)));
+        }
+        Object user = response.get(NAMConstants.USER_ID);
+        if (!StringUtils.equals(tokenInfo.getEndUserName(), user instanceof String ? (String) user : null)) {
+            userDivergences.incrementAndGet();
+            divergences.add(String.format("user local=%s nam=%s", tokenInfo.getEndUserName(), user));
+        }
+        Object audience = response.get(NAMConstants.AUDIENCE);
+        if (!StringUtils.equals(tokenInfo.getConsumerKey(), audience instanceof String ? (String) audience : null)) {
+            audienceDivergences.incrementAndGet();
+            divergences.add(String.format("audience local=%s nam=%s", tokenInfo.getConsumerKey(), audience));
+        }
+        Set<Object> localScopes = tokenInfo.getScopes() == null ? new HashSet<Object>()
+                : new HashSet<Object>(Arrays.asList(tokenInfo.getScopes()));
+        Object scopeList = response.get(NAMConstants.SCOPE);
+        Set<Object> namScopes = scopeList instanceof JSONArray ? new HashSet<Object>((JSONArray) scopeList)
+                : new HashSet<Object>();
+        if (!localScopes.equals(namScopes)) {
+            scopeDivergences.incrementAndGet();
+            divergences.add(String.format("scope local=%s nam=%s", localScopes, namScopes));
+        }
+        return divergences;
+    }
+
+    /**
+     * This method adds a verification to the current window. Once the window is complete, its divergence rate is
+     * compared with the threshold, and the time to live of the validation cache is halved if it is exceeded and
+     * shortening is enabled.
+     */
+    private void evaluateWindow(boolean divergent, TokenValidationCache cache) {
+        double windowRate;
+        synchronized (windowLock) {
+            windowVerified++;
+            if (divergent) {
+                windowDivergent++;
+            }
+            if (windowVerified < window) {
+                return;
+            }
+            windowRate = (double) windowDivergent / windowVerified;
+            windowVerified = 0;
+            windowDivergent = 0;
+        }
+        if (windowRate <= divergenceThreshold) {
+            return;
+        }
+        if (!shortenTimeToLive) {
+            log.warn(String.format("%.2f%% of the verified locally served validation results diverged from NetIQ, " +
+                    "which exceeds the threshold of %.2f%%.", windowRate * 100, divergenceThreshold * 100));
+            return;
+        }
+        long timeToLive = cache.getTimeToLive();
+        long shortened = Math.max(NAMConstants.CONSISTENCY_MIN_TOKEN_CACHE_TTL, timeToLive / 2);
+        if (shortened >= timeToLive) {
+            return;
+        }
+        cache.limitTimeToLive(shortened);
+        timeToLiveReductions.incrementAndGet();
+        reducedTimeToLive = shortened;
+        log.warn(String.format("%.2f%% of the verified locally served validation results diverged from NetIQ, " +
+                "which exceeds the threshold of %.2f%%. Hence the time to live of the validation cache has been " +
+                "shortened from %s ms to %s ms.", windowRate * 100, divergenceThreshold * 100, timeToLive, shortened));
+    }
+
+    @Override
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getSampledResults() {
+        return sampledResults.get();
+    }
+
+    @Override
+    public long getDroppedVerifications() {
+        return droppedVerifications.get();
+    }
+
+    @Override
+    public long getVerifiedResults() {
+        return verifiedResults.get();
+    }
+
+    @Override
+    public long getFailedVerifications() {
+        return failedVerifications.get();
+    }
+
+    @Override
+    public long getDivergentResults() {
+        return divergentResults.get();
+    }
+
+    @Override
+    public double getDivergenceRate() {
+        long verified = verifiedResults.get();
+        return verified == 0 ? 0 : (double) divergentResults.get() / verified;
+    }
+
+    @Override
+    public long getScopeDivergences() {
+        return scopeDivergences.get();
+    }
+
+    @Override
+    public long getAudienceDivergences() {
+        return audienceDivergences.get();
+    }
+
+    @Override
+    public long getUserDivergences() {
+        return userDivergences.get();
+    }
+
+    @Override
+    public long getValidityDivergences() {
+        return validityDivergences.get();
+    }
+
+    @Override
+    public long getTimeToLiveReductions() {
+        return timeToLiveReductions.get();
+    }
+
+    @Override
+    public long getReducedTimeToLive() {
+        return reducedTimeToLive;
+    }
+
+    @Override
+    public String[] getRecentDivergences() {
+        synchronized (recentDivergences) {
+            return recentDivergences.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * This method registers the verifier in the platform MBean server, see {@link NamMBeans}.
+     *
+     * @param name name which identifies the key manager instance, usually the client id of the NetIQ admin client
+     */
+    synchronized void register(String name) {
+        unregister();
+        objectName = NamMBeans.register(this, OBJECT_NAME_PREFIX + ObjectName.quote(name),
+                "consistency verifier of " + name);
+    }
+
+    /**
+     * This method removes the verifier from the platform MBean server, if it was registered.
+     */
+    synchronized void unregister() {
+        NamMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
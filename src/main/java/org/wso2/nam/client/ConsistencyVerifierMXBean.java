@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * JMX view of the verification of locally served token validation results against NetIQ.
+ */
+public interface ConsistencyVerifierMXBean {
+
+    /**
+     * @return fraction of the locally served validation results which are verified, 0 if verification is disabled
+     */
+    double getSampleRate();
+
+    /**
+     * @return number of locally served validation results which were picked for verification
+     */
+    long getSampledResults();
+
+    /**
+     * @return number of picked results which were not verified since the verification rate limit was reached or
+     * the revalidation queue was full
+     */
+    long getDroppedVerifications();
+
+    /**
+     * @return number of results which were compared with a response of NetIQ
+     */
+    long getVerifiedResults();
+
+    /**
+     * @return number of verifications which failed since NetIQ could not be reached
+     */
+    long getFailedVerifications();
+
+    /**
+     * @return number of verified results which differed from the response of NetIQ in at least one attribute
+     */
+    long getDivergentResults();
+
+    /**
+     * @return fraction of the verified results which diverged, 0 if none has been verified
+     */
+    double getDivergenceRate();
+
+    /**
+     * @return number of verified results whose scopes differed from the response of NetIQ
+     */
+    long getScopeDivergences();
+
+    /**
+     * @return number of verified results whose audience, i.e. consumer key, differed from the response of NetIQ
+     */
+    long getAudienceDivergences();
+
+    /**
+     * @return number of verified results whose user differed from the response of NetIQ
+     */
+    long getUserDivergences();
+
+    /**
+     * @return number of verified results which NetIQ considered invalid, or whose expiry time differed from the
+     * response of NetIQ
+     */
+    long getValidityDivergences();
+
+    /**
+     * @return number of times the time to live of the validation cache was shortened due to divergences
+     */
+    long getTimeToLiveReductions();
+
+    /**
+     * @return time to live of the validation cache in milliseconds after it was last shortened, -1 if it has not
+     * been shortened
+     */
+    long getReducedTimeToLive();
+
+    /**
+     * @return the most recent divergences, in which tokens are identified by a prefix of their fingerprint only
+     */
+    String[] getRecentDivergences();
+}
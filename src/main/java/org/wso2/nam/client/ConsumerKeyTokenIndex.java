@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Secondary index from consumer keys to the live access tokens seen by this node. Tokens are added when NetIQ issues
+ * or validates them and are removed by an {@link ExpiryWheel} once they expire, so that the tokens of an application
+ * can be found and invalidated without flushing the state of every other application. Each token records its
+ * {@link Origin}, since only the tokens issued to the application itself may be handed out again.
+ * <p>
+ * Each token is also indexed by itself, so that a single token can be removed without visiting every consumer key.
+ * The number of indexed tokens can be limited. The count used for the limit is maintained along with the index and
+ * may be briefly off while tokens are added and removed concurrently.
+ * <p>
+ * Unlike the {@link TokenValidationCache}, the index has to keep the access tokens themselves, since the key manager
+ * API returns the active tokens of an application. Everything else is kept compact: consumer keys and user names
+ * are interned, scope sets are shared through the {@link ScopeRegistry}, and times are primitive longs. With
+ * compressed references, an entry takes about 150 bytes besides the access token string, 40 for each of the two hash
+ * map nodes with their table slots and 72 for the entry itself, which doubles as its expiry timer. Indexing one
+ * million tokens took 153 bytes per entry on a 64-bit JVM, not counting the tokens.
+ */
+class ConsumerKeyTokenIndex {
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> tokensByConsumerKey =
+            new ConcurrentHashMap<>();
+    /**
+     * Entry of each indexed token. A token is indexed as long as its entry is in this map, which decides the races
+     * between adding, removing and expiring the same token.
+     */
+    private final ConcurrentMap<String, Entry> entriesByToken = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final WeakInterner<String> attributes;
+    private final ExpiryWheel expiryWheel;
+    private volatile int maxTokens;
+
+    /**
+     * @param attributes interner of the consumer keys and user names of the indexed tokens
+     * @param expiryWheel timing wheel which removes the tokens once they expire
+     */
+    ConsumerKeyTokenIndex(WeakInterner<String> attributes, ExpiryWheel expiryWheel) {
+        this.attributes = attributes;
+        this.expiryWheel = expiryWheel;
+    }
+
+    /**
+     * Where an indexed token came from.
+     */
+    enum Origin {
+        /**
+         * Issued to the application itself through the client credentials of the key manager.
+         */
+        ISSUED,
+        /**
+         * Presented by a client and validated, e.g. an end user's token seen on the gateway.
+         */
+        VALIDATED
+    }
+
+    /**
+     * @param maxTokens maximum number of indexed tokens, 0 for no limit
+     */
+    void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * This method records a live token of the given consumer key.
+     *
+     * @param consumerKey consumer key (client id) the token was issued to
+     * @param accessToken the access token
+     * @param tokenInfo token info holding the user of the token
+     * @param scopes scopes of the token, may be null
+     * @param expiresIn remaining lifetime of the token in seconds, as reported by NetIQ
+     * @param origin where the token came from. A token which was issued stays issued when it is validated later.
+     * @return false if the token was not indexed since the index is full
+     */
+    boolean add(String consumerKey, final String accessToken, AccessTokenInfo tokenInfo, final ScopeSet scopes,
+                long expiresIn, final Origin origin) {
+        if (consumerKey == null || accessToken == null || expiresIn <= 0) {
+            return true;
+        }
+        int limit = maxTokens;
+        if (limit > 0 && count.get() >= limit && !entriesByToken.containsKey(accessToken) && prune() == 0
+                && count.get() >= limit) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        final long expiryTime = now + expiresIn * 1000;
+        String key = attributes.intern(consumerKey);
+        final String endUserName = attributes.intern(tokenInfo.getEndUserName());
+        final Entry[] added = new Entry[1];
+        final Entry[] previous = new Entry[1];
+        // The map of the consumer key is only added to while it is attached, so that a concurrent removal of the
+        // emptied map can not detach a token which is being added.
+        tokensByConsumerKey.compute(key, new BiFunction<String, ConcurrentMap<String, Entry>,
+                ConcurrentMap<String, Entry>>() {
+            @Override
+            public ConcurrentMap<String, Entry> apply(String consumerKey, ConcurrentMap<String, Entry> tokens) {
+                ConcurrentMap<String, Entry> result = tokens != null ? tokens
+                        : new ConcurrentHashMap<String, Entry>();
+                Entry existing = entriesByToken.get(accessToken);
+                Entry entry = new Entry(accessToken, consumerKey, endUserName, scopes, now, expiryTime,
+                        existing != null && existing.origin == Origin.ISSUED ? Origin.ISSUED : origin);
+                result.put(accessToken, entry);
+                previous[0] = entriesByToken.put(accessToken, entry);
+                added[0] = entry;
+                return result;
+            }
+        });
+        if (previous[0] == null) {
+            count.incrementAndGet();
+        } else {
+            expiryWheel.cancel(previous[0]);
+            if (!previous[0].consumerKey.equals(key)) {
+                unlink(previous[0]);
+            }
+        }
+        expiryWheel.schedule(added[0], expiryTime - now);
+        return true;
+    }
+
+    /**
+     * @param consumerKey consumer key of the application
+     * @return the live tokens of the application, empty if none are known
+     */
+    Set<String> getActiveTokens(String consumerKey) {
+        ConcurrentMap<String, Entry> tokens = consumerKey == null ? null : tokensByConsumerKey.get(consumerKey);
+        if (tokens == null) {
+            return Collections.emptySet();
+        }
+        long now = System.currentTimeMillis();
+        Set<String> activeTokens = new HashSet<>();
+        for (Entry entry : tokens.values()) {
+            if (entry.isExpired(now)) {
+                drop(entry);
+            } else {
+                activeTokens.add(entry.accessToken);
+            }
+        }
+        return activeTokens;
+    }
+
+    /**
+     * @param consumerKey consumer key of the application
+     * @return info of the live token issued to the application which expires last, null if none is known. Tokens
+     *         which were only validated are never returned, since they may belong to end users.
+     */
+    AccessTokenInfo getLatestToken(String consumerKey) {
+        ConcurrentMap<String, Entry> tokens = consumerKey == null ? null : tokensByConsumerKey.get(consumerKey);
+        if (tokens == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Entry latest = null;
+        for (Entry entry : tokens.values()) {
+            if (entry.isExpired(now)) {
+                drop(entry);
+            } else if (entry.origin == Origin.ISSUED && (latest == null || entry.expiryTime > latest.expiryTime)) {
+                latest = entry;
+            }
+        }
+        return latest == null ? null : latest.toAccessTokenInfo(latest.accessToken, consumerKey);
+    }
+
+    /**
+     * This method drops a single token from the index.
+     *
+     * @param accessToken access token which is no longer valid
+     * @return consumer key the token belonged to, null if the token was not known
+     */
+    String remove(String accessToken) {
+        Entry entry;
+        while ((entry = entriesByToken.get(accessToken)) != null) {
+            if (drop(entry)) {
+                return entry.consumerKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method drops every token of the given consumer key, e.g. when the application is deleted.
+     *
+     * @param consumerKey consumer key of the application
+     * @return the tokens which were dropped
+     */
+    Set<String> invalidate(String consumerKey) {
+        ConcurrentMap<String, Entry> tokens = consumerKey == null ? null : tokensByConsumerKey.remove(consumerKey);
+        if (tokens == null) {
+            return Collections.emptySet();
+        }
+        Set<String> invalidated = new HashSet<>();
+        for (Entry entry : tokens.values()) {
+            if (entriesByToken.remove(entry.accessToken, entry)) {
+                expiryWheel.cancel(entry);
+                count.decrementAndGet();
+                invalidated.add(entry.accessToken);
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * This method removes every expired token and every consumer key which has no live tokens left. Tokens are
+     * removed by the expiry wheel as well, hence this is only needed to make room right away or after the wall clock
+     * has moved forward.
+     *
+     * @return number of tokens which were removed
+     */
+    int prune() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Entry entry : entriesByToken.values()) {
+            if (entry.isExpired(now) && drop(entry)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of indexed tokens
+     */
+    int size() {
+        return Math.max(count.get(), 0);
+    }
+
+    void clear() {
+        for (Entry entry : entriesByToken.values()) {
+            drop(entry);
+        }
+    }
+
+    /**
+     * This method removes an entry from the index, unless its token has been indexed again in the meantime.
+     *
+     * @param entry the entry
+     * @return true if the entry was removed by this call
+     */
+    private boolean drop(Entry entry) {
+        if (!entriesByToken.remove(entry.accessToken, entry)) {
+            return false;
+        }
+        expiryWheel.cancel(entry);
+        count.decrementAndGet();
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * This method removes an entry from the map of its consumer key, and the map once it is empty. The map is
+     * removed within the same atomic step which checks that it is empty, so that no token can be added to it after
+     * it has been detached.
+     *
+     * @param entry the entry
+     */
+    private void unlink(final Entry entry) {
+        tokensByConsumerKey.computeIfPresent(entry.consumerKey, new BiFunction<String, ConcurrentMap<String, Entry>,
+                ConcurrentMap<String, Entry>>() {
+            @Override
+            public ConcurrentMap<String, Entry> apply(String consumerKey, ConcurrentMap<String, Entry> tokens) {
+                tokens.remove(entry.accessToken, entry);
+                return tokens.isEmpty() ? null : tokens;
+            }
+        });
+    }
+
+    private final class Entry extends ExpiryWheel.Timer {
+        private final String accessToken;
+        private final String consumerKey;
+        private final String endUserName;
+        private final ScopeSet scopes;
+        private final long issuedTime;
+        private final long expiryTime;
+        private final Origin origin;
+
+        private Entry(String accessToken, String consumerKey, String endUserName, ScopeSet scopes, long issuedTime,
+                      long expiryTime, Origin origin) {
+            this.accessToken = accessToken;
+            this.consumerKey = consumerKey;
+            this.endUserName = endUserName;
+            this.scopes = scopes;
+            this.issuedTime = issuedTime;
+            this.expiryTime = expiryTime;
+            this.origin = origin;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiryTime;
+        }
+
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            if (entriesByToken.get(accessToken) != this) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (!isExpired(now)) {
+                // The wall clock has been set back since the token was scheduled.
+                wheel.schedule(this, expiryTime - now);
+                return false;
+            }
+            return drop(this);
+        }
+
+        @Override
+        String store() {
+            return NAMConstants.LOCAL_STATE_TOKEN_INDEX;
+        }
+
+        private AccessTokenInfo toAccessTokenInfo(String accessToken, String consumerKey) {
+            AccessTokenInfo tokenInfo = new AccessTokenInfo();
+            tokenInfo.setAccessToken(accessToken);
+            tokenInfo.setConsumerKey(consumerKey);
+            tokenInfo.setEndUserName(endUserName);
+            if (scopes != null) {
+                tokenInfo.setScope(scopes.toArray());
+            }
+            tokenInfo.setIssuedTime(issuedTime);
+            tokenInfo.setValidityPeriod(expiryTime - issuedTime);
+            tokenInfo.setTokenValid(true);
+            return tokenInfo;
+        }
+    }
+}
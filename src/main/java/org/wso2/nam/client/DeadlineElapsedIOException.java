@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to NetIQ, or instead of waiting any longer for its response, when the deadline
+ * of the operation which makes the request has passed. See {@link NamDeadline}.
+ */
+class DeadlineElapsedIOException extends IOException {
+
+    DeadlineElapsedIOException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel which calls back {@link Timer timers} once their delay has passed. Scheduling and
+ * cancelling a timer take constant time regardless of the number of scheduled timers, so that every cached token can
+ * be expired individually instead of scanning all of them periodically.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots. A slot of the first level covers a single tick and
+ * each slot of the next level covers as many ticks as the whole previous level. Timers further away than the last
+ * level are parked in it and re-placed when their slot comes up. Whenever the first level wraps around, the current
+ * slot of the next level is cascaded down. Timers which fall due within the same tick are called back together.
+ * <p>
+ * The wheel runs on {@link System#nanoTime()}, hence wall clock adjustments do not move its timers. Owners of
+ * timers whose deadline is a wall clock time should check the deadline again when called back and schedule the
+ * timer again if it has not passed yet.
+ */
+final class ExpiryWheel {
+    private static final Log log = LogFactory.getLog(ExpiryWheel.class);
+    private static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 4;
+    private static final long MAX_DELAY_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis duration of a tick in milliseconds, which is the resolution of the wheel
+     * @param startNanos {@link System#nanoTime()} at which the wheel starts
+     */
+    ExpiryWheel(long tickMillis, long startNanos) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = startNanos;
+        for (Timer[] level : slots) {
+            for (int i = 0; i < SLOTS; i++) {
+                Timer head = new Sentinel();
+                head.next = head;
+                head.prev = head;
+                level[i] = head;
+            }
+        }
+    }
+
+    /**
+     * Callback scheduled on the wheel. A timer can only be scheduled once at a time. It may schedule itself again
+     * when it is called back, but must not be scheduled by another thread meanwhile.
+     */
+    abstract static class Timer {
+        private Timer prev;
+        private Timer next;
+        private long deadlineTick;
+
+        /**
+         * This method is called on the thread which advances the wheel once the delay of the timer has passed. It
+         * must not block.
+         *
+         * @param wheel the wheel the timer was scheduled on
+         * @return true if the timer has removed an expired entry from its store
+         */
+        abstract boolean expire(ExpiryWheel wheel);
+
+        /**
+         * @return name of the local store the timer belongs to, which is reported along with the number of entries
+         * the timers of a tick have removed
+         */
+        abstract String store();
+    }
+
+    private static final class Sentinel extends Timer {
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            return false;
+        }
+
+        @Override
+        String store() {
+            return null;
+        }
+    }
+
+    /**
+     * This method schedules a timer. The timer is called back on the first tick after the delay has passed, never
+     * before.
+     *
+     * @param timer timer which is not scheduled yet
+     * @param delayMillis delay in milliseconds
+     */
+    void schedule(Timer timer, long delayMillis) {
+        schedule(timer, delayMillis, System.nanoTime());
+    }
+
+    /**
+     * @param timer timer which is not scheduled yet
+     * @param delayMillis delay in milliseconds
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    void schedule(Timer timer, long delayMillis, long nowNanos) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        long deadlineNanos = nowNanos - startNanos + delayNanos;
+        long deadlineTick = deadlineNanos / tickNanos + (deadlineNanos % tickNanos == 0 ? 0 : 1);
+        synchronized (this) {
+            if (timer.prev != null) {
+                throw new IllegalStateException("Timer is already scheduled.");
+            }
+            timer.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+            place(timer);
+            size++;
+        }
+    }
+
+    /**
+     * @param timer timer to cancel
+     * @return true if the timer was scheduled and has been cancelled, false if it was not scheduled or has already
+     * been called back
+     */
+    synchronized boolean cancel(Timer timer) {
+        // Timers which are being called back have already been detached from their slot.
+        if (timer.prev == null) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * @return number of scheduled timers
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * This method advances the wheel to the given time and calls back every timer which has fallen due. Timers are
+     * called back without holding the lock of the wheel, so that they can schedule themselves again.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return number of timers which have been called back
+     */
+    int advance(long nowNanos) {
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        int expired = 0;
+        while (true) {
+            Timer due;
+            synchronized (this) {
+                if (currentTick >= targetTick) {
+                    return expired;
+                }
+                currentTick++;
+                cascade();
+                due = drain(slots[0][(int) (currentTick & (SLOTS - 1))]);
+                for (Timer timer = due; timer != null; timer = timer.next) {
+                    size--;
+                }
+            }
+            expired += expire(due);
+        }
+    }
+
+    private int expire(Timer due) {
+        int expired = 0;
+        Map<String, int[]> removedByStore = null;
+        for (Timer timer = due; timer != null; ) {
+            Timer next = timer.next;
+            timer.next = null;
+            expired++;
+            try {
+                if (timer.expire(this)) {
+                    if (removedByStore == null) {
+                        removedByStore = new HashMap<>();
+                    }
+                    int[] removed = removedByStore.get(timer.store());
+                    if (removed == null) {
+                        removed = new int[1];
+                        removedByStore.put(timer.store(), removed);
+                    }
+                    removed[0]++;
+                }
+            } catch (RuntimeException e) {
+                log.error("Error occurred while expiring an entry of the local token state.", e);
+            }
+            timer = next;
+        }
+        if (removedByStore != null) {
+            for (Map.Entry<String, int[]> removed : removedByStore.entrySet()) {
+                NamFlightRecorder.localState(removed.getKey(), NAMConstants.LOCAL_STATE_EVICTION,
+                        removed.getValue()[0]);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Removed %s expired entries from %s.", removed.getValue()[0],
+                            removed.getKey()));
+                }
+            }
+        }
+        return expired;
+    }
+
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = SLOT_BITS * (level - 1);
+            if (((currentTick >>> shift) & (SLOTS - 1)) != 0) {
+                return;
+            }
+            int index = (int) ((currentTick >>> (shift + SLOT_BITS)) & (SLOTS - 1));
+            Timer timer = drain(slots[level][index]);
+            while (timer != null) {
+                Timer next = timer.next;
+                place(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * This method detaches the timers of a slot. The detached timers are chained through {@link Timer#next} and
+     * their {@link Timer#prev} is cleared.
+     */
+    private Timer drain(Timer head) {
+        Timer first = head.next == head ? null : head.next;
+        if (first != null) {
+            head.prev.next = null;
+            for (Timer timer = first; timer != null; timer = timer.next) {
+                timer.prev = null;
+            }
+        }
+        head.next = head;
+        head.prev = head;
+        return first;
+    }
+
+    private void place(Timer timer) {
+        long delayTicks = Math.min(timer.deadlineTick - currentTick, MAX_DELAY_TICKS);
+        long tick = currentTick + Math.max(delayTicks, 0);
+        int level = 0;
+        while (level < LEVELS - 1 && delayTicks >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        Timer head = slots[level][(int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1))];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revocation source which follows a file that revocation events are appended to, one event per line. The file is
+ * read from its end when the source starts, and from the beginning again if it is truncated or replaced.
+ */
+class FileTailRevocationSource implements RevocationSource {
+    private static final Log log = LogFactory.getLog(FileTailRevocationSource.class);
+
+    private File file;
+    private RevocationListener listener;
+    private long position;
+    private final StringBuilder pending = new StringBuilder();
+    private ScheduledFuture<?> poller;
+
+    @Override
+    public synchronized void start(KeyManagerConfiguration configuration, RevocationListener listener)
+            throws APIManagementException {
+        String path = configuration.getParameter(NAMConstants.CONFIG_REVOCATION_FILE);
+        if (StringUtils.isEmpty(path)) {
+            String msg = String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING,
+                    NAMConstants.CONFIG_REVOCATION_FILE);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        long interval = NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_REVOCATION_FILE_POLL_INTERVAL, NAMConstants.DEFAULT_REVOCATION_FILE_POLL_INTERVAL);
+        this.file = new File(path);
+        this.listener = listener;
+        this.position = file.length();
+        this.poller = NamExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+        }
+        listener = null;
+    }
+
+    private synchronized void poll() {
+        if (listener == null || !file.exists()) {
+            return;
+        }
+        long length = file.length();
+        if (length < position) {
+            position = 0;
+            pending.setLength(0);
+        }
+        if (length == position) {
+            return;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            input.seek(position);
+            byte[] buffer = new byte[(int) Math.min(length - position, 64 * 1024)];
+            input.readFully(buffer);
+            position += buffer.length;
+            pending.append(new String(buffer, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Could not read revocation events from " + file, e);
+            return;
+        }
+        int end;
+        while ((end = pending.indexOf("\n")) >= 0) {
+            String line = pending.substring(0, end);
+            pending.delete(0, end + 1);
+            try {
+                RevocationEvent event = RevocationEvent.parse(line);
+                if (event != null) {
+                    listener.onRevocation(event);
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn(String.format("Ignored an invalid revocation event in %s. %s", file, e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Estimates the most frequent keys of a stream over a sliding window, in memory which does not grow with the number
+ * of distinct keys.
+ * <p>
+ * Occurrences are counted in a count-min sketch of {@value NAMConstants#HEAVY_HITTER_SKETCH_DEPTH} rows of
+ * {@value NAMConstants#HEAVY_HITTER_SKETCH_WIDTH} counters. The window is divided into
+ * {@value NAMConstants#HEAVY_HITTER_WINDOW_SLICES} slices with a sketch each, and a sketch of the whole window is
+ * kept as their sum, so that the oldest slice can be subtracted when the window moves on. An estimate is never lower
+ * than the true count, and exceeds it by more than 2.7 / {@value NAMConstants#HEAVY_HITTER_SKETCH_WIDTH} of all
+ * occurrences in the window with a probability of at most 2%. The keys with the highest estimates are kept in a
+ * min-heap of bounded size.
+ */
+final class HeavyHitterSketch {
+    private static final int DEPTH = NAMConstants.HEAVY_HITTER_SKETCH_DEPTH;
+    private static final int WIDTH = NAMConstants.HEAVY_HITTER_SKETCH_WIDTH;
+    private static final int SLICES = NAMConstants.HEAVY_HITTER_WINDOW_SLICES;
+    private static final Comparator<Candidate> BY_COUNT = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return Long.compare(a.count, b.count);
+        }
+    };
+
+    private final int capacity;
+    private final long sliceNanos;
+    private final int[][] slices = new int[SLICES][DEPTH * WIDTH];
+    private final long[] sliceTotals = new long[SLICES];
+    private final long[] window = new long[DEPTH * WIDTH];
+    private long windowTotal;
+    private int currentSlice;
+    private long sliceEnd;
+    private final Map<Object, Candidate> candidates = new HashMap<>();
+    private final PriorityQueue<Candidate> heap;
+
+    /**
+     * A key with its estimated count.
+     */
+    static final class Candidate {
+        final Object key;
+        final long hash;
+        long count;
+
+        Candidate(Object key, long hash, long count) {
+            this.key = key;
+            this.hash = hash;
+            this.count = count;
+        }
+    }
+
+    /**
+     * @param capacity number of keys with the highest estimates to keep track of
+     * @param windowMillis length of the sliding window in milliseconds
+     */
+    HeavyHitterSketch(int capacity, long windowMillis) {
+        this.capacity = capacity;
+        sliceNanos = Math.max(1, windowMillis * 1000000 / SLICES);
+        sliceEnd = System.nanoTime() + sliceNanos;
+        heap = new PriorityQueue<>(capacity + 1, BY_COUNT);
+    }
+
+    /**
+     * This method counts an occurrence of a key.
+     *
+     * @param key the key, which has to implement equals and hashCode
+     * @param hash 64 bit hash of the key, e.g. from {@link #hash(String)}
+     */
+    synchronized void add(Object key, long hash) {
+        advance(System.nanoTime());
+        int[] slice = slices[currentSlice];
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(row, hash);
+            slice[index]++;
+            estimate = Math.min(estimate, ++window[index]);
+        }
+        sliceTotals[currentSlice]++;
+        windowTotal++;
+
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            heap.remove(candidate);
+            candidate.count = estimate;
+            heap.add(candidate);
+        } else if (candidates.size() < capacity) {
+            track(new Candidate(key, hash, estimate));
+        } else if (estimate > heap.peek().count) {
+            candidates.remove(heap.poll().key);
+            track(new Candidate(key, hash, estimate));
+        }
+    }
+
+    /**
+     * @return keys with the highest estimated counts in the current window, highest first
+     */
+    synchronized List<Candidate> top() {
+        advance(System.nanoTime());
+        List<Candidate> top = new ArrayList<>(heap.size());
+        for (Candidate candidate : heap) {
+            top.add(new Candidate(candidate.key, candidate.hash, candidate.count));
+        }
+        Collections.sort(top, Collections.reverseOrder(BY_COUNT));
+        return top;
+    }
+
+    /**
+     * @return number of occurrences of all keys in the current window
+     */
+    synchronized long total() {
+        advance(System.nanoTime());
+        return windowTotal;
+    }
+
+    /**
+     * @param value a string
+     * @return 64 bit hash of the string
+     */
+    static long hash(String value) {
+        // FNV-1a, followed by the finalizer of MurmurHash3 to spread the bits of similar strings.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private void track(Candidate candidate) {
+        candidates.put(candidate.key, candidate);
+        heap.add(candidate);
+    }
+
+    /**
+     * This method moves the window on to the given time, dropping the slices which have fallen out of it.
+     */
+    private void advance(long now) {
+        if (now - sliceEnd < 0) {
+            return;
+        }
+        int expired = 0;
+        while (now - sliceEnd >= 0 && expired < SLICES) {
+            currentSlice = (currentSlice + 1) % SLICES;
+            int[] slice = slices[currentSlice];
+            for (int i = 0; i < slice.length; i++) {
+                window[i] -= slice[i];
+                slice[i] = 0;
+            }
+            windowTotal -= sliceTotals[currentSlice];
+            sliceTotals[currentSlice] = 0;
+            sliceEnd += sliceNanos;
+            expired++;
+        }
+        if (now - sliceEnd >= 0) {
+            // The whole window has expired, hence the slices restart from now.
+            sliceEnd = now + sliceNanos;
+        }
+        heap.clear();
+        for (Iterator<Candidate> i = candidates.values().iterator(); i.hasNext(); ) {
+            Candidate candidate = i.next();
+            candidate.count = estimate(candidate.hash);
+            if (candidate.count == 0) {
+                i.remove();
+            } else {
+                heap.add(candidate);
+            }
+        }
+    }
+
+    private long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, window[indexOf(row, hash)]);
+        }
+        return estimate;
+    }
+
+    private static int indexOf(int row, long hash) {
+        // The rows are indexed with double hashing, which is as good as independent hash functions for the sketch.
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * WIDTH + ((h1 + row * h2) & (WIDTH - 1));
+    }
+}
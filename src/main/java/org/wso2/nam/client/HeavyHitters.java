@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import java.util.List;
+import java.util.Locale;
+import javax.management.ObjectName;
+
+/**
+ * Tracks which callers drive the calls to NetIQ, to tell an application which mints a token per request or a flood
+ * of a single token apart from a general rise of the load. The calls which reach NetIQ are counted over a sliding
+ * window by consumer key and token for tokenInfo calls, and by client id for token requests, in a
+ * {@link HeavyHitterSketch} each, so that the memory used does not depend on the number of distinct callers.
+ * <p>
+ * Tokens are identified by their fingerprint and reported by a prefix of it only. A burst of distinct tokens of the
+ * same application shows as a heavy consumer key, or a heavy client id if the tokens are issued through the key
+ * manager, without a heavy token.
+ */
+class HeavyHitters implements HeavyHittersMXBean {
+    static final String OBJECT_NAME_PREFIX = "org.wso2.nam.client:type=NamHeavyHitters,name=";
+
+    private volatile int topK;
+    private volatile long window;
+    private volatile HeavyHitterSketch consumerKeys;
+    private volatile HeavyHitterSketch clientIds;
+    private volatile HeavyHitterSketch tokens;
+    private ObjectName objectName;
+
+    /**
+     * This method starts tracking with the configured window and number of callers. The counts are reset if either
+     * of them changed.
+     *
+     * @param settings active configuration
+     */
+    synchronized void configure(NamConfigurationSnapshot settings) {
+        if (settings.heavyHitterTopK == topK && settings.heavyHitterWindow == window) {
+            return;
+        }
+        topK = settings.heavyHitterTopK;
+        window = settings.heavyHitterWindow;
+        if (topK == 0) {
+            consumerKeys = null;
+            clientIds = null;
+            tokens = null;
+        } else {
+            consumerKeys = new HeavyHitterSketch(topK, window);
+            clientIds = new HeavyHitterSketch(topK, window);
+            tokens = new HeavyHitterSketch(topK, window);
+        }
+    }
+
+    /**
+     * This method counts a tokenInfo call to NetIQ for a token.
+     *
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token, null if it has not been computed
+     */
+    void tokenValidated(String accessToken, TokenFingerprint fingerprint) {
+        HeavyHitterSketch sketch = tokens;
+        if (sketch != null) {
+            TokenFingerprint key = fingerprint != null ? fingerprint : TokenFingerprint.of(accessToken);
+            sketch.add(key, key.high());
+        }
+    }
+
+    /**
+     * This method counts a tokenInfo call to NetIQ which returned the given consumer key.
+     *
+     * @param consumerKey the consumer key, i.e. audience, of the token, may be null
+     */
+    void consumerKeyValidated(String consumerKey) {
+        HeavyHitterSketch sketch = consumerKeys;
+        if (sketch != null && consumerKey != null) {
+            sketch.add(consumerKey, HeavyHitterSketch.hash(consumerKey));
+        }
+    }
+
+    /**
+     * This method counts a token request to NetIQ of the given client.
+     *
+     * @param clientId the client id
+     */
+    void tokenRequested(String clientId) {
+        HeavyHitterSketch sketch = clientIds;
+        if (sketch != null && clientId != null) {
+            sketch.add(clientId, HeavyHitterSketch.hash(clientId));
+        }
+    }
+
+    @Override
+    public long getWindowSeconds() {
+        return window / 1000;
+    }
+
+    @Override
+    public int getTopK() {
+        return topK;
+    }
+
+    @Override
+    public long getConsumerKeyCalls() {
+        return total(consumerKeys);
+    }
+
+    @Override
+    public String[] getTopConsumerKeys() {
+        return top(consumerKeys);
+    }
+
+    @Override
+    public long getClientIdCalls() {
+        return total(clientIds);
+    }
+
+    @Override
+    public String[] getTopClientIds() {
+        return top(clientIds);
+    }
+
+    @Override
+    public long getTokenCalls() {
+        return total(tokens);
+    }
+
+    @Override
+    public String[] getTopTokens() {
+        return top(tokens);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format("Heavy hitters of the calls to NetIQ in the last %d s%n", getWindowSeconds()));
+        appendDimension(dump, "Consumer keys", consumerKeys);
+        appendDimension(dump, "Client ids", clientIds);
+        appendDimension(dump, "Tokens", tokens);
+        return dump.toString();
+    }
+
+    private static void appendDimension(StringBuilder dump, String title, HeavyHitterSketch sketch) {
+        dump.append(String.format("%s (%d calls):%n", title, total(sketch)));
+        for (String entry : top(sketch)) {
+            dump.append("  ").append(entry).append(String.format("%n"));
+        }
+    }
+
+    private static long total(HeavyHitterSketch sketch) {
+        return sketch == null ? 0 : sketch.total();
+    }
+
+    private static String[] top(HeavyHitterSketch sketch) {
+        if (sketch == null) {
+            return new String[0];
+        }
+        long total = sketch.total();
+        List<HeavyHitterSketch.Candidate> top = sketch.top();
+        String[] entries = new String[top.size()];
+        for (int i = 0; i < entries.length; i++) {
+            HeavyHitterSketch.Candidate candidate = top.get(i);
+            String key = candidate.key instanceof TokenFingerprint
+                    ? ((TokenFingerprint) candidate.key).redacted() : candidate.key.toString();
+            // An estimate may exceed the total of a window which has just moved on, hence the share is capped.
+            double share = total == 0 ? 0 : Math.min(1, (double) candidate.count / total);
+            entries[i] = String.format(Locale.ROOT, "%s %d (%.1f%%)", key, candidate.count, share * 100);
+        }
+        return entries;
+    }
+
+    /**
+     * This method registers the heavy hitters in the platform MBean server, see {@link NamMBeans}.
+     *
+     * @param name name which identifies the key manager instance, usually the client id of the NetIQ admin client
+     */
+    synchronized void register(String name) {
+        unregister();
+        objectName = NamMBeans.register(this, OBJECT_NAME_PREFIX + ObjectName.quote(name),
+                "heavy hitters of " + name);
+    }
+
+    /**
+     * This method removes the heavy hitters from the platform MBean server, if they were registered.
+     */
+    synchronized void unregister() {
+        NamMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
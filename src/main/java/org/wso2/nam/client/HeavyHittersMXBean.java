@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+/**
+ * JMX view of the callers which drive the most calls to NetIQ.
+ */
+public interface HeavyHittersMXBean {
+
+    /**
+     * @return length of the sliding window the calls are counted in, in seconds
+     */
+    long getWindowSeconds();
+
+    /**
+     * @return number of callers tracked per kind, 0 if tracking is disabled
+     */
+    int getTopK();
+
+    /**
+     * @return number of tokenInfo calls to NetIQ in the window which returned a consumer key
+     */
+    long getConsumerKeyCalls();
+
+    /**
+     * @return consumer keys with the most tokenInfo calls to NetIQ in the window, most frequent first, each with its
+     * estimated number of calls and its share of all calls
+     */
+    String[] getTopConsumerKeys();
+
+    /**
+     * @return number of token requests to NetIQ in the window
+     */
+    long getClientIdCalls();
+
+    /**
+     * @return client ids with the most token requests to NetIQ in the window, most frequent first, each with its
+     * estimated number of calls and its share of all calls
+     */
+    String[] getTopClientIds();
+
+    /**
+     * @return number of tokenInfo calls to NetIQ in the window
+     */
+    long getTokenCalls();
+
+    /**
+     * @return tokens with the most tokenInfo calls to NetIQ in the window, identified by a prefix of their
+     * fingerprint only, most frequent first, each with its estimated number of calls and its share of all calls
+     */
+    String[] getTopTokens();
+
+    /**
+     * @return a plain text report of the top callers of every kind
+     */
+    String dump();
+}
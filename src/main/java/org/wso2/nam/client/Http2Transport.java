@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport on the HTTP client of the JDK, which multiplexes the concurrent requests to the host over a single
+ * HTTP/2 connection. Plain http endpoints are upgraded to HTTP/2 (h2c) with the first request, and https endpoints
+ * negotiate HTTP/2 with ALPN. Requests fall back to HTTP/1.1 if the host does not support HTTP/2.
+ * <p>
+ * The transport needs Java 11 or later, hence it is only loaded once {@link #isAvailable()} has confirmed that the
+ * JDK provides the HTTP client. The JDK client applies a single timeout to each request, which only covers opening
+ * the connection and waiting for the response headers, hence the body is read in full before the response is handed
+ * over, under the same timeout. The timeout is taken from the socket timeout of the request. Redirects are followed
+ * like the HttpClient 4 transport does, and the callbacks of asynchronous requests run on the threads of the transport
+ * rather than on the selector thread of the client.
+ */
+class Http2Transport implements NamTransport {
+    private static final Log log = LogFactory.getLog(Http2Transport.class);
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+    /**
+     * Headers which are set by the JDK client itself and may not be set on a request.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList("connection",
+            "content-length", "date", "expect", "from", "host", "upgrade", "via", "warning", "keep-alive",
+            "transfer-encoding", "te"));
+
+    private ExecutorService executor;
+    private volatile HttpClient httpClient;
+    private int connectTimeout;
+
+    /**
+     * @return true if the JDK provides the HTTP client the transport is built on
+     */
+    static boolean isAvailable() {
+        try {
+            Class.forName("java.net.http.HttpClient", false, Http2Transport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void init(String host) {
+        executor = Executors.newCachedThreadPool(NamExecutors.daemonThreadFactory("nam-keymanager-http2"));
+        connectTimeout = (int) NAMConstants.DEFAULT_CONNECT_TIMEOUT;
+        httpClient = newHttpClient(connectTimeout);
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpRequestBase request) throws IOException {
+        long timeoutMillis = timeoutOf(request);
+        CompletableFuture<HttpResponse<byte[]>> response = httpClient.sendAsync(toHttp2Request(request,
+                timeoutMillis), HttpResponse.BodyHandlers.ofByteArray());
+        try {
+            return toResponse(timeoutMillis > 0 ? response.get(timeoutMillis, TimeUnit.MILLISECONDS)
+                    : response.get());
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response of " + request.getURI());
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            throw bodyTimeout(request, timeoutMillis);
+        } catch (ExecutionException e) {
+            throw toIOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void execute(final HttpRequestBase request, final FutureCallback<CloseableHttpResponse> callback) {
+        final long timeoutMillis = timeoutOf(request);
+        HttpRequest http2Request;
+        try {
+            http2Request = toHttp2Request(request, timeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            callback.failed(e);
+            return;
+        }
+        CompletableFuture<HttpResponse<byte[]>> response = httpClient.sendAsync(http2Request,
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (timeoutMillis > 0) {
+            response = response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        final CompletableFuture<HttpResponse<byte[]>> exchange = response;
+        exchange.whenCompleteAsync(new BiConsumer<HttpResponse<byte[]>, Throwable>() {
+            @Override
+            public void accept(HttpResponse<byte[]> result, Throwable failure) {
+                if (failure == null) {
+                    callback.completed(toResponse(result));
+                    return;
+                }
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                if (cause instanceof TimeoutException) {
+                    exchange.cancel(true);
+                    callback.failed(bodyTimeout(request, timeoutMillis));
+                    return;
+                }
+                callback.failed(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+            }
+        }, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The requests are multiplexed over a single connection, hence the limits are ignored.
+     */
+    @Override
+    public void setLimits(int maxConnections, int maxConnectionsPerRoute) {
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The JDK client applies one connect timeout to all of its connections, hence the client is replaced when the
+     * timeout changes. Requests which are in flight complete on the previous client, whose connection is closed once
+     * it is no longer referenced.
+     */
+    @Override
+    public synchronized void setConnectTimeout(int connectTimeoutMillis) {
+        if (connectTimeoutMillis != connectTimeout) {
+            connectTimeout = connectTimeoutMillis;
+            httpClient = newHttpClient(connectTimeoutMillis);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The single connection to the host is opened with a HEAD request to the endpoint, which also completes the
+     * upgrade to HTTP/2 for plain http endpoints.
+     */
+    @Override
+    public int preOpen(String endpoint, int count, int timeoutMillis) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint)).timeout(Duration.ofMillis(timeoutMillis))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Opened a %s connection to %s.", response.version(), endpoint));
+            }
+            return 1;
+        } catch (IOException e) {
+            log.warn(String.format("Could not open a connection to %s in advance.", endpoint), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The JDK client closes its connection once it is no longer referenced, hence only the threads of the transport
+     * are stopped here.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private HttpClient newHttpClient(int connectTimeoutMillis) {
+        HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL).executor(executor);
+        if (connectTimeoutMillis > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method works out the timeout of a request. The JDK client has no connect timeout per request, hence the
+     * time left until the deadline of the current operation, see {@link NamDeadline}, limits the whole exchange,
+     * including the connect and the response body.
+     *
+     * @param request the request
+     * @return timeout of the request in milliseconds, 0 for none
+     */
+    private static long timeoutOf(HttpRequestBase request) {
+        RequestConfig config = request.getConfig();
+        long timeoutMillis = config != null && config.getSocketTimeout() > 0 ? config.getSocketTimeout() : 0;
+        long remainingMillis = NamDeadline.remainingMillis();
+        if (remainingMillis != Long.MAX_VALUE) {
+            timeoutMillis = timeoutMillis > 0 ? Math.min(timeoutMillis, remainingMillis) : remainingMillis;
+        }
+        return timeoutMillis;
+    }
+
+    /**
+     * This method converts a request to one of the JDK client.
+     *
+     * @param request the request
+     * @param timeoutMillis timeout of the request, see {@link #timeoutOf(HttpRequestBase)}
+     * @return request of the JDK client
+     * @throws IOException if the body of the request could not be read
+     */
+    private static HttpRequest toHttp2Request(HttpRequestBase request, long timeoutMillis) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+        if (timeoutMillis > 0) {
+            builder.timeout(Duration.ofMillis(timeoutMillis));
+        }
+        boolean contentTypeSet = false;
+        for (Header header : request.getAllHeaders()) {
+            String name = header.getName().toLowerCase(Locale.ENGLISH);
+            if (!RESTRICTED_HEADERS.contains(name)) {
+                builder.header(header.getName(), header.getValue());
+                contentTypeSet |= "content-type".equals(name);
+            }
+        }
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                body = HttpRequest.BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity));
+                if (!contentTypeSet && entity.getContentType() != null) {
+                    builder.header(entity.getContentType().getName(), entity.getContentType().getValue());
+                }
+            }
+        }
+        return builder.method(request.getMethod(), body).build();
+    }
+
+    /**
+     * @return the failure of a request whose response, or its body, did not arrive within the timeout. Like a socket
+     * timeout of the HttpClient 4 transport, it is counted as a deadline overrun if the deadline has passed.
+     */
+    private static SocketTimeoutException bodyTimeout(HttpRequestBase request, long timeoutMillis) {
+        return new SocketTimeoutException(String.format("The response of %s %s was not read within %s ms.",
+                request.getMethod(), request.getURI().getPath(), timeoutMillis));
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static CloseableHttpResponse toResponse(HttpResponse<byte[]> response) {
+        ProtocolVersion version = response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1;
+        Http2Response result = new Http2Response(new BasicStatusLine(version, response.statusCode(),
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(response.statusCode(), Locale.ENGLISH)));
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (header.getKey().startsWith(":")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                result.addHeader(header.getKey(), value);
+            }
+        }
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(response.body()));
+        entity.setContentLength(response.body().length);
+        entity.setContentType(result.getFirstHeader("content-type"));
+        entity.setContentEncoding(result.getFirstHeader("content-encoding"));
+        result.setEntity(entity);
+        return result;
+    }
+
+    /**
+     * Response of the JDK client in the form of the Apache HttpClient, whose entity holds the response body.
+     */
+    private static final class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private Http2Response(BasicStatusLine statusLine) {
+            super(statusLine);
+        }
+
+        @Override
+        public void close() throws IOException {
+            HttpEntity entity = getEntity();
+            if (entity != null) {
+                entity.getContent().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport on the blocking Apache HttpClient 4, which sends one request at a time over each of a pool of persistent
+ * HTTP/1.1 connections. Asynchronous requests are sent on the {@link NamExecutors#transport() transport executor}.
+ * This is the default transport.
+ */
+class HttpClient4Transport implements NamTransport {
+    private static final Log log = LogFactory.getLog(HttpClient4Transport.class);
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+    private static final long IDLE_CONNECTION_TIME_TO_LIVE = 60;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+
+    @Override
+    public void init(String host) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal((int) NAMConstants.DEFAULT_MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute((int) NAMConstants.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+        httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpRequestBase request) throws IOException {
+        return httpClient.execute(request);
+    }
+
+    @Override
+    public void execute(final HttpRequestBase request, final FutureCallback<CloseableHttpResponse> callback) {
+        try {
+            NamExecutors.transport().execute(new Runnable() {
+                @Override
+                public void run() {
+                    CloseableHttpResponse response;
+                    try {
+                        response = httpClient.execute(request);
+                    } catch (IOException | RuntimeException e) {
+                        callback.failed(e);
+                        return;
+                    }
+                    callback.completed(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callback.failed(e);
+        }
+    }
+
+    @Override
+    public void setLimits(int maxConnections, int maxConnectionsPerRoute) {
+        if (connectionManager.getMaxTotal() != maxConnections) {
+            connectionManager.setMaxTotal(maxConnections);
+        }
+        if (connectionManager.getDefaultMaxPerRoute() != maxConnectionsPerRoute) {
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The connections are left idle in the pool.
+     */
+    @Override
+    public int preOpen(String endpoint, int count, int timeoutMillis) {
+        HttpRoute route = toRoute(URI.create(endpoint));
+        HttpContext context = new BasicHttpContext();
+        List<HttpClientConnection> connections = new ArrayList<>(count);
+        int opened = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                ConnectionRequest request = connectionManager.requestConnection(route, null);
+                HttpClientConnection connection = request.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    connectionManager.connect(connection, route, timeoutMillis, context);
+                    connectionManager.routeComplete(connection, route, context);
+                    opened++;
+                }
+            }
+        } catch (IOException | ExecutionException e) {
+            log.warn(String.format("Could not open connections to %s in advance.", route.getTargetHost()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (HttpClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, null, IDLE_CONNECTION_TIME_TO_LIVE, TimeUnit.SECONDS);
+            }
+        }
+        return opened;
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Error occurred while closing the NetIQ connection pool.", e);
+        }
+    }
+
+    private static HttpRoute toRoute(URI uri) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+    }
+}
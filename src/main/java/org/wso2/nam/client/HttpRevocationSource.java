@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revocation source which receives revocation events as webhook calls on the loopback interface. Events are sent as
+ * the body of a {@code POST /revocations} request, one event per line. Requests have to carry the shared secret
+ * configured with {@value NAMConstants#CONFIG_REVOCATION_HTTP_SECRET} as a bearer token, since any local process can
+ * connect to the port.
+ * <p>
+ * Connections are handled by a few worker threads rather than by the accepting thread, and each has to deliver its
+ * request within a fixed time, so that a slow or stalled client does not hold up the delivery of other events.
+ */
+class HttpRevocationSource implements RevocationSource {
+    private static final Log log = LogFactory.getLog(HttpRevocationSource.class);
+    private static final String PATH = "/revocations";
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADER_SIZE = 32 * 1024;
+    private static final int REQUEST_TIMEOUT = 5000;
+
+    private volatile ServerSocket serverSocket;
+    private volatile RevocationListener listener;
+    private volatile byte[] secret;
+    private ThreadPoolExecutor workers;
+
+    @Override
+    public synchronized void start(KeyManagerConfiguration configuration, RevocationListener listener)
+            throws APIManagementException {
+        int port = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_REVOCATION_HTTP_PORT,
+                NAMConstants.DEFAULT_REVOCATION_HTTP_PORT);
+        String configuredSecret = configuration.getParameter(NAMConstants.CONFIG_REVOCATION_HTTP_SECRET);
+        if (configuredSecret == null || configuredSecret.trim().isEmpty()) {
+            String msg = String.format("Revocation events can not be received over http without a shared secret. " +
+                    "Set %s to the bearer token the revocation webhook sends.",
+                    NAMConstants.CONFIG_REVOCATION_HTTP_SECRET);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        secret = configuredSecret.trim().getBytes(StandardCharsets.UTF_8);
+        this.listener = listener;
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            String msg = String.format("Could not listen for revocation events on port %s.", port);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+        workers = new ThreadPoolExecutor(NAMConstants.REVOCATION_HTTP_THREADS, NAMConstants.REVOCATION_HTTP_THREADS,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(NAMConstants.REVOCATION_HTTP_QUEUE_SIZE),
+                NamExecutors.daemonThreadFactory("nam-revocation-http-worker"));
+        workers.allowCoreThreadTimeOut(true);
+        Thread acceptor = NamExecutors.daemonThreadFactory("nam-revocation-http").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverSocket);
+            }
+        });
+        acceptor.start();
+        log.info(String.format("Listening for revocation events on http://%s:%s%s",
+                serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), PATH));
+    }
+
+    @Override
+    public synchronized void stop() {
+        listener = null;
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.warn("Could not close the revocation event listener.", e);
+            }
+            serverSocket = null;
+        }
+    }
+
+    private void accept(ServerSocket server) {
+        ThreadPoolExecutor executor = workers;
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    log.warn("Error occurred while accepting a revocation event connection.", e);
+                }
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Rejected a revocation event connection since all workers are busy.");
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            handle(new TimedInputStream(socket, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT)),
+                    socket.getOutputStream());
+        } catch (SocketException e) {
+            if (serverSocket != null) {
+                log.warn("Error occurred while receiving a revocation event.", e);
+            }
+        } catch (IOException e) {
+            log.warn("Error occurred while receiving a revocation event.", e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void handle(InputStream input, OutputStream output) throws IOException {
+        int[] headerSize = new int[1];
+        String requestLine = readLine(input, headerSize);
+        if (requestLine == null) {
+            return;
+        }
+        String[] parts = requestLine.split(" ");
+        int contentLength = 0;
+        String authorization = null;
+        String header;
+        while ((header = readLine(input, headerSize)) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            if ("content-length".equals(name)) {
+                try {
+                    contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    respond(output, "400 Bad Request");
+                    return;
+                }
+            } else if ("authorization".equals(name)) {
+                authorization = header.substring(colon + 1).trim();
+            }
+        }
+        if (!isAuthorized(authorization)) {
+            respond(output, "401 Unauthorized");
+            return;
+        }
+        if (parts.length < 2 || !PATH.equals(parts[1])) {
+            respond(output, "404 Not Found");
+            return;
+        }
+        if (!"POST".equals(parts[0])) {
+            respond(output, "405 Method Not Allowed");
+            return;
+        }
+        if (contentLength < 0 || contentLength > MAX_BODY_SIZE) {
+            respond(output, "413 Payload Too Large");
+            return;
+        }
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int count = input.read(body, read, contentLength - read);
+            if (count < 0) {
+                respond(output, "400 Bad Request");
+                return;
+            }
+            read += count;
+        }
+        RevocationEvent[] events;
+        try {
+            String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+            events = new RevocationEvent[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                events[i] = RevocationEvent.parse(lines[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            respond(output, "400 Bad Request");
+            return;
+        }
+        RevocationListener current = listener;
+        if (current != null) {
+            for (RevocationEvent event : events) {
+                if (event != null) {
+                    current.onRevocation(event);
+                }
+            }
+        }
+        respond(output, "202 Accepted");
+    }
+
+    /**
+     * This method compares the bearer token of a request with the shared secret in constant time.
+     */
+    private boolean isAuthorized(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, NAMConstants.BEARER, 0,
+                NAMConstants.BEARER.length())) {
+            return false;
+        }
+        byte[] token = authorization.substring(NAMConstants.BEARER.length()).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, secret);
+    }
+
+    /**
+     * @param headerSize bytes of the request head read so far, which is updated and limited
+     */
+    private static String readLine(InputStream input, int[] headerSize) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+            if (line.size() > MAX_LINE_LENGTH || ++headerSize[0] > MAX_HEADER_SIZE) {
+                throw new IOException("Head of the revocation request is too long.");
+            }
+        }
+        return b < 0 && line.size() == 0 ? null : new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Could not close a revocation event connection.", e);
+        }
+    }
+
+    private static void respond(OutputStream output, String status) throws IOException {
+        output.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        output.flush();
+    }
+
+    /**
+     * Input stream of a connection which fails once the deadline of the request has passed, however slowly the
+     * client sends its bytes.
+     */
+    private static final class TimedInputStream extends InputStream {
+        private final Socket socket;
+        private final InputStream input;
+        private final long deadlineNanos;
+
+        private TimedInputStream(Socket socket, long deadlineNanos) throws IOException {
+            this.socket = socket;
+            this.input = socket.getInputStream();
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitDeadline();
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            awaitDeadline();
+            return input.read(buffer, offset, length);
+        }
+
+        private void awaitDeadline() throws IOException {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Revocation request was not received in time.");
+            }
+            socket.setSoTimeout((int) remaining);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+/**
+ * Revocation source which delivers the events published through {@link #publish(RevocationEvent)} on the calling
+ * thread. This is meant for tests and for embedding the key manager in code that already receives revocations.
+ */
+public class InMemoryRevocationSource implements RevocationSource {
+    private volatile RevocationListener listener;
+
+    @Override
+    public void start(KeyManagerConfiguration configuration, RevocationListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+    }
+
+    /**
+     * @param event revocation event to deliver
+     * @return true if the event was delivered, false if the source is not started
+     */
+    public boolean publish(RevocationEvent event) {
+        RevocationListener current = listener;
+        if (current == null) {
+            return false;
+        }
+        current.onRevocation(event);
+        return true;
+    }
+}
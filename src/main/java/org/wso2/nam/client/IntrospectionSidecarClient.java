@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client of the {@link IntrospectionSidecarServer} of another process on the host. A connection is only used once the
+ * process listening on the port has proven to hold the shared key of the sidecar, so that a process which binds the
+ * port before the sidecar can neither collect the tokens nor answer with forged results. Connections are kept open and
+ * reused. When the sidecar can not be reached, can not be authenticated, or validates tokens against a different
+ * endpoint, the client backs off for a while and lets the key manager validate tokens against NetIQ directly.
+ */
+class IntrospectionSidecarClient implements Closeable {
+    private static final Log log = LogFactory.getLog(IntrospectionSidecarClient.class);
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(5);
+
+    private final int port;
+    private final int timeout;
+    private final String tokenInfoEndpoint;
+    private final byte[] key;
+    private final ConcurrentLinkedDeque<Connection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleConnectionCount = new AtomicInteger();
+    private volatile long unavailableUntil;
+    private volatile boolean closed;
+
+    /**
+     * @param port port the sidecar listens on
+     * @param timeout connect and read timeout in milliseconds
+     * @param tokenInfoEndpoint token info endpoint the sidecar has to validate tokens against
+     * @param key key which the sidecar and its clients authenticate each other with
+     */
+    IntrospectionSidecarClient(int port, int timeout, String tokenInfoEndpoint, byte[] key) {
+        this.port = port;
+        this.timeout = timeout;
+        this.tokenInfoEndpoint = tokenInfoEndpoint;
+        this.key = key;
+        unavailableUntil = System.nanoTime();
+    }
+
+    /**
+     * This method validates an access token with the sidecar.
+     *
+     * @param accessToken the access token
+     * @return the validation result, null if the token has to be validated against NetIQ directly
+     */
+    AccessTokenInfo introspect(String accessToken) {
+        if (closed || System.nanoTime() - unavailableUntil < 0
+                || !IntrospectionSidecarProtocol.isWritable(accessToken)) {
+            return null;
+        }
+        Connection connection = idleConnections.pollFirst();
+        if (connection != null) {
+            idleConnectionCount.decrementAndGet();
+            try {
+                return introspect(connection, accessToken);
+            } catch (IOException e) {
+                // The sidecar may have closed the idle connection, hence retry once with a new connection.
+                connection.close();
+                if (log.isDebugEnabled()) {
+                    log.debug("Introspection sidecar connection failed. Hence retrying with a new connection.", e);
+                }
+            }
+        }
+        try {
+            connection = connect();
+        } catch (IOException e) {
+            markUnavailable("Could not connect to the introspection sidecar on port " + port + ".", e);
+            return null;
+        }
+        if (connection == null) {
+            return null;
+        }
+        try {
+            return introspect(connection, accessToken);
+        } catch (IOException e) {
+            connection.close();
+            markUnavailable("Error occurred while validating a token with the introspection sidecar.", e);
+            return null;
+        }
+    }
+
+    /**
+     * This method closes the connections to the sidecar. Tokens are no longer validated with the sidecar afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            idleConnectionCount.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    private AccessTokenInfo introspect(Connection connection, String accessToken) throws IOException {
+        connection.output.writeByte(IntrospectionSidecarProtocol.OP_INTROSPECT);
+        connection.output.writeUTF(accessToken);
+        connection.output.flush();
+        byte status = connection.input.readByte();
+        if (status != IntrospectionSidecarProtocol.STATUS_RESULT) {
+            if (status == IntrospectionSidecarProtocol.STATUS_UNAVAILABLE
+                    || status == IntrospectionSidecarProtocol.STATUS_ERROR) {
+                release(connection);
+            } else {
+                connection.close();
+            }
+            return null;
+        }
+        AccessTokenInfo tokenInfo = IntrospectionSidecarProtocol.readTokenInfo(connection.input);
+        release(connection);
+        return tokenInfo;
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeout);
+            Connection connection = new Connection(socket);
+            byte[] clientNonce = IntrospectionSidecarProtocol.newNonce();
+            connection.output.writeInt(IntrospectionSidecarProtocol.MAGIC);
+            connection.output.writeByte(IntrospectionSidecarProtocol.VERSION);
+            connection.output.write(clientNonce);
+            connection.output.writeUTF(tokenInfoEndpoint);
+            connection.output.flush();
+            byte status = connection.input.readByte();
+            if (status != IntrospectionSidecarProtocol.STATUS_CHALLENGE) {
+                return rejected(connection, status);
+            }
+            byte[] serverNonce = new byte[IntrospectionSidecarProtocol.NONCE_LENGTH];
+            connection.input.readFully(serverNonce);
+            byte[] serverProof = new byte[IntrospectionSidecarProtocol.PROOF_LENGTH];
+            connection.input.readFully(serverProof);
+            if (!IntrospectionSidecarProtocol.verify(key, serverProof, IntrospectionSidecarProtocol.ROLE_SERVER,
+                    clientNonce, serverNonce, tokenInfoEndpoint)) {
+                connection.close();
+                markUnavailable(String.format("Process listening on port %s does not hold the key of the " +
+                        "introspection sidecar. Hence validating tokens against NetIQ directly.", port), null);
+                return null;
+            }
+            connection.output.write(IntrospectionSidecarProtocol.proof(key, IntrospectionSidecarProtocol.ROLE_CLIENT,
+                    clientNonce, serverNonce, tokenInfoEndpoint));
+            connection.output.flush();
+            status = connection.input.readByte();
+            if (status != IntrospectionSidecarProtocol.STATUS_OK) {
+                return rejected(connection, status);
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Connection rejected(Connection connection, byte status) {
+        connection.close();
+        markUnavailable(String.format("Introspection sidecar on port %s rejected the connection with status %s. " +
+                "Hence validating tokens against NetIQ directly.", port, status), null);
+        return null;
+    }
+
+    private void release(Connection connection) {
+        if (closed || idleConnectionCount.incrementAndGet() > MAX_IDLE_CONNECTIONS) {
+            idleConnectionCount.decrementAndGet();
+            connection.close();
+            return;
+        }
+        idleConnections.offerFirst(connection);
+    }
+
+    private void markUnavailable(String message, IOException cause) {
+        long now = System.nanoTime();
+        if (now - unavailableUntil >= 0) {
+            log.warn(message + " Retrying in " + TimeUnit.NANOSECONDS.toSeconds(RETRY_DELAY) + " seconds.");
+            if (cause != null && log.isDebugEnabled()) {
+                log.debug("Introspection sidecar is unavailable.", cause);
+            }
+        }
+        unavailableUntil = now + RETRY_DELAY;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Could not close an introspection sidecar connection.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Binary protocol spoken between the introspection sidecar and the key managers of the other processes on the host.
+ * <p>
+ * A connection starts with a handshake in which both sides prove that they hold the shared key of the sidecar,
+ * without sending it. The client sends {@link #MAGIC}, {@link #VERSION}, a random nonce and the token info endpoint
+ * it validates tokens against. The server answers with {@link #STATUS_CHALLENGE}, a nonce of its own and its proof,
+ * which the client checks before it sends its own proof. A proof is the {@link #MAC_ALGORITHM HMAC} of the role of
+ * the side, both nonces and the token info endpoint. The server then answers with {@link #STATUS_OK}, or with
+ * {@link #STATUS_UNAUTHORIZED} or {@link #STATUS_MISMATCH} and closes the connection if the proof is wrong or it
+ * validates tokens against a different endpoint. After that, the client sends any number of {@link #OP_INTROSPECT}
+ * requests carrying an access token, each answered with a status byte which is followed by the validation result if
+ * the status is {@link #STATUS_RESULT}. Strings are written in the modified UTF-8 encoding of
+ * {@link DataOutput#writeUTF(String)}, absent strings as empty strings.
+ */
+final class IntrospectionSidecarProtocol {
+    static final int MAGIC = 0x4E414D53;
+    static final byte VERSION = 2;
+
+    static final byte OP_INTROSPECT = 1;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_RESULT = 1;
+    static final byte STATUS_UNAVAILABLE = 2;
+    static final byte STATUS_ERROR = 3;
+    static final byte STATUS_MISMATCH = 4;
+    static final byte STATUS_UNSUPPORTED = 5;
+    static final byte STATUS_CHALLENGE = 6;
+    static final byte STATUS_UNAUTHORIZED = 7;
+
+    static final byte ROLE_SERVER = 'S';
+    static final byte ROLE_CLIENT = 'C';
+    static final String MAC_ALGORITHM = "HmacSHA256";
+    static final int NONCE_LENGTH = 32;
+    static final int PROOF_LENGTH = 32;
+    /**
+     * Shortest shared key which is accepted, in bytes.
+     */
+    static final int MIN_KEY_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Longest string which can be written with {@link DataOutput#writeUTF(String)}, in bytes.
+     */
+    static final int MAX_STRING_LENGTH = 65535;
+
+    private IntrospectionSidecarProtocol() {
+    }
+
+    /**
+     * This method writes a validation result. Only the fields and parameters the key manager sets are written.
+     *
+     * @param output stream to write to
+     * @param tokenInfo the validation result
+     * @throws IOException if the result could not be written
+     */
+    static void writeTokenInfo(DataOutput output, AccessTokenInfo tokenInfo) throws IOException {
+        output.writeBoolean(tokenInfo.isTokenValid());
+        output.writeInt(tokenInfo.getErrorcode());
+        output.writeLong(tokenInfo.getIssuedTime());
+        output.writeLong(tokenInfo.getValidityPeriod());
+        writeString(output, tokenInfo.getConsumerKey());
+        writeString(output, tokenInfo.getEndUserName());
+        String[] scopes = tokenInfo.getScopes();
+        int scopeCount = scopes == null ? 0 : scopes.length;
+        output.writeShort(scopeCount);
+        for (int i = 0; i < scopeCount; i++) {
+            writeString(output, scopes[i]);
+        }
+        writeString(output, (String) tokenInfo.getParameter(NAMConstants.TOKEN_ID));
+        writeString(output, (String) tokenInfo.getParameter(NAMConstants.ISSUER));
+        writeString(output, (String) tokenInfo.getParameter(NAMConstants.SERVED_FROM));
+    }
+
+    /**
+     * This method reads a validation result written by {@link #writeTokenInfo(DataOutput, AccessTokenInfo)}.
+     *
+     * @param input stream to read from
+     * @return the validation result
+     * @throws IOException if the result could not be read
+     */
+    static AccessTokenInfo readTokenInfo(DataInput input) throws IOException {
+        AccessTokenInfo tokenInfo = new AccessTokenInfo();
+        tokenInfo.setTokenValid(input.readBoolean());
+        tokenInfo.setErrorcode(input.readInt());
+        tokenInfo.setIssuedTime(input.readLong());
+        tokenInfo.setValidityPeriod(input.readLong());
+        tokenInfo.setConsumerKey(readString(input));
+        tokenInfo.setEndUserName(readString(input));
+        String[] scopes = new String[input.readUnsignedShort()];
+        for (int i = 0; i < scopes.length; i++) {
+            scopes[i] = input.readUTF();
+        }
+        tokenInfo.setScope(scopes);
+        addParameter(tokenInfo, NAMConstants.TOKEN_ID, readString(input));
+        addParameter(tokenInfo, NAMConstants.ISSUER, readString(input));
+        addParameter(tokenInfo, NAMConstants.SERVED_FROM, readString(input));
+        return tokenInfo;
+    }
+
+    /**
+     * @return a new random nonce
+     */
+    static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * This method computes the proof one side of a connection sends during the handshake.
+     *
+     * @param key the shared key
+     * @param role role of the side which sends the proof, {@link #ROLE_SERVER} or {@link #ROLE_CLIENT}
+     * @param clientNonce nonce sent by the client
+     * @param serverNonce nonce sent by the server
+     * @param tokenInfoEndpoint token info endpoint sent by the client
+     * @return the proof
+     */
+    static byte[] proof(byte[] key, byte role, byte[] clientNonce, byte[] serverNonce, String tokenInfoEndpoint) {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not supported by this JVM.", e);
+        }
+        mac.update(role);
+        mac.update(clientNonce);
+        mac.update(serverNonce);
+        mac.update(tokenInfoEndpoint.getBytes(StandardCharsets.UTF_8));
+        return mac.doFinal();
+    }
+
+    /**
+     * @param key the shared key
+     * @param proof proof received from the other side
+     * @param role role of the other side
+     * @param clientNonce nonce sent by the client
+     * @param serverNonce nonce sent by the server
+     * @param tokenInfoEndpoint token info endpoint sent by the client
+     * @return true if the other side holds the shared key
+     */
+    static boolean verify(byte[] key, byte[] proof, byte role, byte[] clientNonce, byte[] serverNonce,
+                          String tokenInfoEndpoint) {
+        return MessageDigest.isEqual(proof(key, role, clientNonce, serverNonce, tokenInfoEndpoint), proof);
+    }
+
+    /**
+     * @param value string to write
+     * @return true if the string can be written with {@link DataOutput#writeUTF(String)}
+     */
+    static boolean isWritable(String value) {
+        // Each character takes at most three bytes in modified UTF-8.
+        if (value.length() * 3 <= MAX_STRING_LENGTH) {
+            return true;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length <= MAX_STRING_LENGTH;
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        output.writeUTF(value == null ? "" : value);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        String value = input.readUTF();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void addParameter(AccessTokenInfo tokenInfo, String name, String value) {
+        if (value != null) {
+            tokenInfo.addParameter(name, value);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Introspection sidecar which exposes the token validation of a key manager to the key managers of the other
+ * processes on the host, so that a token is validated against NetIQ once per host instead of once per process. The
+ * sidecar only listens on the loopback interface and speaks the {@link IntrospectionSidecarProtocol}, which only lets
+ * processes that hold the shared key of the sidecar validate tokens. Each connection is served by its own thread,
+ * hence the number of connections is limited, and a connection which does not complete the handshake in time is
+ * closed.
+ */
+class IntrospectionSidecarServer {
+    private static final Log log = LogFactory.getLog(IntrospectionSidecarServer.class);
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int IDLE_TIMEOUT = 60000;
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+
+    private final NamOauthClient keyManager;
+    private final NamKeyManagerMetrics metrics;
+    private final ThreadPoolExecutor connections;
+    private volatile ServerSocket serverSocket;
+    private volatile byte[] key;
+
+    IntrospectionSidecarServer(NamOauthClient keyManager, NamKeyManagerMetrics metrics) {
+        this.keyManager = keyManager;
+        this.metrics = metrics;
+        connections = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), NamExecutors.daemonThreadFactory("nam-sidecar-connection"));
+    }
+
+    /**
+     * This method starts listening for introspection requests.
+     *
+     * @param port port to listen on
+     * @param key key the clients have to prove to hold
+     * @throws APIManagementException if the port could not be bound
+     */
+    synchronized void start(int port, byte[] key) throws APIManagementException {
+        stop();
+        this.key = key;
+        final ServerSocket server;
+        try {
+            server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            String msg = String.format("Could not listen for introspection requests on port %s.", port);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+        serverSocket = server;
+        Thread acceptor = NamExecutors.daemonThreadFactory("nam-sidecar").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept(server);
+            }
+        });
+        acceptor.start();
+        log.info(String.format("Listening for introspection requests on %s:%s",
+                server.getInetAddress().getHostAddress(), server.getLocalPort()));
+    }
+
+    /**
+     * This method stops listening for introspection requests. Open connections are closed after their current
+     * request, or once they have been idle for a minute.
+     */
+    synchronized void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.warn("Could not close the introspection sidecar.", e);
+            }
+            serverSocket = null;
+        }
+    }
+
+    /**
+     * @return port the sidecar is listening on, -1 if it is not listening
+     */
+    int getLocalPort() {
+        ServerSocket server = serverSocket;
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    log.warn("Error occurred while accepting an introspection connection.", e);
+                }
+                continue;
+            }
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(server, socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Too many introspection connections. Hence closing the new connection.");
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(ServerSocket server, Socket socket) {
+        try {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!handshake(input, output)) {
+                return;
+            }
+            socket.setSoTimeout(IDLE_TIMEOUT);
+            while (!server.isClosed()) {
+                int operation;
+                try {
+                    operation = input.read();
+                } catch (SocketTimeoutException e) {
+                    return;
+                }
+                if (operation < 0) {
+                    return;
+                }
+                if (operation != IntrospectionSidecarProtocol.OP_INTROSPECT) {
+                    output.writeByte(IntrospectionSidecarProtocol.STATUS_UNSUPPORTED);
+                    output.flush();
+                    return;
+                }
+                introspect(input.readUTF(), output);
+                output.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Introspection connection was closed by the client.", e);
+            }
+        } catch (IOException e) {
+            log.warn("Error occurred while serving an introspection connection.", e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private boolean handshake(DataInputStream input, DataOutputStream output) throws IOException {
+        if (input.readInt() != IntrospectionSidecarProtocol.MAGIC
+                || input.readByte() != IntrospectionSidecarProtocol.VERSION) {
+            output.writeByte(IntrospectionSidecarProtocol.STATUS_UNSUPPORTED);
+            output.flush();
+            return false;
+        }
+        byte[] clientNonce = new byte[IntrospectionSidecarProtocol.NONCE_LENGTH];
+        input.readFully(clientNonce);
+        String tokenInfoEndpoint = input.readUTF();
+        byte[] sharedKey = key;
+        byte[] serverNonce = IntrospectionSidecarProtocol.newNonce();
+        output.writeByte(IntrospectionSidecarProtocol.STATUS_CHALLENGE);
+        output.write(serverNonce);
+        output.write(IntrospectionSidecarProtocol.proof(sharedKey, IntrospectionSidecarProtocol.ROLE_SERVER,
+                clientNonce, serverNonce, tokenInfoEndpoint));
+        output.flush();
+        byte[] proof = new byte[IntrospectionSidecarProtocol.PROOF_LENGTH];
+        input.readFully(proof);
+        if (!IntrospectionSidecarProtocol.verify(sharedKey, proof, IntrospectionSidecarProtocol.ROLE_CLIENT,
+                clientNonce, serverNonce, tokenInfoEndpoint)) {
+            log.warn("Rejected an introspection connection whose client does not hold the key of the sidecar.");
+            output.writeByte(IntrospectionSidecarProtocol.STATUS_UNAUTHORIZED);
+            output.flush();
+            return false;
+        }
+        if (!tokenInfoEndpoint.equals(keyManager.getTokenInfoEndpoint())) {
+            output.writeByte(IntrospectionSidecarProtocol.STATUS_MISMATCH);
+            output.flush();
+            return false;
+        }
+        output.writeByte(IntrospectionSidecarProtocol.STATUS_OK);
+        output.flush();
+        return true;
+    }
+
+    private void introspect(String accessToken, DataOutputStream output) throws IOException {
+        AccessTokenInfo tokenInfo;
+        try {
+            tokenInfo = keyManager.getTokenMetaData(accessToken);
+        } catch (NamUnavailableException e) {
+            output.writeByte(IntrospectionSidecarProtocol.STATUS_UNAVAILABLE);
+            return;
+        } catch (APIManagementException e) {
+            output.writeByte(IntrospectionSidecarProtocol.STATUS_ERROR);
+            return;
+        }
+        metrics.sidecarRequestServed();
+        output.writeByte(IntrospectionSidecarProtocol.STATUS_RESULT);
+        IntrospectionSidecarProtocol.writeTokenInfo(output, tokenInfo);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Could not close an introspection connection.", e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable byte buffer which JSON is written into as UTF-8. Strings are escaped the same way as
+ * {@link org.json.simple.JSONValue#escape(String)} does, so that the output matches the one of json-simple. A buffer
+ * is reused by every payload written on the same thread.
+ */
+final class JsonPayloadBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final ThreadLocal<JsonPayloadBuffer> BUFFERS = new ThreadLocal<JsonPayloadBuffer>() {
+        @Override
+        protected JsonPayloadBuffer initialValue() {
+            return new JsonPayloadBuffer();
+        }
+    };
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    private JsonPayloadBuffer() {
+    }
+
+    /**
+     * @return the empty buffer of the current thread
+     */
+    static JsonPayloadBuffer acquire() {
+        JsonPayloadBuffer buffer = BUFFERS.get();
+        if (buffer.bytes.length > MAX_RETAINED_CAPACITY) {
+            buffer.bytes = new byte[INITIAL_CAPACITY];
+        }
+        buffer.length = 0;
+        return buffer;
+    }
+
+    /**
+     * @return copy of the bytes written so far
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    int length() {
+        return length;
+    }
+
+    JsonPayloadBuffer writeByte(char ascii) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) ascii;
+        return this;
+    }
+
+    /**
+     * @param utf8 pre-encoded bytes, e.g. a quoted and escaped field name followed by a colon
+     */
+    JsonPayloadBuffer writeRaw(byte[] utf8) {
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, bytes, length, utf8.length);
+        length += utf8.length;
+        return this;
+    }
+
+    /**
+     * This method writes a quoted and escaped JSON string.
+     *
+     * @param value the string
+     */
+    JsonPayloadBuffer writeString(String value) {
+        ensureCapacity(value.length() + 2);
+        bytes[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writeEscape('"');
+                    break;
+                case '\\':
+                    writeEscape('\\');
+                    break;
+                case '/':
+                    writeEscape('/');
+                    break;
+                case '\b':
+                    writeEscape('b');
+                    break;
+                case '\f':
+                    writeEscape('f');
+                    break;
+                case '\n':
+                    writeEscape('n');
+                    break;
+                case '\r':
+                    writeEscape('r');
+                    break;
+                case '\t':
+                    writeEscape('t');
+                    break;
+                default:
+                    if (c <= '\u001F' || (c >= '\u007F' && c <= '\u009F')
+                            || (c >= '\u2000' && c <= '\u20FF')) {
+                        writeUnicodeEscape(c);
+                    } else if (c < 0x80) {
+                        ensureCapacity(1);
+                        bytes[length++] = (byte) c;
+                    } else if (c < 0x800) {
+                        ensureCapacity(2);
+                        bytes[length++] = (byte) (0xC0 | (c >> 6));
+                        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        ensureCapacity(4);
+                        bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                        bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        // Unpaired surrogates can not be encoded, String#getBytes replaces them the same way.
+                        ensureCapacity(1);
+                        bytes[length++] = '?';
+                    } else {
+                        ensureCapacity(3);
+                        bytes[length++] = (byte) (0xE0 | (c >> 12));
+                        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        ensureCapacity(1);
+        bytes[length++] = '"';
+        return this;
+    }
+
+    /**
+     * This method writes an array of JSON strings.
+     *
+     * @param values the strings
+     */
+    JsonPayloadBuffer writeStringArray(String[] values) {
+        writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeString(values[i]);
+        }
+        return writeByte(']');
+    }
+
+    /**
+     * This method writes a value of a parsed JSON document, the same way as
+     * {@link org.json.simple.JSONValue#toJSONString(Object)} does.
+     *
+     * @param value a string, number, boolean, map, list or null
+     */
+    JsonPayloadBuffer writeValue(Object value) {
+        if (value == null) {
+            return writeRaw(NULL);
+        }
+        if (value instanceof String) {
+            return writeString((String) value);
+        }
+        if (value instanceof Double && (((Double) value).isInfinite() || ((Double) value).isNaN())
+                || value instanceof Float && (((Float) value).isInfinite() || ((Float) value).isNaN())) {
+            return writeRaw(NULL);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return writeAscii(value.toString());
+        }
+        if (value instanceof Map) {
+            writeByte('{');
+            boolean first = true;
+            for (Object object : ((Map) value).entrySet()) {
+                Map.Entry entry = (Map.Entry) object;
+                if (!first) {
+                    writeByte(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey())).writeByte(':').writeValue(entry.getValue());
+            }
+            return writeByte('}');
+        }
+        if (value instanceof List) {
+            writeByte('[');
+            boolean first = true;
+            for (Object element : (List) value) {
+                if (!first) {
+                    writeByte(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            return writeByte(']');
+        }
+        return writeString(value.toString());
+    }
+
+    /**
+     * @param name field name
+     * @return the quoted and escaped field name followed by a colon, as UTF-8
+     */
+    static byte[] encodeFieldName(String name) {
+        JsonPayloadBuffer buffer = new JsonPayloadBuffer();
+        buffer.writeString(name).writeByte(':');
+        return buffer.toByteArray();
+    }
+
+    private JsonPayloadBuffer writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            bytes[length++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    private void writeEscape(char c) {
+        ensureCapacity(2);
+        bytes[length++] = '\\';
+        bytes[length++] = (byte) c;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        ensureCapacity(6);
+        bytes[length++] = '\\';
+        bytes[length++] = 'u';
+        bytes[length++] = HEX[(c >> 12) & 0xF];
+        bytes[length++] = HEX[(c >> 8) & 0xF];
+        bytes[length++] = HEX[(c >> 4) & 0xF];
+        bytes[length++] = HEX[c & 0xF];
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+        }
+    }
+}
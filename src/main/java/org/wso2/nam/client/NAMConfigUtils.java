@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+/**
+ * Helper methods to read the optional properties of the NetIQ key manager configuration.
+ */
+final class NAMConfigUtils {
+    private static final Log log = LogFactory.getLog(NAMConfigUtils.class);
+
+    private NAMConfigUtils() {
+    }
+
+    /**
+     * This method is used to read an optional numeric configuration property.
+     *
+     * @param configuration key manager configuration
+     * @param name name of the configuration property
+     * @param defaultValue value to be used if the property is not configured
+     * @return configured value of the property, or the default value
+     * @throws APIManagementException if the configured value is not a number
+     */
+    static long getLongParameter(KeyManagerConfiguration configuration, String name, long defaultValue)
+            throws APIManagementException {
+        String value = configuration.getParameter(name);
+        if (StringUtils.isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            String msg = String.format(NAMConstants.INVALID_CONFIG_PROPERTY, value, name);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+    }
+
+    /**
+     * This method is used to read an optional decimal configuration property.
+     *
+     * @param configuration key manager configuration
+     * @param name name of the configuration property
+     * @param defaultValue value to be used if the property is not configured
+     * @return configured value of the property, or the default value
+     * @throws APIManagementException if the configured value is not a number
+     */
+    static double getDoubleParameter(KeyManagerConfiguration configuration, String name, double defaultValue)
+            throws APIManagementException {
+        String value = configuration.getParameter(name);
+        if (StringUtils.isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            String msg = String.format(NAMConstants.INVALID_CONFIG_PROPERTY, value, name);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+    }
+
+    /**
+     * This method is used to read an optional boolean configuration property.
+     *
+     * @param configuration key manager configuration
+     * @param name name of the configuration property
+     * @param defaultValue value to be used if the property is not configured
+     * @return configured value of the property, or the default value
+     */
+    static boolean getBooleanParameter(KeyManagerConfiguration configuration, String name, boolean defaultValue) {
+        String value = configuration.getParameter(name);
+        return StringUtils.isEmpty(value) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -20,6 +20,8 @@ class NAMConstants {
      static final String CLIENT_SECRET = "client_secret";
      static final String APPLICATION_TYPE = "application_type";
      static final String GRANT_TYPE = "grant_type";
+     static final String REFRESH_TOKEN = "refresh_token";
+     static final String CLIENT_CREDENTIALS = "client_credentials";
      static final String GRANT_TYPES = "grant_types";
      static final String RESPONSE_TYPES = "response_types";
      static final String ALWAYS_ISSUE_NEW_REFRESH_TOKEN = "alwaysIssueNewRefreshToken";
@@ -39,6 +41,7 @@ class NAMConstants {
      static final String ACCESS_TOKEN = "access_token";
      static final String SCOPE = "scope";
      static final String EXPIRES_IN = "expires_in";
+     static final String OAUTH_ERROR = "error";
      static final String  TOKEN_SCOPE = "tokenScope";
      static final String USER_ID = "user_id";
      static final String ISSUER = "issuer";
@@ -53,6 +56,55 @@ class NAMConstants {
      static final String CONFIG_NAM_CLIENT_ENDPOINT = "ClientEndpoint";
      static final String CONFIG_NAM_TOKEN_ENDPOINT = "TokenEndpoint";
      static final String CONFIG_NAM_TOKENINFO_ENDPOINT = "TokenInfoEndpoint";
+     static final String CONFIG_APPLICATION_CACHE_TTL = "ApplicationCacheTTL";
+     static final String CONFIG_TOKEN_INDEX_CLEANUP_INTERVAL = "TokenIndexCleanupInterval";
+     static final String CONFIG_TOKEN_CACHE_TTL = "TokenCacheTTL";
+     static final String CONFIG_TOKEN_CACHE_MAX_ENTRIES = "TokenCacheMaxEntries";
+     static final String CONFIG_REVOCATION_SOURCES = "RevocationSources";
+     static final String CONFIG_REVOCATION_HTTP_PORT = "RevocationHttpPort";
+     static final String CONFIG_REVOCATION_HTTP_SECRET = "RevocationHttpSecret";
+     static final String CONFIG_REVOCATION_FILE = "RevocationFile";
+     static final String CONFIG_REVOCATION_FILE_POLL_INTERVAL = "RevocationFilePollInterval";
+     static final String CONFIG_REVOKED_TOKEN_RETENTION = "RevokedTokenRetention";
+     static final String CONFIG_REVOKED_TOKEN_FILTER_SIZE = "RevokedTokenFilterSize";
+     static final String CONFIG_TRACING_SAMPLE_RATE = "TracingSampleRate";
+     static final String CONFIG_TRACING_EXPORTER = "TracingExporter";
+     static final String CONFIG_MAX_CONNECTIONS = "MaxConnections";
+     static final String CONFIG_MAX_CONNECTIONS_PER_ROUTE = "MaxConnectionsPerRoute";
+     static final String CONFIG_WARM_UP_ENABLED = "WarmUpEnabled";
+     static final String CONFIG_WARM_UP_CONNECTIONS = "WarmUpConnections";
+     static final String CONFIG_WARM_UP_ITERATIONS = "WarmUpIterations";
+     static final String CONFIG_TOKEN_STALE_WHILE_REVALIDATE = "TokenStaleWhileRevalidate";
+     static final String CONFIG_TOKEN_GRACE_PERIOD = "TokenGracePeriod";
+     static final String CONFIG_TENANT_DOMAIN = "TenantDomain";
+     static final String CONFIG_TENANT_MAX_CONCURRENT_REQUESTS = "TenantMaxConcurrentRequests";
+     static final String CONFIG_TENANT_MAX_LOCAL_TOKENS = "TenantMaxLocalTokens";
+     static final String CONFIG_BULKHEAD_MAX_CONCURRENT_REQUESTS = "MaxConcurrentRequests";
+     static final String CONFIG_BULKHEAD_MAX_QUEUED_REQUESTS = "MaxQueuedRequests";
+     static final String CONFIG_BULKHEAD_QUEUE_TIMEOUT = "QueueTimeout";
+     static final String CONFIG_VALIDATION_BORROW_IDLE_CAPACITY = "ValidationBorrowIdleCapacity";
+     static final String CONFIG_SIDECAR_MODE = "IntrospectionSidecarMode";
+     static final String CONFIG_SIDECAR_PORT = "IntrospectionSidecarPort";
+     static final String CONFIG_SIDECAR_TIMEOUT = "IntrospectionSidecarTimeout";
+     static final String CONFIG_SIDECAR_KEY_FILE = "IntrospectionSidecarKeyFile";
+     static final String CONFIG_ADMIN_TOKEN_GRANT_TYPE = "AdminTokenGrantType";
+     static final String CONFIG_OPERATION_TIMEOUT = "OperationTimeout";
+     static final String CONFIG_TIMEOUT_SUFFIX = "Timeout";
+     static final String CONFIG_CONNECT_TIMEOUT = "ConnectTimeout";
+     static final String CONFIG_SOCKET_TIMEOUT = "SocketTimeout";
+     static final String CONFIG_CONSISTENCY_SAMPLE_RATE = "ConsistencyVerificationSampleRate";
+     static final String CONFIG_CONSISTENCY_MAX_RATE = "ConsistencyVerificationMaxRate";
+     static final String CONFIG_CONSISTENCY_WINDOW = "ConsistencyVerificationWindow";
+     static final String CONFIG_CONSISTENCY_DIVERGENCE_THRESHOLD = "ConsistencyDivergenceThreshold";
+     static final String CONFIG_CONSISTENCY_SHORTEN_TTL = "ConsistencyShortenTokenCacheTTL";
+     static final String CONFIG_HTTP_TRANSPORT = "HttpTransport";
+     static final String HTTP_TRANSPORT_HTTP_CLIENT_4 = "httpclient4";
+     static final String HTTP_TRANSPORT_HTTP_2 = "http2";
+     static final String CONFIG_WORKLOAD_RECORDING_FILE = "WorkloadRecordingFile";
+     static final String CONFIG_WORKLOAD_RECORDING_MAX_FILE_SIZE = "WorkloadRecordingMaxFileSize";
+     static final String CONFIG_WORKLOAD_RECORDING_MAX_FILES = "WorkloadRecordingMaxFiles";
+     static final String CONFIG_HEAVY_HITTER_TOP_K = "HeavyHitterTopK";
+     static final String CONFIG_HEAVY_HITTER_WINDOW = "HeavyHitterWindow";
 
      static final String INFO_TOKEN_INFO = "tokenInfo";
      static final String INFO_TOKEN_GRANT_TYPE = "tokenGrantType";
@@ -62,6 +114,7 @@ class NAMConstants {
      static final String INFO_SCOPE_SEPARATOR = ",";
      static final String INFO_GRANT_TYPE_SEPARATOR = ",";
      static final String URI_SEPARATOR = ",";
+     static final String API_ID_SEPARATOR = ",";
 
      static final String ERROR_COULD_NOT_READ_HTTP_ENTITY = "Could not read http entity for response";
      static final String STRING_FORMAT = "%s %s";
@@ -71,8 +124,112 @@ class NAMConstants {
      static final String DEFAULT_SCOPE = "urn:netiq.com:nam:scope:oauth:registration:full";
      static final String DEFAULT_REDIRECT_URI = "https://client.example.org/callback";
      static final String DEFAULT_RESPONSE_TYPE = "code";
-     static final String TOKEN_SCOPE_SPLIT_REGEX = "\\s+";
+
+     static final long DEFAULT_APPLICATION_CACHE_TTL = 300;
+     static final long DEFAULT_TOKEN_INDEX_CLEANUP_INTERVAL = 0;
+     static final long DEFAULT_TOKEN_CACHE_TTL = 0;
+     static final long DEFAULT_TOKEN_CACHE_MAX_ENTRIES = 100000;
+     static final long DEFAULT_REVOCATION_HTTP_PORT = 9797;
+     static final long DEFAULT_REVOCATION_FILE_POLL_INTERVAL = 200;
+     static final long DEFAULT_REVOKED_TOKEN_RETENTION = 3600;
+     static final long DEFAULT_REVOKED_TOKEN_FILTER_SIZE = 100000;
+     static final long DEFAULT_MAX_CONNECTIONS = 100;
+     static final long DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+     static final long DEFAULT_WARM_UP_CONNECTIONS = 2;
+     static final long DEFAULT_WARM_UP_ITERATIONS = 1000;
+     static final long DEFAULT_TOKEN_GRACE_PERIOD = 0;
+     static final String DEFAULT_TENANT_DOMAIN = "carbon.super";
+     static final long DEFAULT_VALIDATION_MAX_CONCURRENT_REQUESTS = 30;
+     static final long DEFAULT_VALIDATION_QUEUE_TIMEOUT = 1000;
+     static final long DEFAULT_TOKEN_ISSUANCE_MAX_CONCURRENT_REQUESTS = 10;
+     static final long DEFAULT_TOKEN_ISSUANCE_QUEUE_TIMEOUT = 5000;
+     static final long DEFAULT_MANAGEMENT_MAX_CONCURRENT_REQUESTS = 10;
+     static final long DEFAULT_MANAGEMENT_QUEUE_TIMEOUT = 30000;
+     static final long DEFAULT_BULKHEAD_MAX_QUEUED_REQUESTS = 100;
+     static final long DEFAULT_SIDECAR_PORT = 9798;
+     static final long DEFAULT_SIDECAR_TIMEOUT = 200;
+     static final long DEFAULT_OPERATION_TIMEOUT = 60000;
+     static final long DEFAULT_CONNECT_TIMEOUT = 10000;
+     static final long DEFAULT_SOCKET_TIMEOUT = 30000;
+     static final long DEFAULT_CONSISTENCY_MAX_RATE = 10;
+     static final long DEFAULT_CONSISTENCY_WINDOW = 100;
+     static final double DEFAULT_CONSISTENCY_DIVERGENCE_THRESHOLD = 0.01;
+     static final long DEFAULT_WORKLOAD_RECORDING_MAX_FILE_SIZE = 64;
+     static final long DEFAULT_WORKLOAD_RECORDING_MAX_FILES = 5;
+     static final long DEFAULT_HEAVY_HITTER_TOP_K = 20;
+     static final long DEFAULT_HEAVY_HITTER_WINDOW = 60;
+     static final long CONSISTENCY_MIN_TOKEN_CACHE_TTL = 1000;
+     static final long CONSISTENCY_EXPIRY_TOLERANCE = 5000;
+     static final int CONSISTENCY_MAX_EXAMPLES = 20;
+     static final int REVALIDATION_THREADS = 2;
+     static final int REVOCATION_HTTP_THREADS = 4;
+     static final int REVOCATION_HTTP_QUEUE_SIZE = 16;
+     static final int REVALIDATION_QUEUE_SIZE = 1000;
+     static final int TRANSPORT_THREADS = 8;
+     static final int TRANSPORT_QUEUE_SIZE = 1000;
+     static final int WORKLOAD_RECORDING_QUEUE_SIZE = 65536;
+     static final long WORKLOAD_RECORDING_FLUSH_INTERVAL = 1000;
+     static final int HEAVY_HITTER_SKETCH_DEPTH = 4;
+     static final int HEAVY_HITTER_SKETCH_WIDTH = 1024;
+     static final int HEAVY_HITTER_WINDOW_SLICES = 6;
+     static final int WARM_UP_CONNECT_TIMEOUT = 10000;
+     static final long CONNECTION_POOL_RETIREMENT_DELAY = 60;
+     static final long EXPIRY_WHEEL_TICK = 1000;
+     static final double ADMIN_TOKEN_REFRESH_AHEAD = 0.9;
+
+     static final String WARM_UP_TOKEN_INFO_PAYLOAD = "{\"user_id\":\"warmup\",\"expires_in\":3600," +
+            "\"scope\":[\"" + DEFAULT_SCOPE + "\"],\"audience\":\"warmup\",\"token_id\":\"warmup\"," +
+            "\"issuer\":\"warmup\"}";
+     static final String WARM_UP_CLIENT_PAYLOAD = "{\"client_id\":\"warmup\",\"client_name\":\"warmup\"," +
+            "\"client_secret\":\"warmup\",\"redirect_uris\":[\"" + DEFAULT_REDIRECT_URI + "\"]," +
+            "\"grant_types\":[\"password\",\"client_credentials\"],\"response_types\":[\"code\"]}";
+
+     static final String SPAN_CREATE_APPLICATION = "nam.createApplication";
+     static final String SPAN_UPDATE_APPLICATION = "nam.updateApplication";
+     static final String SPAN_DELETE_APPLICATION = "nam.deleteApplication";
+     static final String SPAN_RETRIEVE_APPLICATION = "nam.retrieveApplication";
+     static final String SPAN_GET_NEW_ACCESS_TOKEN = "nam.getNewApplicationAccessToken";
+     static final String SPAN_GET_CONSUMER_SECRET = "nam.getNewApplicationConsumerSecret";
+     static final String SPAN_GET_TOKEN_METADATA = "nam.getTokenMetaData";
+     static final String SPAN_RENEW_ADMIN_TOKEN = "nam.renewAdminToken";
+     static final String SPAN_NAM_ADMIN_TOKEN = "nam.http.adminToken";
+     static final String SPAN_NAM_ISSUE_TOKEN = "nam.http.issueToken";
+     static final String SPAN_NAM_TOKEN_INFO = "nam.http.tokenInfo";
+     static final String SPAN_NAM_GET_CLIENT = "nam.http.getClient";
+     static final String SPAN_NAM_CREATE_CLIENT = "nam.http.createClient";
+     static final String SPAN_NAM_UPDATE_CLIENT = "nam.http.updateClient";
+     static final String SPAN_NAM_DELETE_CLIENT = "nam.http.deleteClient";
+     static final String ATTRIBUTE_HTTP_METHOD = "http.method";
+     static final String ATTRIBUTE_ENDPOINT = "nam.endpoint";
+     static final String ATTRIBUTE_STATUS_CODE = "http.status_code";
+     static final String ATTRIBUTE_HTTP_FLAVOR = "http.flavor";
+     static final String ATTRIBUTE_REQUEST_SIZE = "http.request_content_length";
+     static final String ATTRIBUTE_RESPONSE_SIZE = "http.response_content_length";
+     static final String ATTRIBUTE_SERVED_LOCALLY = "nam.served_locally";
+     static final String ATTRIBUTE_APPLICATION_LOOKUP_AVOIDED = "nam.application_lookup_avoided";
+     static final String ATTRIBUTE_ATTEMPT = "nam.attempt";
+     static final String ATTRIBUTE_SERVED_DEGRADED = "nam.served_degraded";
+     static final String ATTRIBUTE_SERVED_BY_SIDECAR = "nam.served_by_sidecar";
+     static final String ATTRIBUTE_GRANT_TYPE = "nam.grant_type";
+
+     static final String LOCAL_STATE_TOKEN_CACHE = "tokenValidationCache";
+     static final String LOCAL_STATE_TOKEN_INDEX = "consumerKeyTokenIndex";
+     static final String LOCAL_STATE_APPLICATION_DOCUMENTS = "applicationDocuments";
+     static final String LOCAL_STATE_REVOKED_TOKEN_FILTER = "revokedTokenFilter";
+     static final String LOCAL_STATE_HIT = "hit";
+     static final String LOCAL_STATE_STALE_HIT = "staleHit";
+     static final String LOCAL_STATE_GRACE_HIT = "graceHit";
+     static final String LOCAL_STATE_EVICTION = "eviction";
+
+     static final String SERVED_FROM = "servedFrom";
+     static final String SERVED_STALE = "stale";
+     static final String SERVED_GRACE = "grace";
+     static final String SERVED_CACHE = "cache";
+
+     static final String SIDECAR_MODE_SERVER = "server";
+     static final String SIDECAR_MODE_CLIENT = "client";
 
      static final String MANDATORY_CONFIG_PROPERTY_MISSING = "Mandatory property %s is missing in the " +
             "configurations.";
+     static final String INVALID_CONFIG_PROPERTY = "Value %s of the property %s is not a valid number.";
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.ObjectName;
+
+/**
+ * Limits the concurrent requests of one operation class to a NetIQ host, so that a burst of one class, e.g. a bulk
+ * application provisioning job, can not take the connections needed by another class, e.g. token validation on the
+ * gateway. Requests beyond the limit wait in a bounded queue for a limited time.
+ */
+class NamBulkhead implements NamBulkheadMetricsMXBean {
+    static final String OBJECT_NAME_PREFIX = "org.wso2.nam.client:type=NamBulkhead,host=";
+
+    /**
+     * Operation classes which are isolated from each other.
+     */
+    enum Type {
+        VALIDATION("Validation", NAMConstants.DEFAULT_VALIDATION_MAX_CONCURRENT_REQUESTS,
+                NAMConstants.DEFAULT_VALIDATION_QUEUE_TIMEOUT),
+        TOKEN_ISSUANCE("TokenIssuance", NAMConstants.DEFAULT_TOKEN_ISSUANCE_MAX_CONCURRENT_REQUESTS,
+                NAMConstants.DEFAULT_TOKEN_ISSUANCE_QUEUE_TIMEOUT),
+        MANAGEMENT("Management", NAMConstants.DEFAULT_MANAGEMENT_MAX_CONCURRENT_REQUESTS,
+                NAMConstants.DEFAULT_MANAGEMENT_QUEUE_TIMEOUT);
+
+        private final String configPrefix;
+        private final long defaultMaxConcurrentRequests;
+        private final long defaultQueueTimeout;
+
+        Type(String configPrefix, long defaultMaxConcurrentRequests, long defaultQueueTimeout) {
+            this.configPrefix = configPrefix;
+            this.defaultMaxConcurrentRequests = defaultMaxConcurrentRequests;
+            this.defaultQueueTimeout = defaultQueueTimeout;
+        }
+
+        /**
+         * @return prefix of the configuration properties of the bulkhead, e.g. ValidationMaxConcurrentRequests
+         */
+        String getConfigPrefix() {
+            return configPrefix;
+        }
+
+        long getDefaultMaxConcurrentRequests() {
+            return defaultMaxConcurrentRequests;
+        }
+
+        long getDefaultQueueTimeout() {
+            return defaultQueueTimeout;
+        }
+    }
+
+    private final Type type;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile int maxConcurrentRequests;
+    private volatile int maxQueuedRequests;
+    private volatile long queueTimeoutNanos;
+    private volatile int inFlightRequests;
+    private volatile int queuedRequests;
+    private final AtomicLong acceptedRequests = new AtomicLong();
+    private final AtomicLong queuedRequestsTotal = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong timedOutRequests = new AtomicLong();
+    private final AtomicLong borrowedSlots = new AtomicLong();
+    private final AtomicLong lentSlots = new AtomicLong();
+    private ObjectName objectName;
+
+    NamBulkhead(Type type) {
+        this.type = type;
+        configure((int) type.getDefaultMaxConcurrentRequests(),
+                (int) NAMConstants.DEFAULT_BULKHEAD_MAX_QUEUED_REQUESTS, type.getDefaultQueueTimeout());
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * @param maxConcurrentRequests maximum number of requests let through at a time, 0 for no limit
+     * @param maxQueuedRequests maximum number of requests waiting for a slot
+     * @param queueTimeoutMillis maximum time a request waits for a slot
+     */
+    void configure(int maxConcurrentRequests, int maxQueuedRequests, long queueTimeoutMillis) {
+        lock.lock();
+        try {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.maxQueuedRequests = maxQueuedRequests;
+            this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method takes a slot if one is free, without waiting.
+     *
+     * @return true if a slot was taken
+     */
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (queuedRequests == 0 && hasFreeSlot()) {
+                inFlightRequests++;
+                acceptedRequests.incrementAndGet();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method takes a slot for a request of another bulkhead, if this bulkhead has idle capacity, i.e. a free
+     * slot and no request of its own waiting.
+     *
+     * @return true if a slot was lent
+     */
+    boolean tryLend() {
+        lock.lock();
+        try {
+            if (queuedRequests == 0 && maxConcurrentRequests > 0 && inFlightRequests < maxConcurrentRequests) {
+                inFlightRequests++;
+                lentSlots.incrementAndGet();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void borrowed() {
+        borrowedSlots.incrementAndGet();
+    }
+
+    /**
+     * This method takes a slot, waiting in the queue of the bulkhead if none is free. The wait ends at the deadline
+     * of the current operation if that comes before the queue timeout.
+     *
+     * @throws BulkheadFullException if the queue is full or no slot became free in time
+     * @throws DeadlineElapsedIOException if no slot became free before the deadline of the current operation
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    void acquire() throws BulkheadFullException, DeadlineElapsedIOException, InterruptedIOException {
+        lock.lock();
+        try {
+            if (queuedRequests == 0 && hasFreeSlot()) {
+                inFlightRequests++;
+                acceptedRequests.incrementAndGet();
+                return;
+            }
+            if (queuedRequests >= maxQueuedRequests) {
+                rejectedRequests.incrementAndGet();
+                throw new BulkheadFullException(String.format("The %s bulkhead has %s requests in flight and %s " +
+                        "queued.", type.getConfigPrefix(), inFlightRequests, queuedRequests));
+            }
+            queuedRequests++;
+            queuedRequestsTotal.incrementAndGet();
+            boolean acquired = false;
+            try {
+                long remainingMillis = NamDeadline.remainingMillis();
+                boolean deadlineFirst = remainingMillis != Long.MAX_VALUE
+                        && TimeUnit.MILLISECONDS.toNanos(remainingMillis) < queueTimeoutNanos;
+                long nanos = deadlineFirst ? TimeUnit.MILLISECONDS.toNanos(remainingMillis) : queueTimeoutNanos;
+                while (!hasFreeSlot()) {
+                    if (nanos <= 0) {
+                        timedOutRequests.incrementAndGet();
+                        if (deadlineFirst) {
+                            throw NamDeadline.exceeded(String.format("No slot of the %s bulkhead became free in " +
+                                    "time.", type.getConfigPrefix()));
+                        }
+                        throw new BulkheadFullException(String.format("No slot of the %s bulkhead became free " +
+                                "within %s ms.", type.getConfigPrefix(), TimeUnit.NANOSECONDS.toMillis(
+                                queueTimeoutNanos)));
+                    }
+                    nanos = released.awaitNanos(nanos);
+                }
+                inFlightRequests++;
+                acceptedRequests.incrementAndGet();
+                acquired = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the " + type.getConfigPrefix() +
+                        " bulkhead.");
+            } finally {
+                queuedRequests--;
+                // A waiter which gives up may have consumed the signal of a release, which is passed on to the next
+                // waiter then.
+                if (!acquired && queuedRequests > 0 && hasFreeSlot()) {
+                    released.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method gives back a slot taken with {@link #tryAcquire()}, {@link #tryLend()} or {@link #acquire()}.
+     */
+    void release() {
+        lock.lock();
+        try {
+            inFlightRequests--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasFreeSlot() {
+        return maxConcurrentRequests <= 0 || inFlightRequests < maxConcurrentRequests;
+    }
+
+    @Override
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return inFlightRequests;
+    }
+
+    @Override
+    public double getUtilization() {
+        int limit = maxConcurrentRequests;
+        return limit <= 0 ? 0 : (double) inFlightRequests / limit;
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return queuedRequests;
+    }
+
+    @Override
+    public long getAcceptedRequests() {
+        return acceptedRequests.get();
+    }
+
+    @Override
+    public long getQueuedRequestsTotal() {
+        return queuedRequestsTotal.get();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    @Override
+    public long getTimedOutRequests() {
+        return timedOutRequests.get();
+    }
+
+    @Override
+    public long getBorrowedSlots() {
+        return borrowedSlots.get();
+    }
+
+    @Override
+    public long getLentSlots() {
+        return lentSlots.get();
+    }
+
+    /**
+     * This method registers the metrics of the bulkhead in the platform MBean server, see {@link NamMBeans}.
+     *
+     * @param host NetIQ host the bulkhead belongs to
+     */
+    synchronized void registerMetrics(String host) {
+        if (objectName != null) {
+            return;
+        }
+        objectName = NamMBeans.register(this, OBJECT_NAME_PREFIX + ObjectName.quote(host) + ",name="
+                + type.getConfigPrefix(), String.format("metrics of the %s bulkhead of %s", type.getConfigPrefix(),
+                host));
+    }
+
+    /**
+     * This method removes the metrics of the bulkhead from the platform MBean server, if they were registered.
+     */
+    synchronized void unregisterMetrics() {
+        NamMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
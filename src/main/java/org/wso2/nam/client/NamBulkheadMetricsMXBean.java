@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * JMX view of the saturation of a bulkhead, which limits the requests of one operation class to a NetIQ host.
+ */
+public interface NamBulkheadMetricsMXBean {
+
+    /**
+     * @return maximum number of requests the bulkhead lets through at a time, 0 if there is no limit
+     */
+    int getMaxConcurrentRequests();
+
+    /**
+     * @return number of requests currently holding a slot of the bulkhead, including slots lent to other bulkheads
+     */
+    int getInFlightRequests();
+
+    /**
+     * @return fraction of the slots of the bulkhead which are in use
+     */
+    double getUtilization();
+
+    /**
+     * @return number of requests currently waiting for a slot
+     */
+    int getQueuedRequests();
+
+    /**
+     * @return number of requests which were let through
+     */
+    long getAcceptedRequests();
+
+    /**
+     * @return number of requests which had to wait in the queue
+     */
+    long getQueuedRequestsTotal();
+
+    /**
+     * @return number of requests which were rejected since the queue was full
+     */
+    long getRejectedRequests();
+
+    /**
+     * @return number of requests which were rejected since they waited in the queue for too long
+     */
+    long getTimedOutRequests();
+
+    /**
+     * @return number of requests of this bulkhead which were let through with a slot borrowed from another bulkhead
+     */
+    long getBorrowedSlots();
+
+    /**
+     * @return number of slots this bulkhead lent to requests of another bulkhead
+     */
+    long getLentSlots();
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, validated view of a key manager configuration. The key manager swaps the whole snapshot when it is
+ * reconfigured, and each operation reads the snapshot once, so that requests which are in flight during a
+ * reconfiguration complete with the configuration they started with.
+ */
+final class NamConfigurationSnapshot {
+    private static final Log log = LogFactory.getLog(NamConfigurationSnapshot.class);
+    /**
+     * Operations which have a time budget of their own, named by their span.
+     */
+    private static final String[] TIMED_OPERATIONS = {NAMConstants.SPAN_CREATE_APPLICATION,
+            NAMConstants.SPAN_UPDATE_APPLICATION, NAMConstants.SPAN_DELETE_APPLICATION,
+            NAMConstants.SPAN_RETRIEVE_APPLICATION, NAMConstants.SPAN_GET_NEW_ACCESS_TOKEN,
+            NAMConstants.SPAN_GET_CONSUMER_SECRET, NAMConstants.SPAN_GET_TOKEN_METADATA,
+            NAMConstants.SPAN_RENEW_ADMIN_TOKEN};
+    /**
+     * Properties which are applied by components that read the key manager configuration themselves, and are
+     * compared with {@link #parametersChanged(NamConfigurationSnapshot, String...)} to tell whether they have to be
+     * reconfigured.
+     */
+    private static final String[] COMPARED_PARAMETERS = {NAMConstants.CONFIG_REVOCATION_SOURCES,
+            NAMConstants.CONFIG_REVOCATION_HTTP_PORT, NAMConstants.CONFIG_REVOCATION_HTTP_SECRET,
+            NAMConstants.CONFIG_REVOCATION_FILE, NAMConstants.CONFIG_REVOCATION_FILE_POLL_INTERVAL,
+            NAMConstants.CONFIG_TRACING_SAMPLE_RATE, NAMConstants.CONFIG_TRACING_EXPORTER,
+            NAMConstants.CONFIG_SIDECAR_MODE, NAMConstants.CONFIG_SIDECAR_PORT, NAMConstants.CONFIG_SIDECAR_TIMEOUT,
+            NAMConstants.CONFIG_SIDECAR_KEY_FILE,
+            NAMConstants.CONFIG_WORKLOAD_RECORDING_FILE, NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILE_SIZE,
+            NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILES};
+
+    /**
+     * Copies of the {@link #COMPARED_PARAMETERS}, since the key manager configuration may be changed in place after
+     * the snapshot was taken.
+     */
+    private final Map<String, String> comparedParameters = new HashMap<>();
+    final String username;
+    final String password;
+    final String clientId;
+    final String clientSecret;
+    final String tokenEndpoint;
+    final String tokenInfoEndpoint;
+    final String clientEndpoint;
+    final String adminTokenGrantType;
+    final long applicationCacheTTL;
+    final long tokenCacheTTL;
+    final int tokenCacheMaxEntries;
+    final long cleanupInterval;
+    final long revokedTokenRetention;
+    final int revokedTokenFilterSize;
+    final int maxConnections;
+    final int maxConnectionsPerRoute;
+    final boolean warmUpEnabled;
+    final int warmUpConnections;
+    final int warmUpIterations;
+    final boolean staleWhileRevalidate;
+    final long tokenGracePeriod;
+    final String tenantDomain;
+    final int tenantMaxConcurrentRequests;
+    final int tenantMaxLocalTokens;
+    final int[] bulkheadMaxConcurrentRequests = new int[NamBulkhead.Type.values().length];
+    final int[] bulkheadMaxQueuedRequests = new int[NamBulkhead.Type.values().length];
+    final long[] bulkheadQueueTimeouts = new long[NamBulkhead.Type.values().length];
+    final boolean validationBorrowsIdleCapacity;
+    final String sidecarMode;
+    final int sidecarPort;
+    final int sidecarTimeout;
+    /**
+     * Key which the sidecar and its clients authenticate each other with, null if no sidecar is configured.
+     */
+    final byte[] sidecarKey;
+    final long operationTimeout;
+    private final Map<String, Long> operationTimeouts = new HashMap<>();
+    final int connectTimeout;
+    final int socketTimeout;
+    final RequestConfig requestConfig;
+    final double consistencySampleRate;
+    final int consistencyMaxRate;
+    final int consistencyWindow;
+    final double consistencyDivergenceThreshold;
+    final boolean consistencyShortenTTL;
+    final Class<? extends NamTransport> transportClass;
+    final String workloadRecordingFile;
+    final long workloadRecordingMaxFileSize;
+    final int workloadRecordingMaxFiles;
+    final int heavyHitterTopK;
+    final long heavyHitterWindow;
+
+    private NamConfigurationSnapshot(KeyManagerConfiguration configuration) throws APIManagementException {
+        for (String name : COMPARED_PARAMETERS) {
+            comparedParameters.put(name, configuration.getParameter(name));
+        }
+        username = getMandatoryParameter(configuration, NAMConstants.CONFIG_USERNAME);
+        password = getMandatoryParameter(configuration, NAMConstants.CONFIG_PASSWORD);
+        clientId = getMandatoryParameter(configuration, NAMConstants.CONFIG_CLIENT_ID);
+        clientSecret = getMandatoryParameter(configuration, NAMConstants.CONFIG_CLIENT_SECRET);
+        tokenEndpoint = getMandatoryParameter(configuration, NAMConstants.CONFIG_NAM_TOKEN_ENDPOINT);
+        tokenInfoEndpoint = getMandatoryParameter(configuration, NAMConstants.CONFIG_NAM_TOKENINFO_ENDPOINT);
+        clientEndpoint = getMandatoryParameter(configuration, NAMConstants.CONFIG_NAM_CLIENT_ENDPOINT);
+        for (String endpoint : new String[]{tokenEndpoint, tokenInfoEndpoint, clientEndpoint}) {
+            try {
+                URI uri = URI.create(endpoint);
+                if (uri.getScheme() == null || uri.getHost() == null) {
+                    throw new IllegalArgumentException("Scheme and host are mandatory.");
+                }
+            } catch (IllegalArgumentException e) {
+                String msg = String.format("NetIQ endpoint %s is not a valid URL.", endpoint);
+                log.error(msg, e);
+                throw new APIManagementException(msg, e);
+            }
+        }
+
+        String grantType = configuration.getParameter(NAMConstants.CONFIG_ADMIN_TOKEN_GRANT_TYPE);
+        adminTokenGrantType = StringUtils.isEmpty(grantType) ? NAMConstants.PASSWORD : grantType.trim();
+        if (!NAMConstants.PASSWORD.equals(adminTokenGrantType)
+                && !NAMConstants.CLIENT_CREDENTIALS.equals(adminTokenGrantType)) {
+            String msg = String.format("Value %s of the property %s must be either %s or %s.", grantType,
+                    NAMConstants.CONFIG_ADMIN_TOKEN_GRANT_TYPE, NAMConstants.PASSWORD,
+                    NAMConstants.CLIENT_CREDENTIALS);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+
+        applicationCacheTTL = NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_APPLICATION_CACHE_TTL, NAMConstants.DEFAULT_APPLICATION_CACHE_TTL) * 1000;
+        tokenCacheTTL = NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_TOKEN_CACHE_TTL,
+                NAMConstants.DEFAULT_TOKEN_CACHE_TTL) * 1000;
+        tokenCacheMaxEntries = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_TOKEN_CACHE_MAX_ENTRIES, NAMConstants.DEFAULT_TOKEN_CACHE_MAX_ENTRIES);
+        cleanupInterval = NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_TOKEN_INDEX_CLEANUP_INTERVAL, NAMConstants.DEFAULT_TOKEN_INDEX_CLEANUP_INTERVAL);
+        revokedTokenRetention = NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_REVOKED_TOKEN_RETENTION, NAMConstants.DEFAULT_REVOKED_TOKEN_RETENTION) * 1000;
+        revokedTokenFilterSize = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_REVOKED_TOKEN_FILTER_SIZE, NAMConstants.DEFAULT_REVOKED_TOKEN_FILTER_SIZE);
+        maxConnections = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_MAX_CONNECTIONS,
+                NAMConstants.DEFAULT_MAX_CONNECTIONS);
+        maxConnectionsPerRoute = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_MAX_CONNECTIONS_PER_ROUTE, NAMConstants.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        warmUpEnabled = NAMConfigUtils.getBooleanParameter(configuration, NAMConstants.CONFIG_WARM_UP_ENABLED,
+                false);
+        warmUpConnections = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_WARM_UP_CONNECTIONS, NAMConstants.DEFAULT_WARM_UP_CONNECTIONS);
+        warmUpIterations = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_WARM_UP_ITERATIONS, NAMConstants.DEFAULT_WARM_UP_ITERATIONS);
+        staleWhileRevalidate = NAMConfigUtils.getBooleanParameter(configuration,
+                NAMConstants.CONFIG_TOKEN_STALE_WHILE_REVALIDATE, false);
+        tokenGracePeriod = NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_TOKEN_GRACE_PERIOD,
+                NAMConstants.DEFAULT_TOKEN_GRACE_PERIOD) * 1000;
+        String tenant = configuration.getParameter(NAMConstants.CONFIG_TENANT_DOMAIN);
+        tenantDomain = StringUtils.isEmpty(tenant) ? NAMConstants.DEFAULT_TENANT_DOMAIN : tenant.trim();
+        tenantMaxConcurrentRequests = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_TENANT_MAX_CONCURRENT_REQUESTS, 0);
+        tenantMaxLocalTokens = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_TENANT_MAX_LOCAL_TOKENS, 0);
+        for (NamBulkhead.Type type : NamBulkhead.Type.values()) {
+            String prefix = type.getConfigPrefix();
+            bulkheadMaxConcurrentRequests[type.ordinal()] = (int) NAMConfigUtils.getLongParameter(configuration,
+                    prefix + NAMConstants.CONFIG_BULKHEAD_MAX_CONCURRENT_REQUESTS,
+                    type.getDefaultMaxConcurrentRequests());
+            bulkheadMaxQueuedRequests[type.ordinal()] = (int) NAMConfigUtils.getLongParameter(configuration,
+                    prefix + NAMConstants.CONFIG_BULKHEAD_MAX_QUEUED_REQUESTS,
+                    NAMConstants.DEFAULT_BULKHEAD_MAX_QUEUED_REQUESTS);
+            bulkheadQueueTimeouts[type.ordinal()] = NAMConfigUtils.getLongParameter(configuration,
+                    prefix + NAMConstants.CONFIG_BULKHEAD_QUEUE_TIMEOUT, type.getDefaultQueueTimeout());
+        }
+        validationBorrowsIdleCapacity = NAMConfigUtils.getBooleanParameter(configuration,
+                NAMConstants.CONFIG_VALIDATION_BORROW_IDLE_CAPACITY, false);
+        String mode = configuration.getParameter(NAMConstants.CONFIG_SIDECAR_MODE);
+        sidecarMode = StringUtils.isEmpty(mode) ? null : mode.trim().toLowerCase(Locale.ENGLISH);
+        if (sidecarMode != null && !NAMConstants.SIDECAR_MODE_SERVER.equals(sidecarMode)
+                && !NAMConstants.SIDECAR_MODE_CLIENT.equals(sidecarMode)) {
+            String msg = String.format("Value %s of the property %s must be either %s or %s.", mode,
+                    NAMConstants.CONFIG_SIDECAR_MODE, NAMConstants.SIDECAR_MODE_SERVER,
+                    NAMConstants.SIDECAR_MODE_CLIENT);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        sidecarPort = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_SIDECAR_PORT,
+                NAMConstants.DEFAULT_SIDECAR_PORT);
+        sidecarTimeout = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_SIDECAR_TIMEOUT,
+                NAMConstants.DEFAULT_SIDECAR_TIMEOUT);
+        sidecarKey = sidecarMode == null ? null
+                : readSidecarKey(configuration.getParameter(NAMConstants.CONFIG_SIDECAR_KEY_FILE));
+        operationTimeout = NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_OPERATION_TIMEOUT,
+                NAMConstants.DEFAULT_OPERATION_TIMEOUT);
+        for (String operation : TIMED_OPERATIONS) {
+            operationTimeouts.put(operation, NAMConfigUtils.getLongParameter(configuration,
+                    timeoutPropertyOf(operation), operationTimeout));
+        }
+        connectTimeout = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_CONNECT_TIMEOUT,
+                NAMConstants.DEFAULT_CONNECT_TIMEOUT);
+        socketTimeout = (int) NAMConfigUtils.getLongParameter(configuration, NAMConstants.CONFIG_SOCKET_TIMEOUT,
+                NAMConstants.DEFAULT_SOCKET_TIMEOUT);
+        requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout).setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectTimeout).build();
+        consistencySampleRate = Math.max(0, Math.min(1, NAMConfigUtils.getDoubleParameter(configuration,
+                NAMConstants.CONFIG_CONSISTENCY_SAMPLE_RATE, 0)));
+        consistencyMaxRate = (int) NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_CONSISTENCY_MAX_RATE, NAMConstants.DEFAULT_CONSISTENCY_MAX_RATE);
+        consistencyWindow = (int) Math.max(1, NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_CONSISTENCY_WINDOW, NAMConstants.DEFAULT_CONSISTENCY_WINDOW));
+        consistencyDivergenceThreshold = NAMConfigUtils.getDoubleParameter(configuration,
+                NAMConstants.CONFIG_CONSISTENCY_DIVERGENCE_THRESHOLD,
+                NAMConstants.DEFAULT_CONSISTENCY_DIVERGENCE_THRESHOLD);
+        consistencyShortenTTL = NAMConfigUtils.getBooleanParameter(configuration,
+                NAMConstants.CONFIG_CONSISTENCY_SHORTEN_TTL, false);
+        transportClass = NamConnectionPool.transportClassOf(configuration.getParameter(
+                NAMConstants.CONFIG_HTTP_TRANSPORT));
+        String recordingFile = configuration.getParameter(NAMConstants.CONFIG_WORKLOAD_RECORDING_FILE);
+        workloadRecordingFile = StringUtils.isBlank(recordingFile) ? null : recordingFile.trim();
+        workloadRecordingMaxFileSize = Math.max(1, NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILE_SIZE,
+                NAMConstants.DEFAULT_WORKLOAD_RECORDING_MAX_FILE_SIZE)) * 1024 * 1024;
+        workloadRecordingMaxFiles = (int) Math.max(1, NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILES, NAMConstants.DEFAULT_WORKLOAD_RECORDING_MAX_FILES));
+        heavyHitterTopK = (int) Math.max(0, NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_HEAVY_HITTER_TOP_K, NAMConstants.DEFAULT_HEAVY_HITTER_TOP_K));
+        heavyHitterWindow = Math.max(1, NAMConfigUtils.getLongParameter(configuration,
+                NAMConstants.CONFIG_HEAVY_HITTER_WINDOW, NAMConstants.DEFAULT_HEAVY_HITTER_WINDOW)) * 1000;
+    }
+
+    /**
+     * This method reads and validates a key manager configuration.
+     *
+     * @param configuration key manager configuration
+     * @return snapshot of the configuration
+     * @throws APIManagementException if a mandatory property is missing or a property has an invalid value
+     */
+    static NamConfigurationSnapshot from(KeyManagerConfiguration configuration) throws APIManagementException {
+        return new NamConfigurationSnapshot(configuration);
+    }
+
+    /**
+     * @param other previous snapshot, may be null
+     * @return true if the admin access token obtained with the other snapshot can not be used with this one
+     */
+    boolean adminCredentialsChanged(NamConfigurationSnapshot other) {
+        return other == null || !username.equals(other.username) || !password.equals(other.password)
+                || !clientId.equals(other.clientId) || !clientSecret.equals(other.clientSecret)
+                || !tokenEndpoint.equals(other.tokenEndpoint) || !adminTokenGrantType.equals(other.adminTokenGrantType);
+    }
+
+    /**
+     * @param other configuration of another key manager
+     * @return true if both configurations use the same admin client of the same NetIQ server for the same tenant,
+     *         i.e. one key manager replaces the other
+     */
+    boolean sameKeyManager(NamConfigurationSnapshot other) {
+        return tenantDomain.equals(other.tenantDomain) && clientId.equals(other.clientId)
+                && tokenEndpoint.equals(other.tokenEndpoint);
+    }
+
+    /**
+     * This method compares the properties which configure the state shared by the key managers of a tenant: the
+     * quotas of the tenant, and the token state of a tokenInfo endpoint if both configurations use the same one.
+     *
+     * @param other configuration of another key manager of the same tenant
+     * @return name of the first shared property which the other configuration sets differently, null if none
+     */
+    String sharedStateConflict(NamConfigurationSnapshot other) {
+        if (tenantMaxConcurrentRequests != other.tenantMaxConcurrentRequests) {
+            return NAMConstants.CONFIG_TENANT_MAX_CONCURRENT_REQUESTS;
+        }
+        if (tenantMaxLocalTokens != other.tenantMaxLocalTokens) {
+            return NAMConstants.CONFIG_TENANT_MAX_LOCAL_TOKENS;
+        }
+        if (!tokenInfoEndpoint.equals(other.tokenInfoEndpoint)) {
+            return null;
+        }
+        if (tokenCacheTTL != other.tokenCacheTTL) {
+            return NAMConstants.CONFIG_TOKEN_CACHE_TTL;
+        }
+        if (tokenCacheMaxEntries != other.tokenCacheMaxEntries) {
+            return NAMConstants.CONFIG_TOKEN_CACHE_MAX_ENTRIES;
+        }
+        if (staleWhileRevalidate != other.staleWhileRevalidate) {
+            return NAMConstants.CONFIG_TOKEN_STALE_WHILE_REVALIDATE;
+        }
+        if (tokenGracePeriod != other.tokenGracePeriod) {
+            return NAMConstants.CONFIG_TOKEN_GRACE_PERIOD;
+        }
+        if (revokedTokenRetention != other.revokedTokenRetention) {
+            return NAMConstants.CONFIG_REVOKED_TOKEN_RETENTION;
+        }
+        if (revokedTokenFilterSize != other.revokedTokenFilterSize) {
+            return NAMConstants.CONFIG_REVOKED_TOKEN_FILTER_SIZE;
+        }
+        return null;
+    }
+
+    /**
+     * @param other previous snapshot, may be null
+     * @param names names of the properties to compare, which have to be among the {@link #COMPARED_PARAMETERS}
+     * @return true if any of the given properties has a different value in the other snapshot
+     */
+    boolean parametersChanged(NamConfigurationSnapshot other, String... names) {
+        for (String name : names) {
+            if (!comparedParameters.containsKey(name)) {
+                throw new IllegalArgumentException("Property " + name + " is not kept by the configuration snapshot.");
+            }
+        }
+        if (other == null) {
+            return true;
+        }
+        for (String name : names) {
+            if (!StringUtils.equals(comparedParameters.get(name), other.comparedParameters.get(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param operation span name of the operation, e.g. {@link NAMConstants#SPAN_UPDATE_APPLICATION}
+     * @return time budget of the operation in milliseconds, 0 or less for no limit
+     */
+    long operationTimeout(String operation) {
+        Long timeout = operationTimeouts.get(operation);
+        return timeout == null ? operationTimeout : timeout;
+    }
+
+    /**
+     * @param operation span name of the operation, e.g. nam.updateApplication
+     * @return name of the property which configures the time budget of the operation, e.g. UpdateApplicationTimeout
+     */
+    static String timeoutPropertyOf(String operation) {
+        String name = operation.substring(operation.indexOf('.') + 1);
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1) + NAMConstants.CONFIG_TIMEOUT_SUFFIX;
+    }
+
+    /**
+     * This method returns the timeouts for a request to NetIQ. The configured connect and socket timeouts are
+     * shortened to the time left until the deadline of the current operation.
+     *
+     * @param remainingMillis time left until the deadline of the current operation in milliseconds
+     * @return timeouts for the request
+     */
+    RequestConfig requestConfig(long remainingMillis) {
+        if (remainingMillis >= connectTimeout && remainingMillis >= socketTimeout) {
+            return requestConfig;
+        }
+        int connect = (int) Math.min(connectTimeout, remainingMillis);
+        return RequestConfig.copy(requestConfig).setConnectTimeout(connect)
+                .setSocketTimeout((int) Math.min(socketTimeout, remainingMillis))
+                .setConnectionRequestTimeout(connect).build();
+    }
+
+    /**
+     * @return scheme and authority of each NetIQ endpoint, which identify the connection pools to use
+     */
+    String[] endpointHosts() {
+        return new String[]{hostOf(tokenEndpoint), hostOf(tokenInfoEndpoint), hostOf(clientEndpoint)};
+    }
+
+    static String hostOf(String endpoint) {
+        URI uri = URI.create(endpoint);
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    /**
+     * This method reads the key of the introspection sidecar. Since the key lets a process validate tokens through
+     * the sidecar, or answer the validation requests of the key managers on the host, the key file may only be
+     * accessible by its owner, i.e. the user the gateway runs as.
+     *
+     * @param file path of the key file
+     * @return the key
+     * @throws APIManagementException if the key file is not configured, can be accessed by other users, can not be
+     *                                read or holds a key which is too short
+     */
+    private static byte[] readSidecarKey(String file) throws APIManagementException {
+        if (StringUtils.isEmpty(file)) {
+            String msg = String.format("Property %s is required when %s is set, since the introspection sidecar " +
+                    "only serves key managers which share its key.", NAMConstants.CONFIG_SIDECAR_KEY_FILE,
+                    NAMConstants.CONFIG_SIDECAR_MODE);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        Path path = Paths.get(file.trim());
+        byte[] key;
+        try {
+            if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+                permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+                if (!permissions.isEmpty()) {
+                    String msg = String.format("Key file %s of the introspection sidecar must only be accessible " +
+                            "by its owner, but it also has the permissions %s.", path, permissions);
+                    log.error(msg);
+                    throw new APIManagementException(msg);
+                }
+            }
+            key = Files.readAllBytes(path);
+        } catch (IOException e) {
+            String msg = String.format("Could not read the key file %s of the introspection sidecar.", path);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+        if (key.length < IntrospectionSidecarProtocol.MIN_KEY_LENGTH) {
+            String msg = String.format("Key file %s of the introspection sidecar must hold at least %s bytes.", path,
+                    IntrospectionSidecarProtocol.MIN_KEY_LENGTH);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        return key;
+    }
+
+    private static String getMandatoryParameter(KeyManagerConfiguration configuration, String name)
+            throws APIManagementException {
+        String value = configuration.getParameter(name);
+        if (StringUtils.isEmpty(value)) {
+            String msg = String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, name);
+            log.error(msg);
+            throw new APIManagementException(msg);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent connections to a NetIQ host, shared by all the key managers of the JVM which call the host.
+ * The connections are owned by the {@link NamTransport transport} of the host, which is selected with the
+ * {@value NAMConstants#CONFIG_HTTP_TRANSPORT} property. Responses have to be closed after their entity is read, so
+ * that the connection can be reused.
+ * <p>
+ * The requests to the host are divided into {@link NamBulkhead bulkheads} by operation class. The pool always holds
+ * enough connections for every bulkhead to use its full budget at the same time, so that the budget of one class is
+ * never taken by another.
+ */
+class NamConnectionPool {
+    private static final Log log = LogFactory.getLog(NamConnectionPool.class);
+
+    private final String host;
+    private volatile NamTransport transport;
+    private final Map<NamBulkhead.Type, NamBulkhead> bulkheads = new EnumMap<>(NamBulkhead.Type.class);
+    private volatile boolean validationBorrowsIdleCapacity;
+
+    /**
+     * @param host scheme and authority of the NetIQ host
+     */
+    NamConnectionPool(String host) {
+        this.host = host;
+        transport = new HttpClient4Transport();
+        transport.init(host);
+        for (NamBulkhead.Type type : NamBulkhead.Type.values()) {
+            NamBulkhead bulkhead = new NamBulkhead(type);
+            bulkhead.registerMetrics(host);
+            bulkheads.put(type, bulkhead);
+        }
+    }
+
+    /**
+     * This method resolves the transport selected by the value of the {@value NAMConstants#CONFIG_HTTP_TRANSPORT}
+     * property.
+     *
+     * @param name {@value NAMConstants#HTTP_TRANSPORT_HTTP_CLIENT_4}, {@value NAMConstants#HTTP_TRANSPORT_HTTP_2}, or
+     *             the fully qualified name of a {@link NamTransport} implementation, null for the default transport
+     * @return class of the transport
+     * @throws APIManagementException if the transport is unknown or can not be used in this JVM
+     */
+    static Class<? extends NamTransport> transportClassOf(String name) throws APIManagementException {
+        if (StringUtils.isEmpty(name) || NAMConstants.HTTP_TRANSPORT_HTTP_CLIENT_4.equalsIgnoreCase(name.trim())) {
+            return HttpClient4Transport.class;
+        }
+        if (NAMConstants.HTTP_TRANSPORT_HTTP_2.equalsIgnoreCase(name.trim())) {
+            if (!Http2Transport.isAvailable()) {
+                String msg = String.format("The %s transport needs Java 11 or later.",
+                        NAMConstants.HTTP_TRANSPORT_HTTP_2);
+                log.error(msg);
+                throw new APIManagementException(msg);
+            }
+            return Http2Transport.class;
+        }
+        try {
+            return Class.forName(name.trim(), false, NamConnectionPool.class.getClassLoader())
+                    .asSubclass(NamTransport.class);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            String msg = String.format("Could not load the HTTP transport %s.", name);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+    }
+
+    /**
+     * This method sizes the pool and its bulkheads, and sets the connect timeout of the transport, for the key
+     * managers calling the host. Each limit and the timeout is the highest one configured by any of the key managers.
+     * The transport is replaced if the key managers have selected another one, and the previous transport is closed
+     * after a delay, so that requests which are in flight can complete.
+     *
+     * @param configurations configurations of the key managers calling the host
+     */
+    void configure(Collection<NamConfigurationSnapshot> configurations) {
+        Class<? extends NamTransport> transportClass = null;
+        for (NamConfigurationSnapshot settings : configurations) {
+            if (transportClass == null) {
+                transportClass = settings.transportClass;
+            } else if (transportClass != settings.transportClass) {
+                log.warn(String.format("The key managers calling %s have selected different HTTP transports. Hence " +
+                        "the %s transport is used.", host, NAMConstants.HTTP_TRANSPORT_HTTP_CLIENT_4));
+                transportClass = HttpClient4Transport.class;
+                break;
+            }
+        }
+        if (transportClass != null && transportClass != transport.getClass()) {
+            replaceTransport(transportClass);
+        }
+
+        int maxConnections = 0;
+        int maxConnectionsPerRoute = 0;
+        int connectTimeout = 0;
+        boolean borrow = false;
+        int[] maxConcurrentRequests = new int[bulkheads.size()];
+        int[] maxQueuedRequests = new int[bulkheads.size()];
+        long[] queueTimeouts = new long[bulkheads.size()];
+        for (NamConfigurationSnapshot settings : configurations) {
+            maxConnections = Math.max(maxConnections, settings.maxConnections);
+            maxConnectionsPerRoute = Math.max(maxConnectionsPerRoute, settings.maxConnectionsPerRoute);
+            connectTimeout = Math.max(connectTimeout, settings.connectTimeout);
+            borrow |= settings.validationBorrowsIdleCapacity;
+            for (int i = 0; i < maxConcurrentRequests.length; i++) {
+                maxConcurrentRequests[i] = Math.max(maxConcurrentRequests[i],
+                        settings.bulkheadMaxConcurrentRequests[i]);
+                maxQueuedRequests[i] = Math.max(maxQueuedRequests[i], settings.bulkheadMaxQueuedRequests[i]);
+                queueTimeouts[i] = Math.max(queueTimeouts[i], settings.bulkheadQueueTimeouts[i]);
+            }
+        }
+        int budget = 0;
+        for (NamBulkhead bulkhead : bulkheads.values()) {
+            int i = bulkhead.getType().ordinal();
+            bulkhead.configure(maxConcurrentRequests[i], maxQueuedRequests[i], queueTimeouts[i]);
+            budget = maxConcurrentRequests[i] > 0 && budget >= 0 ? budget + maxConcurrentRequests[i] : -1;
+        }
+        validationBorrowsIdleCapacity = borrow;
+        maxConnectionsPerRoute = Math.max(maxConnectionsPerRoute, budget);
+        setLimits(Math.max(maxConnections, maxConnectionsPerRoute), maxConnectionsPerRoute);
+        if (!configurations.isEmpty()) {
+            transport.setConnectTimeout(connectTimeout);
+        }
+    }
+
+    /**
+     * This method takes a slot of the bulkhead of the given operation class. Token validations may borrow a slot of
+     * another bulkhead which has idle capacity, if this is enabled. The slot has to be given back with
+     * {@link NamBulkhead#release()} on the returned bulkhead.
+     *
+     * @param type operation class of the request
+     * @return the bulkhead the slot was taken from
+     * @throws IOException if no slot is available
+     */
+    NamBulkhead acquire(NamBulkhead.Type type) throws IOException {
+        NamBulkhead bulkhead = bulkheads.get(type);
+        if (bulkhead.tryAcquire()) {
+            return bulkhead;
+        }
+        if (type == NamBulkhead.Type.VALIDATION && validationBorrowsIdleCapacity) {
+            for (NamBulkhead lender : bulkheads.values()) {
+                if (lender != bulkhead && lender.tryLend()) {
+                    bulkhead.borrowed();
+                    return lender;
+                }
+            }
+        }
+        bulkhead.acquire();
+        return bulkhead;
+    }
+
+    private void replaceTransport(Class<? extends NamTransport> transportClass) {
+        final NamTransport newTransport;
+        try {
+            newTransport = transportClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException | RuntimeException e) {
+            log.error(String.format("Could not create the HTTP transport %s for %s. Hence the current transport is " +
+                    "kept.", transportClass.getName(), host), e);
+            return;
+        }
+        newTransport.init(host);
+        final NamTransport oldTransport = transport;
+        transport = newTransport;
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Replaced the HTTP transport of %s with %s.", host, transportClass.getName()));
+        }
+        NamExecutors.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                oldTransport.close();
+            }
+        }, NAMConstants.CONNECTION_POOL_RETIREMENT_DELAY, TimeUnit.SECONDS);
+    }
+
+    /**
+     * This method changes the connection limits of the pool. Connections above the new limits are closed once they
+     * are released.
+     *
+     * @param maxConnections maximum number of connections
+     * @param maxConnectionsPerRoute maximum number of connections to a single route
+     */
+    private void setLimits(int maxConnections, int maxConnectionsPerRoute) {
+        transport.setLimits(maxConnections, maxConnectionsPerRoute);
+    }
+
+    /**
+     * @return transport which carries the requests to the host
+     */
+    NamTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * This method opens connections to the host of the given endpoint in advance, so that the first calls to the
+     * endpoint do not pay for the TCP and TLS handshakes.
+     *
+     * @param endpoint URL of a NetIQ endpoint
+     * @param count number of connections to open
+     * @param timeoutMillis connect timeout of each connection
+     * @return number of connections which were opened
+     */
+    int preOpen(String endpoint, int count, int timeoutMillis) {
+        return transport.preOpen(endpoint, count, timeoutMillis);
+    }
+
+    void close() {
+        for (NamBulkhead bulkhead : bulkheads.values()) {
+            bulkhead.unregisterMetrics();
+        }
+        transport.close();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of a key manager operation. The deadline of the operation is bound to the calling thread while the
+ * operation runs, so that each NetIQ request it makes derives its timeouts from the time left. An operation which
+ * makes several requests divides its budget with {@link #split(int)}, so that one slow request can not use up the
+ * time of the requests after it.
+ * <p>
+ * Deadlines nest: a deadline which is started while another one is active never ends later than the outer one.
+ * Each deadline has to be closed on the thread which started it, in the reverse order of starting.
+ */
+final class NamDeadline {
+    private static final ThreadLocal<NamDeadline> CURRENT = new ThreadLocal<>();
+
+    private final String operation;
+    private final long deadlineNanos;
+    private final NamDeadline outer;
+
+    private NamDeadline(String operation, long deadlineNanos, NamDeadline outer) {
+        this.operation = operation;
+        this.deadlineNanos = deadlineNanos;
+        this.outer = outer;
+    }
+
+    /**
+     * This method starts the deadline of an operation on the calling thread.
+     *
+     * @param operation name of the operation, used in error messages
+     * @param budgetMillis time the operation may take, 0 or less for no limit of its own
+     * @return the deadline, which has to be closed once the operation completes
+     */
+    static NamDeadline start(String operation, long budgetMillis) {
+        NamDeadline outer = CURRENT.get();
+        long deadlineNanos;
+        if (budgetMillis > 0) {
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            if (outer != null && outer.deadlineNanos - deadlineNanos < 0) {
+                deadlineNanos = outer.deadlineNanos;
+            }
+        } else if (outer != null) {
+            deadlineNanos = outer.deadlineNanos;
+        } else {
+            // Without a budget the deadline only marks the operation, it never expires.
+            deadlineNanos = Long.MAX_VALUE;
+        }
+        NamDeadline deadline = new NamDeadline(operation, deadlineNanos, outer);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * This method starts a deadline for the next of the given number of calls the current operation still has to
+     * make, which gets an equal share of the time left. The share of a call which completes early is left to the
+     * calls after it.
+     *
+     * @param remainingCalls number of calls the operation still has to make, including the next one
+     * @return the deadline of the next call, which has to be closed once the call completes
+     */
+    static NamDeadline split(int remainingCalls) {
+        NamDeadline outer = CURRENT.get();
+        if (outer == null || outer.deadlineNanos == Long.MAX_VALUE || remainingCalls <= 1) {
+            return start(outer == null ? null : outer.operation, 0);
+        }
+        long share = Math.max(0, outer.deadlineNanos - System.nanoTime()) / remainingCalls;
+        NamDeadline deadline = new NamDeadline(outer.operation, System.nanoTime() + share, outer);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * @return time left until the deadline of the current thread in milliseconds, 0 if it has passed, and
+     * {@link Long#MAX_VALUE} if there is no deadline
+     */
+    static long remainingMillis() {
+        NamDeadline deadline = CURRENT.get();
+        if (deadline == null || deadline.deadlineNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long remaining = deadline.deadlineNanos - System.nanoTime();
+        return remaining <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /**
+     * @return deadline of the current thread, null if there is none. A callback which runs on another thread checks
+     * the deadline it was captured with before the request was dispatched.
+     */
+    static NamDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return true if the deadline of the current thread has passed
+     */
+    static boolean isExceeded() {
+        NamDeadline deadline = CURRENT.get();
+        return deadline != null && deadline.hasPassed();
+    }
+
+    /**
+     * @param detail description of the call which could not be completed in time
+     * @return an exception which reports that the deadline of the current thread has passed
+     */
+    static DeadlineElapsedIOException exceeded(String detail) {
+        return exceeded(CURRENT.get(), detail);
+    }
+
+    /**
+     * @param deadline deadline which has passed, null if it is not known
+     * @param detail description of the call which could not be completed in time
+     * @return an exception which reports that the deadline has passed
+     */
+    static DeadlineElapsedIOException exceeded(NamDeadline deadline, String detail) {
+        String operation = deadline == null || deadline.operation == null ? "NetIQ operation" : deadline.operation;
+        return new DeadlineElapsedIOException(String.format("The deadline of %s has passed. %s", operation, detail));
+    }
+
+    /**
+     * @return true if the deadline has passed
+     */
+    boolean hasPassed() {
+        return deadlineNanos != Long.MAX_VALUE && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * This method ends the deadline and makes the deadline it was started within the current one again.
+     */
+    void close() {
+        if (outer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(outer);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * Thrown when a key manager operation could not be completed within its time budget, configured with the
+ * OperationTimeout property or the timeout property of the operation, e.g. UpdateApplicationTimeout. This is an
+ * overrun of the local budget and does not mark NetIQ as down. Like for other {@link NamUnavailableException}s,
+ * results may still be served from the grace window of the token validation cache.
+ */
+public class NamDeadlineExceededException extends NamUnavailableException {
+
+    public NamDeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public NamDeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
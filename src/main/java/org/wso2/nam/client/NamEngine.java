@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide engine which the NetIQ key manager instances of the JVM register with. The engine owns one connection
+ * pool per NetIQ host, with its bulkheads sized for the most demanding key manager calling the host, so that the
+ * total load on NetIQ is bounded no matter how many key managers are configured. It also owns the
+ * {@link NamTenant tenants}, which hold the token state and the quotas shared by the key managers of a tenant.
+ * A key manager stays registered until it is shut down, or replaced by a key manager of the same admin client.
+ */
+final class NamEngine {
+    private static final Log log = LogFactory.getLog(NamEngine.class);
+    private static final NamEngine INSTANCE = new NamEngine();
+
+    private final Map<NamOauthClient, NamConfigurationSnapshot> registrations = new IdentityHashMap<>();
+    private final ConcurrentMap<String, NamConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final Map<String, List<NamConfigurationSnapshot>> hostConfigurations = new HashMap<>();
+    private final ConcurrentMap<String, NamTenant> tenants = new ConcurrentHashMap<>();
+
+    private NamEngine() {
+    }
+
+    static NamEngine get() {
+        return INSTANCE;
+    }
+
+    /**
+     * This method looks up the key manager which a key manager replaces, i.e. another registered key manager which
+     * uses the same admin client of the same NetIQ server for the same tenant.
+     *
+     * @param keyManager the key manager
+     * @param settings configuration of the key manager
+     * @return the replaced key manager, null if there is none
+     */
+    synchronized NamOauthClient findReplaced(NamOauthClient keyManager, NamConfigurationSnapshot settings) {
+        for (Map.Entry<NamOauthClient, NamConfigurationSnapshot> entry : registrations.entrySet()) {
+            if (entry.getKey() != keyManager && settings.sameKeyManager(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method registers a key manager, or updates its registration after it has been reconfigured. The token
+     * state and the quotas of a tenant are shared by its key managers, hence a configuration which sets them
+     * differently from another key manager of the tenant is rejected.
+     *
+     * @param keyManager the key manager
+     * @param settings configuration of the key manager
+     * @return the tenant of the key manager
+     * @throws APIManagementException if the configuration conflicts with the one of another key manager
+     */
+    synchronized NamTenant register(NamOauthClient keyManager, NamConfigurationSnapshot settings)
+            throws APIManagementException {
+        for (Map.Entry<NamOauthClient, NamConfigurationSnapshot> entry : registrations.entrySet()) {
+            NamConfigurationSnapshot other = entry.getValue();
+            if (entry.getKey() == keyManager || !settings.tenantDomain.equals(other.tenantDomain)
+                    || settings.sameKeyManager(other)) {
+                continue;
+            }
+            String conflict = settings.sharedStateConflict(other);
+            if (conflict != null) {
+                String msg = String.format("Property %s must have the same value for every NetIQ key manager of " +
+                        "tenant %s, since they share the state of the tenant. Another key manager sets it to a " +
+                        "different value.", conflict, settings.tenantDomain);
+                log.error(msg);
+                throw new APIManagementException(msg);
+            }
+        }
+        registrations.put(keyManager, settings);
+        NamTenant tenant = tenants.get(settings.tenantDomain);
+        if (tenant == null) {
+            tenant = new NamTenant(settings.tenantDomain);
+            tenants.put(settings.tenantDomain, tenant);
+            tenant.registerMetrics();
+        }
+        tenant.configure(settings);
+        rebalance();
+        return tenant;
+    }
+
+    /**
+     * This method removes a key manager from the engine. Connection pools and tenants which no other key manager
+     * uses are released.
+     *
+     * @param keyManager the key manager
+     */
+    synchronized void unregister(NamOauthClient keyManager) {
+        if (registrations.remove(keyManager) != null) {
+            rebalance();
+        }
+    }
+
+    /**
+     * @param endpoint URL of a NetIQ endpoint
+     * @return connection pool for the host of the endpoint
+     */
+    NamConnectionPool getConnectionPool(String endpoint) {
+        String host = NamConfigurationSnapshot.hostOf(endpoint);
+        NamConnectionPool pool = connectionPools.get(host);
+        if (pool == null) {
+            synchronized (this) {
+                pool = connectionPools.get(host);
+                if (pool == null) {
+                    pool = new NamConnectionPool(host);
+                    List<NamConfigurationSnapshot> configurations = hostConfigurations.get(host);
+                    if (configurations != null) {
+                        pool.configure(configurations);
+                    }
+                    connectionPools.put(host, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * This method sizes the connection pools for the registered key managers and releases the pools and tenants
+     * which are no longer used. Released pools are closed after a delay, so that requests which are in flight can
+     * complete.
+     */
+    private void rebalance() {
+        hostConfigurations.clear();
+        Map<String, Set<String>> tokenInfoEndpoints = new HashMap<>();
+        for (NamConfigurationSnapshot settings : registrations.values()) {
+            for (String host : new HashSet<>(Arrays.asList(settings.endpointHosts()))) {
+                List<NamConfigurationSnapshot> configurations = hostConfigurations.get(host);
+                if (configurations == null) {
+                    configurations = new ArrayList<>();
+                    hostConfigurations.put(host, configurations);
+                }
+                configurations.add(settings);
+            }
+            Set<String> endpoints = tokenInfoEndpoints.get(settings.tenantDomain);
+            if (endpoints == null) {
+                endpoints = new HashSet<>();
+                tokenInfoEndpoints.put(settings.tenantDomain, endpoints);
+            }
+            endpoints.add(settings.tokenInfoEndpoint);
+        }
+
+        for (Iterator<Map.Entry<String, NamConnectionPool>> iterator = connectionPools.entrySet().iterator();
+             iterator.hasNext(); ) {
+            final Map.Entry<String, NamConnectionPool> entry = iterator.next();
+            List<NamConfigurationSnapshot> configurations = hostConfigurations.get(entry.getKey());
+            if (configurations != null) {
+                entry.getValue().configure(configurations);
+                continue;
+            }
+            iterator.remove();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Releasing the connection pool of %s since no key manager uses it.",
+                        entry.getKey()));
+            }
+            NamExecutors.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    entry.getValue().close();
+                }
+            }, NAMConstants.CONNECTION_POOL_RETIREMENT_DELAY, TimeUnit.SECONDS);
+        }
+
+        for (Iterator<NamTenant> iterator = tenants.values().iterator(); iterator.hasNext(); ) {
+            NamTenant tenant = iterator.next();
+            Set<String> endpoints = tokenInfoEndpoints.get(tenant.getDomain());
+            if (endpoints == null) {
+                iterator.remove();
+                tenant.unregisterMetrics();
+            } else {
+                tenant.retainTokenStates(endpoints);
+            }
+        }
+    }
+}
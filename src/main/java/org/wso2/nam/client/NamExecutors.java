@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background threads shared by the NetIQ key manager instances of this JVM. All threads are daemon threads, so that
+ * they never keep the server from shutting down.
+ */
+final class NamExecutors {
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newScheduledThreadPool(1, daemonThreadFactory("nam-keymanager-scheduler"));
+    private static final ExecutorService REVALIDATION = createRevalidationExecutor();
+    private static final ExecutorService TRANSPORT = createTransportExecutor();
+    private static final ExpiryWheel EXPIRY_WHEEL = createExpiryWheel();
+
+    private NamExecutors() {
+    }
+
+    /**
+     * @return scheduler for short periodic house keeping tasks
+     */
+    static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * @return executor for token revalidations, which rejects tasks once its bounded queue is full
+     */
+    static ExecutorService revalidation() {
+        return REVALIDATION;
+    }
+
+    /**
+     * @return executor which runs the asynchronous requests of blocking transports, and rejects them once its bounded
+     * queue is full
+     */
+    static ExecutorService transport() {
+        return TRANSPORT;
+    }
+
+    /**
+     * @return timing wheel which expires the local token state, advanced by the {@link #scheduler()}
+     */
+    static ExpiryWheel expiryWheel() {
+        return EXPIRY_WHEEL;
+    }
+
+    private static ExpiryWheel createExpiryWheel() {
+        final ExpiryWheel wheel = new ExpiryWheel(NAMConstants.EXPIRY_WHEEL_TICK, System.nanoTime());
+        SCHEDULER.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                wheel.advance(System.nanoTime());
+            }
+        }, NAMConstants.EXPIRY_WHEEL_TICK, NAMConstants.EXPIRY_WHEEL_TICK, TimeUnit.MILLISECONDS);
+        return wheel;
+    }
+
+    private static ExecutorService createRevalidationExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(NAMConstants.REVALIDATION_THREADS,
+                NAMConstants.REVALIDATION_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(NAMConstants.REVALIDATION_QUEUE_SIZE),
+                daemonThreadFactory("nam-keymanager-revalidation"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService createTransportExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(NAMConstants.TRANSPORT_THREADS,
+                NAMConstants.TRANSPORT_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(NAMConstants.TRANSPORT_QUEUE_SIZE),
+                daemonThreadFactory("nam-keymanager-transport"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @param prefix prefix of the thread names
+     * @return thread factory which creates named daemon threads
+     */
+    static ThreadFactory daemonThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + '-' + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Emits the Java Flight Recorder events of the key manager. The events are only created if the JVM provides the
+ * flight recorder API, hence callers hold them as plain objects and never refer to the event classes themselves.
+ * Stack traces are not recorded, so that the events are cheap enough for always-on recordings.
+ * <p>
+ * The bundle imports jdk.jfr optionally, so that it also resolves in OSGi runtimes whose system bundle does not
+ * export the package. The events are not emitted there, unless the package is made visible to the bundle, e.g.
+ * through org.osgi.framework.system.packages.extra.
+ */
+final class NamFlightRecorder {
+    private static final Log log = LogFactory.getLog(NamFlightRecorder.class);
+    private static final boolean AVAILABLE = isFlightRecorderPresent();
+
+    private NamFlightRecorder() {
+    }
+
+    private static boolean isFlightRecorderPresent() {
+        try {
+            Class.forName("jdk.jfr.Event", false, NamFlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.debug("Java Flight Recorder is not available. Hence the key manager does not emit JFR events.");
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the events of the key manager can be recorded in this JVM
+     */
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return handle of the started request event, or null if no event has to be recorded
+     */
+    static Object beginRequest() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        NamRequestEvent event = new NamRequestEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param handle handle returned by {@link #beginRequest()}
+     * @param method HTTP method of the request
+     * @param endpoint URL of the request without the query
+     * @param statusCode status code of the response, 0 if no response was received
+     * @param requestSize size of the request body, -1 if not known
+     * @param responseSize content length of the response, -1 if not known
+     */
+    static void endRequest(Object handle, String method, String endpoint, int statusCode, long requestSize,
+                           long responseSize) {
+        if (handle == null) {
+            return;
+        }
+        NamRequestEvent event = (NamRequestEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.endpoint = endpoint;
+            event.statusCode = statusCode;
+            event.requestSize = requestSize;
+            event.responseSize = responseSize;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return handle of the started admin token refresh event, or null if no event has to be recorded
+     */
+    static Object beginTokenRefresh() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        NamTokenRefreshEvent event = new NamTokenRefreshEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param handle handle returned by {@link #beginTokenRefresh()}
+     * @param clientId client id of the key manager
+     * @param grantType grant type the token was requested with
+     * @param succeeded true if a new token has been obtained
+     */
+    static void endTokenRefresh(Object handle, String clientId, String grantType, boolean succeeded) {
+        if (handle == null) {
+            return;
+        }
+        NamTokenRefreshEvent event = (NamTokenRefreshEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.clientId = clientId;
+            event.grantType = grantType;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return handle of the started parse event, or null if no event has to be recorded
+     */
+    static Object beginParse() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        NamParseEvent event = new NamParseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param handle handle returned by {@link #beginParse()}
+     * @param succeeded true if the response could be parsed
+     */
+    static void endParse(Object handle, boolean succeeded) {
+        if (handle == null) {
+            return;
+        }
+        NamParseEvent event = (NamParseEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * This method records a hit or an eviction in the local state of the key manager.
+     *
+     * @param store name of the local store, e.g. {@link NAMConstants#LOCAL_STATE_TOKEN_CACHE}
+     * @param action what happened, e.g. {@link NAMConstants#LOCAL_STATE_HIT}
+     * @param count number of affected entries
+     */
+    static void localState(String store, String action, long count) {
+        if (!AVAILABLE || count <= 0) {
+            return;
+        }
+        NamLocalStateEvent event = new NamLocalStateEvent();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.action = action;
+            event.count = count;
+            event.commit();
+        }
+    }
+}
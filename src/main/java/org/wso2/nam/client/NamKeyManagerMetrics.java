@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Counters maintained by a NetIQ key manager instance. These are exposed through JMX under the
+ * {@value #OBJECT_NAME_PREFIX} domain.
+ */
+class NamKeyManagerMetrics implements NamKeyManagerMetricsMXBean {
+    static final String OBJECT_NAME_PREFIX = "org.wso2.nam.client:type=NamKeyManager,name=";
+
+    private final AtomicLong applicationUpdatesSkipped = new AtomicLong();
+    private final AtomicLong applicationUpdatesSent = new AtomicLong();
+    private final AtomicLong applicationLookupsAvoided = new AtomicLong();
+    private final AtomicLong tokenCacheHits = new AtomicLong();
+    private final AtomicLong tokenCacheMisses = new AtomicLong();
+    private final AtomicLong revokedTokenFilterHits = new AtomicLong();
+    private final AtomicLong revocationsApplied = new AtomicLong();
+    private final AtomicLong staleTokenResponses = new AtomicLong();
+    private final AtomicLong graceTokenResponses = new AtomicLong();
+    private final AtomicLong backgroundRevalidations = new AtomicLong();
+    private final AtomicLong sidecarResponses = new AtomicLong();
+    private final AtomicLong sidecarFallbacks = new AtomicLong();
+    private final AtomicLong sidecarRequestsServed = new AtomicLong();
+    private final AtomicLong refreshTokenGrantRenewals = new AtomicLong();
+    private final AtomicLong passwordGrantRenewals = new AtomicLong();
+    private final AtomicLong clientCredentialsGrantRenewals = new AtomicLong();
+    private final AtomicLong refreshTokenGrantFailures = new AtomicLong();
+    private final AtomicLong deadlineOverruns = new AtomicLong();
+    private final AtomicLong workloadRecordsWritten = new AtomicLong();
+    private final AtomicLong workloadRecordsDropped = new AtomicLong();
+    private volatile String lastAdminTokenGrantType;
+    private volatile long lastAdminTokenRenewalTime = -1;
+    private volatile long warmUpTime = -1;
+    private ObjectName objectName;
+
+    void applicationUpdateSkipped() {
+        applicationUpdatesSkipped.incrementAndGet();
+    }
+
+    void applicationUpdateSent() {
+        applicationUpdatesSent.incrementAndGet();
+    }
+
+    void applicationLookupAvoided() {
+        applicationLookupsAvoided.incrementAndGet();
+    }
+
+    void tokenCacheHit() {
+        tokenCacheHits.incrementAndGet();
+    }
+
+    void tokenCacheMiss() {
+        tokenCacheMisses.incrementAndGet();
+    }
+
+    void revokedTokenFilterHit() {
+        revokedTokenFilterHits.incrementAndGet();
+    }
+
+    void staleTokenServed() {
+        staleTokenResponses.incrementAndGet();
+    }
+
+    void graceTokenServed() {
+        graceTokenResponses.incrementAndGet();
+    }
+
+    void backgroundRevalidation() {
+        backgroundRevalidations.incrementAndGet();
+    }
+
+    void sidecarResponse() {
+        sidecarResponses.incrementAndGet();
+    }
+
+    void sidecarFallback() {
+        sidecarFallbacks.incrementAndGet();
+    }
+
+    void sidecarRequestServed() {
+        sidecarRequestsServed.incrementAndGet();
+    }
+
+    void revocationApplied() {
+        revocationsApplied.incrementAndGet();
+    }
+
+    void adminTokenRenewed(String grantType, long millis) {
+        if (NAMConstants.REFRESH_TOKEN.equals(grantType)) {
+            refreshTokenGrantRenewals.incrementAndGet();
+        } else if (NAMConstants.CLIENT_CREDENTIALS.equals(grantType)) {
+            clientCredentialsGrantRenewals.incrementAndGet();
+        } else {
+            passwordGrantRenewals.incrementAndGet();
+        }
+        lastAdminTokenGrantType = grantType;
+        lastAdminTokenRenewalTime = millis;
+    }
+
+    void refreshTokenGrantFailed() {
+        refreshTokenGrantFailures.incrementAndGet();
+    }
+
+    void deadlineOverrun() {
+        deadlineOverruns.incrementAndGet();
+    }
+
+    void workloadRecordWritten() {
+        workloadRecordsWritten.incrementAndGet();
+    }
+
+    void workloadRecordDropped() {
+        workloadRecordsDropped.incrementAndGet();
+    }
+
+    void warmUpCompleted(long millis) {
+        warmUpTime = millis;
+    }
+
+    @Override
+    public long getApplicationUpdatesSkipped() {
+        return applicationUpdatesSkipped.get();
+    }
+
+    @Override
+    public long getApplicationUpdatesSent() {
+        return applicationUpdatesSent.get();
+    }
+
+    @Override
+    public long getApplicationLookupsAvoided() {
+        return applicationLookupsAvoided.get();
+    }
+
+    @Override
+    public long getTokenCacheHits() {
+        return tokenCacheHits.get();
+    }
+
+    @Override
+    public long getTokenCacheMisses() {
+        return tokenCacheMisses.get();
+    }
+
+    @Override
+    public long getRevokedTokenFilterHits() {
+        return revokedTokenFilterHits.get();
+    }
+
+    @Override
+    public long getStaleTokenResponses() {
+        return staleTokenResponses.get();
+    }
+
+    @Override
+    public long getGraceTokenResponses() {
+        return graceTokenResponses.get();
+    }
+
+    @Override
+    public long getBackgroundRevalidations() {
+        return backgroundRevalidations.get();
+    }
+
+    @Override
+    public long getSidecarResponses() {
+        return sidecarResponses.get();
+    }
+
+    @Override
+    public long getSidecarFallbacks() {
+        return sidecarFallbacks.get();
+    }
+
+    @Override
+    public long getSidecarRequestsServed() {
+        return sidecarRequestsServed.get();
+    }
+
+    @Override
+    public long getRevocationsApplied() {
+        return revocationsApplied.get();
+    }
+
+    @Override
+    public long getRefreshTokenGrantRenewals() {
+        return refreshTokenGrantRenewals.get();
+    }
+
+    @Override
+    public long getPasswordGrantRenewals() {
+        return passwordGrantRenewals.get();
+    }
+
+    @Override
+    public long getClientCredentialsGrantRenewals() {
+        return clientCredentialsGrantRenewals.get();
+    }
+
+    @Override
+    public long getRefreshTokenGrantFailures() {
+        return refreshTokenGrantFailures.get();
+    }
+
+    @Override
+    public long getDeadlineOverruns() {
+        return deadlineOverruns.get();
+    }
+
+    @Override
+    public long getWorkloadRecordsWritten() {
+        return workloadRecordsWritten.get();
+    }
+
+    @Override
+    public long getWorkloadRecordsDropped() {
+        return workloadRecordsDropped.get();
+    }
+
+    @Override
+    public String getLastAdminTokenGrantType() {
+        return lastAdminTokenGrantType;
+    }
+
+    @Override
+    public long getLastAdminTokenRenewalTime() {
+        return lastAdminTokenRenewalTime;
+    }
+
+    @Override
+    public long getWarmUpTime() {
+        return warmUpTime;
+    }
+
+    /**
+     * This method registers the metrics in the platform MBean server, see {@link NamMBeans}.
+     *
+     * @param name name which identifies the key manager instance, usually the client id of the NetIQ admin client
+     */
+    synchronized void register(String name) {
+        unregister();
+        objectName = NamMBeans.register(this, OBJECT_NAME_PREFIX + ObjectName.quote(name),
+                "NetIQ key manager metrics of " + name);
+    }
+
+    /**
+     * This method removes the metrics from the platform MBean server, if they were registered.
+     */
+    synchronized void unregister() {
+        NamMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * JMX view of the counters maintained by the NetIQ key manager.
+ */
+public interface NamKeyManagerMetricsMXBean {
+
+    /**
+     * @return number of update application requests which were not sent to NetIQ since nothing had changed
+     */
+    long getApplicationUpdatesSkipped();
+
+    /**
+     * @return number of update application requests which were sent to NetIQ
+     */
+    long getApplicationUpdatesSent();
+
+    /**
+     * @return number of update application requests that were served from the locally known application document
+     * instead of fetching it from NetIQ first
+     */
+    long getApplicationLookupsAvoided();
+
+    /**
+     * @return number of token validations served from the local validation cache
+     */
+    long getTokenCacheHits();
+
+    /**
+     * @return number of token validations which had to be sent to NetIQ while the validation cache was enabled
+     */
+    long getTokenCacheMisses();
+
+    /**
+     * @return number of cached validation results which were not trusted since the token may have been revoked
+     */
+    long getRevokedTokenFilterHits();
+
+    /**
+     * @return number of token validations served from a validation result older than the token cache time to live,
+     * while the token was revalidated in the background
+     */
+    long getStaleTokenResponses();
+
+    /**
+     * @return number of token validations served from a previous validation result since NetIQ was unavailable
+     */
+    long getGraceTokenResponses();
+
+    /**
+     * @return number of tokens revalidated in the background
+     */
+    long getBackgroundRevalidations();
+
+    /**
+     * @return number of token validations answered by the introspection sidecar of another process
+     */
+    long getSidecarResponses();
+
+    /**
+     * @return number of token validations sent to NetIQ directly since the introspection sidecar could not answer
+     */
+    long getSidecarFallbacks();
+
+    /**
+     * @return number of token validations this process has answered as the introspection sidecar
+     */
+    long getSidecarRequestsServed();
+
+    /**
+     * @return number of revocation events applied to the local state
+     */
+    long getRevocationsApplied();
+
+    /**
+     * @return number of admin tokens obtained with the refresh token grant
+     */
+    long getRefreshTokenGrantRenewals();
+
+    /**
+     * @return number of admin tokens obtained with the password grant
+     */
+    long getPasswordGrantRenewals();
+
+    /**
+     * @return number of admin tokens obtained with the client credentials grant
+     */
+    long getClientCredentialsGrantRenewals();
+
+    /**
+     * @return number of refresh token grants which failed, after which the configured grant was used
+     */
+    long getRefreshTokenGrantFailures();
+
+    /**
+     * @return number of NetIQ calls which failed because the deadline of their operation had passed
+     */
+    long getDeadlineOverruns();
+
+    /**
+     * @return number of operations written to the workload recording file
+     */
+    long getWorkloadRecordsWritten();
+
+    /**
+     * @return number of operations which were not recorded since the workload recorder could not keep up
+     */
+    long getWorkloadRecordsDropped();
+
+    /**
+     * @return grant type the admin token was last obtained with, null if no admin token has been obtained
+     */
+    String getLastAdminTokenGrantType();
+
+    /**
+     * @return time taken to obtain the admin token the last time in milliseconds, -1 if none has been obtained
+     */
+    long getLastAdminTokenRenewalTime();
+
+    /**
+     * @return time taken by the warm-up phase in milliseconds, -1 if no warm-up has completed
+     */
+    long getWarmUpTime();
+}
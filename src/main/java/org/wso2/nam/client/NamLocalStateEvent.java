@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a hit or an eviction in the local state of the key manager, i.e. work which was done
+ * without calling NetIQ Access Manager.
+ */
+@Name("org.wso2.nam.client.LocalState")
+@Label("NetIQ Key Manager Local State")
+@Description("Hit or eviction in the local state of the key manager")
+@Category({"WSO2", "NetIQ Key Manager"})
+@StackTrace(false)
+class NamLocalStateEvent extends jdk.jfr.Event {
+
+    @Label("Store")
+    String store;
+
+    @Label("Action")
+    String action;
+
+    @Label("Count")
+    long count;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registers the management beans of the key manager in the platform MBean server. The beans only expose metrics and
+ * diagnostics, which the key manager does not need to function, hence registration failures are logged and ignored.
+ */
+final class NamMBeans {
+    private static final Log log = LogFactory.getLog(NamMBeans.class);
+
+    private NamMBeans() {
+    }
+
+    /**
+     * This method registers a bean under the given name, unless a bean of that name is registered already.
+     *
+     * @param mbean the bean
+     * @param name object name of the bean
+     * @param description description of the bean used in log messages, e.g. "metrics of tenant carbon.super"
+     * @return object name the bean was registered with, null if it was not registered
+     */
+    static ObjectName register(Object mbean, String name, String description) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Did not register the %s since %s is already registered.", description, name));
+            }
+        } catch (JMException e) {
+            log.warn(String.format("Could not register the %s.", description), e);
+        }
+        return null;
+    }
+
+    /**
+     * This method removes a bean registered with {@link #register(Object, String, String)}.
+     *
+     * @param objectName object name returned when the bean was registered, null if it was not registered
+     */
+    static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Could not unregister " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.APIManagementException;
+
+/**
+ * Thrown when the token endpoint of NetIQ Access Manager rejects a grant with an OAuth error response, e.g. with
+ * invalid_grant for a refresh token which has expired or been revoked. Unlike a {@link NamUnavailableException}, the
+ * failure is about the grant itself, hence retrying the same grant does not help.
+ */
+public class NamOAuthErrorException extends APIManagementException {
+    private final String error;
+
+    public NamOAuthErrorException(String message, String error) {
+        super(message);
+        this.error = error;
+    }
+
+    /**
+     * @return OAuth error code of the response, e.g. invalid_grant
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -23,19 +23,19 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -54,13 +54,23 @@ import org.wso2.carbon.apimgt.impl.AbstractKeyManager;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class contains the key manager implementation for WSO2 APIM considering Net IQ as the access manager.
@@ -68,271 +78,749 @@ import java.util.Set;
 public class NamOauthClient extends AbstractKeyManager {
     private static final Log log = LogFactory.getLog(NamOauthClient.class);
     private KeyManagerConfiguration configuration;
-    private String accessToken;
+    private volatile NamConfigurationSnapshot configurationSnapshot;
+    private volatile String accessToken;
+    private String refreshToken;
+    private NamConfigurationSnapshot accessTokenSettings;
     private long accessTokenIssuedTime;
     private long validityPeriod;
-    private String username;
-    private String password;
-    private String namAppClientId;
-    private String namAppClientSecret;
-    private String tokenEndpoint;
-    private String tokenInfoEndpoint;
-    private String clientEndpoint;
+    private boolean accessTokenUsed;
+    private AccessTokenRefresh accessTokenRefresh;
+    // Guards the admin access token. It is held while the token is renewed, which calls NetIQ, hence operations wait
+    // for it no longer than their deadline, and it is separate from the lock of the key manager.
+    private final ReentrantLock accessTokenLock = new ReentrantLock();
+    private final NamKeyManagerMetrics metrics = new NamKeyManagerMetrics();
+    private final ApplicationDocumentCache applicationDocuments =
+            new ApplicationDocumentCache(NAMConstants.DEFAULT_APPLICATION_CACHE_TTL * 1000);
+    private final ScopeRegistry scopeRegistry = new ScopeRegistry();
+    private final ApiScopeIndex apiScopes = new ApiScopeIndex(scopeRegistry);
+    private volatile NamTokenState tokenState = new NamTokenState();
+    private volatile NamTenant tenant = new NamTenant(NAMConstants.DEFAULT_TENANT_DOMAIN);
+    private final RevocationFeed revocationFeed = new RevocationFeed();
+    private final RevocationListener revocationListener = new RevocationListener() {
+        @Override
+        public void onRevocation(RevocationEvent event) {
+            applyRevocation(event);
+        }
+    };
+    private ScheduledFuture<?> cleanup;
+    private final NamTracer tracer = new NamTracer();
+    private volatile boolean ready;
+    private boolean shutDown;
+    private volatile boolean namUnavailable;
+    private final Set<TokenFingerprint> pendingRevalidations =
+            Collections.newSetFromMap(new ConcurrentHashMap<TokenFingerprint, Boolean>());
+    private IntrospectionSidecarServer sidecarServer;
+    private final ConsistencyVerifier consistencyVerifier = new ConsistencyVerifier(
+            new ConsistencyVerifier.Introspector() {
+                @Override
+                public JSONObject introspect(String accessToken) throws APIManagementException {
+                    NamConfigurationSnapshot settings = configurationSnapshot;
+                    NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_GET_TOKEN_METADATA,
+                            settings.operationTimeout(NAMConstants.SPAN_GET_TOKEN_METADATA));
+                    try {
+                        return doValidateAccessTokenRequest(settings, accessToken);
+                    } finally {
+                        deadline.close();
+                    }
+                }
+            });
+    private volatile IntrospectionSidecarClient sidecarClient;
+    private final WorkloadRecorder workloadRecorder = new WorkloadRecorder(metrics);
+    private final HeavyHitters heavyHitters = new HeavyHitters();
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the key manager is already configured, only the state affected by the changed properties is rebuilt: the
+     * admin access token when the credentials change and the application documents when the client endpoint
+     * changes. Operations which are in flight complete with the previous configuration.
+     * <p>
+     * The key manager registers with the process-wide {@link NamEngine}, which provides the connection pools and the
+     * token state of the tenant the key manager belongs to. A key manager which was registered with the same admin
+     * client of the same NetIQ server for the same tenant is {@link #shutdown() shut down}, since this key manager
+     * replaces it.
+     */
     @Override
     public void loadConfiguration(KeyManagerConfiguration keyManagerConfiguration) throws APIManagementException {
-        configuration = keyManagerConfiguration;
-        username = configuration.getParameter(NAMConstants.CONFIG_USERNAME);
-        password = configuration.getParameter(NAMConstants.CONFIG_PASSWORD);
-        namAppClientId = configuration.getParameter(NAMConstants.CONFIG_CLIENT_ID);
-        namAppClientSecret = configuration.getParameter(NAMConstants.CONFIG_CLIENT_SECRET);
-        tokenEndpoint = configuration.getParameter(NAMConstants.CONFIG_NAM_TOKEN_ENDPOINT);
-        tokenInfoEndpoint = configuration.getParameter(NAMConstants.CONFIG_NAM_TOKENINFO_ENDPOINT);
-        clientEndpoint = configuration.getParameter(NAMConstants.CONFIG_NAM_CLIENT_ENDPOINT);
-
-        if (StringUtils.isEmpty(username)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, username));
+        NamConfigurationSnapshot newSettings = NamConfigurationSnapshot.from(keyManagerConfiguration);
+        NamOauthClient replaced = NamEngine.get().findReplaced(this, newSettings);
+        if (replaced != null) {
+            log.info(String.format("Shutting down the NetIQ key manager of client id %s of tenant %s, which has " +
+                    "been replaced.", newSettings.clientId, newSettings.tenantDomain));
+            replaced.shutdown();
         }
+        synchronized (this) {
+            NamTenant newTenant = NamEngine.get().register(this, newSettings);
+            NamConfigurationSnapshot oldSettings = shutDown ? null : configurationSnapshot;
+            shutDown = false;
+            configuration = keyManagerConfiguration;
+
+            if (newSettings.adminCredentialsChanged(oldSettings)) {
+                accessTokenLock.lock();
+                try {
+                    accessToken = null;
+                    refreshToken = null;
+                    accessTokenSettings = null;
+                    accessTokenRefresh = null;
+                } finally {
+                    accessTokenLock.unlock();
+                }
+            }
+            if (oldSettings != null && !newSettings.clientEndpoint.equals(oldSettings.clientEndpoint)) {
+                applicationDocuments.clear();
+            }
+            applicationDocuments.setTimeToLive(newSettings.applicationCacheTTL);
+            tokenState = newTenant.getTokenState(newSettings);
+            tenant = newTenant;
+            if (oldSettings == null || !newSettings.clientId.equals(oldSettings.clientId)) {
+                metrics.register(newSettings.clientId);
+                consistencyVerifier.register(newSettings.clientId);
+                heavyHitters.register(newSettings.clientId);
+            }
+            consistencyVerifier.configure(newSettings);
+            heavyHitters.configure(newSettings);
+            if (oldSettings == null || newSettings.cleanupInterval != oldSettings.cleanupInterval) {
+                scheduleCleanup(newSettings.cleanupInterval);
+            }
+            if (newSettings.parametersChanged(oldSettings, NAMConstants.CONFIG_REVOCATION_SOURCES,
+                    NAMConstants.CONFIG_REVOCATION_HTTP_PORT, NAMConstants.CONFIG_REVOCATION_HTTP_SECRET,
+                    NAMConstants.CONFIG_REVOCATION_FILE, NAMConstants.CONFIG_REVOCATION_FILE_POLL_INTERVAL)) {
+                revocationFeed.start(keyManagerConfiguration, revocationListener);
+            }
+            if (newSettings.parametersChanged(oldSettings, NAMConstants.CONFIG_TRACING_SAMPLE_RATE,
+                    NAMConstants.CONFIG_TRACING_EXPORTER)) {
+                tracer.configure(keyManagerConfiguration);
+            }
+            if (newSettings.parametersChanged(oldSettings, NAMConstants.CONFIG_SIDECAR_MODE,
+                    NAMConstants.CONFIG_SIDECAR_PORT, NAMConstants.CONFIG_SIDECAR_TIMEOUT,
+                    NAMConstants.CONFIG_SIDECAR_KEY_FILE)
+                    || !newSettings.tokenInfoEndpoint.equals(oldSettings.tokenInfoEndpoint)
+                    || !Arrays.equals(newSettings.sidecarKey, oldSettings.sidecarKey)) {
+                configureSidecar(newSettings);
+            }
+            if (newSettings.parametersChanged(oldSettings, NAMConstants.CONFIG_WORKLOAD_RECORDING_FILE,
+                    NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILE_SIZE,
+                    NAMConstants.CONFIG_WORKLOAD_RECORDING_MAX_FILES)) {
+                workloadRecorder.configure(newSettings);
+            }
 
-        if (StringUtils.isEmpty(password)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, password));
-        }
+            configurationSnapshot = newSettings;
 
-        if (StringUtils.isEmpty(namAppClientId)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, namAppClientId));
+            if (!newSettings.warmUpEnabled) {
+                ready = true;
+            } else if (oldSettings == null || newSettings.adminCredentialsChanged(oldSettings)
+                    || !Arrays.equals(newSettings.endpointHosts(), oldSettings.endpointHosts())) {
+                startWarmUp(newSettings);
+            }
         }
+    }
 
-        if (StringUtils.isEmpty(namAppClientSecret)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, namAppClientSecret));
-        }
+    /**
+     * This method tells whether the key manager has finished warming up. The key manager can serve requests before
+     * that, but the first requests may be slow.
+     *
+     * @return true if the warm-up has completed or is not enabled
+     */
+    public boolean isReady() {
+        return ready;
+    }
 
-        if (StringUtils.isEmpty(tokenEndpoint)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, tokenEndpoint));
-        }
+    /**
+     * This method reports the consumer keys, client ids and tokens which caused the most calls to NetIQ in the
+     * heavy hitter window. The same report is available through JMX.
+     *
+     * @return a plain text report, which lists no callers if heavy hitter tracking is disabled
+     */
+    public String dumpHeavyHitters() {
+        return heavyHitters.dump();
+    }
 
-        if (StringUtils.isEmpty(tokenInfoEndpoint)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, tokenInfoEndpoint));
+    /**
+     * This method starts the introspection sidecar, or connects to the sidecar of another process, depending on the
+     * {@value NAMConstants#CONFIG_SIDECAR_MODE} property. The previous sidecar server or client is stopped.
+     *
+     * @param settings new configuration
+     * @throws APIManagementException if the sidecar could not be started
+     */
+    private void configureSidecar(NamConfigurationSnapshot settings) throws APIManagementException {
+        stopSidecar();
+        if (NAMConstants.SIDECAR_MODE_SERVER.equals(settings.sidecarMode)) {
+            IntrospectionSidecarServer server = new IntrospectionSidecarServer(this, metrics);
+            server.start(settings.sidecarPort, settings.sidecarKey);
+            sidecarServer = server;
+        } else if (NAMConstants.SIDECAR_MODE_CLIENT.equals(settings.sidecarMode)) {
+            sidecarClient = new IntrospectionSidecarClient(settings.sidecarPort, settings.sidecarTimeout,
+                    settings.tokenInfoEndpoint, settings.sidecarKey);
         }
+    }
 
-        if (StringUtils.isEmpty(clientEndpoint)) {
-            handleException(String.format(NAMConstants.MANDATORY_CONFIG_PROPERTY_MISSING, clientEndpoint));
+    private void stopSidecar() {
+        if (sidecarServer != null) {
+            sidecarServer.stop();
+            sidecarServer = null;
+        }
+        IntrospectionSidecarClient oldClient = sidecarClient;
+        sidecarClient = null;
+        if (oldClient != null) {
+            oldClient.close();
         }
     }
 
-    @Override
-    public OAuthApplicationInfo createApplication(OAuthAppRequest oAuthAppRequest) throws APIManagementException {
-        OAuthApplicationInfo oAuthApplicationInfo = oAuthAppRequest.getOAuthApplicationInfo();
-        String clientName = oAuthApplicationInfo.getClientName();
+    /**
+     * This method releases the resources of the key manager. It stops the periodic tasks, the revocation sources,
+     * the sidecar and the workload recording, removes the metrics of the key manager from the platform MBean server
+     * and unregisters it from the {@link NamEngine}, which releases the connection pools and tenants no other key
+     * manager uses. Operations which are in flight complete. The key manager can be configured again with
+     * {@link #loadConfiguration(KeyManagerConfiguration)}.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (shutDown || configurationSnapshot == null) {
+                return;
+            }
+            shutDown = true;
+            ready = false;
+            NamEngine.get().unregister(this);
+            scheduleCleanup(0);
+            accessTokenLock.lock();
+            try {
+                if (accessTokenRefresh != null) {
+                    NamExecutors.expiryWheel().cancel(accessTokenRefresh);
+                    accessTokenRefresh = null;
+                }
+            } finally {
+                accessTokenLock.unlock();
+            }
+            revocationFeed.stop();
+            stopSidecar();
+            workloadRecorder.stop();
+            tracer.shutdown();
+            metrics.unregister();
+            consistencyVerifier.unregister();
+            heavyHitters.unregister();
+        }
         if (log.isDebugEnabled()) {
-            log.debug(String.format("Creating an OAuth client in NetIQ authorization server with application name %s",
-                    clientName));
+            log.debug("Shut down the NetIQ key manager of client id " + configurationSnapshot.clientId);
         }
+    }
+
+    /**
+     * @return token info endpoint tokens are currently validated against
+     */
+    String getTokenInfoEndpoint() {
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        return settings == null ? null : settings.tokenInfoEndpoint;
+    }
+
+    /**
+     * @return tracer which creates the spans of this key manager
+     */
+    NamTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * @return counters of this key manager
+     */
+    NamKeyManagerMetrics getMetrics() {
+        return metrics;
+    }
 
-        updateNamAccessToken(oAuthApplicationInfo);
-        OAuthApplicationInfo info = createApplication(oAuthApplicationInfo);
-        return info;
+    /**
+     * This method starts delivering the events of an additional revocation source, which is not part of the
+     * configuration, to this key manager.
+     *
+     * @param source the revocation source, e.g. an {@link InMemoryRevocationSource}
+     * @throws APIManagementException if the source could not be started
+     */
+    public void addRevocationSource(RevocationSource source) throws APIManagementException {
+        revocationFeed.addSource(source, configuration, revocationListener);
     }
 
     @Override
-    public OAuthApplicationInfo updateApplication(OAuthAppRequest oAuthAppRequest) throws APIManagementException {
-        OAuthApplicationInfo oAuthApplicationInfo = oAuthAppRequest.getOAuthApplicationInfo();
-        // We have to send the client id with the update request.
-        String clientId = oAuthApplicationInfo.getClientId();
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Updating oAuth application in NetIQ authorization server for the client " +
-                    "id %s.", clientId));
-        }
-        updateNamAccessToken(oAuthApplicationInfo);
-        String updateEndpoint = clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
+    public OAuthApplicationInfo createApplication(OAuthAppRequest oAuthAppRequest) throws APIManagementException {
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_CREATE_APPLICATION);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_CREATE_APPLICATION,
+                settings.operationTimeout(NAMConstants.SPAN_CREATE_APPLICATION));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_CREATE_APPLICATION);
+        try {
+            OAuthApplicationInfo oAuthApplicationInfo = oAuthAppRequest.getOAuthApplicationInfo();
+            String clientName = oAuthApplicationInfo.getClientName();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Creating an OAuth client in NetIQ authorization server with application " +
+                        "name %s", clientName));
+            }
 
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-        BufferedReader reader = null;
-        JSONObject params = getApplication(clientId);
-        if (StringUtils.isNotEmpty(clientId)) {
-            params.put(NAMConstants.CLIENT_ID, clientId);
+            String adminToken;
+            NamDeadline step = NamDeadline.split(2);
+            try {
+                adminToken = updateNamAccessToken(settings, oAuthApplicationInfo);
+            } finally {
+                step.close();
+            }
+            OAuthApplicationInfo info = createApplication(settings, adminToken, oAuthApplicationInfo);
+            workloadRecorder.client(record, info == null ? null : info.getClientId());
+            return info;
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
+        } finally {
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
+    }
+
+    @Override
+    public OAuthApplicationInfo updateApplication(OAuthAppRequest oAuthAppRequest) throws APIManagementException {
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_UPDATE_APPLICATION);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_UPDATE_APPLICATION,
+                settings.operationTimeout(NAMConstants.SPAN_UPDATE_APPLICATION));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_UPDATE_APPLICATION);
         try {
+            OAuthApplicationInfo oAuthApplicationInfo = oAuthAppRequest.getOAuthApplicationInfo();
+            // We have to send the client id with the update request.
+            String clientId = oAuthApplicationInfo.getClientId();
+            workloadRecorder.client(record, clientId);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Updating oAuth application in NetIQ authorization server for the client " +
+                        "id %s.", clientId));
+            }
+            // The budget is shared by the admin token renewal, the lookup of the application and its update.
+            String adminToken;
+            NamDeadline step = NamDeadline.split(3);
+            try {
+                adminToken = updateNamAccessToken(settings, oAuthApplicationInfo);
+            } finally {
+                step.close();
+            }
+            String updateEndpoint = settings.clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
+
             // Create the JSON Payload that should be sent to OAuth Server.
-            createPayloadFromOAuthAppInfo(oAuthApplicationInfo, params);
-            HttpPost httpPost = new HttpPost(updateEndpoint);
-            httpPost.setEntity(new StringEntity(params.toJSONString(), ContentType.APPLICATION_JSON));
-            httpPost.setHeader(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATION_JSON);
-            httpPost.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + accessToken);
-            HttpResponse response = httpClient.execute(httpPost);
-            int statusCode = response.getStatusLine().getStatusCode();
-            HttpEntity entity = response.getEntity();
-            if (entity == null) {
-                handleException(String.format(NAMConstants.STRING_FORMAT, NAMConstants.ERROR_COULD_NOT_READ_HTTP_ENTITY,
-                        response));
+            ClientRegistrationPayload payload = ClientRegistrationPayload.from(oAuthApplicationInfo);
+
+            // Skip fetching the registration document if it is already known locally. A known document may miss
+            // changes made in NetIQ directly, hence it is read again before an update is skipped as unchanged.
+            JSONObject currentDocument = applicationDocuments.get(clientId);
+            if (currentDocument != null && !payload.isUnchanged(currentDocument)) {
+                metrics.applicationLookupAvoided();
+                NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_APPLICATION_DOCUMENTS,
+                        NAMConstants.LOCAL_STATE_HIT, 1);
+                span.setAttribute(NAMConstants.ATTRIBUTE_APPLICATION_LOOKUP_AVOIDED, true);
+            } else {
+                step = NamDeadline.split(2);
+                try {
+                    currentDocument = getApplication(settings, adminToken, clientId);
+                } finally {
+                    step.close();
+                }
             }
-            reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
-            JSONObject responseObject = getParsedObjectByReader(reader);
-            if (statusCode == HttpStatus.SC_OK) {
-                if (responseObject != null) {
-                    return createOAuthAppInfoFromResponse(responseObject);
+
+            BufferedReader reader = null;
+            CloseableHttpResponse response = null;
+            try {
+                if (payload.isUnchanged(currentDocument)) {
+                    metrics.applicationUpdateSkipped();
+                    span.setAttribute(NAMConstants.ATTRIBUTE_SERVED_LOCALLY, true);
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Skipped updating the client with client id %s since the " +
+                                "request does not change it. Skipped updates: %s, sent updates: %s.", clientId,
+                                metrics.getApplicationUpdatesSkipped(), metrics.getApplicationUpdatesSent()));
+                    }
+                    return createOAuthAppInfoFromResponse(currentDocument);
+                }
+                metrics.applicationUpdateSent();
+                HttpPost httpPost = new HttpPost(updateEndpoint);
+                httpPost.setEntity(payload.toEntity(currentDocument));
+                httpPost.setHeader(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATION_JSON);
+                httpPost.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + adminToken);
+                response = execute(settings, httpPost, NAMConstants.SPAN_NAM_UPDATE_CLIENT,
+                        NamBulkhead.Type.MANAGEMENT);
+                int statusCode = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    handleException(String.format(NAMConstants.STRING_FORMAT,
+                            NAMConstants.ERROR_COULD_NOT_READ_HTTP_ENTITY, response));
+                }
+                reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
+                JSONObject responseObject = getParsedObjectByReader(reader);
+                if (statusCode == HttpStatus.SC_OK) {
+                    if (responseObject != null) {
+                        applicationDocuments.put(clientId, responseObject);
+                        return createOAuthAppInfoFromResponse(responseObject);
+                    } else {
+                        applicationDocuments.remove(clientId);
+                        handleException("Response body is empty for the update application request. Hence can " +
+                                "not return oAuthApplicationInfo.");
+                    }
                 } else {
-                    handleException("Response body is empty for the update application request. Hence can not return " +
-                            "oAuthApplicationInfo.");
+                    applicationDocuments.remove(clientId);
+                    handleException(String.format("Error occurred when updating the client with client id %s." +
+                                    " Response: %s. Received status code : %s.",
+                            clientId, responseObject.toJSONString(), statusCode));
                 }
-            } else {
-                handleException(String.format("Error occurred when updating the client with client id %s." +
-                                " Response: %s. Received status code : %s.",
-                        clientId, responseObject.toJSONString(), statusCode));
+            } catch (UnsupportedEncodingException e) {
+                handleException(String.format("Unsupported encoding method has been used while updating client " +
+                        "application for %s.", clientId), e);
+            } catch (IOException e) {
+                handleException(String.format("Error occurred when reading response body while updating client " +
+                        "application for %s.", clientId), e);
+            } catch (ParseException e) {
+                handleException(String.format("Error occurred when parsing response while updating client " +
+                        "application for %s.", clientId), e);
+            } finally {
+                closeResources(reader, response);
             }
-        } catch (UnsupportedEncodingException e) {
-            handleException(String.format("Unsupported encoding method has been used while updating client " +
-                    "application for %s.", clientId), e);
-        } catch (IOException e) {
-            handleException(String.format("Error occurred when reading response body while updating client " +
-                    "application for %s.", clientId), e);
-        } catch (ParseException e) {
-            handleException(String.format("Error occurred when parsing response while updating client application " +
-                    "for %s.", clientId), e);
+            return null;
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
         } finally {
-            closeResources(reader, httpClient);
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
-        return null;
     }
 
     @Override
     public void deleteApplication(String clientId) throws APIManagementException {
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Deleting the OAuth application from NetIQ authorization server for the client id" +
-                    " %s.", clientId));
-        }
-        updateNamAccessToken(null);
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-        String deleteEndpoint = clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
-
-        HttpDelete httpDelete = new HttpDelete(deleteEndpoint);
-        httpDelete.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + accessToken);
-        BufferedReader reader = null;
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_DELETE_APPLICATION);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_DELETE_APPLICATION,
+                settings.operationTimeout(NAMConstants.SPAN_DELETE_APPLICATION));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_DELETE_APPLICATION);
         try {
-            HttpResponse response = httpClient.execute(httpDelete);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode == HttpStatus.SC_OK) {
-                log.info(String.format("OAuth application for the client id %s has been successfully deleted.",
-                        clientId));
-            } else {
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    handleException(String.format("Could not read http entity for response %s while deleting " +
-                            "application for client id %s ", response, clientId));
-                }
-                reader = new BufferedReader(new InputStreamReader(entity.getContent(),
-                        NAMConstants.UTF_8));
-                JSONObject responseObject = getParsedObjectByReader(reader);
-                handleException(String.format("Problem occurred while deleting OAuth application for the client id" +
-                                " %s. Response: %s. Response status code: %s",
-                        clientId, responseObject.toJSONString(), statusCode));
+            workloadRecorder.client(record, clientId);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Deleting the OAuth application from NetIQ authorization server for the " +
+                        "client id %s.", clientId));
+            }
+            String adminToken;
+            NamDeadline step = NamDeadline.split(2);
+            try {
+                adminToken = updateNamAccessToken(settings, null);
+            } finally {
+                step.close();
+            }
+            applicationDocuments.remove(clientId);
+            Set<String> invalidatedTokens = tokenState.tokenIndex.invalidate(clientId);
+            for (String token : invalidatedTokens) {
+                tokenState.validationCache.remove(TokenFingerprint.of(token));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Dropped %s locally known tokens of the client id %s.",
+                        invalidatedTokens.size(), clientId));
             }
+            String deleteEndpoint = settings.clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
+
+            HttpDelete httpDelete = new HttpDelete(deleteEndpoint);
+            httpDelete.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + adminToken);
+            BufferedReader reader = null;
+            CloseableHttpResponse response = null;
+            try {
+                response = execute(settings, httpDelete, NAMConstants.SPAN_NAM_DELETE_CLIENT,
+                        NamBulkhead.Type.MANAGEMENT);
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode == HttpStatus.SC_OK) {
+                    log.info(String.format("OAuth application for the client id %s has been successfully deleted.",
+                            clientId));
+                } else {
+                    HttpEntity entity = response.getEntity();
+                    if (entity == null) {
+                        handleException(String.format("Could not read http entity for response %s while deleting " +
+                                "application for client id %s ", response, clientId));
+                    }
+                    reader = new BufferedReader(new InputStreamReader(entity.getContent(),
+                            NAMConstants.UTF_8));
+                    JSONObject responseObject = getParsedObjectByReader(reader);
+                    handleException(String.format("Problem occurred while deleting OAuth application for the " +
+                                    "client id %s. Response: %s. Response status code: %s",
+                            clientId, responseObject.toJSONString(), statusCode));
+                }
 
-        } catch (IOException e) {
-            handleException(String.format("Error occurred when reading response body while deleting OAuth application" +
-                    " for %s.", clientId), e);
-        } catch (ParseException e) {
-            handleException(String.format("Error occurred when parsing response while deleting OAuth application" +
-                    " for %s.", clientId), e);
+            } catch (IOException e) {
+                handleException(String.format("Error occurred when reading response body while deleting OAuth " +
+                        "application for %s.", clientId), e);
+            } catch (ParseException e) {
+                handleException(String.format("Error occurred when parsing response while deleting OAuth application" +
+                        " for %s.", clientId), e);
+            } finally {
+                closeResources(reader, response);
+            }
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
         } finally {
-            closeResources(reader, httpClient);
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
     }
 
     @Override
     public OAuthApplicationInfo retrieveApplication(String clientId) throws APIManagementException {
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Retrieving the OAuth application from NetIQ authorization server for the " +
-                    "client id %s.", clientId));
-        }
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_RETRIEVE_APPLICATION);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_RETRIEVE_APPLICATION,
+                settings.operationTimeout(NAMConstants.SPAN_RETRIEVE_APPLICATION));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_RETRIEVE_APPLICATION);
+        try {
+            workloadRecorder.client(record, clientId);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Retrieving the OAuth application from NetIQ authorization server for the " +
+                        "client id %s.", clientId));
+            }
 
-        updateNamAccessToken(null);
-        JSONObject responseJSON = getApplication(clientId);
+            String adminToken;
+            NamDeadline step = NamDeadline.split(2);
+            try {
+                adminToken = updateNamAccessToken(settings, null);
+            } finally {
+                step.close();
+            }
+            JSONObject responseJSON = getApplication(settings, adminToken, clientId);
 
-        if (responseJSON == null) {
-            handleException(String.format("Failed to retrieve application for client id %s.", clientId));
-        }
+            if (responseJSON == null) {
+                handleException(String.format("Failed to retrieve application for client id %s.", clientId));
+            }
 
-        return createOAuthAppInfoFromResponse(responseJSON);
+            return createOAuthAppInfoFromResponse(responseJSON);
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
+        } finally {
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
+        }
     }
 
     @Override
     public AccessTokenInfo getNewApplicationAccessToken(AccessTokenRequest accessTokenRequest)
             throws APIManagementException {
-        String clientId = accessTokenRequest.getClientId();
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Retrieving the OAuth application from NetIQ authorization server for the " +
-                    "client id %s.", clientId));
-        }
-        AccessTokenInfo tokenInfo = new AccessTokenInfo();
-        String grantType = accessTokenRequest.getGrantType();
-
-        String clientSecret = (String) getApplication(clientId).get(NAMConstants.CLIENT_SECRET);
-
-        if (StringUtils.isEmpty(clientId)) {
-            handleException("Mandatory parameter " + NAMConstants.CLIENT_SECRET + " is missing while requesting " +
-                    "for a new application access token.");
-        }
-
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Getting new client access token from authorization server for the client id %s.",
-                    clientId));
-        }
-
-        List<NameValuePair> parameters = new ArrayList<>();
-        if (grantType == null) {
-            grantType = NAMConstants.PASSWORD;
-        }
-        parameters.add(new BasicNameValuePair(NAMConstants.GRANT_TYPE, grantType));
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_GET_NEW_ACCESS_TOKEN);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_GET_NEW_ACCESS_TOKEN,
+                settings.operationTimeout(NAMConstants.SPAN_GET_NEW_ACCESS_TOKEN));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_GET_NEW_ACCESS_TOKEN);
+        try {
+            String clientId = accessTokenRequest.getClientId();
+            workloadRecorder.client(record, clientId);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Retrieving the OAuth application from NetIQ authorization server for the " +
+                        "client id %s.", clientId));
+            }
+            AccessTokenInfo tokenInfo = new AccessTokenInfo();
+            String grantType = accessTokenRequest.getGrantType();
+
+            String clientSecret;
+            NamDeadline step = NamDeadline.split(2);
+            try {
+                clientSecret = (String) getApplication(settings, updateNamAccessToken(settings, null), clientId)
+                        .get(NAMConstants.CLIENT_SECRET);
+            } finally {
+                step.close();
+            }
 
-        String scopeString = convertToString(accessTokenRequest.getScope());
-        if (StringUtils.isEmpty(scopeString)) {
-            parameters.add(new BasicNameValuePair(NAMConstants.SCOPE, NAMConstants.DEFAULT_SCOPE));
-        } else {
-            parameters.add(new BasicNameValuePair(NAMConstants.SCOPE, scopeString));
-        }
+            if (StringUtils.isEmpty(clientId)) {
+                handleException("Mandatory parameter " + NAMConstants.CLIENT_SECRET + " is missing while requesting " +
+                        "for a new application access token.");
+            }
 
-        parameters.add(new BasicNameValuePair(NAMConstants.CLIENT_ID, clientId));
-        parameters.add(new BasicNameValuePair(NAMConstants.CLIENT_SECRET, clientSecret));
-        parameters.add(new BasicNameValuePair(NAMConstants.USERNAME, username));
-        parameters.add(new BasicNameValuePair(NAMConstants.PASSWORD, password));
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Getting new client access token from authorization server for the " +
+                        "client id %s.", clientId));
+            }
 
+            List<NameValuePair> parameters = new ArrayList<>();
+            if (grantType == null) {
+                grantType = NAMConstants.PASSWORD;
+            }
+            parameters.add(new BasicNameValuePair(NAMConstants.GRANT_TYPE, grantType));
 
-        JSONObject responseJSON = getAccessTokenWithClientCredentials(clientId, parameters);
-        if (responseJSON != null) {
-            updateTokenInfo(tokenInfo, responseJSON);
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("OAuth token has been successfully validated for the client id %s.",
-                        clientId));
+            String scopeString = convertToString(accessTokenRequest.getScope());
+            if (StringUtils.isEmpty(scopeString)) {
+                parameters.add(new BasicNameValuePair(NAMConstants.SCOPE, NAMConstants.DEFAULT_SCOPE));
+            } else {
+                parameters.add(new BasicNameValuePair(NAMConstants.SCOPE, scopeString));
             }
-            return tokenInfo;
-        } else {
-            tokenInfo.setTokenValid(false);
-            tokenInfo.setErrorcode(APIConstants.KeyValidationStatus.API_AUTH_INVALID_CREDENTIALS);
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("OAuth token validation failed for the client id %s.", clientId));
+
+            parameters.add(new BasicNameValuePair(NAMConstants.CLIENT_ID, clientId));
+            parameters.add(new BasicNameValuePair(NAMConstants.CLIENT_SECRET, clientSecret));
+            parameters.add(new BasicNameValuePair(NAMConstants.USERNAME, settings.username));
+            parameters.add(new BasicNameValuePair(NAMConstants.PASSWORD, settings.password));
+
+            heavyHitters.tokenRequested(clientId);
+            JSONObject responseJSON = getAccessTokenWithClientCredentials(settings, clientId, parameters);
+            if (responseJSON != null) {
+                updateTokenInfo(tokenInfo, responseJSON);
+                if (tokenInfo.isTokenValid()) {
+                    ScopeSet scopes = tokenInfo.getScopes() == null ? null
+                            : scopeRegistry.toScopeSet(Arrays.asList(tokenInfo.getScopes()));
+                    if (!tokenState.tokenIndex.add(clientId, tokenInfo.getAccessToken(), tokenInfo, scopes,
+                            tokenInfo.getValidityPeriod(), ConsumerKeyTokenIndex.Origin.ISSUED)) {
+                        tenant.tokenNotStored();
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("OAuth token has been successfully validated for the client id %s.",
+                            clientId));
+                }
+            } else {
+                tokenInfo.setTokenValid(false);
+                tokenInfo.setErrorcode(APIConstants.KeyValidationStatus.API_AUTH_INVALID_CREDENTIALS);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("OAuth token validation failed for the client id %s.", clientId));
+                }
             }
+            workloadRecorder.token(record, tokenInfo.getAccessToken());
+            return workloadRecorder.completed(record, WorkloadTrace.SOURCE_NAM, tokenInfo);
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
+        } finally {
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
-        return tokenInfo;
     }
 
     @Override
     public String getNewApplicationConsumerSecret(AccessTokenRequest tokenRequest) throws APIManagementException {
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Getting a new client secret for the app with client id %s",
-                    tokenRequest.getClientId()));
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_GET_CONSUMER_SECRET);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_GET_CONSUMER_SECRET,
+                settings.operationTimeout(NAMConstants.SPAN_GET_CONSUMER_SECRET));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_GET_CONSUMER_SECRET);
+        try {
+            workloadRecorder.client(record, tokenRequest.getClientId());
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Getting a new client secret for the app with client id %s",
+                        tokenRequest.getClientId()));
+            }
+            return getClientSecret(settings, tokenRequest.getClientId());
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
+        } finally {
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
-        return getClientSecret(tokenRequest.getClientId());
     }
 
     @Override
     public AccessTokenInfo getTokenMetaData(String accessToken) throws APIManagementException {
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Getting metadata of the access token : %s", accessToken));
+        NamConfigurationSnapshot settings = configurationSnapshot;
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_GET_TOKEN_METADATA);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_GET_TOKEN_METADATA,
+                settings.operationTimeout(NAMConstants.SPAN_GET_TOKEN_METADATA));
+        WorkloadTrace.Record record = workloadRecorder.begin(WorkloadTrace.OP_GET_TOKEN_METADATA);
+        try {
+            workloadRecorder.token(record, accessToken);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Getting metadata of the access token : %s", accessToken));
+            }
+            TokenFingerprint fingerprint = null;
+            if (tokenState.validationCache.isEnabled()) {
+                fingerprint = TokenFingerprint.of(accessToken);
+                if (tokenState.revokedTokens().mightContain(fingerprint)) {
+                    // The token may have been revoked, hence only NetIQ can tell whether it is still valid.
+                    metrics.revokedTokenFilterHit();
+                    NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_REVOKED_TOKEN_FILTER,
+                            NAMConstants.LOCAL_STATE_HIT, 1);
+                } else {
+                    AccessTokenInfo cachedTokenInfo = tokenState.validationCache.get(fingerprint);
+                    if (cachedTokenInfo != null) {
+                        metrics.tokenCacheHit();
+                        NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_TOKEN_CACHE,
+                                NAMConstants.LOCAL_STATE_HIT, 1);
+                        span.setAttribute(NAMConstants.ATTRIBUTE_SERVED_LOCALLY, true);
+                        consistencyVerifier.sample(accessToken, fingerprint, cachedTokenInfo,
+                                NAMConstants.SERVED_CACHE, tokenState.validationCache);
+                        return workloadRecorder.completed(record, WorkloadTrace.SOURCE_CACHE, cachedTokenInfo);
+                    }
+                    AccessTokenInfo degradedTokenInfo = getDegradedTokenInfo(settings, fingerprint, span);
+                    if (degradedTokenInfo != null) {
+                        // Results served within the grace period are not verified, since NetIQ is unavailable.
+                        Object servedFrom = degradedTokenInfo.getParameter(NAMConstants.SERVED_FROM);
+                        if (NAMConstants.SERVED_STALE.equals(servedFrom)) {
+                            consistencyVerifier.sample(accessToken, fingerprint, degradedTokenInfo,
+                                    NAMConstants.SERVED_STALE, tokenState.validationCache);
+                        }
+                        revalidateInBackground(settings, accessToken, fingerprint);
+                        return workloadRecorder.completed(record, WorkloadTrace.SOURCE_CACHE, degradedTokenInfo);
+                    }
+                }
+                metrics.tokenCacheMiss();
+            }
+
+            AccessTokenInfo sidecarTokenInfo = introspectWithSidecar(accessToken, fingerprint, span);
+            if (sidecarTokenInfo != null) {
+                return workloadRecorder.completed(record, WorkloadTrace.SOURCE_SIDECAR, sidecarTokenInfo);
+            }
+
+            try {
+                AccessTokenInfo tokenInfo = validateAccessToken(settings, accessToken, fingerprint);
+                namUnavailable = false;
+                return workloadRecorder.completed(record, WorkloadTrace.SOURCE_NAM, tokenInfo);
+            } catch (NamUnavailableException e) {
+                if (isUpstreamFailure(e)) {
+                    namUnavailable = true;
+                }
+                AccessTokenInfo graceTokenInfo = getGraceTokenInfo(settings, fingerprint, span);
+                if (graceTokenInfo != null) {
+                    return workloadRecorder.completed(record, WorkloadTrace.SOURCE_CACHE, graceTokenInfo);
+                }
+                throw e;
+            }
+        } catch (APIManagementException | RuntimeException e) {
+            workloadRecorder.failed(record, e);
+            throw e;
+        } finally {
+            deadline.close();
+            span.end();
+            workloadRecorder.end(record);
         }
-        JSONObject jsonResponse = doValidateAccessTokenRequest(accessToken);
+    }
+
+    /**
+     * This method validates an access token against NetIQ and updates the local token state with the result.
+     *
+     * @param settings configuration to validate the token with
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token, null if the validation cache is disabled
+     * @return the validation result
+     * @throws NamUnavailableException if NetIQ could not be reached
+     * @throws APIManagementException if the token could not be validated
+     */
+    private AccessTokenInfo validateAccessToken(NamConfigurationSnapshot settings, String accessToken,
+                                                TokenFingerprint fingerprint) throws APIManagementException {
+        heavyHitters.tokenValidated(accessToken, fingerprint);
+        return toTokenInfo(accessToken, fingerprint, doValidateAccessTokenRequest(settings, accessToken));
+    }
+
+    /**
+     * This method builds the validation result of an access token from the response of NetIQ, and updates the local
+     * token state with it.
+     *
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token, null if the validation cache is disabled
+     * @param jsonResponse body of the tokenInfo response, null if the token is not valid
+     * @return the validation result
+     * @throws APIManagementException if the response lacks a mandatory parameter
+     */
+    private AccessTokenInfo toTokenInfo(String accessToken, TokenFingerprint fingerprint, JSONObject jsonResponse)
+            throws APIManagementException {
         AccessTokenInfo tokenInfo = new AccessTokenInfo();
 
         if (jsonResponse == null) {
+            if (fingerprint != null) {
+                tokenState.validationCache.remove(fingerprint);
+            }
             log.error(String.format("Invalid token %s.", accessToken));
             tokenInfo.setTokenValid(false);
             tokenInfo.setErrorcode(APIConstants.KeyValidationStatus.API_AUTH_INVALID_CREDENTIALS);
@@ -343,6 +831,7 @@ public class NamOauthClient extends AbstractKeyManager {
         Long expiresIn = (Long) jsonResponse.get(NAMConstants.EXPIRES_IN);
         JSONArray scopeList = (JSONArray) jsonResponse.get(NAMConstants.SCOPE);
         String audience = (String) jsonResponse.get(NAMConstants.AUDIENCE);
+        heavyHitters.consumerKeyValidated(audience);
         String tokenId = (String) jsonResponse.get(NAMConstants.TOKEN_ID);
         String issuer = (String) jsonResponse.get(NAMConstants.ISSUER);
 
@@ -374,7 +863,8 @@ public class NamOauthClient extends AbstractKeyManager {
         }
         tokenInfo.setIssuedTime(System.currentTimeMillis());
 
-        tokenInfo.setScope((String[]) scopeList.stream().toArray(String[]::new));
+        ScopeSet scopes = scopeRegistry.toScopeSet(scopeList);
+        tokenInfo.setScope(scopes.toArray());
 
         if (!StringUtils.isEmpty(tokenId)) {
             tokenInfo.addParameter(NAMConstants.TOKEN_ID, tokenId);
@@ -383,9 +873,203 @@ public class NamOauthClient extends AbstractKeyManager {
         if (!StringUtils.isEmpty(issuer)) {
             tokenInfo.addParameter(NAMConstants.ISSUER, issuer);
         }
+        storeTokenInfo(accessToken, fingerprint, tokenInfo, scopes, expiresIn);
+        return tokenInfo;
+    }
+
+    /**
+     * This method adds a validation result to the local token state.
+     *
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token, null if the validation cache is disabled
+     * @param tokenInfo the validation result
+     * @param scopes scopes of the token
+     * @param expiresIn remaining lifetime of the token in seconds
+     */
+    private void storeTokenInfo(String accessToken, TokenFingerprint fingerprint, AccessTokenInfo tokenInfo,
+                                ScopeSet scopes, long expiresIn) {
+        NamTokenState state = tokenState;
+        boolean stored = state.tokenIndex.add(tokenInfo.getConsumerKey(), accessToken, tokenInfo, scopes,
+                expiresIn, ConsumerKeyTokenIndex.Origin.VALIDATED);
+        // A cached result is only dropped on the revocation of its consumer key through the index, hence a token
+        // which is not indexed is not cached either. A revocation may also have arrived while the token was being
+        // validated.
+        if (stored && fingerprint != null && !state.revokedTokens().mightContain(fingerprint)) {
+            stored = state.validationCache.put(fingerprint, tokenInfo, scopes);
+        }
+        if (!stored) {
+            tenant.tokenNotStored();
+        }
+    }
+
+    /**
+     * This method validates an access token with the introspection sidecar of another process on the host, if one
+     * is configured. Results are only received from a sidecar which has proven to hold the shared key, hence fresh
+     * validation results are added to the local token state, while results the sidecar served from its own stale or
+     * grace entries are only passed on.
+     *
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token, null if the validation cache is disabled
+     * @param span span of the token validation
+     * @return the validation result, null if the token has to be validated against NetIQ directly
+     */
+    private AccessTokenInfo introspectWithSidecar(String accessToken, TokenFingerprint fingerprint, NamSpan span) {
+        IntrospectionSidecarClient client = sidecarClient;
+        if (client == null) {
+            return null;
+        }
+        AccessTokenInfo tokenInfo = client.introspect(accessToken);
+        if (tokenInfo == null) {
+            metrics.sidecarFallback();
+            return null;
+        }
+        metrics.sidecarResponse();
+        span.setAttribute(NAMConstants.ATTRIBUTE_SERVED_BY_SIDECAR, true);
+        if (!tokenInfo.isTokenValid()) {
+            if (fingerprint != null) {
+                tokenState.validationCache.remove(fingerprint);
+            }
+        } else if (tokenInfo.getParameter(NAMConstants.SERVED_FROM) == null) {
+            long expiresIn = (tokenInfo.getIssuedTime() + tokenInfo.getValidityPeriod()
+                    - System.currentTimeMillis()) / 1000;
+            if (expiresIn > 0) {
+                ScopeSet scopes = scopeRegistry.toScopeSet(Arrays.asList(tokenInfo.getScopes()));
+                tokenInfo.setScope(scopes.toArray());
+                storeTokenInfo(accessToken, fingerprint, tokenInfo, scopes, expiresIn);
+            }
+        }
+        return tokenInfo;
+    }
+
+    /**
+     * This method looks up a validation result which is older than the token cache time to live, but may still be
+     * served while the token is revalidated in the background. While NetIQ is known to be unavailable, results are
+     * only served within the grace period.
+     *
+     * @param settings active configuration
+     * @param fingerprint fingerprint of the access token
+     * @param span span of the token validation
+     * @return the flagged validation result, null if the token has to be validated against NetIQ first
+     */
+    private AccessTokenInfo getDegradedTokenInfo(NamConfigurationSnapshot settings, TokenFingerprint fingerprint,
+                                                 NamSpan span) {
+        if (namUnavailable) {
+            return getGraceTokenInfo(settings, fingerprint, span);
+        }
+        if (!settings.staleWhileRevalidate) {
+            return null;
+        }
+        AccessTokenInfo tokenInfo = tokenState.validationCache.getStale(fingerprint, Long.MAX_VALUE);
+        if (tokenInfo == null) {
+            return null;
+        }
+        metrics.staleTokenServed();
+        NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_TOKEN_CACHE, NAMConstants.LOCAL_STATE_STALE_HIT, 1);
+        tokenInfo.addParameter(NAMConstants.SERVED_FROM, NAMConstants.SERVED_STALE);
+        span.setAttribute(NAMConstants.ATTRIBUTE_SERVED_LOCALLY, true)
+                .setAttribute(NAMConstants.ATTRIBUTE_SERVED_DEGRADED, NAMConstants.SERVED_STALE);
+        return tokenInfo;
+    }
+
+    /**
+     * This method looks up a validation result which may be served since NetIQ is unavailable. Results are served
+     * for at most the grace period after their time to live, and never after the token has expired.
+     *
+     * @param settings active configuration
+     * @param fingerprint fingerprint of the access token, null if the validation cache is disabled
+     * @param span span of the token validation
+     * @return the flagged validation result, null if there is none within the grace period
+     */
+    private AccessTokenInfo getGraceTokenInfo(NamConfigurationSnapshot settings, TokenFingerprint fingerprint,
+                                              NamSpan span) {
+        if (fingerprint == null || settings.tokenGracePeriod <= 0
+                || tokenState.revokedTokens().mightContain(fingerprint)) {
+            return null;
+        }
+        AccessTokenInfo tokenInfo = tokenState.validationCache.getStale(fingerprint, settings.tokenGracePeriod);
+        if (tokenInfo == null) {
+            return null;
+        }
+        metrics.graceTokenServed();
+        NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_TOKEN_CACHE, NAMConstants.LOCAL_STATE_GRACE_HIT, 1);
+        tokenInfo.addParameter(NAMConstants.SERVED_FROM, NAMConstants.SERVED_GRACE);
+        span.setAttribute(NAMConstants.ATTRIBUTE_SERVED_LOCALLY, true)
+                .setAttribute(NAMConstants.ATTRIBUTE_SERVED_DEGRADED, NAMConstants.SERVED_GRACE);
+        if (log.isDebugEnabled()) {
+            log.debug("NetIQ is unavailable. Hence serving the previous validation result of the token.");
+        }
         return tokenInfo;
     }
 
+    /**
+     * This method revalidates an access token in the background, unless a revalidation of the token is already
+     * pending. Revalidations are dropped when the revalidation queue is full.
+     *
+     * @param settings configuration to validate the token with
+     * @param accessToken the access token
+     * @param fingerprint fingerprint of the access token
+     */
+    private void revalidateInBackground(final NamConfigurationSnapshot settings, final String accessToken,
+                                        final TokenFingerprint fingerprint) {
+        if (!pendingRevalidations.add(fingerprint)) {
+            return;
+        }
+        try {
+            NamExecutors.revalidation().execute(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.backgroundRevalidation();
+                    heavyHitters.tokenValidated(accessToken, fingerprint);
+                    executeAsync(settings, newTokenInfoRequest(settings, accessToken),
+                            NAMConstants.SPAN_NAM_TOKEN_INFO,
+                            NamBulkhead.Type.VALIDATION, new FutureCallback<CloseableHttpResponse>() {
+                                @Override
+                                public void completed(CloseableHttpResponse response) {
+                                    try {
+                                        toTokenInfo(accessToken, fingerprint, readTokenInfoResponse(response));
+                                        namUnavailable = false;
+                                    } catch (NamUnavailableException e) {
+                                        if (isUpstreamFailure(e)) {
+                                            namUnavailable = true;
+                                        }
+                                    } catch (APIManagementException | RuntimeException e) {
+                                        tokenState.validationCache.remove(fingerprint);
+                                        log.warn("Error occurred while revalidating an access token in the " +
+                                                "background.", e);
+                                    } finally {
+                                        pendingRevalidations.remove(fingerprint);
+                                    }
+                                }
+
+                                @Override
+                                public void failed(Exception e) {
+                                    if (e instanceof IOException) {
+                                        if (isUpstreamFailure(e)) {
+                                            namUnavailable = true;
+                                        }
+                                    } else {
+                                        tokenState.validationCache.remove(fingerprint);
+                                        log.warn("Error occurred while revalidating an access token in the " +
+                                                "background.", e);
+                                    }
+                                    pendingRevalidations.remove(fingerprint);
+                                }
+
+                                @Override
+                                public void cancelled() {
+                                    pendingRevalidations.remove(fingerprint);
+                                }
+                            });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRevalidations.remove(fingerprint);
+            if (log.isDebugEnabled()) {
+                log.debug("Revalidation queue is full. Hence the access token is not revalidated.");
+            }
+        }
+    }
+
     @Override
     public KeyManagerConfiguration getKeyManagerConfiguration() throws APIManagementException {
         return configuration;
@@ -403,6 +1087,7 @@ public class NamOauthClient extends AbstractKeyManager {
 
     @Override
     public boolean registerNewResource(API api, Map map) throws APIManagementException {
+        apiScopes.put(api);
         return true;
     }
 
@@ -413,12 +1098,13 @@ public class NamOauthClient extends AbstractKeyManager {
 
     @Override
     public boolean updateRegisteredResource(API api, Map map) throws APIManagementException {
+        apiScopes.put(api);
         return true;
     }
 
     @Override
     public void deleteRegisteredResourceByAPIId(String s) throws APIManagementException {
-        // not applicable
+        apiScopes.remove(s);
     }
 
     @Override
@@ -428,37 +1114,38 @@ public class NamOauthClient extends AbstractKeyManager {
 
     @Override
     public Set<String> getActiveTokensByConsumerKey(String s) throws APIManagementException {
-        return Collections.emptySet();
+        return tokenState.tokenIndex.getActiveTokens(s);
     }
 
     @Override
     public AccessTokenInfo getAccessTokenByConsumerKey(String s) throws APIManagementException {
-        return null;
+        return tokenState.tokenIndex.getLatestToken(s);
     }
 
     @Override
     public Map<String, Set<Scope>> getScopesForAPIS(String s) throws APIManagementException {
-        return null;
+        return apiScopes.getScopes(s);
     }
 
-    private OAuthApplicationInfo createApplication(OAuthApplicationInfo oAuthApplicationInfo)
+    private OAuthApplicationInfo createApplication(NamConfigurationSnapshot settings, String adminToken,
+                                                   OAuthApplicationInfo oAuthApplicationInfo)
             throws APIManagementException {
         String[] scope = ((String) oAuthApplicationInfo.getParameter(NAMConstants.TOKEN_SCOPE))
                 .split(NAMConstants.INFO_SCOPE_SEPARATOR);
         Object tokenGrantType = oAuthApplicationInfo.getParameter(NAMConstants.INFO_TOKEN_INFO);
         String tokenType = oAuthApplicationInfo.getTokenType();
 
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-        JSONObject params = new JSONObject();
-        createPayloadFromOAuthAppInfo(oAuthApplicationInfo, params);
+        ClientRegistrationPayload payload = ClientRegistrationPayload.from(oAuthApplicationInfo);
 
-        HttpPost httpPost = new HttpPost(clientEndpoint);
+        HttpPost httpPost = new HttpPost(settings.clientEndpoint);
+        BufferedReader reader = null;
+        CloseableHttpResponse response = null;
         try {
             httpPost.setHeader(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATION_JSON);
-            httpPost.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + accessToken);
-            httpPost.setEntity(new StringEntity(params.toJSONString(), ContentType.APPLICATION_JSON));
+            httpPost.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + adminToken);
+            httpPost.setEntity(payload.toEntity(null));
 
-            HttpResponse response = httpClient.execute(httpPost);
+            response = execute(settings, httpPost, NAMConstants.SPAN_NAM_CREATE_CLIENT, NamBulkhead.Type.MANAGEMENT);
             int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity entity = response.getEntity();
             if (entity == null) {
@@ -466,12 +1153,13 @@ public class NamOauthClient extends AbstractKeyManager {
                         NAMConstants.ERROR_COULD_NOT_READ_HTTP_ENTITY, response));
             }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
+            reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
             JSONObject responseObject = getParsedObjectByReader(reader);
 
             if (HttpStatus.SC_CREATED == statusCode) {
                 if (responseObject != null) {
                     oAuthApplicationInfo = createOAuthAppInfoFromResponse(responseObject);
+                    applicationDocuments.put(oAuthApplicationInfo.getClientId(), responseObject);
                     if (scope != null) {
                         oAuthApplicationInfo.addParameter(NAMConstants.TOKEN_SCOPE, scope);
                     }
@@ -499,6 +1187,8 @@ public class NamOauthClient extends AbstractKeyManager {
         } catch (ParseException e) {
             handleException(String.format("Error occurred while parsing response when creating a client application " +
                     "for %s.", oAuthApplicationInfo.getClientId()), e);
+        } finally {
+            closeResources(reader, response);
         }
         return null;
     }
@@ -506,19 +1196,21 @@ public class NamOauthClient extends AbstractKeyManager {
     /**
      * This method executes the retrieve oAuth application request.
      *
+     * @param adminToken admin access token to authorize the request with
      * @param clientId client id assosiated with the application which needs to be retrieved
      * @return response body of retrieve application request
      * @throws APIManagementException
      */
-    private JSONObject getApplication(String clientId) throws APIManagementException {
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-        String registrationEndpoint = clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
+    private JSONObject getApplication(NamConfigurationSnapshot settings, String adminToken, String clientId)
+            throws APIManagementException {
+        String registrationEndpoint = settings.clientEndpoint + NAMConstants.URL_RESOURCE_SEPERATOR + clientId;
 
         BufferedReader reader = null;
+        CloseableHttpResponse response = null;
         try {
             HttpGet request = new HttpGet(registrationEndpoint);
-            request.addHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + accessToken);
-            HttpResponse response = httpClient.execute(request);
+            request.addHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + adminToken);
+            response = execute(settings, request, NAMConstants.SPAN_NAM_GET_CLIENT, NamBulkhead.Type.MANAGEMENT);
             int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity entity = response.getEntity();
             if (entity == null) {
@@ -531,6 +1223,7 @@ public class NamOauthClient extends AbstractKeyManager {
             Object responseJSON = parser.parse(reader);
 
             if (statusCode == HttpStatus.SC_OK) {
+                applicationDocuments.put(clientId, (JSONObject) responseJSON);
                 return (JSONObject) responseJSON;
             } else {
                 handleException(String.format("Error occurred while retrieving oAuth application for consumer " +
@@ -544,7 +1237,7 @@ public class NamOauthClient extends AbstractKeyManager {
             handleException(String.format("Error while reading response body when retrieving oAuth application of %s.",
                     clientId), e);
         } finally {
-            closeResources(reader, httpClient);
+            closeResources(reader, response);
         }
         return null;
     }
@@ -556,8 +1249,8 @@ public class NamOauthClient extends AbstractKeyManager {
      * @return client sercret of the application that has the provided client id
      * @throws APIManagementException
      */
-    private String getClientSecret(String clientId) throws APIManagementException {
-        JSONObject application = getApplication(clientId);
+    private String getClientSecret(NamConfigurationSnapshot settings, String clientId) throws APIManagementException {
+        JSONObject application = getApplication(settings, updateNamAccessToken(settings, null), clientId);
         if (application == null) {
             handleException(String.format("Retrieving applicaiton for client %s failed.", clientId));
         }
@@ -570,26 +1263,221 @@ public class NamOauthClient extends AbstractKeyManager {
     }
 
     /**
-     * This method initiates validating the access token and updating it if necessary
+     * This method initiates validating the access token and updating it if necessary. If another operation is
+     * renewing the token, this method waits for it until the deadline of the current operation.
      *
      * @param info OAuthApplicationInfo of the application, which is related to the operations that require
      *             access token
+     * @return the admin access token, as read while the token was locked. Requests have to use this token rather
+     *         than the field, which a reconfiguration may clear at any time.
+     * @throws NamDeadlineExceededException if the deadline passed while waiting for another renewal
      * @throws APIManagementException
      */
-    private void updateNamAccessToken(OAuthApplicationInfo info) throws APIManagementException {
+    private String updateNamAccessToken(NamConfigurationSnapshot settings, OAuthApplicationInfo info)
+            throws APIManagementException {
         if (log.isDebugEnabled()) {
-            log.debug(String.format("Validating and updating the existing access token for client %s", namAppClientId));
+            log.debug(String.format("Validating and updating the existing access token for client %s",
+                    settings.clientId));
         }
 
-        if (accessToken == null || isTokenExpired()) {
-            JSONObject response = getAccessTokenWithPassword();
-            validityPeriod = (Long) response.get(NAMConstants.EXPIRES_IN);
-            accessTokenIssuedTime = System.currentTimeMillis();
+        lockAccessToken(settings);
+        try {
+            if (accessToken == null || isTokenExpired() || settings.adminCredentialsChanged(accessTokenSettings)) {
+                renewNamAccessToken(settings);
+            }
+            accessTokenUsed = true;
+            return accessToken;
+        } finally {
+            accessTokenLock.unlock();
+        }
+    }
+
+    /**
+     * This method takes the lock of the admin access token, waiting no longer than the deadline of the current
+     * operation.
+     *
+     * @param settings active configuration
+     * @throws NamDeadlineExceededException if the deadline passed before the lock became free
+     * @throws APIManagementException if the thread was interrupted while waiting
+     */
+    private void lockAccessToken(NamConfigurationSnapshot settings) throws APIManagementException {
+        long remainingMillis = NamDeadline.remainingMillis();
+        try {
+            if (remainingMillis == Long.MAX_VALUE) {
+                accessTokenLock.lockInterruptibly();
+            } else if (!accessTokenLock.tryLock(remainingMillis, TimeUnit.MILLISECONDS)) {
+                metrics.deadlineOverrun();
+                DeadlineElapsedIOException e = NamDeadline.exceeded("The access token of " + settings.clientId +
+                        " was still being renewed by another operation.");
+                handleException(e.getMessage(), e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleException("Interrupted while waiting for the access token of " + settings.clientId, e);
+        }
+    }
+
+    /**
+     * This method renews the admin access token ahead of its expiry, so that admin operations do not have to wait
+     * for the renewal. The token is only renewed if it has been used since it was obtained, hence idle key managers
+     * stop renewing their token.
+     *
+     * @param refresh the refresh which has fallen due
+     */
+    private void renewNamAccessTokenAhead(AccessTokenRefresh refresh) {
+        // An operation which holds the lock is renewing the token already.
+        if (!accessTokenLock.tryLock()) {
+            return;
+        }
+        try {
+            NamConfigurationSnapshot settings = configurationSnapshot;
+            if (refresh != accessTokenRefresh || !accessTokenUsed || settings == null) {
+                return;
+            }
+            try {
+                renewNamAccessToken(settings);
+            } catch (APIManagementException e) {
+                log.warn(String.format("Could not renew the access token for %s ahead of its expiry. It is renewed " +
+                        "when it is used next.", settings.clientId));
+            }
+        } finally {
+            accessTokenLock.unlock();
+        }
+    }
+
+    /**
+     * Timer which renews the admin access token once 90% of its validity period has passed, see
+     * {@link NAMConstants#ADMIN_TOKEN_REFRESH_AHEAD}. The renewal runs on the revalidation executor, since it calls
+     * NetIQ.
+     */
+    private final class AccessTokenRefresh extends ExpiryWheel.Timer implements Runnable {
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            try {
+                NamExecutors.revalidation().execute(this);
+            } catch (RejectedExecutionException e) {
+                log.debug("Revalidation queue is full. Hence the access token is renewed when it is used next.");
+            }
+            return false;
+        }
+
+        @Override
+        String store() {
+            // The refresh does not remove any entries.
+            return null;
+        }
+
+        @Override
+        public void run() {
+            renewNamAccessTokenAhead(this);
+        }
+    }
+
+    /**
+     * This method obtains a new admin access token. If a refresh token was issued along with the previous access
+     * token, the token is renewed with the refresh token grant, which spares NetIQ the user store lookup of the
+     * password grant. The configured grant is used if there is no refresh token or NetIQ rejects it.
+     *
+     * @param settings active configuration
+     * @throws APIManagementException if no access token could be obtained
+     */
+    private void renewNamAccessToken(NamConfigurationSnapshot settings) throws APIManagementException {
+        NamSpan span = tracer.startSpan(NAMConstants.SPAN_RENEW_ADMIN_TOKEN);
+        NamDeadline deadline = NamDeadline.start(NAMConstants.SPAN_RENEW_ADMIN_TOKEN,
+                settings.operationTimeout(NAMConstants.SPAN_RENEW_ADMIN_TOKEN));
+        try {
+            int attempt = 0;
+            if (refreshToken != null && !settings.adminCredentialsChanged(accessTokenSettings)) {
+                attempt++;
+                // Leave half of the budget to the configured grant, in case the refresh token grant fails.
+                NamDeadline step = NamDeadline.split(2);
+                List<NameValuePair> params = new ArrayList<>();
+                params.add(new BasicNameValuePair(NAMConstants.GRANT_TYPE, NAMConstants.REFRESH_TOKEN));
+                params.add(new BasicNameValuePair(NAMConstants.REFRESH_TOKEN, refreshToken));
+                params.add(new BasicNameValuePair(NAMConstants.CLIENT_ID, settings.clientId));
+                params.add(new BasicNameValuePair(NAMConstants.CLIENT_SECRET, settings.clientSecret));
+                try {
+                    requestNamAccessToken(settings, NAMConstants.REFRESH_TOKEN, params);
+                    span.setAttribute(NAMConstants.ATTRIBUTE_GRANT_TYPE, NAMConstants.REFRESH_TOKEN)
+                            .setAttribute(NAMConstants.ATTRIBUTE_ATTEMPT, attempt);
+                    return;
+                } catch (NamOAuthErrorException e) {
+                    metrics.refreshTokenGrantFailed();
+                    refreshToken = null;
+                    log.warn(String.format("NetIQ rejected the refresh token of %s with %s. Hence falling back to " +
+                            "the %s grant.", settings.clientId, e.getError(), settings.adminTokenGrantType));
+                } catch (APIManagementException e) {
+                    // Failures to reach NetIQ and local limits say nothing about the refresh token, which is kept
+                    // for the next renewal.
+                    metrics.refreshTokenGrantFailed();
+                    throw e;
+                } finally {
+                    step.close();
+                }
+            }
+            attempt++;
+            List<NameValuePair> params = new ArrayList<>();
+            params.add(new BasicNameValuePair(NAMConstants.GRANT_TYPE, settings.adminTokenGrantType));
+            if (NAMConstants.PASSWORD.equals(settings.adminTokenGrantType)) {
+                params.add(new BasicNameValuePair(NAMConstants.USERNAME, settings.username));
+                params.add(new BasicNameValuePair(NAMConstants.PASSWORD, settings.password));
+            }
+            params.add(new BasicNameValuePair(NAMConstants.CLIENT_ID, settings.clientId));
+            params.add(new BasicNameValuePair(NAMConstants.CLIENT_SECRET, settings.clientSecret));
+            params.add(new BasicNameValuePair(NAMConstants.SCOPE, NAMConstants.DEFAULT_SCOPE));
+            requestNamAccessToken(settings, settings.adminTokenGrantType, params);
+            span.setAttribute(NAMConstants.ATTRIBUTE_GRANT_TYPE, settings.adminTokenGrantType)
+                    .setAttribute(NAMConstants.ATTRIBUTE_ATTEMPT, attempt);
+        } finally {
+            deadline.close();
+            span.end();
+        }
+    }
+
+    /**
+     * This method requests an admin access token with the given grant and makes it the current admin token. The
+     * refresh token of the response, if any, replaces the current refresh token.
+     *
+     * @param settings active configuration
+     * @param grantType grant type of the request
+     * @param params parameters of the token request
+     * @throws APIManagementException if no access token could be obtained
+     */
+    private void requestNamAccessToken(NamConfigurationSnapshot settings, String grantType,
+                                       List<NameValuePair> params) throws APIManagementException {
+        Object event = NamFlightRecorder.beginTokenRefresh();
+        long startTime = System.nanoTime();
+        boolean refreshed = false;
+        try {
+            JSONObject response = getAccessTokenWithGrant(settings, grantType, params);
             String token = (String) response.get(NAMConstants.ACCESS_TOKEN);
-            if (StringUtils.isEmpty(token)) {
-                handleException("Failed to get a new access token for " + namAppClientId);
+            Long expiresIn = (Long) response.get(NAMConstants.EXPIRES_IN);
+            if (StringUtils.isEmpty(token) || expiresIn == null) {
+                handleException("Failed to get a new access token for " + settings.clientId);
+            }
+            String newRefreshToken = (String) response.get(NAMConstants.REFRESH_TOKEN);
+            if (!StringUtils.isEmpty(newRefreshToken)) {
+                refreshToken = newRefreshToken;
             }
+            validityPeriod = expiresIn * 1000;
+            accessTokenIssuedTime = System.currentTimeMillis();
             this.accessToken = token;
+            this.accessTokenSettings = settings;
+            accessTokenUsed = false;
+            if (accessTokenRefresh != null) {
+                NamExecutors.expiryWheel().cancel(accessTokenRefresh);
+            }
+            accessTokenRefresh = new AccessTokenRefresh();
+            NamExecutors.expiryWheel().schedule(accessTokenRefresh,
+                    (long) (validityPeriod * NAMConstants.ADMIN_TOKEN_REFRESH_AHEAD));
+            refreshed = true;
+            metrics.adminTokenRenewed(grantType, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Obtained a new access token for %s with the %s grant.", settings.clientId,
+                        grantType));
+            }
+        } finally {
+            NamFlightRecorder.endTokenRefresh(event, settings.clientId, grantType, refreshed);
         }
     }
 
@@ -598,17 +1486,39 @@ public class NamOauthClient extends AbstractKeyManager {
      * This method validates the given access token by calling /tokenInfo endpoint of NetIQ Access Manager.
      *
      * @param accessToken Access token which needs to be validated.
-     * @return response body for the validation request as a JSONObject
+     * @return response body for the validation request as a JSONObject, null if the token is not valid
+     * @throws NamUnavailableException if NetIQ could not be reached or failed with a server error
      * @throws APIManagementException
      */
-    private JSONObject doValidateAccessTokenRequest(String accessToken) throws APIManagementException {
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
+    private JSONObject doValidateAccessTokenRequest(NamConfigurationSnapshot settings, String accessToken)
+            throws APIManagementException {
+        CloseableHttpResponse response;
+        try {
+            response = execute(settings, newTokenInfoRequest(settings, accessToken), NAMConstants.SPAN_NAM_TOKEN_INFO,
+                    NamBulkhead.Type.VALIDATION);
+        } catch (IOException e) {
+            throw tokenInfoUnavailable(e);
+        }
+        return readTokenInfoResponse(response);
+    }
 
-        HttpGet httpGet = new HttpGet(tokenInfoEndpoint);
+    private static HttpGet newTokenInfoRequest(NamConfigurationSnapshot settings, String accessToken) {
+        HttpGet httpGet = new HttpGet(settings.tokenInfoEndpoint);
         httpGet.setHeader(NAMConstants.AUTHORIZATION, NAMConstants.BEARER + accessToken);
-        BufferedReader reader;
+        return httpGet;
+    }
+
+    /**
+     * This method reads the response of the /tokenInfo endpoint and closes it.
+     *
+     * @param response response of the /tokenInfo endpoint
+     * @return response body as a JSONObject, null if the token is not valid
+     * @throws NamUnavailableException if the response could not be read or NetIQ failed with a server error
+     * @throws APIManagementException
+     */
+    private JSONObject readTokenInfoResponse(CloseableHttpResponse response) throws APIManagementException {
+        BufferedReader reader = null;
         try {
-            HttpResponse response = httpClient.execute(httpGet);
             int statusCode = response.getStatusLine().getStatusCode();
 
             if (HttpStatus.SC_OK == statusCode) {
@@ -619,19 +1529,273 @@ public class NamOauthClient extends AbstractKeyManager {
                 }
                 reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
                 return getParsedObjectByReader(reader);
+            } else if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                String msg = "Status code " + statusCode + " received when trying to get token metadata.";
+                log.error(msg);
+                throw new NamUnavailableException(msg);
             } else {
                 if (log.isDebugEnabled()) {
                     log.debug("Status code " + statusCode + " received when trying to get token metadata.");
                 }
             }
         } catch (IOException e) {
-            handleException("Error occurred when reading the response while getting token meta data.", e);
+            throw tokenInfoUnavailable(e);
         } catch (ParseException e) {
             handleException("Error occurred when parsing response while getting token meta data.", e);
+        } finally {
+            closeResources(reader, response);
         }
         return null;
     }
 
+    private NamUnavailableException tokenInfoUnavailable(IOException e) {
+        String msg = "Error occurred when reading the response while getting token meta data.";
+        log.error(msg, e);
+        if (isDeadlineOverrun(e)) {
+            return new NamDeadlineExceededException(msg, e);
+        }
+        return new NamUnavailableException(msg, e);
+    }
+
+    /**
+     * This method executes a request against one of the NetIQ endpoints, within a span which records the endpoint,
+     * the status code and the payload sizes of the call. The request counts against the concurrency quota of the
+     * tenant and against the bulkhead of its operation class until its response is closed, since the connection of
+     * the response stays leased from the pool until then. The
+     * connect and socket timeouts of the request are shortened to the time left until the deadline of the current
+     * operation, see {@link NamDeadline}.
+     *
+     * @param settings configuration the current operation started with
+     * @param request the request
+     * @param spanName name of the span of the call
+     * @param operationClass operation class of the request, which selects the bulkhead it counts against
+     * @return response of the request, which has to be closed
+     * @throws TenantQuotaExceededException if the tenant has too many requests in flight
+     * @throws BulkheadFullException if the bulkhead of the operation class has no capacity left
+     * @throws DeadlineElapsedIOException if the deadline of the current operation passed before the response
+     * headers were received
+     * @throws IOException if the request fails
+     */
+    private CloseableHttpResponse execute(NamConfigurationSnapshot settings, HttpRequestBase request, String spanName,
+                                          NamBulkhead.Type operationClass) throws IOException {
+        NamSpan span = tracer.startSpan(spanName);
+        Object event = NamFlightRecorder.beginRequest();
+        NamDeadline deadline = NamDeadline.current();
+        CloseableHttpResponse response = null;
+        try {
+            startCall(span, request);
+            NamTenant requestTenant = tenant;
+            acquireRequestQuota(requestTenant);
+            NamBulkhead bulkhead = null;
+            try {
+                NamConnectionPool pool = NamEngine.get().getConnectionPool(endpointOf(request));
+                bulkhead = pool.acquire(operationClass);
+                applyDeadline(settings, request);
+                response = new LeasedResponse(pool.getTransport().execute(request), bulkhead, requestTenant);
+            } finally {
+                if (response == null) {
+                    if (bulkhead != null) {
+                        bulkhead.release();
+                    }
+                    requestTenant.releaseRequest();
+                }
+            }
+            return response;
+        } catch (IOException e) {
+            IOException failure = toDeadlineFailure(deadline, request, e);
+            span.setError(failure);
+            throw failure;
+        } catch (RuntimeException e) {
+            span.setError(e);
+            throw e;
+        } finally {
+            endCall(span, event, request, response);
+        }
+    }
+
+    /**
+     * This method executes a request against one of the NetIQ endpoints like
+     * {@link #execute(NamConfigurationSnapshot, HttpRequestBase, String, NamBulkhead.Type)}, but hands the response
+     * over to the given callback instead of waiting for it, so that the calling thread is not held while the request
+     * is in flight. The calling thread still waits for a slot of the bulkhead of the operation class, if there is none
+     * free.
+     *
+     * @param settings configuration the current operation started with
+     * @param request the request
+     * @param spanName name of the span of the call
+     * @param operationClass operation class of the request, which selects the bulkhead it counts against
+     * @param callback receives the response, which has to be closed by the callback, or the failure
+     */
+    private void executeAsync(NamConfigurationSnapshot settings, final HttpRequestBase request, String spanName,
+                              NamBulkhead.Type operationClass, final FutureCallback<CloseableHttpResponse> callback) {
+        final NamSpan span = tracer.startSpan(spanName);
+        final Object event = NamFlightRecorder.beginRequest();
+        final NamDeadline deadline = NamDeadline.current();
+        try {
+            startCall(span, request);
+            final NamTenant requestTenant = tenant;
+            acquireRequestQuota(requestTenant);
+            final NamBulkhead bulkhead;
+            NamConnectionPool pool;
+            try {
+                pool = NamEngine.get().getConnectionPool(endpointOf(request));
+                bulkhead = pool.acquire(operationClass);
+            } catch (IOException | RuntimeException e) {
+                requestTenant.releaseRequest();
+                throw e;
+            }
+            try {
+                applyDeadline(settings, request);
+            } catch (IOException e) {
+                bulkhead.release();
+                requestTenant.releaseRequest();
+                throw e;
+            }
+            pool.getTransport().execute(request, new FutureCallback<CloseableHttpResponse>() {
+                @Override
+                public void completed(CloseableHttpResponse response) {
+                    CloseableHttpResponse leased = new LeasedResponse(response, bulkhead, requestTenant);
+                    endCall(span, event, request, leased);
+                    callback.completed(leased);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    bulkhead.release();
+                    requestTenant.releaseRequest();
+                    Exception failure = e instanceof IOException ? toDeadlineFailure(deadline, request,
+                            (IOException) e) : e;
+                    span.setError(failure);
+                    endCall(span, event, request, null);
+                    callback.failed(failure);
+                }
+
+                @Override
+                public void cancelled() {
+                    bulkhead.release();
+                    requestTenant.releaseRequest();
+                    endCall(span, event, request, null);
+                    callback.cancelled();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            span.setError(e);
+            endCall(span, event, request, null);
+            callback.failed(e);
+        } finally {
+            tracer.detach(span);
+        }
+    }
+
+    private void startCall(NamSpan span, HttpRequestBase request) {
+        if (span.isSampled()) {
+            span.setAttribute(NAMConstants.ATTRIBUTE_HTTP_METHOD, request.getMethod())
+                    .setAttribute(NAMConstants.ATTRIBUTE_ENDPOINT, endpointOf(request))
+                    .setAttribute(NAMConstants.ATTRIBUTE_SERVED_LOCALLY, false)
+                    .setAttribute(NAMConstants.ATTRIBUTE_ATTEMPT, 1);
+            long requestSize = requestSizeOf(request);
+            if (requestSize >= 0) {
+                span.setAttribute(NAMConstants.ATTRIBUTE_REQUEST_SIZE, requestSize);
+            }
+            tracer.inject(span, request);
+        }
+    }
+
+    private void endCall(NamSpan span, Object event, HttpRequestBase request, CloseableHttpResponse response) {
+        int statusCode = 0;
+        long responseSize = -1;
+        if (response != null) {
+            statusCode = response.getStatusLine().getStatusCode();
+            if (response.getEntity() != null) {
+                responseSize = response.getEntity().getContentLength();
+            }
+            if (span.isSampled()) {
+                span.setAttribute(NAMConstants.ATTRIBUTE_STATUS_CODE, statusCode)
+                        .setAttribute(NAMConstants.ATTRIBUTE_HTTP_FLAVOR, response.getStatusLine()
+                                .getProtocolVersion().toString());
+                if (response.getEntity() != null) {
+                    span.setAttribute(NAMConstants.ATTRIBUTE_RESPONSE_SIZE, responseSize);
+                }
+            }
+        }
+        span.end();
+        if (event != null) {
+            NamFlightRecorder.endRequest(event, request.getMethod(), endpointOf(request), statusCode,
+                    requestSizeOf(request), responseSize);
+        }
+    }
+
+    private void acquireRequestQuota(NamTenant requestTenant) throws TenantQuotaExceededException {
+        if (!requestTenant.tryAcquireRequest()) {
+            throw new TenantQuotaExceededException(String.format("Tenant %s has reached its limit of %s " +
+                    "concurrent requests to NetIQ.", requestTenant.getDomain(),
+                    requestTenant.getMaxConcurrentRequests()));
+        }
+    }
+
+    /**
+     * This method sets the timeouts of a request, shortened to the time left until the deadline of the current
+     * operation.
+     *
+     * @param settings configuration the current operation started with
+     * @param request the request
+     * @throws DeadlineElapsedIOException if the deadline has already passed
+     */
+    private void applyDeadline(NamConfigurationSnapshot settings, HttpRequestBase request)
+            throws DeadlineElapsedIOException {
+        long remainingMillis = NamDeadline.remainingMillis();
+        if (remainingMillis == 0) {
+            throw NamDeadline.exceeded(String.format("%s %s was not sent.", request.getMethod(),
+                    endpointOf(request)));
+        }
+        request.setConfig(settings.requestConfig(remainingMillis));
+    }
+
+    /**
+     * This method counts a failed request as a deadline overrun if it failed due to the deadline of the operation
+     * which sent it.
+     *
+     * @param deadline deadline of the operation which sent the request, captured before the request was dispatched
+     *                 since the failure may be reported on another thread, null if there is none
+     * @param request the failed request
+     * @param e the failure
+     * @return a {@link DeadlineElapsedIOException} if the deadline has passed, otherwise the failure itself
+     */
+    private IOException toDeadlineFailure(NamDeadline deadline, HttpRequestBase request, IOException e) {
+        if (e instanceof DeadlineElapsedIOException) {
+            metrics.deadlineOverrun();
+            return e;
+        }
+        if (deadline != null && deadline.hasPassed()) {
+            metrics.deadlineOverrun();
+            DeadlineElapsedIOException exceeded = NamDeadline.exceeded(deadline, String.format("%s %s did not " +
+                    "complete in time.", request.getMethod(), endpointOf(request)));
+            exceeded.initCause(e);
+            return exceeded;
+        }
+        return e;
+    }
+
+    /**
+     * @param request request sent to NetIQ
+     * @return URL of the request without the query, which may carry secrets
+     */
+    private static String endpointOf(HttpRequestBase request) {
+        return request.getURI().getScheme() + "://" + request.getURI().getAuthority() + request.getURI().getPath();
+    }
+
+    /**
+     * @param request request sent to NetIQ
+     * @return size of the request body, -1 if it is not known
+     */
+    private static long requestSizeOf(HttpRequestBase request) {
+        if (request instanceof HttpEntityEnclosingRequest
+                && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+            return ((HttpEntityEnclosingRequest) request).getEntity().getContentLength();
+        }
+        return -1;
+    }
+
     /**
      * This method generates and populates an OAuthApplicationInfo object from the response of oAuth application
      * creation request.
@@ -680,151 +1844,67 @@ public class NamOauthClient extends AbstractKeyManager {
     }
 
     /**
-     * This method is used to create and throw an APIManagerException for a given error message
+     * This method is used to create and throw an APIManagerException for a given error message and cause. Failures
+     * caused by the deadline of the current operation are reported with a {@link NamDeadlineExceededException}.
+     *
      * @param msg error message which needs to be included in the API Manager Exception
+     * @param e cause of the failure
      * @throws APIManagementException
      */
-    private static void handleException(String msg) throws APIManagementException {
-        log.error(msg);
-        throw new APIManagementException(msg);
+    @Override
+    protected void handleException(String msg, Exception e) throws APIManagementException {
+        if (isDeadlineOverrun(e)) {
+            log.error(msg, e);
+            throw new NamDeadlineExceededException(msg, e);
+        }
+        super.handleException(msg, e);
     }
 
     /**
-     * This method generates the body of the applicatoin creation request for a particular oAuth
-     * application, in UrlEncoded format.
+     * This method tells whether a failure was caused by the deadline of the current operation. A failure which was
+     * not reported as a {@link DeadlineElapsedIOException}, e.g. a socket timeout while reading a response body, is
+     * counted as a deadline overrun here.
      *
-     * @param appInfo oAuthApplicationInfo of the application that is going to be created
-     * @param params a list of name-value pairs which should be included in the reuqest body
-     * @return a UrlEncodedFormEntity which needs to be included as the application creation request
-     * @throws APIManagementException
+     * @param e cause of the failure
+     * @return true if the failure was caused by the deadline
      */
-    private void createPayloadFromOAuthAppInfo(OAuthApplicationInfo appInfo,
-                                               JSONObject params) throws APIManagementException {
-        String clientId = appInfo.getClientId();
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("Creating payload of OAuth application creation request for client id %s.",
-                    clientId));
-        }
-
-        String keyType = (String) appInfo.getParameter(NAMConstants.KEY_TYPE);
-        String clientName = appInfo.getClientName() + '_' + keyType;
-        if (StringUtils.isEmpty(clientName)) {
-            handleException("Mandatory parameter " + NAMConstants.CLIENT_NAME + " is missing.");
+    private boolean isDeadlineOverrun(Exception e) {
+        if (e instanceof DeadlineElapsedIOException) {
+            return true;
         }
-        params.put(NAMConstants.CLIENT_NAME, clientName);
-
-        if (!StringUtils.isEmpty(clientId)) {
-            params.put(NAMConstants.CLIENT_ID, clientId);
-        }
-
-        String redirectionUri = appInfo.getCallBackURL();
-        JSONArray jsonArray = new JSONArray();
-        if (!StringUtils.isEmpty(redirectionUri)) {
-            Collections.addAll(jsonArray, redirectionUri.split(NAMConstants.URI_SEPARATOR));
-            params.put(NAMConstants.REDIRECT_URIS, jsonArray);
-        } else {
-            Collections.addAll(jsonArray, NAMConstants.DEFAULT_REDIRECT_URI.split(NAMConstants.URI_SEPARATOR));
-            params.put(NAMConstants.REDIRECT_URIS, jsonArray);
-        }
-
-        String grantTypes = (String) appInfo.getParameter(NAMConstants.GRANT_TYPES);
-        if (grantTypes != null) {
-            JSONArray grantTypeList = new JSONArray();
-            Collections.addAll(grantTypeList, grantTypes.split(NAMConstants.INFO_GRANT_TYPE_SEPARATOR));
-            params.put(NAMConstants.GRANT_TYPES, grantTypeList);
+        if (e instanceof IOException && NamDeadline.isExceeded()) {
+            metrics.deadlineOverrun();
+            return true;
         }
+        return false;
+    }
 
-        JSONObject jsonObject;
-        String jsonString = appInfo.getJsonString();
-        try {
-            jsonObject = (JSONObject) new JSONParser().parse(jsonString);
-        } catch (ParseException e) {
-            throw new APIManagementException("Error while parsing json string of oAuthApplicationInfo " +
-                    jsonString);
+    /**
+     * This method tells whether a failure means that NetIQ itself is unavailable. Requests which were given up
+     * locally, since the deadline of the operation passed, the bulkhead of the operation class was full or the
+     * tenant had too many requests in flight, say nothing about NetIQ.
+     *
+     * @param e cause of the failure, either the failure of the request or a {@link NamUnavailableException} caused
+     *          by it
+     * @return true if NetIQ could not be reached or failed with a server error
+     */
+    private static boolean isUpstreamFailure(Exception e) {
+        if (e instanceof NamDeadlineExceededException) {
+            return false;
         }
+        Throwable cause = e instanceof NamUnavailableException ? e.getCause() : e;
+        return !(cause instanceof DeadlineElapsedIOException || cause instanceof BulkheadFullException
+                || cause instanceof TenantQuotaExceededException);
+    }
 
-        if (jsonObject != null) {
-            String applicationType = (String) jsonObject.get(NAMConstants.APPLICATION_TYPE);
-            if (!StringUtils.isEmpty(applicationType)) {
-                params.put(NAMConstants.APPLICATION_TYPE, applicationType);
-            }
-
-            String responseTypes = (String) jsonObject.get(NAMConstants.RESPONSE_TYPES);
-            JSONArray types = new JSONArray();
-            if (!StringUtils.isEmpty(responseTypes)) {
-                params.put(NAMConstants.RESPONSE_TYPES, responseTypes);
-            }  else {
-                Collections.addAll(types, NAMConstants.DEFAULT_RESPONSE_TYPE.split(NAMConstants.URI_SEPARATOR));
-                params.put(NAMConstants.RESPONSE_TYPES, types);
-            }
-
-            String alwaysIssueNewRefreshToken = (String) jsonObject.get(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN);
-            if (!StringUtils.isEmpty(alwaysIssueNewRefreshToken)) {
-                params.put(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN, alwaysIssueNewRefreshToken);
-            }
-
-            String authzCodeTTL = (String) jsonObject.get(NAMConstants.AUTH_CODE_TTL);
-            if (!StringUtils.isEmpty(authzCodeTTL)) {
-                params.put(NAMConstants.AUTH_CODE_TTL, authzCodeTTL);
-            }
-
-            String accessTokenTTL = (String) jsonObject.get(NAMConstants.ACCESS_TOKEN_TTL);
-            if (!StringUtils.isEmpty(accessTokenTTL)) {
-                params.put(NAMConstants.ACCESS_TOKEN_TTL, accessTokenTTL);
-            }
-
-            String refreshTokenTTL = (String) jsonObject.get(NAMConstants.REFRESH_TOKEN_TTL);
-            if (!StringUtils.isEmpty(refreshTokenTTL)) {
-                params.put(NAMConstants.REFRESH_TOKEN_TTL, refreshTokenTTL);
-            }
-
-            String corsdomains = (String) jsonObject.get(NAMConstants.CORS_DOMAINS);
-            if (!StringUtils.isEmpty(corsdomains)) {
-                params.put(NAMConstants.CORS_DOMAINS, corsdomains);
-            }
-
-            String logoUri = (String) jsonObject.get(NAMConstants.LOGO_URI);
-            if (!StringUtils.isEmpty(logoUri)) {
-                params.put(NAMConstants.LOGO_URI, logoUri);
-            }
-
-            String policyUri = (String) jsonObject.get(NAMConstants.POLICY_URI);
-            if (!StringUtils.isEmpty(policyUri)) {
-                params.put(NAMConstants.POLICY_URI, policyUri);
-            }
-
-            String tosUri = (String) jsonObject.get(NAMConstants.TOS_URI);
-            if (!StringUtils.isEmpty(tosUri)) {
-                params.put(NAMConstants.TOS_URI, tosUri);
-            }
-
-            String contacts = (String) jsonObject.get(NAMConstants.CONTACTS);
-            if (!StringUtils.isEmpty(contacts)) {
-                params.put(NAMConstants.CONTACTS, contacts);
-            }
-
-            String jwksUri = (String) jsonObject.get(NAMConstants.JWKS_URI);
-            if (!StringUtils.isEmpty(jwksUri)) {
-                params.put(NAMConstants.JWKS_URI, jwksUri);
-            }
-
-            String idTokenSignedResponseAlg = (String) jsonObject.get(NAMConstants.ID_TOKEN_SIGNED_RESPONSE_ALG);
-            if (!StringUtils.isEmpty(idTokenSignedResponseAlg)) {
-                params.put(NAMConstants.ID_TOKEN_SIGNED_RESPONSE_ALG, idTokenSignedResponseAlg);
-            }
-
-            String idTokenEncryptedResponseAlg =
-                    (String) jsonObject.get(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ALG);
-            if (!StringUtils.isEmpty(idTokenEncryptedResponseAlg)) {
-                params.put(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ALG, idTokenEncryptedResponseAlg);
-            }
-
-            String idTokenEnctryptedResponseEnc =
-                    (String) jsonObject.get(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ENC);
-            if (!StringUtils.isEmpty(idTokenEnctryptedResponseEnc)) {
-                params.put(NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ENC, idTokenEnctryptedResponseEnc);
-            }
-        }
+    /**
+     * This method is used to create and throw an APIManagerException for a given error message
+     * @param msg error message which needs to be included in the API Manager Exception
+     * @throws APIManagementException
+     */
+    private static void handleException(String msg) throws APIManagementException {
+        log.error(msg);
+        throw new APIManagementException(msg);
     }
 
     /**
@@ -839,28 +1919,32 @@ public class NamOauthClient extends AbstractKeyManager {
         JSONObject parsedObject = null;
         JSONParser parser = new JSONParser();
         if (reader != null) {
-            parsedObject = (JSONObject) parser.parse(reader);
+            Object event = NamFlightRecorder.beginParse();
+            boolean parsed = false;
+            try {
+                parsedObject = (JSONObject) parser.parse(reader);
+                parsed = true;
+            } finally {
+                NamFlightRecorder.endParse(event, parsed);
+            }
         }
         return parsedObject;
     }
 
     /**
-     * This method is used to close the readers and http clients which are used to call NetIQ access manager
-     * endpoints and to read the responses.
+     * This method is used to close the readers and responses of the calls to NetIQ access manager endpoints. The
+     * unread part of the response is consumed, so that the connection can be reused.
      *
      * @param reader BufferedReader instance which needs to be closed
-     * @param httpClient HttpClient instance which needs to be closed
+     * @param response response which needs to be closed
      */
-    private void closeResources(BufferedReader reader, CloseableHttpClient httpClient) {
+    private void closeResources(BufferedReader reader, CloseableHttpResponse response) {
         if (reader != null) {
             IOUtils.closeQuietly(reader);
         }
-        try {
-            if (httpClient != null) {
-                httpClient.close();
-            }
-        } catch (IOException e) {
-            log.error(e);
+        if (response != null) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            IOUtils.closeQuietly(response);
         }
     }
 
@@ -874,20 +1958,21 @@ public class NamOauthClient extends AbstractKeyManager {
      *         This should contain the access token for the given.
      * @throws APIManagementException
      */
-    private JSONObject getAccessTokenWithClientCredentials(String clientId, List<NameValuePair> parameters)
+    private JSONObject getAccessTokenWithClientCredentials(NamConfigurationSnapshot settings, String clientId,
+                                                           List<NameValuePair> parameters)
             throws APIManagementException {
         if (log.isDebugEnabled()) {
             log.debug(String.format("Getting a new access token for client %s using client credentials flow.",
                     clientId));
         }
 
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
         BufferedReader reader = null;
+        CloseableHttpResponse response = null;
         try {
-            HttpPost httpPost = new HttpPost(tokenEndpoint);
+            HttpPost httpPost = new HttpPost(settings.tokenEndpoint);
             httpPost.setHeader(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATIN_FORM_URL_ENCODED);
             httpPost.setEntity(new UrlEncodedFormEntity(parameters));
-            HttpResponse response = httpClient.execute(httpPost);
+            response = execute(settings, httpPost, NAMConstants.SPAN_NAM_ISSUE_TOKEN, NamBulkhead.Type.TOKEN_ISSUANCE);
             int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity entity = response.getEntity();
             if (entity == null) {
@@ -919,7 +2004,7 @@ public class NamOauthClient extends AbstractKeyManager {
             handleException(String.format("Error occurred when reading response body while getting a new access token" +
                     " client %s.", clientId), e);
         } finally {
-            closeResources(reader, httpClient);
+            closeResources(reader, response);
         }
         return null;
     }
@@ -950,42 +2035,34 @@ public class NamOauthClient extends AbstractKeyManager {
 
         String tokenScopes = (String) responseJSON.get(NAMConstants.SCOPE);
         if (StringUtils.isNotEmpty(tokenScopes)) {
-            tokenInfo.setScope(tokenScopes.split(NAMConstants.TOKEN_SCOPE_SPLIT_REGEX));
+            tokenInfo.setScope(scopeRegistry.parse(tokenScopes).toArray());
         }
         return tokenInfo;
     }
 
     /**
-     * This method is used to get an access token using resource owner flow.
-     * (i.e. using username and password)
-     * This will be used only at the begining to get the access token. After getting the access token for the first
-     * time, token endpoint will be called using client id and secret. (using client credentials flow)
+     * This method is used to get an access token for the NetIQ admin APIs from the token endpoint.
      *
-     * @return access token received from the NetIQ access manager for the given user credentials.
+     * @param grantType grant type of the request, used for logging
+     * @param params parameters of the token request
+     * @return token response received from the NetIQ access manager
      * @throws APIManagementException
      */
-    private JSONObject getAccessTokenWithPassword() throws APIManagementException {
+    private JSONObject getAccessTokenWithGrant(NamConfigurationSnapshot settings, String grantType,
+                                               List<NameValuePair> params) throws APIManagementException {
         if (log.isDebugEnabled()) {
-            log.debug(String.format("Getting a new access token for client %s using resource owner flow.",
-                    namAppClientId));
+            log.debug(String.format("Getting a new access token for client %s using the %s grant.",
+                    settings.clientId, grantType));
         }
 
-        List<NameValuePair> params = new ArrayList<>();
-
-        params.add(new BasicNameValuePair(NAMConstants.USERNAME, username));
-        params.add(new BasicNameValuePair(NAMConstants.PASSWORD, password));
-        params.add(new BasicNameValuePair(NAMConstants.CLIENT_ID, namAppClientId));
-        params.add(new BasicNameValuePair(NAMConstants.CLIENT_SECRET, namAppClientSecret));
-        params.add(new BasicNameValuePair(NAMConstants.GRANT_TYPE, NAMConstants.PASSWORD));
-        params.add(new BasicNameValuePair(NAMConstants.SCOPE, NAMConstants.DEFAULT_SCOPE));
-
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-        HttpPost httpPost = new HttpPost(tokenEndpoint);
+        HttpPost httpPost = new HttpPost(settings.tokenEndpoint);
+        BufferedReader reader = null;
+        CloseableHttpResponse response = null;
         try {
             httpPost.setHeader(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATIN_FORM_URL_ENCODED);
             httpPost.setEntity(new UrlEncodedFormEntity(params));
 
-            HttpResponse response = httpClient.execute(httpPost);
+            response = execute(settings, httpPost, NAMConstants.SPAN_NAM_ADMIN_TOKEN, NamBulkhead.Type.MANAGEMENT);
             int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity entity = response.getEntity();
             if (entity == null) {
@@ -993,7 +2070,7 @@ public class NamOauthClient extends AbstractKeyManager {
                         NAMConstants.ERROR_COULD_NOT_READ_HTTP_ENTITY, response));
             }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
+            reader = new BufferedReader(new InputStreamReader(entity.getContent(), NAMConstants.UTF_8));
             JSONObject responseObject = getParsedObjectByReader(reader);
 
             if (HttpStatus.SC_OK == statusCode) {
@@ -1002,25 +2079,34 @@ public class NamOauthClient extends AbstractKeyManager {
                 } else {
                     handleException(String.format("Response body does not contain the %s when " +
                                     "getting a new access token while getting a new access token for %s.",
-                            NAMConstants.ACCESS_TOKEN, namAppClientId));
+                            NAMConstants.ACCESS_TOKEN, settings.clientId));
                 }
             } else {
-                handleException(String.format("Error occured while getting a new access token for %s." +
+                String msg = String.format("Error occured while getting a new access token for %s." +
                                 "Response : %s. Response status code : %s",
-                        namAppClientId, responseObject.toJSONString(), statusCode));
+                        settings.clientId, responseObject.toJSONString(), statusCode);
+                Object error = responseObject.get(NAMConstants.OAUTH_ERROR);
+                if ((statusCode == HttpStatus.SC_BAD_REQUEST || statusCode == HttpStatus.SC_UNAUTHORIZED)
+                        && error instanceof String) {
+                    log.error(msg);
+                    throw new NamOAuthErrorException(msg, (String) error);
+                }
+                handleException(msg);
             }
 
         } catch (UnsupportedEncodingException e) {
             handleException(String.format("Unsupported encoding method has been used getting a new access token for  " +
-                    "%s.", namAppClientId), e);
+                    "%s.", settings.clientId), e);
         } catch (ClientProtocolException e) {
             throw new APIManagementException(NAMConstants.ERROR_CLIENT_PROTOCOL, e);
         } catch (IOException e) {
             handleException(String.format("Error occurred while reading response body when getting a new access token" +
-                    " for  %s.", namAppClientId), e);
+                    " for  %s.", settings.clientId), e);
         } catch (ParseException e) {
             handleException(String.format("Error occurred while parsing response when getting a new access token for " +
-                    "%s.", namAppClientId), e);
+                    "%s.", settings.clientId), e);
+        } finally {
+            closeResources(reader, response);
         }
         return null;
     }
@@ -1061,6 +2147,147 @@ public class NamOauthClient extends AbstractKeyManager {
         return null;
     }
 
+    /**
+     * This method starts warming up the key manager in the background. The admin access token is obtained, the host
+     * names of the NetIQ endpoints are resolved, connections to them are opened in advance and the parsing of
+     * representative NetIQ responses is run, so that the first requests do not pay for any of it.
+     *
+     * @param settings configuration to warm up with
+     */
+    private void startWarmUp(final NamConfigurationSnapshot settings) {
+        ready = false;
+        NamExecutors.daemonThreadFactory("nam-keymanager-warmup").newThread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    warmUp(settings);
+                } catch (RuntimeException e) {
+                    log.warn("Error occurred while warming up the NetIQ key manager.", e);
+                } finally {
+                    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    metrics.warmUpCompleted(duration);
+                    ready = true;
+                    log.info(String.format("NetIQ key manager for client %s warmed up in %s ms.",
+                            settings.clientId, duration));
+                }
+            }
+        }).start();
+    }
+
+    private void warmUp(NamConfigurationSnapshot settings) {
+        Map<String, String> hosts = new LinkedHashMap<>();
+        for (String endpoint : settings.endpointHosts()) {
+            hosts.put(endpoint, URI.create(endpoint).getHost());
+        }
+        for (String host : hosts.values()) {
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                log.warn("Could not resolve the NetIQ host " + host, e);
+            }
+        }
+
+        try {
+            updateNamAccessToken(settings, null);
+        } catch (APIManagementException e) {
+            log.warn("Could not get the NetIQ access token while warming up.", e);
+        }
+
+        for (String endpoint : hosts.keySet()) {
+            int opened = NamEngine.get().getConnectionPool(endpoint).preOpen(endpoint, settings.warmUpConnections,
+                    NAMConstants.WARM_UP_CONNECT_TIMEOUT);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Opened %s connections to %s while warming up.", opened, endpoint));
+            }
+        }
+
+        try {
+            for (int i = 0; i < settings.warmUpIterations; i++) {
+                JSONObject tokenInfo = getParsedObjectByReader(
+                        new BufferedReader(new StringReader(NAMConstants.WARM_UP_TOKEN_INFO_PAYLOAD)));
+                scopeRegistry.toScopeSet((JSONArray) tokenInfo.get(NAMConstants.SCOPE)).toArray();
+                createOAuthAppInfoFromResponse(getParsedObjectByReader(
+                        new BufferedReader(new StringReader(NAMConstants.WARM_UP_CLIENT_PAYLOAD))));
+            }
+        } catch (ParseException | IOException | APIManagementException e) {
+            log.warn("Error occurred while parsing representative responses to warm up.", e);
+        }
+    }
+
+    /**
+     * This method schedules the periodic removal of expired tokens from the consumer key index and the validation
+     * cache, replacing any previously scheduled removal. Expired tokens are removed by the {@link ExpiryWheel} in any
+     * case, hence the periodic removal is disabled by default and only catches up after the wall clock has been
+     * moved forward.
+     *
+     * @param intervalSeconds interval between two runs in seconds, a non positive value disables the removal
+     */
+    private synchronized void scheduleCleanup(long intervalSeconds) {
+        if (cleanup != null) {
+            cleanup.cancel(false);
+            cleanup = null;
+        }
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        cleanup = NamExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                int removedFromIndex = tokenState.tokenIndex.prune();
+                int removedFromCache = tokenState.validationCache.prune();
+                NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_TOKEN_INDEX,
+                        NAMConstants.LOCAL_STATE_EVICTION, removedFromIndex);
+                NamFlightRecorder.localState(NAMConstants.LOCAL_STATE_TOKEN_CACHE,
+                        NAMConstants.LOCAL_STATE_EVICTION, removedFromCache);
+                int removed = removedFromIndex + removedFromCache;
+                if (removed > 0 && log.isDebugEnabled()) {
+                    log.debug(String.format("Removed %s expired tokens from the local token state.", removed));
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * This method drops the local state of the tokens referred to by a revocation event. Revoked tokens are also
+     * added to the revoked token filter, so that validation results cached before the revocation are not trusted.
+     *
+     * @param event the revocation event
+     */
+    private void applyRevocation(RevocationEvent event) {
+        if (log.isDebugEnabled()) {
+            log.debug("Applying revocation event " + event);
+        }
+        switch (event.getType()) {
+            case TOKEN:
+                revoke(TokenFingerprint.of(event.getValue()));
+                tokenState.tokenIndex.remove(event.getValue());
+                break;
+            case TOKEN_FINGERPRINT:
+                try {
+                    revoke(TokenFingerprint.parse(event.getValue()));
+                } catch (IllegalArgumentException e) {
+                    log.warn("Ignored revocation event with an invalid token fingerprint " + event.getValue());
+                    return;
+                }
+                break;
+            case CONSUMER_KEY:
+                for (String token : tokenState.tokenIndex.invalidate(event.getValue())) {
+                    revoke(TokenFingerprint.of(token));
+                }
+                applicationDocuments.remove(event.getValue());
+                break;
+            default:
+                return;
+        }
+        metrics.revocationApplied();
+    }
+
+    private void revoke(TokenFingerprint fingerprint) {
+        tokenState.revokedTokens().add(fingerprint);
+        tokenState.validationCache.remove(fingerprint);
+    }
+
     /**
      * This method is used to check whether the access token is expired.
      *
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation of the NetIQ key manager, such as a call to one of the NetIQ endpoints. Spans which are not
+ * sampled keep no attributes and are never exported.
+ */
+public final class NamSpan {
+    private final NamTracer tracer;
+    private final NamSpan parent;
+    private final boolean sampled;
+    private final String name;
+    private final String traceId;
+    private final String spanId;
+    private final long startTime;
+    private final long startNanos;
+    private final Map<String, Object> attributes;
+    private long durationNanos = -1;
+    private Throwable error;
+
+    NamSpan(NamTracer tracer, NamSpan parent, String name, boolean sampled) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.name = name;
+        this.sampled = sampled;
+        if (sampled) {
+            this.traceId = parent != null ? parent.traceId : NamTracer.randomHex(16);
+            this.spanId = NamTracer.randomHex(8);
+            this.startTime = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.attributes = new LinkedHashMap<>();
+        } else {
+            this.traceId = null;
+            this.spanId = null;
+            this.startTime = 0;
+            this.startNanos = 0;
+            this.attributes = null;
+        }
+    }
+
+    /**
+     * This method records an attribute of the span. It does nothing if the span is not sampled.
+     *
+     * @param key name of the attribute
+     * @param value value of the attribute
+     * @return this span
+     */
+    public NamSpan setAttribute(String key, Object value) {
+        if (sampled && value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * @param throwable error which caused the operation to fail
+     * @return this span
+     */
+    public NamSpan setError(Throwable throwable) {
+        if (sampled) {
+            this.error = throwable;
+        }
+        return this;
+    }
+
+    /**
+     * This method ends the span and hands it over to the exporter if it is sampled. Spans have to be ended on the
+     * thread which started them, unless they have been detached from it with {@link NamTracer#detach(NamSpan)}.
+     */
+    public void end() {
+        if (sampled) {
+            if (durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        tracer.end(this);
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return span id of the parent span, null if this is a root span
+     */
+    public String getParentSpanId() {
+        return parent == null ? null : parent.spanId;
+    }
+
+    /**
+     * @return start time in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return duration in nanoseconds, -1 if the span has not ended yet
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes == null ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(attributes);
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    NamSpan getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the W3C trace context header value of this span, null if the span is not sampled
+     */
+    String toTraceParent() {
+        return sampled ? "00-" + traceId + '-' + spanId + "-01" : null;
+    }
+
+    @Override
+    public String toString() {
+        return sampled ? String.format("%s trace=%s span=%s parent=%s duration=%sns %s", name, traceId, spanId,
+                getParentSpanId(), durationNanos, attributes) : name + " (not sampled)";
+    }
+}
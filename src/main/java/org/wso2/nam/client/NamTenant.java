@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Share of a tenant in the process-wide {@link NamEngine}. A tenant holds the local token state of its key managers,
+ * partitioned by tokenInfo endpoint, and enforces the quotas of the tenant on outbound concurrency and on the number
+ * of tokens kept locally, so that one busy tenant can not starve the others. The {@link NamEngine} makes sure that
+ * every key manager of a tenant sets the same quotas and token state properties.
+ */
+final class NamTenant implements NamTenantMetricsMXBean {
+    static final String OBJECT_NAME_PREFIX = "org.wso2.nam.client:type=NamTenant,name=";
+
+    private final String domain;
+    private final ConcurrentMap<String, NamTokenState> tokenStates = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong requestsRejected = new AtomicLong();
+    private final AtomicLong tokensNotStored = new AtomicLong();
+    private volatile int maxConcurrentRequests;
+    private volatile int maxLocalTokens;
+    private ObjectName objectName;
+
+    NamTenant(String domain) {
+        this.domain = domain;
+    }
+
+    String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @param settings configuration of a key manager of the tenant
+     */
+    void configure(NamConfigurationSnapshot settings) {
+        maxConcurrentRequests = settings.tenantMaxConcurrentRequests;
+        maxLocalTokens = settings.tenantMaxLocalTokens;
+    }
+
+    /**
+     * @param settings configuration of a key manager of the tenant
+     * @return the token state of the tenant for the tokenInfo endpoint of the configuration, configured with it
+     */
+    NamTokenState getTokenState(NamConfigurationSnapshot settings) {
+        NamTokenState state = tokenStates.get(settings.tokenInfoEndpoint);
+        if (state == null) {
+            NamTokenState created = new NamTokenState();
+            state = tokenStates.putIfAbsent(settings.tokenInfoEndpoint, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        state.configure(settings, maxLocalTokens);
+        return state;
+    }
+
+    /**
+     * This method drops the token state of the endpoints which none of the key managers of the tenant uses anymore.
+     *
+     * @param tokenInfoEndpoints tokenInfo endpoints which are still in use
+     */
+    void retainTokenStates(Collection<String> tokenInfoEndpoints) {
+        tokenStates.keySet().retainAll(tokenInfoEndpoints);
+    }
+
+    /**
+     * This method takes a slot for a request to NetIQ, unless the tenant already has as many requests in flight as
+     * its quota allows. A slot which was taken has to be given back with {@link #releaseRequest()}.
+     *
+     * @return true if the request may be sent
+     */
+    boolean tryAcquireRequest() {
+        while (true) {
+            int limit = maxConcurrentRequests;
+            int current = inFlightRequests.get();
+            if (limit > 0 && current >= limit) {
+                requestsRejected.incrementAndGet();
+                return false;
+            }
+            if (inFlightRequests.compareAndSet(current, current + 1)) {
+                requestsSent.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    void releaseRequest() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    void tokenNotStored() {
+        tokensNotStored.incrementAndGet();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    @Override
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    @Override
+    public long getRequestsSent() {
+        return requestsSent.get();
+    }
+
+    @Override
+    public long getRequestsRejected() {
+        return requestsRejected.get();
+    }
+
+    @Override
+    public long getCachedTokens() {
+        long cachedTokens = 0;
+        for (NamTokenState state : tokenStates.values()) {
+            cachedTokens += state.validationCache.size();
+        }
+        return cachedTokens;
+    }
+
+    @Override
+    public long getIndexedTokens() {
+        long indexedTokens = 0;
+        for (NamTokenState state : tokenStates.values()) {
+            indexedTokens += state.tokenIndex.size();
+        }
+        return indexedTokens;
+    }
+
+    @Override
+    public long getTokensNotStored() {
+        return tokensNotStored.get();
+    }
+
+    /**
+     * This method registers the metrics of the tenant in the platform MBean server, see {@link NamMBeans}.
+     */
+    synchronized void registerMetrics() {
+        if (objectName != null) {
+            return;
+        }
+        objectName = NamMBeans.register(this, OBJECT_NAME_PREFIX + ObjectName.quote(domain),
+                "metrics of the NetIQ tenant " + domain);
+    }
+
+    /**
+     * This method removes the metrics of the tenant from the platform MBean server, if they were registered.
+     */
+    synchronized void unregisterMetrics() {
+        NamMBeans.unregister(objectName);
+        objectName = null;
+    }
+}
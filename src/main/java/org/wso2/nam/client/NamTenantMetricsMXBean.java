@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * JMX view of the usage of the shared key manager resources by a tenant.
+ */
+public interface NamTenantMetricsMXBean {
+
+    /**
+     * @return number of requests of the tenant which are currently waiting for NetIQ
+     */
+    int getInFlightRequests();
+
+    /**
+     * @return maximum number of requests the tenant may have in flight, 0 if there is no limit
+     */
+    int getMaxConcurrentRequests();
+
+    /**
+     * @return number of requests of the tenant which were sent to NetIQ
+     */
+    long getRequestsSent();
+
+    /**
+     * @return number of requests of the tenant which were rejected since the tenant had too many requests in flight
+     */
+    long getRequestsRejected();
+
+    /**
+     * @return number of validation results cached for the tenant
+     */
+    long getCachedTokens();
+
+    /**
+     * @return number of live tokens indexed by consumer key for the tenant
+     */
+    long getIndexedTokens();
+
+    /**
+     * @return number of tokens which were not kept locally since the tenant had reached its local token quota
+     */
+    long getTokensNotStored();
+}
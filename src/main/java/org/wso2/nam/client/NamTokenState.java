@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * Local token state of a tenant for a single NetIQ tokenInfo endpoint. The state is shared by every key manager of
+ * the tenant which validates tokens against the same endpoint, so that a token validated through one of them is
+ * known to all of them.
+ */
+final class NamTokenState {
+    /**
+     * Consumer keys, user names and issuers of the tokens of every tenant, which repeat across many tokens.
+     */
+    private static final WeakInterner<String> TOKEN_ATTRIBUTES = new WeakInterner<>();
+
+    final TokenValidationCache validationCache =
+            new TokenValidationCache(0, 0, TOKEN_ATTRIBUTES, NamExecutors.expiryWheel());
+    final ConsumerKeyTokenIndex tokenIndex = new ConsumerKeyTokenIndex(TOKEN_ATTRIBUTES, NamExecutors.expiryWheel());
+    private volatile RevokedTokenFilter revokedTokens;
+    private int revokedTokenFilterSize;
+    private long revokedTokenRetention;
+
+    NamTokenState() {
+        revokedTokenFilterSize = (int) NAMConstants.DEFAULT_REVOKED_TOKEN_FILTER_SIZE;
+        revokedTokenRetention = NAMConstants.DEFAULT_REVOKED_TOKEN_RETENTION * 1000;
+        revokedTokens = new RevokedTokenFilter(revokedTokenFilterSize, revokedTokenRetention);
+    }
+
+    /**
+     * This method applies a key manager configuration to the state. The revoked token filter is only rebuilt if its
+     * own properties have changed, so that no revocations are forgotten.
+     *
+     * @param settings configuration of a key manager using the state
+     * @param maxLocalTokens maximum number of tokens the tenant may keep in each local store, 0 for no limit
+     */
+    synchronized void configure(NamConfigurationSnapshot settings, int maxLocalTokens) {
+        int maxCachedTokens = settings.tokenCacheMaxEntries;
+        if (maxLocalTokens > 0) {
+            maxCachedTokens = Math.min(maxCachedTokens, maxLocalTokens);
+        }
+        validationCache.configure(settings.tokenCacheTTL, maxCachedTokens,
+                settings.staleWhileRevalidate ? Long.MAX_VALUE : settings.tokenGracePeriod);
+        // The index also takes the tokens validated while the validation cache is disabled, hence it is always
+        // bounded, by the cache size unless the tenant has a lower limit.
+        tokenIndex.setMaxTokens(maxCachedTokens > 0 ? maxCachedTokens
+                : (int) NAMConstants.DEFAULT_TOKEN_CACHE_MAX_ENTRIES);
+        if (settings.revokedTokenFilterSize != revokedTokenFilterSize
+                || settings.revokedTokenRetention != revokedTokenRetention) {
+            revokedTokenFilterSize = settings.revokedTokenFilterSize;
+            revokedTokenRetention = settings.revokedTokenRetention;
+            revokedTokens = new RevokedTokenFilter(revokedTokenFilterSize, revokedTokenRetention);
+        }
+    }
+
+    RevokedTokenFilter revokedTokens() {
+        return revokedTokens;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpRequest;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class creates the spans of the NetIQ key manager. The operations of the key manager start root spans, and the
+ * calls they make to NetIQ start child spans, whose trace context is propagated with the {@code traceparent} header.
+ * When the sample rate is zero, spans are neither created nor exported.
+ */
+class NamTracer {
+    private static final Log log = LogFactory.getLog(NamTracer.class);
+    static final String TRACE_PARENT_HEADER = "traceparent";
+    static final String EXPORTER_NOOP = "noop";
+    static final String EXPORTER_MEMORY = "memory";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<NamSpan> current = new ThreadLocal<>();
+    private final NamSpan disabled = new NamSpan(this, null, "disabled", false);
+    private volatile double sampleRate;
+    private volatile SpanExporter exporter = new NoopSpanExporter();
+
+    /**
+     * This method reads the sample rate and exporter from the configuration.
+     *
+     * @param configuration key manager configuration
+     * @throws APIManagementException if the configured exporter could not be created
+     */
+    void configure(KeyManagerConfiguration configuration) throws APIManagementException {
+        String rate = configuration.getParameter(NAMConstants.CONFIG_TRACING_SAMPLE_RATE);
+        double newRate = 0;
+        if (StringUtils.isNotEmpty(rate)) {
+            try {
+                newRate = Math.max(0, Math.min(1, Double.parseDouble(rate.trim())));
+            } catch (NumberFormatException e) {
+                String msg = String.format(NAMConstants.INVALID_CONFIG_PROPERTY, rate,
+                        NAMConstants.CONFIG_TRACING_SAMPLE_RATE);
+                log.error(msg, e);
+                throw new APIManagementException(msg, e);
+            }
+        }
+        SpanExporter newExporter = createExporter(configuration.getParameter(NAMConstants.CONFIG_TRACING_EXPORTER));
+        SpanExporter oldExporter = exporter;
+        exporter = newExporter;
+        sampleRate = newRate;
+        oldExporter.shutdown();
+    }
+
+    /**
+     * This method stops sampling and shuts the exporter down.
+     */
+    void shutdown() {
+        SpanExporter oldExporter = exporter;
+        exporter = new NoopSpanExporter();
+        sampleRate = 0;
+        oldExporter.shutdown();
+    }
+
+    SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * This method starts a span, as a child of the span which is currently active on this thread if there is one.
+     * The new span becomes the active span until it ends.
+     *
+     * @param name name of the span
+     * @return the span
+     */
+    NamSpan startSpan(String name) {
+        NamSpan parent = current.get();
+        double rate = sampleRate;
+        if (parent == null && rate <= 0) {
+            return disabled;
+        }
+        boolean sampled = parent != null ? parent.isSampled() : rate >= 1 || ThreadLocalRandom.current().nextDouble()
+                < rate;
+        NamSpan span = new NamSpan(this, parent, name, sampled);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * This method adds the trace context of the given span to an outbound request.
+     *
+     * @param span the span of the outbound call
+     * @param request the outbound request
+     */
+    void inject(NamSpan span, HttpRequest request) {
+        String traceParent = span.toTraceParent();
+        if (traceParent != null) {
+            request.setHeader(TRACE_PARENT_HEADER, traceParent);
+        }
+    }
+
+    /**
+     * This method makes the parent of the given span the active span of this thread again, without ending the span,
+     * so that the span can be ended on another thread, e.g. when an asynchronous request completes.
+     *
+     * @param span the span, which has to be the active span of this thread
+     */
+    void detach(NamSpan span) {
+        if (span != disabled && current.get() == span) {
+            if (span.getParent() == null) {
+                current.remove();
+            } else {
+                current.set(span.getParent());
+            }
+        }
+    }
+
+    void end(NamSpan span) {
+        if (span == disabled) {
+            return;
+        }
+        detach(span);
+        if (span.isSampled()) {
+            try {
+                exporter.export(span);
+            } catch (RuntimeException e) {
+                log.warn("Could not export span " + span.getName(), e);
+            }
+        }
+    }
+
+    private static SpanExporter createExporter(String name) throws APIManagementException {
+        if (StringUtils.isEmpty(name) || EXPORTER_NOOP.equalsIgnoreCase(name.trim())) {
+            return new NoopSpanExporter();
+        }
+        if (EXPORTER_MEMORY.equalsIgnoreCase(name.trim())) {
+            return new InMemorySpanExporter();
+        }
+        try {
+            Class<?> exporterClass = Class.forName(name.trim(), true, NamTracer.class.getClassLoader());
+            return (SpanExporter) exporterClass.newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            String msg = String.format("Could not create the span exporter %s.", name);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+    }
+
+    static String randomHex(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[bytes * 2];
+        for (int i = 0; i < bytes; i++) {
+            int value = random.nextInt(256);
+            chars[2 * i] = HEX[value >>> 4];
+            chars[2 * i + 1] = HEX[value & 0xF];
+        }
+        return new String(chars);
+    }
+}
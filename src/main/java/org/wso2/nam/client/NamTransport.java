@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.io.IOException;
+
+/**
+ * Carries the requests of the NetIQ key manager to a NetIQ host. Every call the key manager makes to NetIQ goes
+ * through the transport of the host, which owns the connections to the host. Besides the built in transports, a
+ * transport can be plugged in by setting the {@value NAMConstants#CONFIG_HTTP_TRANSPORT} property to the fully
+ * qualified name of a class implementing this interface, which has a public no argument constructor.
+ * <p>
+ * Requests carry their timeouts in their {@link RequestConfig}: the connect timeout bounds the time to open a
+ * connection and the socket timeout bounds the wait for the response. Responses have to be closed after their entity
+ * is read, so that the transport can reuse the connection.
+ */
+public interface NamTransport {
+
+    /**
+     * This method prepares the transport for calls to the given host. It is called once, before any other method.
+     *
+     * @param host scheme and authority of the NetIQ host
+     */
+    void init(String host);
+
+    /**
+     * This method sends a request and waits for its response.
+     *
+     * @param request the request
+     * @return response of the request, whose entity may still have to be read
+     * @throws IOException if the request fails or times out
+     */
+    CloseableHttpResponse execute(HttpRequestBase request) throws IOException;
+
+    /**
+     * This method sends a request without waiting for its response. The callback is called exactly once, on a
+     * thread of the transport, or on the calling thread if the request could not be sent at all.
+     *
+     * @param request the request
+     * @param callback receives the response, which has to be closed by the callback, or the failure
+     */
+    void execute(HttpRequestBase request, FutureCallback<CloseableHttpResponse> callback);
+
+    /**
+     * This method changes the connection limits of the transport. Transports which multiplex the requests over a
+     * few connections may ignore the limits.
+     *
+     * @param maxConnections maximum number of connections
+     * @param maxConnectionsPerRoute maximum number of connections to a single route
+     */
+    void setLimits(int maxConnections, int maxConnectionsPerRoute);
+
+    /**
+     * This method changes the connect timeout of the connections the transport opens. Transports which take the
+     * connect timeout of each request from its {@link RequestConfig} keep this implementation, which ignores it.
+     *
+     * @param connectTimeoutMillis connect timeout in milliseconds, 0 for no timeout
+     */
+    default void setConnectTimeout(int connectTimeoutMillis) {
+    }
+
+    /**
+     * This method opens connections to the host of the given endpoint in advance, so that the first calls to the
+     * endpoint do not pay for the TCP and TLS handshakes.
+     *
+     * @param endpoint URL of a NetIQ endpoint
+     * @param count number of connections to open
+     * @param timeoutMillis connect timeout of each connection
+     * @return number of connections which were opened
+     */
+    int preOpen(String endpoint, int count, int timeoutMillis);
+
+    /**
+     * This method closes the connections of the transport. Requests which are still in flight may fail.
+     */
+    void close();
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.APIManagementException;
+
+/**
+ * Thrown when NetIQ Access Manager could not be reached or failed with a server error, i.e. when the failure says
+ * nothing about the request itself. Callers may fall back to previously obtained results for such failures.
+ */
+public class NamUnavailableException extends APIManagementException {
+
+    public NamUnavailableException(String message) {
+        super(message);
+    }
+
+    public NamUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
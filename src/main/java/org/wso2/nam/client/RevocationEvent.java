@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * A revocation received from a {@link RevocationSource}. Revocation events are written one per line as
+ * {@code <type> <value>}, e.g. {@code token 2YotnFZFEjr1zCsicMWpAA} or {@code consumer_key s6BhdRkqt3}.
+ */
+public final class RevocationEvent {
+
+    /**
+     * What a revocation event refers to.
+     */
+    public enum Type {
+        /** A single access token. */
+        TOKEN("token"),
+        /** A single access token, identified by its 32 character hexadecimal fingerprint. */
+        TOKEN_FINGERPRINT("token_fingerprint"),
+        /** Every token of an application, identified by its consumer key. */
+        CONSUMER_KEY("consumer_key");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Type type;
+    private final String value;
+    private final long receivedTime;
+
+    public RevocationEvent(Type type, String value) {
+        if (type == null || value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Type and value of a revocation event are mandatory.");
+        }
+        this.type = type;
+        this.value = value;
+        this.receivedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * This method parses a revocation event line.
+     *
+     * @param line revocation event in the {@code <type> <value>} form
+     * @return the event, or null if the line is blank or a comment starting with #
+     * @throws IllegalArgumentException if the line is not a valid revocation event
+     */
+    public static RevocationEvent parse(String line) {
+        String trimmed = line == null ? "" : line.trim();
+        if (trimmed.isEmpty() || trimmed.charAt(0) == '#') {
+            return null;
+        }
+        int separator = trimmed.indexOf(' ');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Revocation event should be in the '<type> <value>' form.");
+        }
+        String label = trimmed.substring(0, separator);
+        String value = trimmed.substring(separator + 1).trim();
+        for (Type type : Type.values()) {
+            if (type.label.equalsIgnoreCase(label)) {
+                return new RevocationEvent(type, value);
+            }
+        }
+        throw new IllegalArgumentException("Unknown revocation event type " + label);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    @Override
+    public String toString() {
+        // Never print the token itself.
+        return type == Type.TOKEN ? type.label + ' ' + TokenFingerprint.of(value) : type.label + ' ' + value;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class starts the revocation sources listed in the {@value NAMConstants#CONFIG_REVOCATION_SOURCES} property
+ * and forwards their events to a single listener.
+ */
+class RevocationFeed {
+    private static final Log log = LogFactory.getLog(RevocationFeed.class);
+    static final String SOURCE_HTTP = "http";
+    static final String SOURCE_FILE = "file";
+
+    private final List<RevocationSource> sources = new ArrayList<>();
+
+    /**
+     * This method stops the currently running sources and starts the configured ones.
+     *
+     * @param configuration key manager configuration
+     * @param listener listener which applies the revocations to the local state of the key manager
+     * @throws APIManagementException if a source could not be created or started
+     */
+    synchronized void start(KeyManagerConfiguration configuration, RevocationListener listener)
+            throws APIManagementException {
+        stop();
+        String names = configuration.getParameter(NAMConstants.CONFIG_REVOCATION_SOURCES);
+        if (StringUtils.isEmpty(names)) {
+            return;
+        }
+        for (String name : names.split(NAMConstants.INFO_SCOPE_SEPARATOR)) {
+            if (StringUtils.isNotEmpty(name.trim())) {
+                RevocationSource source = createSource(name.trim());
+                source.start(configuration, listener);
+                sources.add(source);
+            }
+        }
+    }
+
+    /**
+     * This method starts an additional source, which is not part of the configuration.
+     *
+     * @param source the source
+     * @param configuration key manager configuration
+     * @param listener listener which applies the revocations to the local state of the key manager
+     * @throws APIManagementException if the source could not be started
+     */
+    synchronized void addSource(RevocationSource source, KeyManagerConfiguration configuration,
+                                RevocationListener listener) throws APIManagementException {
+        source.start(configuration, listener);
+        sources.add(source);
+    }
+
+    synchronized void stop() {
+        for (RevocationSource source : sources) {
+            source.stop();
+        }
+        sources.clear();
+    }
+
+    private static RevocationSource createSource(String name) throws APIManagementException {
+        if (SOURCE_HTTP.equalsIgnoreCase(name)) {
+            return new HttpRevocationSource();
+        }
+        if (SOURCE_FILE.equalsIgnoreCase(name)) {
+            return new FileTailRevocationSource();
+        }
+        try {
+            Class<?> sourceClass = Class.forName(name, true, RevocationFeed.class.getClassLoader());
+            return (RevocationSource) sourceClass.newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            String msg = String.format("Could not create the revocation source %s.", name);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+/**
+ * A source of token revocation events. Besides the built in sources, a source can be plugged in by adding the fully
+ * qualified name of a class implementing this interface, which has a public no argument constructor, to the
+ * {@value NAMConstants#CONFIG_REVOCATION_SOURCES} property.
+ */
+public interface RevocationSource {
+
+    /**
+     * This method starts delivering revocation events to the given listener.
+     *
+     * @param configuration key manager configuration, to read the properties of the source from
+     * @param listener listener to deliver the events to
+     * @throws APIManagementException if the source could not be started
+     */
+    void start(KeyManagerConfiguration configuration, RevocationListener listener) throws APIManagementException;
+
+    /**
+     * This method stops delivering revocation events and releases the resources held by the source.
+     */
+    void stop();
+}
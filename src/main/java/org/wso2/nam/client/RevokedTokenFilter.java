@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of recently revoked token fingerprints. The filter has two generations which are rotated once per
+ * retention period, so that a revocation is remembered for at least one and at most two retention periods while the
+ * memory used stays fixed. A negative answer is always correct; a positive answer only means that the token may have
+ * been revoked and has to be validated with NetIQ.
+ */
+class RevokedTokenFilter {
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final int bits;
+    private final long retentionMillis;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long rotatedTime;
+    private volatile boolean empty = true;
+
+    /**
+     * @param expectedRevocations number of revocations expected within a retention period
+     * @param retentionMillis minimum time a revocation is remembered
+     */
+    RevokedTokenFilter(int expectedRevocations, long retentionMillis) {
+        // About 10 bits per entry gives a false positive rate below 1% with 7 hash functions.
+        long size = Math.max(1024L, Math.min((long) expectedRevocations * 10, Integer.MAX_VALUE - 63));
+        this.bits = (int) ((size + 63) & ~63L);
+        this.retentionMillis = retentionMillis;
+        this.current = new AtomicLongArray(bits / 64);
+        this.previous = new AtomicLongArray(bits / 64);
+        this.rotatedTime = System.currentTimeMillis();
+    }
+
+    void add(TokenFingerprint fingerprint) {
+        rotateIfDue();
+        AtomicLongArray words = current;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = bitIndex(fingerprint, i);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long value;
+            do {
+                value = words.get(word);
+            } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+        }
+        empty = false;
+    }
+
+    boolean mightContain(TokenFingerprint fingerprint) {
+        if (empty) {
+            return false;
+        }
+        rotateIfDue();
+        return contains(current, fingerprint) || contains(previous, fingerprint);
+    }
+
+    private boolean contains(AtomicLongArray words, TokenFingerprint fingerprint) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = bitIndex(fingerprint, i);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bitIndex(TokenFingerprint fingerprint, int i) {
+        // Kirsch-Mitzenmacher double hashing over the two halves of the fingerprint.
+        long hash = fingerprint.high() + i * fingerprint.low();
+        return (int) ((hash & Long.MAX_VALUE) % bits);
+    }
+
+    private void rotateIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - rotatedTime < retentionMillis) {
+            return;
+        }
+        synchronized (this) {
+            if (now - rotatedTime >= retentionMillis) {
+                previous = current;
+                current = new AtomicLongArray(bits / 64);
+                rotatedTime = now;
+            }
+        }
+    }
+}
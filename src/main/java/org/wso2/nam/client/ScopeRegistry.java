@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class assigns a small integer id to each distinct scope seen by the key manager, so that the scopes of a token
+ * can be kept as a {@link ScopeSet} bit set instead of an array of strings. Scope sets are interned as well, hence
+ * tokens with the same scopes share a single scope set.
+ */
+class ScopeRegistry {
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final WeakInterner<ScopeSet> scopeSets = new WeakInterner<>();
+    private volatile String[] names = new String[16];
+    private int size;
+
+    /**
+     * This method returns the id assigned to the given scope, assigning a new one if the scope has not been seen
+     * before.
+     *
+     * @param scope name of the scope
+     * @return id of the scope
+     */
+    int intern(String scope) {
+        Integer id = ids.get(scope);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(scope);
+            if (id == null) {
+                if (size == names.length) {
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                // Publish the name before the id, so that any thread which sees the id can resolve the name.
+                String[] current = names;
+                current[size] = scope;
+                names = current;
+                id = size++;
+                ids.put(scope, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @param id id of a scope which has been interned
+     * @return name of the scope
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * This method builds the scope set of the given scope names, ignoring null and empty values.
+     *
+     * @param scopes scope names, usually the scope array of a NetIQ tokenInfo response
+     * @return scope set containing the given scopes
+     */
+    ScopeSet toScopeSet(Collection<?> scopes) {
+        BitSet bits = new BitSet();
+        if (scopes != null) {
+            for (Object scope : scopes) {
+                if (scope != null && !scope.toString().isEmpty()) {
+                    bits.set(intern(scope.toString()));
+                }
+            }
+        }
+        return scopeSets.intern(new ScopeSet(this, bits));
+    }
+
+    /**
+     * This method builds the scope set of a whitespace separated scope string, as received from the token endpoint.
+     *
+     * @param scopes whitespace separated scope names
+     * @return scope set containing the given scopes
+     */
+    ScopeSet parse(String scopes) {
+        BitSet bits = new BitSet();
+        if (scopes != null) {
+            int length = scopes.length();
+            int start = -1;
+            for (int i = 0; i <= length; i++) {
+                boolean separator = i == length || Character.isWhitespace(scopes.charAt(i));
+                if (separator && start >= 0) {
+                    bits.set(intern(scopes.substring(start, i)));
+                    start = -1;
+                } else if (!separator && start < 0) {
+                    start = i;
+                }
+            }
+        }
+        return scopeSets.intern(new ScopeSet(this, bits));
+    }
+}
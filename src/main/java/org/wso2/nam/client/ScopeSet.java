@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable set of scopes, kept as a bit set of the ids assigned by a {@link ScopeRegistry}. Containment checks are
+ * word-wise AND operations, so checking the scopes of a request against the scopes of a token does not involve any
+ * string comparisons.
+ */
+final class ScopeSet {
+    private static final String[] NO_SCOPES = new String[0];
+
+    private final ScopeRegistry registry;
+    private final long[] words;
+    private final int size;
+
+    ScopeSet(ScopeRegistry registry, BitSet bits) {
+        this.registry = registry;
+        this.words = bits.toLongArray();
+        this.size = bits.cardinality();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param other scope set, usually the scopes required by a request
+     * @return true if this set contains every scope of the given set
+     */
+    boolean containsAll(ScopeSet other) {
+        if (other.words.length > words.length) {
+            for (int i = words.length; i < other.words.length; i++) {
+                if (other.words[i] != 0) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < other.words.length && i < words.length; i++) {
+            if ((words[i] & other.words[i]) != other.words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param other scope set, usually the scopes accepted by a resource
+     * @return true if this set contains at least one scope of the given set
+     */
+    boolean intersects(ScopeSet other) {
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return names of the scopes in this set, in a new array which the caller may modify
+     */
+    String[] toArray() {
+        if (size == 0) {
+            return NO_SCOPES;
+        }
+        String[] scopes = new String[size];
+        int index = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                scopes[index++] = registry.name(i * Long.SIZE + bit);
+                word &= word - 1;
+            }
+        }
+        return scopes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof ScopeSet && registry == ((ScopeSet) o).registry
+                && Arrays.equals(words, ((ScopeSet) o).words));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+/**
+ * Receives the sampled spans of the NetIQ key manager. Besides the built in exporters, an exporter can be plugged in
+ * by setting the {@value NAMConstants#CONFIG_TRACING_EXPORTER} property to the fully qualified name of a class
+ * implementing this interface, which has a public no argument constructor.
+ */
+public interface SpanExporter {
+
+    /**
+     * This method is called on the request thread when a sampled span ends. Implementations which send spans to a
+     * remote collector should queue them and return immediately.
+     *
+     * @param span the ended span
+     */
+    void export(NamSpan span);
+
+    /**
+     * This method releases the resources held by the exporter.
+     */
+    void shutdown();
+}
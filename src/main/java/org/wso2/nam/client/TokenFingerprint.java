@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 128 bit fingerprint of an access token, taken from its SHA-256 digest. Local token state is keyed by fingerprints
+ * so that bearer tokens need not be kept in memory or written to logs.
+ */
+final class TokenFingerprint {
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+            }
+        }
+    };
+
+    private final long high;
+    private final long low;
+
+    TokenFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param accessToken the access token
+     * @return fingerprint of the token
+     */
+    static TokenFingerprint of(String accessToken) {
+        byte[] digest = DIGEST.get().digest(accessToken.getBytes(StandardCharsets.UTF_8));
+        return new TokenFingerprint(toLong(digest, 0), toLong(digest, 8));
+    }
+
+    /**
+     * @param hex fingerprint in the 32 character hexadecimal form returned by {@link #toString()}
+     * @return the fingerprint
+     * @throws IllegalArgumentException if the value is not a 32 character hexadecimal string
+     */
+    static TokenFingerprint parse(String hex) {
+        if (hex == null || hex.length() != 32) {
+            throw new IllegalArgumentException("Token fingerprint should be 32 hexadecimal characters.");
+        }
+        return new TokenFingerprint(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+
+    /**
+     * @return the first 12 hexadecimal characters of the fingerprint, which tell tokens apart in logs and management
+     *         views without identifying them fully
+     */
+    String redacted() {
+        return String.format("%012x", high >>> 16);
+    }
+
+    long high() {
+        return high;
+    }
+
+    long low() {
+        return low;
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TokenFingerprint)) {
+            return false;
+        }
+        TokenFingerprint that = (TokenFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Local cache of token validation results received from the tokenInfo endpoint of NetIQ Access Manager, keyed by
+ * token fingerprint. An entry is served until the configured time to live has passed or the token has expired,
+ * whichever comes first. The cache is disabled when the time to live is not positive.
+ * <p>
+ * Entries older than the time to live may be retained for a while longer, so that they can still be served in a
+ * degraded mode, e.g. while NetIQ is unavailable. They are never served after the token has expired. Each entry is
+ * scheduled on an {@link ExpiryWheel} and removed as soon as it can no longer be served.
+ * <p>
+ * Entries are kept compact, since the cache may hold millions of them. The key is the 128-bit token fingerprint, so
+ * the cache never holds a bearer token. Consumer keys, user names and issuers are interned, scope sets are shared
+ * through the {@link ScopeRegistry}, and times are primitive longs. With compressed references, an entry takes about
+ * 150 bytes, 32 for the fingerprint, 40 for the hash map node and its table slot and 80 for the entry itself, which
+ * doubles as its expiry timer, plus the token id string, which is unique to each token. Filling the cache with one
+ * million tokens with 64 character token ids, 100 consumer keys and 1000 users took 255 bytes per entry on a 64-bit
+ * JVM.
+ */
+class TokenValidationCache {
+    private final ConcurrentMap<TokenFingerprint, Entry> entries = new ConcurrentHashMap<>();
+    private final WeakInterner<String> attributes;
+    private final ExpiryWheel expiryWheel;
+    private volatile long timeToLiveMillis;
+    private volatile long configuredTimeToLiveMillis;
+    private volatile long timeToLiveLimitMillis = Long.MAX_VALUE;
+    private volatile int maxEntries;
+    private volatile long staleRetentionMillis;
+
+    /**
+     * @param timeToLiveMillis time for which a validation result is served as it is
+     * @param maxEntries maximum number of cached validation results
+     * @param attributes interner of the consumer keys, user names and issuers of the cached tokens
+     * @param expiryWheel timing wheel which removes the entries once they can no longer be served
+     */
+    TokenValidationCache(long timeToLiveMillis, int maxEntries, WeakInterner<String> attributes,
+                         ExpiryWheel expiryWheel) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.configuredTimeToLiveMillis = timeToLiveMillis;
+        this.maxEntries = maxEntries;
+        this.attributes = attributes;
+        this.expiryWheel = expiryWheel;
+    }
+
+    /**
+     * @param timeToLiveMillis time for which a validation result is served as it is. A limit set with
+     *                         {@link #limitTimeToLive(long)} is kept unless the time to live has changed.
+     * @param maxEntries maximum number of cached validation results
+     * @param staleRetentionMillis time for which a validation result is retained after its time to live has passed,
+     *                             {@link Long#MAX_VALUE} to retain it until the token expires
+     */
+    void configure(long timeToLiveMillis, int maxEntries, long staleRetentionMillis) {
+        if (timeToLiveMillis != configuredTimeToLiveMillis) {
+            configuredTimeToLiveMillis = timeToLiveMillis;
+            timeToLiveLimitMillis = Long.MAX_VALUE;
+        }
+        this.timeToLiveMillis = Math.min(timeToLiveMillis, timeToLiveLimitMillis);
+        this.maxEntries = maxEntries;
+        this.staleRetentionMillis = staleRetentionMillis;
+        if (!isEnabled()) {
+            clear();
+        }
+    }
+
+    boolean isEnabled() {
+        return timeToLiveMillis > 0;
+    }
+
+    /**
+     * This method shortens the time to live below the configured one, e.g. since cached results were found to
+     * diverge from NetIQ. Entries which are already cached are served for the shorter time as well.
+     *
+     * @param limitMillis maximum time for which a validation result is served as it is
+     */
+    void limitTimeToLive(long limitMillis) {
+        timeToLiveLimitMillis = limitMillis;
+        timeToLiveMillis = Math.min(configuredTimeToLiveMillis, limitMillis);
+    }
+
+    /**
+     * @return time for which a validation result is served as it is
+     */
+    long getTimeToLive() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * @param fingerprint fingerprint of the access token
+     * @return a new token info built from the cached validation result, null if there is no usable entry
+     */
+    AccessTokenInfo get(TokenFingerprint fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry.isStale(now, timeToLiveMillis)) {
+            if (entry.isUnusable(now, timeToLiveMillis, staleRetentionMillis) && entries.remove(fingerprint, entry)) {
+                expiryWheel.cancel(entry);
+            }
+            return null;
+        }
+        return entry.toAccessTokenInfo();
+    }
+
+    /**
+     * This method looks up a validation result regardless of its time to live, e.g. to serve it while NetIQ is
+     * unavailable.
+     *
+     * @param fingerprint fingerprint of the access token
+     * @param maxStalenessMillis how long after its time to live the result may still be served,
+     *                           {@link Long#MAX_VALUE} to serve it until the token expires
+     * @return a new token info built from the cached validation result, null if there is no usable entry
+     */
+    AccessTokenInfo getStale(TokenFingerprint fingerprint, long maxStalenessMillis) {
+        Entry entry = entries.get(fingerprint);
+        if (entry == null || entry.isUnusable(System.currentTimeMillis(), timeToLiveMillis,
+                Math.min(maxStalenessMillis, staleRetentionMillis))) {
+            return null;
+        }
+        return entry.toAccessTokenInfo();
+    }
+
+    /**
+     * This method caches a successful validation result.
+     *
+     * @param fingerprint fingerprint of the access token
+     * @param tokenInfo validation result built from the tokenInfo response
+     * @param scopes scopes of the token
+     * @return false if the result was not cached since the cache is full
+     */
+    boolean put(TokenFingerprint fingerprint, AccessTokenInfo tokenInfo, ScopeSet scopes) {
+        if (!isEnabled() || !tokenInfo.isTokenValid()) {
+            return true;
+        }
+        if (entries.size() >= maxEntries && prune() == 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(fingerprint, tokenInfo, scopes, now);
+        Entry previous = entries.put(fingerprint, entry);
+        if (previous != null) {
+            expiryWheel.cancel(previous);
+        }
+        expiryWheel.schedule(entry, entry.removalTime(timeToLiveMillis, staleRetentionMillis) - now);
+        return true;
+    }
+
+    void remove(TokenFingerprint fingerprint) {
+        Entry entry = entries.remove(fingerprint);
+        if (entry != null) {
+            expiryWheel.cancel(entry);
+        }
+    }
+
+    /**
+     * This method removes the entries which can no longer be served. Entries are removed by the expiry wheel as
+     * well, hence this is only needed to make room right away or after the wall clock has moved forward.
+     *
+     * @return number of entries which were removed
+     */
+    int prune() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.isUnusable(now, timeToLiveMillis, staleRetentionMillis)) {
+                iterator.remove();
+                expiryWheel.cancel(entry);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            expiryWheel.cancel(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private final class Entry extends ExpiryWheel.Timer {
+        private final TokenFingerprint fingerprint;
+        private final String consumerKey;
+        private final String endUserName;
+        private final ScopeSet scopes;
+        private final Object tokenId;
+        private final Object issuer;
+        private final long issuedTime;
+        private final long expiryTime;
+        private final long cachedTime;
+
+        private Entry(TokenFingerprint fingerprint, AccessTokenInfo tokenInfo, ScopeSet scopes, long cachedTime) {
+            this.fingerprint = fingerprint;
+            this.consumerKey = attributes.intern(tokenInfo.getConsumerKey());
+            this.endUserName = attributes.intern(tokenInfo.getEndUserName());
+            this.scopes = scopes;
+            this.tokenId = tokenInfo.getParameter(NAMConstants.TOKEN_ID);
+            Object issuer = tokenInfo.getParameter(NAMConstants.ISSUER);
+            this.issuer = issuer instanceof String ? attributes.intern((String) issuer) : issuer;
+            this.issuedTime = tokenInfo.getIssuedTime();
+            this.expiryTime = issuedTime + tokenInfo.getValidityPeriod();
+            this.cachedTime = cachedTime;
+        }
+
+        private boolean isStale(long now, long timeToLiveMillis) {
+            return now - cachedTime >= timeToLiveMillis || now >= expiryTime;
+        }
+
+        private boolean isUnusable(long now, long timeToLiveMillis, long staleRetentionMillis) {
+            if (now >= expiryTime) {
+                return true;
+            }
+            long staleness = now - cachedTime - timeToLiveMillis;
+            return staleness >= 0 && staleness >= staleRetentionMillis;
+        }
+
+        /**
+         * @return time from which the entry can no longer be served
+         */
+        private long removalTime(long timeToLiveMillis, long staleRetentionMillis) {
+            long staleTime = cachedTime + timeToLiveMillis;
+            long removalTime = staleRetentionMillis >= Long.MAX_VALUE - staleTime ? Long.MAX_VALUE
+                    : staleTime + staleRetentionMillis;
+            return Math.min(expiryTime, removalTime);
+        }
+
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            long now = System.currentTimeMillis();
+            long removalTime = removalTime(timeToLiveMillis, staleRetentionMillis);
+            if (now < removalTime) {
+                // The wall clock has been set back, or the entries are retained for longer since it was scheduled.
+                if (entries.get(fingerprint) == this) {
+                    wheel.schedule(this, removalTime - now);
+                }
+                return false;
+            }
+            return entries.remove(fingerprint, this);
+        }
+
+        @Override
+        String store() {
+            return NAMConstants.LOCAL_STATE_TOKEN_CACHE;
+        }
+
+        private AccessTokenInfo toAccessTokenInfo() {
+            AccessTokenInfo tokenInfo = new AccessTokenInfo();
+            tokenInfo.setConsumerKey(consumerKey);
+            tokenInfo.setEndUserName(endUserName);
+            tokenInfo.setValidityPeriod(expiryTime - issuedTime);
+            tokenInfo.setIssuedTime(issuedTime);
+            tokenInfo.setTokenValid(true);
+            tokenInfo.setScope(scopes.toArray());
+            if (tokenId != null) {
+                tokenInfo.addParameter(NAMConstants.TOKEN_ID, tokenId);
+            }
+            if (issuer != null) {
+                tokenInfo.addParameter(NAMConstants.ISSUER, issuer);
+            }
+            return tokenInfo;
+        }
+    }
+}
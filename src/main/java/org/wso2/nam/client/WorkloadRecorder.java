@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the operations of a key manager to a rolling {@link WorkloadTrace}, so that the production workload can be
+ * replayed offline with the WorkloadReplay tool of the test sources. Recording is enabled by the
+ * {@value NAMConstants#CONFIG_WORKLOAD_RECORDING_FILE} property.
+ * <p>
+ * Operations only hand their record to a bounded queue, which is written to the file once every
+ * {@value NAMConstants#WORKLOAD_RECORDING_FLUSH_INTERVAL} milliseconds. Records are dropped rather than making an
+ * operation wait if the queue is full. When the file reaches its maximum size it is renamed to {@code <file>.1}, the
+ * older files are shifted by one and the oldest one is deleted. Each key manager has to record to a file of its own.
+ */
+class WorkloadRecorder {
+    private static final Log log = LogFactory.getLog(WorkloadRecorder.class);
+
+    private final NamKeyManagerMetrics metrics;
+    private final BlockingQueue<WorkloadTrace.Record> records =
+            new ArrayBlockingQueue<>(NAMConstants.WORKLOAD_RECORDING_QUEUE_SIZE);
+    private final long baseMicros = System.currentTimeMillis() * 1000;
+    private final long baseNanos = System.nanoTime();
+    private volatile boolean enabled;
+    private File file;
+    private long maxFileSize;
+    private int maxFiles;
+    private DataOutputStream output;
+    private long fileSize;
+    private ScheduledFuture<?> flusher;
+
+    WorkloadRecorder(NamKeyManagerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * This method starts recording to the file of the given configuration, or stops recording if none is configured.
+     * The file of the previous configuration is completed and closed first. An existing file is rolled over instead
+     * of being appended to.
+     *
+     * @param settings new configuration
+     * @throws APIManagementException if the file could not be opened
+     */
+    synchronized void configure(NamConfigurationSnapshot settings) throws APIManagementException {
+        stop();
+        if (settings.workloadRecordingFile == null) {
+            return;
+        }
+        file = new File(settings.workloadRecordingFile);
+        maxFileSize = settings.workloadRecordingMaxFileSize;
+        maxFiles = settings.workloadRecordingMaxFiles;
+        try {
+            if (file.length() > 0) {
+                roll();
+            } else {
+                open();
+            }
+        } catch (IOException e) {
+            String msg = String.format("Could not open the workload recording file %s.", file);
+            log.error(msg, e);
+            throw new APIManagementException(msg, e);
+        }
+        flusher = NamExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, NAMConstants.WORKLOAD_RECORDING_FLUSH_INTERVAL, NAMConstants.WORKLOAD_RECORDING_FLUSH_INTERVAL,
+                TimeUnit.MILLISECONDS);
+        enabled = true;
+        log.info(String.format("Recording the workload of the key manager to %s", file));
+    }
+
+    /**
+     * This method stops recording. The records which are still queued are written before the file is closed.
+     */
+    synchronized void stop() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        flusher.cancel(false);
+        flusher = null;
+        flush();
+        close();
+    }
+
+    /**
+     * This method starts the record of an operation.
+     *
+     * @param operation operation code, e.g. {@link WorkloadTrace#OP_GET_TOKEN_METADATA}
+     * @return the record, null if the workload is not recorded
+     */
+    WorkloadTrace.Record begin(byte operation) {
+        if (!enabled) {
+            return null;
+        }
+        WorkloadTrace.Record record = new WorkloadTrace.Record();
+        record.operation = operation;
+        record.startNanos = System.nanoTime();
+        record.startMicros = baseMicros + (record.startNanos - baseNanos) / 1000;
+        return record;
+    }
+
+    /**
+     * @param record record returned by {@link #begin(byte)}, may be null
+     * @param clientId client id the operation is about, may be null
+     */
+    void client(WorkloadTrace.Record record, String clientId) {
+        if (record != null && clientId != null) {
+            record.clientHash = TokenFingerprint.of(clientId).high();
+        }
+    }
+
+    /**
+     * @param record record returned by {@link #begin(byte)}, may be null
+     * @param accessToken access token the operation is about, may be null
+     */
+    void token(WorkloadTrace.Record record, String accessToken) {
+        if (record != null && accessToken != null) {
+            TokenFingerprint fingerprint = TokenFingerprint.of(accessToken);
+            record.tokenHigh = fingerprint.high();
+            record.tokenLow = fingerprint.low();
+        }
+    }
+
+    /**
+     * This method adds the validation result an operation resulted in to its record.
+     *
+     * @param record record returned by {@link #begin(byte)}, may be null
+     * @param source where the result was served from, e.g. {@link WorkloadTrace#SOURCE_CACHE}. Results served from
+     *               the stale or grace entries of the cache are recognized by their
+     *               {@value NAMConstants#SERVED_FROM} parameter.
+     * @param tokenInfo the result of the operation
+     * @return the given result
+     */
+    AccessTokenInfo completed(WorkloadTrace.Record record, byte source, AccessTokenInfo tokenInfo) {
+        if (record == null) {
+            return tokenInfo;
+        }
+        Object servedFrom = tokenInfo.getParameter(NAMConstants.SERVED_FROM);
+        if (NAMConstants.SERVED_STALE.equals(servedFrom)) {
+            record.source = WorkloadTrace.SOURCE_STALE;
+        } else if (NAMConstants.SERVED_GRACE.equals(servedFrom)) {
+            record.source = WorkloadTrace.SOURCE_GRACE;
+        } else {
+            record.source = source;
+        }
+        if (record.clientHash == 0) {
+            client(record, tokenInfo.getConsumerKey());
+        }
+        if (!tokenInfo.isTokenValid()) {
+            record.outcome = WorkloadTrace.OUTCOME_INVALID_TOKEN;
+            return tokenInfo;
+        }
+        String[] scopes = tokenInfo.getScopes();
+        if (scopes != null) {
+            scopes = scopes.clone();
+            Arrays.sort(scopes);
+            record.scopeCount = scopes.length;
+            record.scopeHash = Arrays.hashCode(scopes);
+        }
+        long remaining = tokenInfo.getIssuedTime() + tokenInfo.getValidityPeriod() - System.currentTimeMillis();
+        record.validitySeconds = (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining / 1000));
+        return tokenInfo;
+    }
+
+    /**
+     * @param record record returned by {@link #begin(byte)}, may be null
+     * @param e failure of the operation
+     */
+    void failed(WorkloadTrace.Record record, Exception e) {
+        if (record != null) {
+            record.outcome = WorkloadTrace.outcomeOf(e);
+        }
+    }
+
+    /**
+     * This method completes the record of an operation and queues it to be written.
+     *
+     * @param record record returned by {@link #begin(byte)}, may be null
+     */
+    void end(WorkloadTrace.Record record) {
+        if (record == null) {
+            return;
+        }
+        record.latencyMicros = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - record.startNanos) / 1000);
+        if (!records.offer(record)) {
+            metrics.workloadRecordDropped();
+        }
+    }
+
+    private synchronized void flush() {
+        if (output == null) {
+            return;
+        }
+        try {
+            WorkloadTrace.Record record;
+            while ((record = records.poll()) != null) {
+                WorkloadTrace.write(output, record);
+                fileSize += WorkloadTrace.RECORD_SIZE;
+                metrics.workloadRecordWritten();
+                if (fileSize >= maxFileSize) {
+                    roll();
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            log.error(String.format("Could not write to the workload recording file %s. Hence the workload is no " +
+                    "longer recorded.", file), e);
+            enabled = false;
+            // The flusher is already cancelled if the recording is being stopped.
+            if (flusher != null) {
+                flusher.cancel(false);
+                flusher = null;
+            }
+            close();
+            records.clear();
+        }
+    }
+
+    private void open() throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        WorkloadTrace.writeHeader(output, System.currentTimeMillis());
+        fileSize = WorkloadTrace.HEADER_SIZE;
+    }
+
+    private void roll() throws IOException {
+        close();
+        if (maxFiles > 1) {
+            File oldest = new File(file.getPath() + "." + (maxFiles - 1));
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("Could not delete " + oldest);
+            }
+            for (int i = maxFiles - 2; i >= 0; i--) {
+                File source = i == 0 ? file : new File(file.getPath() + "." + i);
+                if (source.exists() && !source.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                    throw new IOException("Could not rename " + source);
+                }
+            }
+        }
+        open();
+    }
+
+    private void close() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            log.warn(String.format("Could not close the workload recording file %s.", file), e);
+        }
+        output = null;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary format of the workload traces written by the {@link WorkloadRecorder} and read by the WorkloadReplay tool.
+ * <p>
+ * A trace file starts with {@link #MAGIC}, {@link #VERSION}, the size of a record and the time the file was started
+ * in milliseconds since the epoch. It is followed by fixed size records, one per key manager operation, in the order
+ * the operations completed. Access tokens are only written as their {@link TokenFingerprint}, client ids as a 64 bit
+ * hash and scopes as the number and hash of the scope set of a token, so that a trace can be taken off the gateway
+ * without exposing credentials.
+ */
+final class WorkloadTrace {
+    static final int MAGIC = 0x4E414D57;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 2 + 8;
+    static final int RECORD_SIZE = 4 + 8 + 4 + 16 + 8 + 4 + 4;
+
+    static final byte OP_GET_TOKEN_METADATA = 0;
+    static final byte OP_GET_NEW_ACCESS_TOKEN = 1;
+    static final byte OP_CREATE_APPLICATION = 2;
+    static final byte OP_UPDATE_APPLICATION = 3;
+    static final byte OP_DELETE_APPLICATION = 4;
+    static final byte OP_RETRIEVE_APPLICATION = 5;
+    static final byte OP_GET_CONSUMER_SECRET = 6;
+    /**
+     * Names of the operations, indexed by their code.
+     */
+    static final String[] OPERATIONS = {NAMConstants.SPAN_GET_TOKEN_METADATA, NAMConstants.SPAN_GET_NEW_ACCESS_TOKEN,
+            NAMConstants.SPAN_CREATE_APPLICATION, NAMConstants.SPAN_UPDATE_APPLICATION,
+            NAMConstants.SPAN_DELETE_APPLICATION, NAMConstants.SPAN_RETRIEVE_APPLICATION,
+            NAMConstants.SPAN_GET_CONSUMER_SECRET};
+
+    static final byte OUTCOME_OK = 0;
+    static final byte OUTCOME_INVALID_TOKEN = 1;
+    static final byte OUTCOME_ERROR = 2;
+    static final byte OUTCOME_UNAVAILABLE = 3;
+    static final byte OUTCOME_DEADLINE_EXCEEDED = 4;
+    /**
+     * Names of the outcomes, indexed by their code.
+     */
+    static final String[] OUTCOMES = {"ok", "invalidToken", "error", "unavailable", "deadlineExceeded"};
+
+    static final byte SOURCE_NAM = 0;
+    static final byte SOURCE_CACHE = 1;
+    static final byte SOURCE_STALE = 2;
+    static final byte SOURCE_GRACE = 3;
+    static final byte SOURCE_SIDECAR = 4;
+    /**
+     * Names of the sources a result was served from, indexed by their code.
+     */
+    static final String[] SOURCES = {"nam", NAMConstants.SERVED_CACHE, NAMConstants.SERVED_STALE,
+            NAMConstants.SERVED_GRACE, "sidecar"};
+
+    private WorkloadTrace() {
+    }
+
+    /**
+     * A key manager operation. While the operation is in flight, the record is filled in by the
+     * {@link WorkloadRecorder}.
+     */
+    static final class Record {
+        byte operation;
+        byte outcome = OUTCOME_OK;
+        byte source = SOURCE_NAM;
+        /**
+         * Number of scopes of the token, at most 255.
+         */
+        int scopeCount;
+        /**
+         * Start of the operation in microseconds since the epoch.
+         */
+        long startMicros;
+        int latencyMicros;
+        /**
+         * Fingerprint of the access token, both halves are 0 if the operation did not involve a token.
+         */
+        long tokenHigh;
+        long tokenLow;
+        /**
+         * Hash of the client id, 0 if the operation did not involve a client.
+         */
+        long clientHash;
+        int scopeHash;
+        /**
+         * Remaining lifetime of the token in seconds when the operation completed.
+         */
+        int validitySeconds;
+        long startNanos;
+
+        boolean hasToken() {
+            return tokenHigh != 0 || tokenLow != 0;
+        }
+
+        TokenFingerprint token() {
+            return new TokenFingerprint(tokenHigh, tokenLow);
+        }
+    }
+
+    /**
+     * @param e failure of an operation
+     * @return outcome code of the failure
+     */
+    static byte outcomeOf(Exception e) {
+        if (e instanceof NamDeadlineExceededException) {
+            return OUTCOME_DEADLINE_EXCEEDED;
+        } else if (e instanceof NamUnavailableException) {
+            return OUTCOME_UNAVAILABLE;
+        }
+        return OUTCOME_ERROR;
+    }
+
+    /**
+     * @param output stream to write to
+     * @param startMillis time the file was started in milliseconds since the epoch
+     * @throws IOException if the header could not be written
+     */
+    static void writeHeader(DataOutput output, long startMillis) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeShort(RECORD_SIZE);
+        output.writeLong(startMillis);
+    }
+
+    /**
+     * @param input stream to read from
+     * @return time the file was started in milliseconds since the epoch
+     * @throws IOException if the stream does not start with a header of a supported version
+     */
+    static long readHeader(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a workload trace of the NetIQ key manager.");
+        }
+        byte version = input.readByte();
+        int recordSize = input.readUnsignedShort();
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException(String.format("Workload trace version %s is not supported.", version));
+        }
+        return input.readLong();
+    }
+
+    /**
+     * @param output stream to write to
+     * @param record the record, which takes {@link #RECORD_SIZE} bytes
+     * @throws IOException if the record could not be written
+     */
+    static void write(DataOutput output, Record record) throws IOException {
+        output.writeByte(record.operation);
+        output.writeByte(record.outcome);
+        output.writeByte(record.source);
+        output.writeByte(Math.min(record.scopeCount, 255));
+        output.writeLong(record.startMicros);
+        output.writeInt(record.latencyMicros);
+        output.writeLong(record.tokenHigh);
+        output.writeLong(record.tokenLow);
+        output.writeLong(record.clientHash);
+        output.writeInt(record.scopeHash);
+        output.writeInt(record.validitySeconds);
+    }
+
+    /**
+     * @param input stream to read from
+     * @return the record
+     * @throws java.io.EOFException if the stream ends before a complete record has been read
+     * @throws IOException if the record could not be read or has an unknown operation
+     */
+    static Record read(DataInput input) throws IOException {
+        Record record = new Record();
+        record.operation = input.readByte();
+        record.outcome = input.readByte();
+        record.source = input.readByte();
+        record.scopeCount = input.readUnsignedByte();
+        record.startMicros = input.readLong();
+        record.latencyMicros = input.readInt();
+        record.tokenHigh = input.readLong();
+        record.tokenLow = input.readLong();
+        record.clientHash = input.readLong();
+        record.scopeHash = input.readInt();
+        record.validitySeconds = input.readInt();
+        if (record.operation < 0 || record.operation >= OPERATIONS.length || record.outcome < 0
+                || record.outcome >= OUTCOMES.length || record.source < 0 || record.source >= SOURCES.length) {
+            throw new IOException("Workload trace contains an unknown operation, outcome or source.");
+        }
+        return record;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wso2.carbon.apimgt.api.model.API;
+import org.wso2.carbon.apimgt.api.model.APIIdentifier;
+import org.wso2.carbon.apimgt.api.model.Scope;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests of the API scope lookups answered by {@link ApiScopeIndex}.
+ */
+public class ApiScopeIndexTest {
+    private final ApiScopeIndex index = new ApiScopeIndex(new ScopeRegistry());
+
+    @Test
+    public void answersForRegisteredApis() {
+        API orders = api("admin", "orders", "1.0.0", "orders_read");
+        API stock = api("admin", "stock", "2.0.0", "stock_read");
+        index.put(orders);
+        index.put(stock);
+
+        Map<String, Set<Scope>> scopes = index.getScopes(orders.getId() + ", " + stock.getId());
+
+        Assert.assertEquals(2, scopes.size());
+        Assert.assertEquals(orders.getScopes(), scopes.get(orders.getId().toString()));
+        Assert.assertEquals(stock.getScopes(), scopes.get(stock.getId().toString()));
+    }
+
+    @Test
+    public void cannotAnswerForUnknownApis() {
+        API orders = api("admin", "orders", "1.0.0", "orders_read");
+        index.put(orders);
+
+        // An API registered before a restart or on another node is not in the index.
+        Assert.assertNull(index.getScopes(orders.getId() + ",admin-stock-2.0.0"));
+        Assert.assertNull(index.getScopes(null));
+
+        index.remove(orders.getId().toString());
+        Assert.assertNull(index.getScopes(orders.getId().toString()));
+    }
+
+    private static API api(String provider, String name, String version, String scopeKey) {
+        Scope scope = new Scope();
+        scope.setKey(scopeKey);
+        scope.setName(scopeKey);
+        API api = new API(new APIIdentifier(provider, name, version));
+        api.setScopes(Collections.singleton(scope));
+        return api;
+    }
+}
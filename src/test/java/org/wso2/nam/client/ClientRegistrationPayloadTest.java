@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.wso2.carbon.apimgt.api.model.OAuthApplicationInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests of {@link ClientRegistrationPayload}. The payload writer replaced a JSONObject based serializer, a copy of
+ * which is kept here as {@link #legacyPayload(OAuthApplicationInfo, JSONObject)} so that the documents written by both
+ * can be compared.
+ */
+public class ClientRegistrationPayloadTest {
+    private static final String[] COPIED_FIELDS = {
+            NAMConstants.APPLICATION_TYPE, NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN, NAMConstants.AUTH_CODE_TTL,
+            NAMConstants.ACCESS_TOKEN_TTL, NAMConstants.REFRESH_TOKEN_TTL, NAMConstants.CORS_DOMAINS,
+            NAMConstants.LOGO_URI, NAMConstants.POLICY_URI, NAMConstants.TOS_URI, NAMConstants.CONTACTS,
+            NAMConstants.JWKS_URI, NAMConstants.ID_TOKEN_SIGNED_RESPONSE_ALG,
+            NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ALG, NAMConstants.ID_TOKEN_ENCRYPTED_RESPONSE_ENC
+    };
+
+    @Test
+    public void writesGoldenDocument() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("shop", "PRODUCTION", "abc", "https://a/cb,https://b/cb");
+        appInfo.addParameter(NAMConstants.GRANT_TYPES, "password,refresh_token");
+        appInfo.addParameter(NAMConstants.LOGO_URI, "https://cdn/logo.png");
+
+        String expected = "{\"client_name\":\"shop_PRODUCTION\",\"client_id\":\"abc\","
+                + "\"redirect_uris\":[\"https:\\/\\/a\\/cb\",\"https:\\/\\/b\\/cb\"],"
+                + "\"grant_types\":[\"password\",\"refresh_token\"],\"response_types\":[\"code\"],"
+                + "\"logo_uri\":\"https:\\/\\/cdn\\/logo.png\"}";
+        Assert.assertEquals(expected, write(appInfo, null));
+    }
+
+    @Test
+    public void writesSameDocumentAsLegacySerializer() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("shop", "SANDBOX", "abc", "https://a/cb");
+        appInfo.addParameter(NAMConstants.GRANT_TYPES, "client_credentials");
+        appInfo.addParameter(NAMConstants.RESPONSE_TYPES, "code token");
+        for (String field : COPIED_FIELDS) {
+            appInfo.addParameter(field, field + "-value");
+        }
+        assertSameAsLegacy(appInfo, null);
+    }
+
+    @Test
+    public void appliesDefaultsLikeLegacySerializer() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("shop", "PRODUCTION", null, null);
+        appInfo.addParameter(NAMConstants.LOGO_URI, "");
+        assertSameAsLegacy(appInfo, null);
+
+        JSONObject document = parse(write(appInfo, null));
+        Assert.assertFalse(document.containsKey(NAMConstants.CLIENT_ID));
+        Assert.assertFalse(document.containsKey(NAMConstants.GRANT_TYPES));
+        Assert.assertFalse(document.containsKey(NAMConstants.LOGO_URI));
+        Assert.assertEquals(Collections.singletonList(NAMConstants.DEFAULT_REDIRECT_URI),
+                document.get(NAMConstants.REDIRECT_URIS));
+        Assert.assertEquals(Collections.singletonList(NAMConstants.DEFAULT_RESPONSE_TYPE),
+                document.get(NAMConstants.RESPONSE_TYPES));
+    }
+
+    @Test
+    public void escapesValuesLikeLegacySerializer() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("sh\"op\\", "PRODUCTION", "a/b", "https://a/cb?x=\u00e9\u4e2d");
+        appInfo.addParameter(NAMConstants.CONTACTS, "line\none\ttab\r\b\f\u0001\u007f\u0085\u2028 \ud83d\ude00");
+        appInfo.addParameter(NAMConstants.POLICY_URI, "\u00a0\u07ff\u0800\uffff");
+        assertSameAsLegacy(appInfo, null);
+    }
+
+    @Test
+    public void escapesEveryCharacterLikeJsonSimple() {
+        StringBuilder value = new StringBuilder();
+        for (char c = 0; c < Character.MIN_SURROGATE; c++) {
+            value.append(c);
+        }
+        for (int c = Character.MAX_SURROGATE + 1; c <= Character.MAX_VALUE; c++) {
+            value.append((char) c);
+        }
+        value.append("\ud83d\ude00");
+        assertEscapedLikeJsonSimple(value.toString());
+        assertEscapedLikeJsonSimple("");
+    }
+
+    @Test
+    public void mergesIntoBaseDocumentLikeLegacySerializer() throws Exception {
+        JSONObject base = new JSONObject();
+        base.put(NAMConstants.CLIENT_ID, "abc");
+        base.put(NAMConstants.CLIENT_NAME, "old_PRODUCTION");
+        base.put(NAMConstants.LOGO_URI, "https://old/logo.png");
+        base.put("client_secret", "s3cr/et");
+        base.put("client_secret_expires_at", 0L);
+        JSONObject nested = new JSONObject();
+        nested.put("enabled", Boolean.TRUE);
+        base.put("nested", nested);
+        base.put("scopes", new JSONArray());
+        base.put("ratio", 0.5d);
+        base.put("unset", null);
+
+        OAuthApplicationInfo appInfo = appInfo("shop", "PRODUCTION", null, "https://a/cb");
+        appInfo.addParameter(NAMConstants.TOS_URI, "https://a/tos");
+        assertSameAsLegacy(appInfo, base);
+
+        JSONObject document = parse(write(appInfo, base));
+        Assert.assertEquals("abc", document.get(NAMConstants.CLIENT_ID));
+        Assert.assertEquals("shop_PRODUCTION", document.get(NAMConstants.CLIENT_NAME));
+        Assert.assertEquals("https://old/logo.png", document.get(NAMConstants.LOGO_URI));
+        Assert.assertEquals("s3cr/et", document.get("client_secret"));
+    }
+
+    @Test
+    public void splitsLikeStringSplit() {
+        String[] values = {"a", "a,b", "a,,b", "a,b,,", ",a", ",", ",,", "", "a,"};
+        for (String value : values) {
+            Assert.assertArrayEquals(value, value.split(","), ClientRegistrationPayload.split(value, ','));
+        }
+    }
+
+    @Test
+    public void detectsUnchangedDocument() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("shop", "PRODUCTION", "abc", "https://a/cb");
+        appInfo.addParameter(NAMConstants.LOGO_URI, "https://cdn/logo.png");
+        ClientRegistrationPayload payload = ClientRegistrationPayload.from(appInfo);
+
+        JSONObject current = parse(write(appInfo, null));
+        current.put("client_secret", "secret");
+        Assert.assertTrue(payload.isUnchanged(current));
+        Assert.assertFalse(payload.isUnchanged(null));
+
+        current.put(NAMConstants.LOGO_URI, "https://cdn/logo.png ");
+        Assert.assertFalse(payload.isUnchanged(current));
+        current.put(NAMConstants.LOGO_URI, "https://cdn/logo.png");
+        current.put(NAMConstants.REDIRECT_URIS, "https://a/cb");
+        Assert.assertTrue("a single value equals a single element array", payload.isUnchanged(current));
+        current.put(NAMConstants.REDIRECT_URIS, new JSONArray());
+        Assert.assertFalse(payload.isUnchanged(current));
+        current.put(NAMConstants.REDIRECT_URIS, parse("{\"v\":[\"https://a/cb\",\"https://b/cb\"]}").get("v"));
+        Assert.assertFalse(payload.isUnchanged(current));
+    }
+
+    @Test
+    public void comparesWithNetIqDocumentByType() throws Exception {
+        OAuthApplicationInfo appInfo = appInfo("shop", "PRODUCTION", "abc", "https://a/cb");
+        appInfo.addParameter(NAMConstants.GRANT_TYPES, "authorization_code,refresh_token");
+        appInfo.addParameter(NAMConstants.RESPONSE_TYPES, "code");
+        appInfo.addParameter(NAMConstants.ACCESS_TOKEN_TTL, "3600");
+        appInfo.addParameter(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN, "true");
+        appInfo.addParameter(NAMConstants.LOGO_URI, "https://cdn/logo.png");
+        ClientRegistrationPayload payload = ClientRegistrationPayload.from(appInfo);
+
+        // Registration document as NetIQ returns it, with numbers, booleans and arrays.
+        JSONObject current = parse("{\"client_id\":\"abc\",\"client_secret\":\"secret\","
+                + "\"client_name\":\"shop_PRODUCTION\",\"redirect_uris\":[\"https://a/cb\"],"
+                + "\"grant_types\":[\"authorization_code\",\"refresh_token\"],\"response_types\":[\"code\"],"
+                + "\"accessTokenTTL\":3600,\"alwaysIssueNewRefreshToken\":true,"
+                + "\"logo_uri\":\"https://cdn/logo.png\",\"client_id_issued_at\":1700000000}");
+        Assert.assertTrue(payload.isUnchanged(current));
+
+        current.put(NAMConstants.ACCESS_TOKEN_TTL, 3600.0);
+        Assert.assertTrue(payload.isUnchanged(current));
+        current.put(NAMConstants.ACCESS_TOKEN_TTL, 7200L);
+        Assert.assertFalse(payload.isUnchanged(current));
+        current.put(NAMConstants.ACCESS_TOKEN_TTL, 3600L);
+        current.put(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN, false);
+        Assert.assertFalse(payload.isUnchanged(current));
+        current.put(NAMConstants.ALWAYS_ISSUE_NEW_REFRESH_TOKEN, true);
+        current.put(NAMConstants.GRANT_TYPES, parse("{\"v\":[\"refresh_token\",\"authorization_code\"]}").get("v"));
+        Assert.assertFalse("the order of array values counts", payload.isUnchanged(current));
+        current.put(NAMConstants.GRANT_TYPES, parse("{\"v\":[\"authorization_code\",\"refresh_token\"]}").get("v"));
+        current.put(NAMConstants.LOGO_URI, parse("{\"v\":[\"https://cdn/logo.png\"]}").get("v"));
+        Assert.assertFalse("only array fields equal a single element array", payload.isUnchanged(current));
+        current.put(NAMConstants.LOGO_URI, "https://cdn/logo.png");
+        Assert.assertTrue(payload.isUnchanged(current));
+    }
+
+    private static void assertSameAsLegacy(OAuthApplicationInfo appInfo, JSONObject base) throws Exception {
+        JSONObject legacy = new JSONObject();
+        if (base != null) {
+            legacy.putAll(base);
+        }
+        legacyPayload(appInfo, legacy);
+        Assert.assertEquals(parse(legacy.toJSONString()), parse(write(appInfo, base)));
+    }
+
+    private static void assertEscapedLikeJsonSimple(String value) {
+        JsonPayloadBuffer buffer = JsonPayloadBuffer.acquire().writeString(value);
+        String expected = '"' + JSONValue.escape(value) + '"';
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+    }
+
+    private static String write(OAuthApplicationInfo appInfo, Map<?, ?> base) throws Exception {
+        return new String(ClientRegistrationPayload.from(appInfo).write(base), StandardCharsets.UTF_8);
+    }
+
+    private static JSONObject parse(String json) throws Exception {
+        return (JSONObject) new JSONParser().parse(json);
+    }
+
+    private static OAuthApplicationInfo appInfo(String clientName, String keyType, String clientId,
+                                                String callbackUrl) {
+        OAuthApplicationInfo appInfo = new OAuthApplicationInfo();
+        appInfo.setClientName(clientName);
+        appInfo.setClientId(clientId);
+        appInfo.setCallBackURL(callbackUrl);
+        appInfo.addParameter(NAMConstants.KEY_TYPE, keyType);
+        return appInfo;
+    }
+
+    /**
+     * Serializer which the payload writer replaced, kept as the reference output.
+     */
+    @SuppressWarnings("unchecked")
+    private static void legacyPayload(OAuthApplicationInfo appInfo, JSONObject params) throws Exception {
+        String clientId = appInfo.getClientId();
+        String keyType = (String) appInfo.getParameter(NAMConstants.KEY_TYPE);
+        params.put(NAMConstants.CLIENT_NAME, appInfo.getClientName() + '_' + keyType);
+        if (!StringUtils.isEmpty(clientId)) {
+            params.put(NAMConstants.CLIENT_ID, clientId);
+        }
+
+        String redirectionUri = appInfo.getCallBackURL();
+        JSONArray jsonArray = new JSONArray();
+        if (!StringUtils.isEmpty(redirectionUri)) {
+            Collections.addAll(jsonArray, redirectionUri.split(NAMConstants.URI_SEPARATOR));
+        } else {
+            Collections.addAll(jsonArray, NAMConstants.DEFAULT_REDIRECT_URI.split(NAMConstants.URI_SEPARATOR));
+        }
+        params.put(NAMConstants.REDIRECT_URIS, jsonArray);
+
+        String grantTypes = (String) appInfo.getParameter(NAMConstants.GRANT_TYPES);
+        if (grantTypes != null) {
+            JSONArray grantTypeList = new JSONArray();
+            Collections.addAll(grantTypeList, grantTypes.split(NAMConstants.INFO_GRANT_TYPE_SEPARATOR));
+            params.put(NAMConstants.GRANT_TYPES, grantTypeList);
+        }
+
+        JSONObject jsonObject = parse(appInfo.getJsonString());
+        String responseTypes = (String) jsonObject.get(NAMConstants.RESPONSE_TYPES);
+        if (!StringUtils.isEmpty(responseTypes)) {
+            params.put(NAMConstants.RESPONSE_TYPES, responseTypes);
+        } else {
+            JSONArray types = new JSONArray();
+            Collections.addAll(types, NAMConstants.DEFAULT_RESPONSE_TYPE.split(NAMConstants.URI_SEPARATOR));
+            params.put(NAMConstants.RESPONSE_TYPES, types);
+        }
+        for (String field : COPIED_FIELDS) {
+            String value = (String) jsonObject.get(field);
+            if (!StringUtils.isEmpty(value)) {
+                params.put(field, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of how {@link ConsumerKeyTokenIndex} behaves when the wall clock and the monotonic clock, which drives the
+ * {@link ExpiryWheel}, move apart, and of which tokens it hands out.
+ */
+public class ConsumerKeyTokenIndexTest {
+    private final long start = System.nanoTime();
+    private final ExpiryWheel wheel = new ExpiryWheel(1000, start);
+    private final ConsumerKeyTokenIndex index = new ConsumerKeyTokenIndex(new WeakInterner<String>(), wheel);
+    private final ScopeSet scopes = new ScopeRegistry().toScopeSet(Collections.singletonList("read"));
+
+    @Test
+    public void keepsTokenWhenWallClockIsSetBack() {
+        index.add("consumer", "token", tokenInfo(), scopes, 1, ConsumerKeyTokenIndex.Origin.VALIDATED);
+
+        // The wheel reaches the expiry while the wall clock stays behind, as if it had been set back.
+        wheel.advance(start + TimeUnit.SECONDS.toNanos(5));
+
+        Assert.assertEquals(Collections.singleton("token"), index.getActiveTokens("consumer"));
+        Assert.assertEquals("token is scheduled again", 1, wheel.size());
+    }
+
+    @Test
+    public void prunesTokenWhenWallClockIsAhead() throws InterruptedException {
+        index.add("consumer", "expiring", tokenInfo(), scopes, 1, ConsumerKeyTokenIndex.Origin.VALIDATED);
+        index.add("consumer", "live", tokenInfo(), scopes, 3600, ConsumerKeyTokenIndex.Origin.VALIDATED);
+
+        // The token expires by the wall clock before the wheel has been advanced.
+        Thread.sleep(1100);
+
+        Assert.assertEquals(1, index.prune());
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(Collections.singleton("live"), index.getActiveTokens("consumer"));
+        Assert.assertEquals("timer is cancelled", 1, wheel.size());
+    }
+
+    @Test
+    public void returnsOnlyIssuedTokenAsLatest() {
+        index.add("consumer", "issued", tokenInfo(), scopes, 600, ConsumerKeyTokenIndex.Origin.ISSUED);
+        index.add("consumer", "user", tokenInfo(), scopes, 3600, ConsumerKeyTokenIndex.Origin.VALIDATED);
+
+        Assert.assertEquals("issued", index.getLatestToken("consumer").getAccessToken());
+        Assert.assertEquals(2, index.getActiveTokens("consumer").size());
+
+        // Validating the issued token again keeps its origin.
+        index.add("consumer", "issued", tokenInfo(), scopes, 300, ConsumerKeyTokenIndex.Origin.VALIDATED);
+        Assert.assertEquals("issued", index.getLatestToken("consumer").getAccessToken());
+
+        index.remove("issued");
+        Assert.assertNull("validated tokens are never returned", index.getLatestToken("consumer"));
+    }
+
+    private static AccessTokenInfo tokenInfo() {
+        AccessTokenInfo tokenInfo = new AccessTokenInfo();
+        tokenInfo.setTokenValid(true);
+        tokenInfo.setConsumerKey("consumer");
+        tokenInfo.setEndUserName("user");
+        return tokenInfo;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Harness which compares the cost of expiring entries with the {@link ExpiryWheel} against a periodic scan of every
+ * entry, which is how the local token state was pruned before. It is not run as a test, run it with e.g.
+ * {@code java -Xmx4g -cp <test classpath> org.wso2.nam.client.ExpiryWheelBenchmark 1000000 4000000}.
+ */
+public final class ExpiryWheelBenchmark {
+    private static final long TICK_MILLIS = 1000;
+    private static final int HORIZON_TICKS = 3600;
+    private static final int MEASURED_TICKS = 300;
+
+    private ExpiryWheelBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        String[] sizes = args.length > 0 ? args : new String[]{"1000000"};
+        for (String size : sizes) {
+            int entries = Integer.parseInt(size);
+            // The first round warms up the JIT.
+            run(entries, false);
+            run(entries, true);
+        }
+    }
+
+    private static void run(int entries, boolean report) {
+        Random random = new Random(42);
+        final ConcurrentHashMap<Integer, Entry> map = new ConcurrentHashMap<>();
+        ExpiryWheel wheel = new ExpiryWheel(TICK_MILLIS, 0);
+        long[] expiryMillis = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            expiryMillis[i] = (1 + random.nextInt(HORIZON_TICKS)) * TICK_MILLIS;
+            Entry entry = new Entry(map, i, expiryMillis[i]);
+            map.put(i, entry);
+            wheel.schedule(entry, expiryMillis[i], 0);
+        }
+
+        long wheelNanos = 0;
+        int expired = 0;
+        for (int tick = 1; tick <= MEASURED_TICKS; tick++) {
+            long begin = System.nanoTime();
+            expired += wheel.advance(TimeUnit.MILLISECONDS.toNanos(tick * TICK_MILLIS));
+            wheelNanos += System.nanoTime() - begin;
+        }
+
+        // The same entries are expired again by scanning them at every tick.
+        for (int i = 0; i < entries; i++) {
+            map.put(i, new Entry(map, i, expiryMillis[i]));
+        }
+        long scanNanos = 0;
+        int scanned = 0;
+        for (int tick = 1; tick <= MEASURED_TICKS; tick++) {
+            long now = tick * TICK_MILLIS;
+            long begin = System.nanoTime();
+            for (Iterator<Entry> iterator = map.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().expiryMillis <= now) {
+                    iterator.remove();
+                    scanned++;
+                }
+            }
+            scanNanos += System.nanoTime() - begin;
+        }
+
+        if (report) {
+            System.out.println(String.format("%,d entries: wheel %.3f ms per tick (%,d expired), scan %.3f ms per tick"
+                            + " (%,d expired)", entries, wheelNanos / 1e6 / MEASURED_TICKS, expired,
+                    scanNanos / 1e6 / MEASURED_TICKS, scanned));
+        }
+    }
+
+    private static final class Entry extends ExpiryWheel.Timer {
+        private final Map<Integer, Entry> map;
+        private final Integer key;
+        private final long expiryMillis;
+
+        private Entry(Map<Integer, Entry> map, Integer key, long expiryMillis) {
+            this.map = map;
+            this.key = key;
+            this.expiryMillis = expiryMillis;
+        }
+
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            return map.remove(key, this);
+        }
+
+        @Override
+        String store() {
+            return "benchmark";
+        }
+    }
+}
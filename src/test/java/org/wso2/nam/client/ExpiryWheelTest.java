@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of {@link ExpiryWheel}. The wheel is driven with explicit {@link System#nanoTime()} values, so that jumps of
+ * the monotonic clock, e.g. after the host has been suspended, can be simulated.
+ */
+public class ExpiryWheelTest {
+    private static final long TICK_MILLIS = 1000;
+    private static final long START = 0;
+
+    private final ExpiryWheel wheel = new ExpiryWheel(TICK_MILLIS, START);
+
+    @Test
+    public void callsBackOnFirstTickAfterDelay() {
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, 2500, START);
+
+        Assert.assertEquals(0, wheel.advance(at(2999)));
+        Assert.assertEquals(0, timer.calls);
+        Assert.assertEquals(1, wheel.advance(at(3000)));
+        Assert.assertEquals(1, timer.calls);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void callsBackTimerWithoutDelayOnNextTick() {
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, -5, START);
+
+        Assert.assertEquals(0, wheel.advance(at(999)));
+        Assert.assertEquals(1, wheel.advance(at(1000)));
+    }
+
+    @Test
+    public void doesNotCallBackCancelledTimer() {
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, 5000, START);
+
+        Assert.assertTrue(wheel.cancel(timer));
+        Assert.assertFalse(wheel.cancel(timer));
+        Assert.assertEquals(0, wheel.advance(at(10000)));
+        Assert.assertEquals(0, timer.calls);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTimerWhichIsAlreadyScheduled() {
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, 5000, START);
+        wheel.schedule(timer, 6000, START);
+    }
+
+    @Test
+    public void callsBackTimersOfEveryLevelAtTheirTick() {
+        long[] delayTicks = {1, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 262145, 16777215};
+        List<CountingTimer> timers = new ArrayList<>();
+        for (long delay : delayTicks) {
+            CountingTimer timer = new CountingTimer();
+            wheel.schedule(timer, delay * TICK_MILLIS, START);
+            timers.add(timer);
+        }
+        for (int i = 0; i < delayTicks.length; i++) {
+            wheel.advance(at((delayTicks[i] - 1) * TICK_MILLIS));
+            Assert.assertEquals("timer due at tick " + delayTicks[i], 0, timers.get(i).calls);
+            wheel.advance(at(delayTicks[i] * TICK_MILLIS));
+            Assert.assertEquals("timer due at tick " + delayTicks[i], 1, timers.get(i).calls);
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void parksTimersBeyondTheLastLevel() {
+        long delayTicks = (1L << (6 * ExpiryWheel.LEVELS)) + 5;
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, delayTicks * TICK_MILLIS, START);
+
+        wheel.advance(at((delayTicks - 1) * TICK_MILLIS));
+        Assert.assertEquals(0, timer.calls);
+        Assert.assertEquals(1, wheel.size());
+        wheel.advance(at(delayTicks * TICK_MILLIS));
+        Assert.assertEquals(1, timer.calls);
+    }
+
+    @Test
+    public void callsBackEveryDueTimerOnceAfterMonotonicClockJump() {
+        Random random = new Random(42);
+        List<CountingTimer> timers = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            CountingTimer timer = new CountingTimer();
+            timer.delayMillis = (long) random.nextInt(24 * 3600) * TICK_MILLIS;
+            wheel.schedule(timer, timer.delayMillis, START);
+            timers.add(timer);
+        }
+        // The host was suspended for twelve hours, hence the wheel is advanced over all of them at once.
+        long jumpMillis = 12 * 3600 * TICK_MILLIS;
+        int expected = 0;
+        for (CountingTimer timer : timers) {
+            if (Math.max(timer.delayMillis, TICK_MILLIS) <= jumpMillis) {
+                expected++;
+            }
+        }
+        Assert.assertEquals(expected, wheel.advance(at(jumpMillis)));
+        for (CountingTimer timer : timers) {
+            int calls = Math.max(timer.delayMillis, TICK_MILLIS) <= jumpMillis ? 1 : 0;
+            Assert.assertEquals("timer with delay " + timer.delayMillis, calls, timer.calls);
+        }
+        Assert.assertEquals(timers.size() - expected, wheel.size());
+
+        wheel.advance(at(24 * 3600 * TICK_MILLIS));
+        for (CountingTimer timer : timers) {
+            Assert.assertEquals(1, timer.calls);
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void ignoresTimeBeforeCurrentTick() {
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, 5000, START);
+        wheel.advance(at(3000));
+
+        Assert.assertEquals(0, wheel.advance(at(1000)));
+        Assert.assertEquals(0, timer.calls);
+        Assert.assertEquals(1, wheel.advance(at(5000)));
+    }
+
+    @Test
+    public void schedulesRelativeToCurrentTickAfterJump() {
+        wheel.advance(at(100000));
+        CountingTimer timer = new CountingTimer();
+        wheel.schedule(timer, 2000, at(100000));
+
+        Assert.assertEquals(0, wheel.advance(at(101000)));
+        Assert.assertEquals(1, wheel.advance(at(102000)));
+    }
+
+    @Test
+    public void letsTimerScheduleItselfAgain() {
+        RepeatingTimer timer = new RepeatingTimer(3);
+        wheel.schedule(timer, 1000, START);
+
+        for (long millis = 1000; millis <= 5000; millis += 1000) {
+            wheel.advance(at(millis));
+        }
+        Assert.assertEquals(3, timer.calls);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void callsBackTimersOfTheSameTickTogether() {
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(new CountingTimer(), 1000 + i, START);
+        }
+        Assert.assertEquals(100, wheel.advance(at(2000)));
+    }
+
+    private static long at(long millis) {
+        return START + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static class CountingTimer extends ExpiryWheel.Timer {
+        private int calls;
+        private long delayMillis;
+
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            calls++;
+            return true;
+        }
+
+        @Override
+        String store() {
+            return "test";
+        }
+    }
+
+    private static final class RepeatingTimer extends ExpiryWheel.Timer {
+        private final int repetitions;
+        private int calls;
+
+        private RepeatingTimer(int repetitions) {
+            this.repetitions = repetitions;
+        }
+
+        @Override
+        boolean expire(ExpiryWheel wheel) {
+            if (++calls < repetitions) {
+                wheel.schedule(this, TICK_MILLIS, at(calls * TICK_MILLIS));
+            }
+            return false;
+        }
+
+        @Override
+        String store() {
+            return "test";
+        }
+    }
+}
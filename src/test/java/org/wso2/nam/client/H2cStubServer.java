@@ -0,0 +1,729 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for a NetIQ host in the transport contract tests. It answers HTTP/1.1, and HTTP/2 over cleartext after an
+ * h2c upgrade (RFC 7540, section 3.2), which is how the JDK client reaches an http endpoint with HTTP/2. Requests
+ * are answered by a {@link Handler}, on a thread of their own so that a slow response does not hold up the other
+ * streams of a connection.
+ */
+final class H2cStubServer implements Closeable {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FRAME_DATA = 0x0;
+    private static final int FRAME_HEADERS = 0x1;
+    private static final int FRAME_SETTINGS = 0x4;
+    private static final int FRAME_PING = 0x6;
+    private static final int FRAME_GOAWAY = 0x7;
+    private static final int FRAME_WINDOW_UPDATE = 0x8;
+    private static final int FRAME_CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+    private static final int MAX_FRAME_SIZE = 16384;
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final List<StubRequest> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile Handler handler;
+
+    /**
+     * Answers the requests of the stub.
+     */
+    interface Handler {
+        StubResponse handle(StubRequest request) throws Exception;
+    }
+
+    /**
+     * Request received by the stub. Header names are lower case.
+     */
+    static final class StubRequest {
+        final String method;
+        final String path;
+        final String protocol;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        private StubRequest(String method, String path, String protocol, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.protocol = protocol;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.body = body;
+        }
+
+        String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Response of the stub, which may be delayed, or stall in the middle of its body, to provoke timeouts.
+     */
+    static final class StubResponse {
+        private final int status;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private final byte[] body;
+        private long delayMillis;
+        private int stallOffset = -1;
+        private long stallMillis;
+
+        private StubResponse(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static StubResponse of(int status, String contentType, String body) {
+            return new StubResponse(status, body.getBytes(StandardCharsets.UTF_8)).header("content-type",
+                    contentType);
+        }
+
+        static StubResponse empty(int status) {
+            return new StubResponse(status, new byte[0]);
+        }
+
+        StubResponse header(String name, String value) {
+            headers.put(name.toLowerCase(Locale.ENGLISH), value);
+            return this;
+        }
+
+        StubResponse delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param offset number of body bytes sent before the stall, after the headers
+         * @param millis time the rest of the body is held back
+         */
+        StubResponse stallBody(int offset, long millis) {
+            stallOffset = Math.min(offset, body.length);
+            stallMillis = millis;
+            return this;
+        }
+
+        private int firstPartLength() {
+            return stallOffset < 0 ? body.length : stallOffset;
+        }
+
+        private void stall() {
+            if (stallOffset < 0) {
+                return;
+            }
+            try {
+                Thread.sleep(stallMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param handler answers the requests
+     * @throws IOException if no port could be bound on the loopback interface
+     */
+    H2cStubServer(Handler handler) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "h2c-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return scheme and authority of the stub
+     */
+    String host() {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    String url(String path) {
+        return host() + path;
+    }
+
+    void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @return requests received so far, in the order they were completely read
+     */
+    List<StubRequest> requests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * @return number of connections accepted so far
+     */
+    int connections() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            sockets.add(socket);
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // The client has closed the connection.
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Already closed.
+                        }
+                    }
+                }
+            }, "h2c-stub-connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[headers.containsKey("content-length")
+                    ? Integer.parseInt(headers.get("content-length")) : 0];
+            new DataInputStream(in).readFully(body);
+            StubRequest request = new StubRequest(parts[0], parts[1], parts[2], headers, body);
+            requests.add(request);
+            if ("h2c".equalsIgnoreCase(headers.get("upgrade"))) {
+                out.write(("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                new Http2Connection(in, out).serve(request);
+                return;
+            }
+            StubResponse response = respond(request);
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(response.status).append(" Stub\r\n")
+                    .append("content-length: ").append(response.body.length).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            out.write(head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (!"HEAD".equals(request.method)) {
+                int firstPart = response.firstPartLength();
+                out.write(response.body, 0, firstPart);
+                out.flush();
+                response.stall();
+                out.write(response.body, firstPart, response.body.length - firstPart);
+            }
+            out.flush();
+        }
+    }
+
+    private StubResponse respond(StubRequest request) {
+        StubResponse response;
+        try {
+            response = handler.handle(request);
+        } catch (Exception e) {
+            response = StubResponse.of(500, "text/plain", String.valueOf(e));
+        }
+        if (response.delayMillis > 0) {
+            try {
+                Thread.sleep(response.delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return response;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString("ISO-8859-1");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * Server side of an HTTP/2 connection. Flow control is only honoured towards the client, by returning every
+     * received byte of request bodies right away, since the responses of the stub are small.
+     */
+    private final class Http2Connection {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final HpackDecoder decoder = new HpackDecoder();
+        private final Map<Integer, Stream> streams = new HashMap<>();
+
+        private Http2Connection(InputStream in, OutputStream out) {
+            this.in = new DataInputStream(in);
+            this.out = out;
+        }
+
+        private void serve(StubRequest upgradeRequest) throws IOException {
+            writeFrame(FRAME_SETTINGS, 0, 0, new byte[0]);
+            byte[] preface = new byte[PREFACE.length];
+            in.readFully(preface);
+            if (!Arrays.equals(preface, PREFACE)) {
+                throw new IOException("Connection preface expected.");
+            }
+            // The upgraded request is answered on stream 1.
+            respondAsync(1, upgradeRequest);
+            while (true) {
+                int length;
+                try {
+                    length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt() & 0x7fffffff;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                switch (type) {
+                    case FRAME_HEADERS:
+                    case FRAME_CONTINUATION:
+                        onHeaders(type, flags, streamId, payload);
+                        break;
+                    case FRAME_DATA:
+                        onData(flags, streamId, payload);
+                        break;
+                    case FRAME_SETTINGS:
+                        if ((flags & FLAG_ACK) == 0) {
+                            writeFrame(FRAME_SETTINGS, FLAG_ACK, 0, new byte[0]);
+                        }
+                        break;
+                    case FRAME_PING:
+                        if ((flags & FLAG_ACK) == 0) {
+                            writeFrame(FRAME_PING, FLAG_ACK, 0, payload);
+                        }
+                        break;
+                    case FRAME_GOAWAY:
+                        return;
+                    default:
+                        // Priorities, window updates and stream resets do not matter to the stub.
+                }
+            }
+        }
+
+        private void onHeaders(int type, int flags, int streamId, byte[] payload) throws IOException {
+            Stream stream = streams.get(streamId);
+            int offset = 0;
+            int end = payload.length;
+            if (type == FRAME_HEADERS) {
+                stream = new Stream();
+                streams.put(streamId, stream);
+                stream.endStream = (flags & FLAG_END_STREAM) != 0;
+                if ((flags & FLAG_PADDED) != 0) {
+                    end -= payload[offset++] & 0xff;
+                }
+                if ((flags & FLAG_PRIORITY) != 0) {
+                    offset += 5;
+                }
+            }
+            stream.headerBlock.write(payload, offset, end - offset);
+            if ((flags & FLAG_END_HEADERS) != 0) {
+                stream.headers = decoder.decode(stream.headerBlock.toByteArray());
+                if (stream.endStream) {
+                    complete(streamId, stream);
+                }
+            }
+        }
+
+        private void onData(int flags, int streamId, byte[] payload) throws IOException {
+            Stream stream = streams.get(streamId);
+            int offset = 0;
+            int end = payload.length;
+            if ((flags & FLAG_PADDED) != 0) {
+                end -= payload[offset++] & 0xff;
+            }
+            stream.body.write(payload, offset, end - offset);
+            if (payload.length > 0) {
+                writeWindowUpdate(0, payload.length);
+                if ((flags & FLAG_END_STREAM) == 0) {
+                    writeWindowUpdate(streamId, payload.length);
+                }
+            }
+            if ((flags & FLAG_END_STREAM) != 0) {
+                complete(streamId, stream);
+            }
+        }
+
+        private void complete(int streamId, Stream stream) {
+            streams.remove(streamId);
+            Map<String, String> headers = new LinkedHashMap<>();
+            String method = null;
+            String path = null;
+            for (String[] header : stream.headers) {
+                if (":method".equals(header[0])) {
+                    method = header[1];
+                } else if (":path".equals(header[0])) {
+                    path = header[1];
+                } else if (!header[0].startsWith(":")) {
+                    headers.put(header[0], header[1]);
+                }
+            }
+            StubRequest request = new StubRequest(method, path, "HTTP/2.0", headers, stream.body.toByteArray());
+            requests.add(request);
+            respondAsync(streamId, request);
+        }
+
+        private void respondAsync(final int streamId, final StubRequest request) {
+            Thread responder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        respond(streamId, request);
+                    } catch (IOException e) {
+                        // The client has closed the connection.
+                    }
+                }
+            }, "h2c-stub-stream-" + streamId);
+            responder.setDaemon(true);
+            responder.start();
+        }
+
+        private void respond(int streamId, StubRequest request) throws IOException {
+            StubResponse response = H2cStubServer.this.respond(request);
+            boolean noBody = response.body.length == 0 || "HEAD".equals(request.method);
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            writeLiteral(block, ":status", String.valueOf(response.status));
+            writeLiteral(block, "content-length", String.valueOf(response.body.length));
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                writeLiteral(block, header.getKey(), header.getValue());
+            }
+            int firstPart = noBody ? 0 : response.firstPartLength();
+            synchronized (out) {
+                writeFrame(FRAME_HEADERS, FLAG_END_HEADERS | (noBody ? FLAG_END_STREAM : 0), streamId,
+                        block.toByteArray());
+                writeData(streamId, response.body, 0, firstPart);
+            }
+            if (!noBody && firstPart < response.body.length) {
+                // The connection stays usable for other streams during the stall.
+                response.stall();
+                writeData(streamId, response.body, firstPart, response.body.length);
+            }
+        }
+
+        /**
+         * This method writes a part of a body as DATA frames. The frame which ends at the end of the body ends the
+         * stream.
+         */
+        private void writeData(int streamId, byte[] body, int start, int end) throws IOException {
+            synchronized (out) {
+                for (int offset = start; offset < end; offset += MAX_FRAME_SIZE) {
+                    int length = Math.min(MAX_FRAME_SIZE, end - offset);
+                    writeFrame(FRAME_DATA, offset + length == body.length ? FLAG_END_STREAM : 0, streamId,
+                            Arrays.copyOfRange(body, offset, offset + length));
+                }
+            }
+        }
+
+        private void writeWindowUpdate(int streamId, int increment) throws IOException {
+            writeFrame(FRAME_WINDOW_UPDATE, 0, streamId, new byte[]{(byte) (increment >>> 24),
+                    (byte) (increment >>> 16), (byte) (increment >>> 8), (byte) increment});
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+            synchronized (out) {
+                out.write(payload.length >>> 16);
+                out.write(payload.length >>> 8);
+                out.write(payload.length);
+                out.write(type);
+                out.write(flags);
+                out.write(streamId >>> 24);
+                out.write(streamId >>> 16);
+                out.write(streamId >>> 8);
+                out.write(streamId);
+                out.write(payload);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * This method writes a header field as a literal without indexing and without Huffman coding, which every
+     * decoder accepts.
+     */
+    private static void writeLiteral(ByteArrayOutputStream block, String name, String value) {
+        block.write(0);
+        for (String string : new String[]{name, value}) {
+            byte[] bytes = string.getBytes(StandardCharsets.ISO_8859_1);
+            writeInteger(block, 0, 7, bytes.length);
+            block.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static void writeInteger(ByteArrayOutputStream block, int firstByte, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            block.write(firstByte | value);
+            return;
+        }
+        block.write(firstByte | max);
+        value -= max;
+        while (value >= 0x80) {
+            block.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+
+    private static final class Stream {
+        private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private List<String[]> headers;
+        private boolean endStream;
+    }
+
+    /**
+     * HPACK decoder (RFC 7541) of the header blocks sent by the clients.
+     */
+    private static final class HpackDecoder {
+        private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+            {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+            {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+            {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+            {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+            {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+            {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+        };
+        /**
+         * Huffman code of each symbol, followed by its length in bits, see appendix B of RFC 7541.
+         */
+        private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 13, 0x7fffd8, 23, 0xfffffe2, 28, 0xfffffe3, 28, 0xfffffe4, 28, 0xfffffe5, 28, 0xfffffe6, 28,
+            0xfffffe7, 28, 0xfffffe8, 28, 0xffffea, 24, 0x3ffffffc, 30, 0xfffffe9, 28, 0xfffffea, 28, 0x3ffffffd, 30,
+            0xfffffeb, 28, 0xfffffec, 28, 0xfffffed, 28, 0xfffffee, 28, 0xfffffef, 28, 0xffffff0, 28, 0xffffff1, 28,
+            0xffffff2, 28, 0x3ffffffe, 30, 0xffffff3, 28, 0xffffff4, 28, 0xffffff5, 28, 0xffffff6, 28, 0xffffff7, 28,
+            0xffffff8, 28, 0xffffff9, 28, 0xffffffa, 28, 0xffffffb, 28, 0x14, 6, 0x3f8, 10, 0x3f9, 10, 0xffa, 12,
+            0x1ff9, 13, 0x15, 6, 0xf8, 8, 0x7fa, 11, 0x3fa, 10, 0x3fb, 10, 0xf9, 8, 0x7fb, 11, 0xfa, 8, 0x16, 6,
+            0x17, 6, 0x18, 6, 0x0, 5, 0x1, 5, 0x2, 5, 0x19, 6, 0x1a, 6, 0x1b, 6, 0x1c, 6, 0x1d, 6, 0x1e, 6, 0x1f, 6,
+            0x5c, 7, 0xfb, 8, 0x7ffc, 15, 0x20, 6, 0xffb, 12, 0x3fc, 10, 0x1ffa, 13, 0x21, 6, 0x5d, 7, 0x5e, 7,
+            0x5f, 7, 0x60, 7, 0x61, 7, 0x62, 7, 0x63, 7, 0x64, 7, 0x65, 7, 0x66, 7, 0x67, 7, 0x68, 7, 0x69, 7,
+            0x6a, 7, 0x6b, 7, 0x6c, 7, 0x6d, 7, 0x6e, 7, 0x6f, 7, 0x70, 7, 0x71, 7, 0x72, 7, 0xfc, 8, 0x73, 7,
+            0xfd, 8, 0x1ffb, 13, 0x7fff0, 19, 0x1ffc, 13, 0x3ffc, 14, 0x22, 6, 0x7ffd, 15, 0x3, 5, 0x23, 6, 0x4, 5,
+            0x24, 6, 0x5, 5, 0x25, 6, 0x26, 6, 0x27, 6, 0x6, 5, 0x74, 7, 0x75, 7, 0x28, 6, 0x29, 6, 0x2a, 6, 0x7, 5,
+            0x2b, 6, 0x76, 7, 0x2c, 6, 0x8, 5, 0x9, 5, 0x2d, 6, 0x77, 7, 0x78, 7, 0x79, 7, 0x7a, 7, 0x7b, 7,
+            0x7ffe, 15, 0x7fc, 11, 0x3ffd, 14, 0x1ffd, 13, 0xffffffc, 28, 0xfffe6, 20, 0x3fffd2, 22, 0xfffe7, 20,
+            0xfffe8, 20, 0x3fffd3, 22, 0x3fffd4, 22, 0x3fffd5, 22, 0x7fffd9, 23, 0x3fffd6, 22, 0x7fffda, 23,
+            0x7fffdb, 23, 0x7fffdc, 23, 0x7fffdd, 23, 0x7fffde, 23, 0xffffeb, 24, 0x7fffdf, 23, 0xffffec, 24,
+            0xffffed, 24, 0x3fffd7, 22, 0x7fffe0, 23, 0xffffee, 24, 0x7fffe1, 23, 0x7fffe2, 23, 0x7fffe3, 23,
+            0x7fffe4, 23, 0x1fffdc, 21, 0x3fffd8, 22, 0x7fffe5, 23, 0x3fffd9, 22, 0x7fffe6, 23, 0x7fffe7, 23,
+            0xffffef, 24, 0x3fffda, 22, 0x1fffdd, 21, 0xfffe9, 20, 0x3fffdb, 22, 0x3fffdc, 22, 0x7fffe8, 23,
+            0x7fffe9, 23, 0x1fffde, 21, 0x7fffea, 23, 0x3fffdd, 22, 0x3fffde, 22, 0xfffff0, 24, 0x1fffdf, 21,
+            0x3fffdf, 22, 0x7fffeb, 23, 0x7fffec, 23, 0x1fffe0, 21, 0x1fffe1, 21, 0x3fffe0, 22, 0x1fffe2, 21,
+            0x7fffed, 23, 0x3fffe1, 22, 0x7fffee, 23, 0x7fffef, 23, 0xfffea, 20, 0x3fffe2, 22, 0x3fffe3, 22,
+            0x3fffe4, 22, 0x7ffff0, 23, 0x3fffe5, 22, 0x3fffe6, 22, 0x7ffff1, 23, 0x3ffffe0, 26, 0x3ffffe1, 26,
+            0xfffeb, 20, 0x7fff1, 19, 0x3fffe7, 22, 0x7ffff2, 23, 0x3fffe8, 22, 0x1ffffec, 25, 0x3ffffe2, 26,
+            0x3ffffe3, 26, 0x3ffffe4, 26, 0x7ffffde, 27, 0x7ffffdf, 27, 0x3ffffe5, 26, 0xfffff1, 24, 0x1ffffed, 25,
+            0x7fff2, 19, 0x1fffe3, 21, 0x3ffffe6, 26, 0x7ffffe0, 27, 0x7ffffe1, 27, 0x3ffffe7, 26, 0x7ffffe2, 27,
+            0xfffff2, 24, 0x1fffe4, 21, 0x1fffe5, 21, 0x3ffffe8, 26, 0x3ffffe9, 26, 0xffffffd, 28, 0x7ffffe3, 27,
+            0x7ffffe4, 27, 0x7ffffe5, 27, 0xfffec, 20, 0xfffff3, 24, 0xfffed, 20, 0x1fffe6, 21, 0x3fffe9, 22,
+            0x1fffe7, 21, 0x1fffe8, 21, 0x7ffff3, 23, 0x3fffea, 22, 0x3fffeb, 22, 0x1ffffee, 25, 0x1ffffef, 25,
+            0xfffff4, 24, 0xfffff5, 24, 0x3ffffea, 26, 0x7ffff4, 23, 0x3ffffeb, 26, 0x7ffffe6, 27, 0x3ffffec, 26,
+            0x3ffffed, 26, 0x7ffffe7, 27, 0x7ffffe8, 27, 0x7ffffe9, 27, 0x7ffffea, 27, 0x7ffffeb, 27, 0xffffffe, 28,
+            0x7ffffec, 27, 0x7ffffed, 27, 0x7ffffee, 27, 0x7ffffef, 27, 0x7fffff0, 27, 0x3ffffee, 26, 0x3fffffff, 30
+        };
+        private static final Map<Long, Integer> HUFFMAN_SYMBOLS = new HashMap<>();
+
+        static {
+            for (int symbol = 0; symbol < HUFFMAN_CODES.length / 2; symbol++) {
+                HUFFMAN_SYMBOLS.put(huffmanKey(HUFFMAN_CODES[2 * symbol], HUFFMAN_CODES[2 * symbol + 1]), symbol);
+            }
+        }
+
+        private final List<String[]> dynamicTable = new ArrayList<>();
+        private int dynamicTableSize;
+        private int maxDynamicTableSize = 4096;
+        private byte[] block;
+        private int position;
+
+        private List<String[]> decode(byte[] headerBlock) throws IOException {
+            block = headerBlock;
+            position = 0;
+            List<String[]> headers = new ArrayList<>();
+            while (position < block.length) {
+                int b = block[position] & 0xff;
+                if ((b & 0x80) != 0) {
+                    headers.add(field(readInteger(7)));
+                } else if ((b & 0x40) != 0) {
+                    String[] header = readLiteral(6);
+                    headers.add(header);
+                    dynamicTable.add(0, header);
+                    dynamicTableSize += header[0].length() + header[1].length() + 32;
+                    evict();
+                } else if ((b & 0x20) != 0) {
+                    maxDynamicTableSize = readInteger(5);
+                    evict();
+                } else {
+                    // Literal without indexing, or never indexed.
+                    headers.add(readLiteral(4));
+                }
+            }
+            return headers;
+        }
+
+        private String[] readLiteral(int prefixBits) throws IOException {
+            int index = readInteger(prefixBits);
+            String name = index == 0 ? readString() : field(index)[0];
+            return new String[]{name, readString()};
+        }
+
+        private String[] field(int index) throws IOException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (dynamicIndex < 0 || dynamicIndex >= dynamicTable.size()) {
+                throw new IOException("Invalid header index " + index);
+            }
+            return dynamicTable.get(dynamicIndex);
+        }
+
+        private void evict() {
+            while (dynamicTableSize > maxDynamicTableSize) {
+                String[] header = dynamicTable.remove(dynamicTable.size() - 1);
+                dynamicTableSize -= header[0].length() + header[1].length() + 32;
+            }
+        }
+
+        private int readInteger(int prefixBits) {
+            int max = (1 << prefixBits) - 1;
+            int value = block[position++] & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            int b;
+            do {
+                b = block[position++] & 0xff;
+                value += (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() throws IOException {
+            boolean huffman = (block[position] & 0x80) != 0;
+            int length = readInteger(7);
+            byte[] bytes = Arrays.copyOfRange(block, position, position + length);
+            position += length;
+            return huffman ? decodeHuffman(bytes) : new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        private static String decodeHuffman(byte[] bytes) throws IOException {
+            StringBuilder result = new StringBuilder();
+            int code = 0;
+            int length = 0;
+            for (byte b : bytes) {
+                for (int bit = 7; bit >= 0; bit--) {
+                    code = (code << 1) | ((b >>> bit) & 1);
+                    length++;
+                    Integer symbol = HUFFMAN_SYMBOLS.get(huffmanKey(code, length));
+                    if (symbol != null) {
+                        if (symbol == 256) {
+                            throw new IOException("Huffman coded string contains EOS.");
+                        }
+                        result.append((char) (int) symbol);
+                        code = 0;
+                        length = 0;
+                    } else if (length > 30) {
+                        throw new IOException("Invalid Huffman code.");
+                    }
+                }
+            }
+            // The remaining bits are the padding, a prefix of EOS.
+            return result.toString();
+        }
+
+        private static long huffmanKey(int code, int length) {
+            return ((long) length << 32) | (code & 0xffffffffL);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Runs the transport contract against {@link Http2Transport}, which upgrades the plain http connection to the stub to
+ * HTTP/2, and checks the timeouts the JDK client can only apply per client or per exchange.
+ */
+public class Http2TransportTest extends NamTransportContractTest {
+
+    @Override
+    protected NamTransport newTransport() {
+        return new Http2Transport();
+    }
+
+    @Override
+    protected ProtocolVersion expectedProtocolVersion() {
+        return new ProtocolVersion("HTTP", 2, 0);
+    }
+
+    @Test
+    public void upgradesToHttp2() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            HttpGet request = new HttpGet(server.url("/nidp/oauth/nam/tokeninfo"));
+            try (CloseableHttpResponse response = transport.execute(request)) {
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+
+        List<H2cStubServer.StubRequest> requests = server.requests();
+        Assert.assertEquals("h2c", requests.get(0).headers.get("upgrade"));
+        Assert.assertEquals("HTTP/2.0", requests.get(requests.size() - 1).protocol);
+    }
+
+    @Test
+    public void appliesConfiguredConnectTimeout() throws IOException {
+        transport.setConnectTimeout(300);
+        try (ServerSocket unresponsive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            List<Socket> backlog = fillBacklog(unresponsive);
+            try {
+                long start = System.nanoTime();
+                try {
+                    // Without a timeout of its own, the request is only limited by the connect timeout of the client.
+                    transport.execute(new HttpGet(urlOf(unresponsive))).close();
+                    Assert.fail("The connect did not time out.");
+                } catch (IOException e) {
+                    assertElapsedBelow(start, 3000);
+                }
+            } finally {
+                for (Socket socket : backlog) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void limitsExchangeToDeadline() throws IOException {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", "{}").delay(3000);
+            }
+        });
+        HttpGet request = new HttpGet(server.url("/nidp/oauth/nam/tokeninfo"));
+        request.setConfig(RequestConfig.custom().setConnectTimeout(10000).setSocketTimeout(10000).build());
+
+        NamDeadline deadline = NamDeadline.start("test", 300);
+        long start = System.nanoTime();
+        try {
+            transport.execute(request).close();
+            Assert.fail("The request outlived the deadline.");
+        } catch (IOException e) {
+            assertElapsedBelow(start, 2000);
+        } finally {
+            deadline.close();
+        }
+    }
+
+    private static String urlOf(ServerSocket serverSocket) {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort()
+                + "/nidp/oauth/nam/tokeninfo";
+    }
+}
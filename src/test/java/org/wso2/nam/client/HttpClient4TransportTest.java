@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+
+/**
+ * Runs the transport contract against {@link HttpClient4Transport}, which reaches the stub with HTTP/1.1.
+ */
+public class HttpClient4TransportTest extends NamTransportContractTest {
+
+    @Override
+    protected NamTransport newTransport() {
+        return new HttpClient4Transport();
+    }
+
+    @Override
+    protected ProtocolVersion expectedProtocolVersion() {
+        return HttpVersion.HTTP_1_1;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the handshake in which the {@link IntrospectionSidecarClient} and the {@link IntrospectionSidecarServer}
+ * prove to each other that they hold the shared key.
+ */
+public class IntrospectionSidecarTest {
+    private static final String ENDPOINT = "https://nam.example.com/nidp/oauth/nam/tokeninfo";
+
+    private final byte[] key = key(1);
+    private final AtomicInteger introspections = new AtomicInteger();
+    private IntrospectionSidecarServer server;
+    private IntrospectionSidecarClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        NamOauthClient keyManager = new NamOauthClient() {
+            @Override
+            public AccessTokenInfo getTokenMetaData(String accessToken) {
+                introspections.incrementAndGet();
+                AccessTokenInfo tokenInfo = new AccessTokenInfo();
+                tokenInfo.setTokenValid(true);
+                tokenInfo.setConsumerKey("consumer-of-" + accessToken);
+                tokenInfo.setScope(new String[]{"read"});
+                return tokenInfo;
+            }
+
+            @Override
+            String getTokenInfoEndpoint() {
+                return ENDPOINT;
+            }
+        };
+        server = new IntrospectionSidecarServer(keyManager, new NamKeyManagerMetrics());
+        server.start(0, key);
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void validatesTokenAfterMutualProof() {
+        client = new IntrospectionSidecarClient(server.getLocalPort(), 5000, ENDPOINT, key);
+
+        AccessTokenInfo tokenInfo = client.introspect("token");
+        Assert.assertNotNull(tokenInfo);
+        Assert.assertEquals("consumer-of-token", tokenInfo.getConsumerKey());
+        Assert.assertArrayEquals(new String[]{"read"}, tokenInfo.getScopes());
+
+        Assert.assertNotNull("the connection is reused", client.introspect("other"));
+        Assert.assertEquals(2, introspections.get());
+    }
+
+    @Test
+    public void clientWithoutKeyIsRejected() {
+        client = new IntrospectionSidecarClient(server.getLocalPort(), 5000, ENDPOINT, key(2));
+
+        Assert.assertNull(client.introspect("token"));
+        Assert.assertEquals(0, introspections.get());
+        Assert.assertNull("the client backs off", client.introspect("token"));
+    }
+
+    @Test
+    public void serverRejectsWrongClientProof() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        try {
+            socket.setSoTimeout(5000);
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] clientNonce = IntrospectionSidecarProtocol.newNonce();
+            writeHello(output, clientNonce);
+            Assert.assertEquals(IntrospectionSidecarProtocol.STATUS_CHALLENGE, input.readByte());
+            byte[] serverNonce = new byte[IntrospectionSidecarProtocol.NONCE_LENGTH];
+            input.readFully(serverNonce);
+            byte[] serverProof = new byte[IntrospectionSidecarProtocol.PROOF_LENGTH];
+            input.readFully(serverProof);
+            Assert.assertTrue(IntrospectionSidecarProtocol.verify(key, serverProof,
+                    IntrospectionSidecarProtocol.ROLE_SERVER, clientNonce, serverNonce, ENDPOINT));
+
+            // A proof made for the server role must not be accepted from a client.
+            output.write(serverProof);
+            output.flush();
+            Assert.assertEquals(IntrospectionSidecarProtocol.STATUS_UNAUTHORIZED, input.readByte());
+            Assert.assertEquals("the connection is closed", -1, input.read());
+        } finally {
+            socket.close();
+        }
+        Assert.assertEquals(0, introspections.get());
+    }
+
+    @Test
+    public void serverRejectsOtherEndpoint() {
+        String otherEndpoint = "https://other.example.com/nidp/oauth/nam/tokeninfo";
+        client = new IntrospectionSidecarClient(server.getLocalPort(), 5000, otherEndpoint, key);
+
+        Assert.assertNull(client.introspect("token"));
+        Assert.assertEquals(0, introspections.get());
+    }
+
+    @Test
+    public void clientSendsNoTokenToImpostor() throws Exception {
+        final ServerSocket impostor = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final byte[][] received = new byte[1][];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = impostor.accept()) {
+                    DataInputStream input = new DataInputStream(socket.getInputStream());
+                    DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                    input.readInt();
+                    input.readByte();
+                    input.readFully(new byte[IntrospectionSidecarProtocol.NONCE_LENGTH]);
+                    input.readUTF();
+                    // Without the key the impostor can only send a made up proof.
+                    output.writeByte(IntrospectionSidecarProtocol.STATUS_CHALLENGE);
+                    output.write(IntrospectionSidecarProtocol.newNonce());
+                    output.write(new byte[IntrospectionSidecarProtocol.PROOF_LENGTH]);
+                    output.flush();
+                    byte[] buffer = new byte[1024];
+                    int length = 0;
+                    int read;
+                    while ((read = input.read(buffer, length, buffer.length - length)) > 0) {
+                        length += read;
+                    }
+                    received[0] = Arrays.copyOf(buffer, length);
+                } catch (IOException e) {
+                    received[0] = new byte[0];
+                }
+            }
+        });
+        thread.start();
+        try {
+            client = new IntrospectionSidecarClient(impostor.getLocalPort(), 5000, ENDPOINT, key);
+            Assert.assertNull(client.introspect("token"));
+            thread.join(5000);
+            Assert.assertEquals("nothing is sent after the forged proof", 0, received[0].length);
+        } finally {
+            impostor.close();
+        }
+    }
+
+    private static void writeHello(DataOutputStream output, byte[] clientNonce) throws IOException {
+        output.writeInt(IntrospectionSidecarProtocol.MAGIC);
+        output.writeByte(IntrospectionSidecarProtocol.VERSION);
+        output.write(clientNonce);
+        output.writeUTF(ENDPOINT);
+        output.flush();
+    }
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[IntrospectionSidecarProtocol.MIN_KEY_LENGTH];
+        Arrays.fill(key, (byte) seed);
+        return key;
+    }
+}
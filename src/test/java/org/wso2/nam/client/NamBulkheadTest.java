@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of how {@link NamBulkhead} hands out, queues, lends and takes back its slots.
+ */
+public class NamBulkheadTest {
+    private final NamBulkhead bulkhead = new NamBulkhead(NamBulkhead.Type.VALIDATION);
+    private final BlockingQueue<Object> outcomes = new ArrayBlockingQueue<>(10);
+
+    @After
+    public void tearDown() {
+        // Wakes up any waiter left behind by a failed test.
+        bulkhead.configure(0, 0, 0);
+    }
+
+    @Test
+    public void letsRequestsThroughUpToTheLimit() throws IOException {
+        bulkhead.configure(2, 0, 100);
+        bulkhead.acquire();
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertFalse(bulkhead.tryAcquire());
+        Assert.assertEquals(2, bulkhead.getInFlightRequests());
+        Assert.assertEquals(1.0, bulkhead.getUtilization(), 0);
+
+        bulkhead.release();
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertEquals(3, bulkhead.getAcceptedRequests());
+    }
+
+    @Test
+    public void rejectsRequestWhenQueueIsFull() throws IOException {
+        bulkhead.configure(1, 0, 1000);
+        bulkhead.acquire();
+        try {
+            bulkhead.acquire();
+            Assert.fail("the queue has no room");
+        } catch (BulkheadFullException e) {
+            Assert.assertEquals(1, bulkhead.getRejectedRequests());
+        }
+    }
+
+    @Test
+    public void queuedRequestTakesReleasedSlot() throws Exception {
+        bulkhead.configure(1, 1, 10000);
+        bulkhead.acquire();
+        Thread waiter = startWaiter();
+        awaitQueued(1);
+
+        Assert.assertFalse("no slot is taken past a waiting request", bulkhead.tryAcquire());
+        bulkhead.release();
+
+        Assert.assertEquals("acquired", outcomes.poll(5, TimeUnit.SECONDS));
+        waiter.join(5000);
+        Assert.assertEquals(1, bulkhead.getInFlightRequests());
+        Assert.assertEquals(1, bulkhead.getQueuedRequestsTotal());
+    }
+
+    @Test
+    public void queuedRequestTimesOut() throws Exception {
+        bulkhead.configure(1, 1, 50);
+        bulkhead.acquire();
+        long start = System.nanoTime();
+        try {
+            bulkhead.acquire();
+            Assert.fail("no slot became free");
+        } catch (BulkheadFullException e) {
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        Assert.assertEquals(1, bulkhead.getTimedOutRequests());
+        Assert.assertEquals(0, bulkhead.getQueuedRequests());
+    }
+
+    @Test
+    public void queuedRequestStopsAtDeadline() throws Exception {
+        bulkhead.configure(1, 1, 10000);
+        bulkhead.acquire();
+        NamDeadline deadline = NamDeadline.start("test", 50);
+        try {
+            bulkhead.acquire();
+            Assert.fail("the deadline passed first");
+        } catch (DeadlineElapsedIOException e) {
+            Assert.assertEquals(1, bulkhead.getTimedOutRequests());
+        } finally {
+            deadline.close();
+        }
+    }
+
+    @Test
+    public void interruptedWaiterLeavesSlotToNextWaiter() throws Exception {
+        bulkhead.configure(1, 2, 10000);
+        bulkhead.acquire();
+        Thread first = startWaiter();
+        awaitQueued(1);
+        Thread second = startWaiter();
+        awaitQueued(2);
+
+        first.interrupt();
+        Assert.assertEquals(InterruptedIOException.class, outcomes.poll(5, TimeUnit.SECONDS));
+        bulkhead.release();
+
+        Assert.assertEquals("acquired", outcomes.poll(5, TimeUnit.SECONDS));
+        first.join(5000);
+        second.join(5000);
+        Assert.assertEquals(1, bulkhead.getInFlightRequests());
+        Assert.assertEquals(0, bulkhead.getQueuedRequests());
+    }
+
+    @Test
+    public void lendsOnlyIdleCapacity() throws Exception {
+        bulkhead.configure(1, 1, 10000);
+        Assert.assertTrue(bulkhead.tryLend());
+        Assert.assertFalse("the lent slot is taken", bulkhead.tryLend());
+        Assert.assertEquals(1, bulkhead.getLentSlots());
+        bulkhead.release();
+
+        bulkhead.acquire();
+        Thread waiter = startWaiter();
+        awaitQueued(1);
+        bulkhead.release();
+        Assert.assertEquals("acquired", outcomes.poll(5, TimeUnit.SECONDS));
+        waiter.join(5000);
+        Assert.assertFalse("no slot is lent while the bulkhead is full", bulkhead.tryLend());
+
+        bulkhead.configure(0, 1, 10000);
+        Assert.assertFalse("a bulkhead without a limit does not lend", bulkhead.tryLend());
+    }
+
+    private Thread startWaiter() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bulkhead.acquire();
+                    outcomes.add("acquired");
+                } catch (IOException e) {
+                    outcomes.add(e.getClass());
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bulkhead.getQueuedRequests() < queued) {
+            if (System.nanoTime() - deadline > 0) {
+                Assert.fail("expected " + queued + " queued requests, found " + bulkhead.getQueuedRequests());
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the NetIQ endpoints the key manager calls, used to replay recorded workloads without touching
+ * NetIQ. It listens on the loopback interface and serves
+ * <ul>
+ * <li>{@value #TOKEN_PATH}, which issues an admin token for any credentials,</li>
+ * <li>{@value #TOKEN_INFO_PATH}, which validates the tokens registered with {@link #addToken(String, Token)} and
+ * rejects all others, and</li>
+ * <li>{@value #CLIENTS_PATH}, which returns a client document for any client id.</li>
+ * </ul>
+ * Each response can be delayed by a fixed latency, to stand in for the round trip to NetIQ.
+ */
+class NamStandIn {
+    private static final Log log = LogFactory.getLog(NamStandIn.class);
+    static final String TOKEN_PATH = "/nidp/oauth/nam/token";
+    static final String TOKEN_INFO_PATH = "/nidp/oauth/nam/tokeninfo";
+    static final String CLIENTS_PATH = "/nidp/oauth/nam/clients";
+    private static final String ISSUER = "nam-stand-in";
+    private static final long ADMIN_TOKEN_LIFETIME = 3600;
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final long latencyMillis;
+    private final Map<String, Token> tokens = new ConcurrentHashMap<>();
+    private final AtomicLong adminTokenRequests = new AtomicLong();
+    private final AtomicLong tokenInfoRequests = new AtomicLong();
+    private final AtomicLong clientRequests = new AtomicLong();
+    private final AtomicLong adminTokens = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Validation result the stand-in returns for a token.
+     */
+    static final class Token {
+        final String userId;
+        final String audience;
+        final String[] scopes;
+        /**
+         * Expiry of the token in milliseconds since the epoch.
+         */
+        final long expiresAt;
+        final boolean valid;
+
+        Token(String userId, String audience, String[] scopes, long expiresAt, boolean valid) {
+            this.userId = userId;
+            this.audience = audience;
+            this.scopes = scopes;
+            this.expiresAt = expiresAt;
+            this.valid = valid;
+        }
+    }
+
+    /**
+     * @param latencyMillis time each response is delayed by in milliseconds
+     */
+    NamStandIn(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * This method starts serving on an ephemeral port of the loopback interface.
+     *
+     * @throws IOException if no port could be bound
+     */
+    synchronized void start() throws IOException {
+        // The server writes the headers and the body of a response separately, hence without TCP_NODELAY each
+        // response waits for the delayed acknowledgement of the client. The property is read once per JVM.
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, Boolean.TRUE.toString());
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(NamExecutors.daemonThreadFactory("nam-stand-in"));
+        server.setExecutor(executor);
+        server.createContext(TOKEN_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                adminTokenRequests.incrementAndGet();
+                issueAdminToken(exchange);
+            }
+        });
+        server.createContext(TOKEN_INFO_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                tokenInfoRequests.incrementAndGet();
+                validate(exchange);
+            }
+        });
+        server.createContext(CLIENTS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientRequests.incrementAndGet();
+                getClient(exchange);
+            }
+        });
+        server.start();
+        log.info(String.format("NetIQ stand-in is listening on %s", getBaseUrl()));
+    }
+
+    /**
+     * This method stops serving. Requests which are in flight are given a second to complete.
+     */
+    synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return URL the stand-in serves on, without a trailing slash
+     */
+    synchronized String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * This method registers the validation result of a token, replacing the previous one.
+     *
+     * @param accessToken the access token
+     * @param token result returned when the token is validated
+     */
+    void addToken(String accessToken, Token token) {
+        tokens.put(accessToken, token);
+    }
+
+    /**
+     * @param accessToken the access token
+     * @return the registered validation result of the token, null if it has not been registered
+     */
+    Token getToken(String accessToken) {
+        return tokens.get(accessToken);
+    }
+
+    long getAdminTokenRequests() {
+        return adminTokenRequests.get();
+    }
+
+    long getTokenInfoRequests() {
+        return tokenInfoRequests.get();
+    }
+
+    long getClientRequests() {
+        return clientRequests.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void issueAdminToken(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("invalid_request"));
+            return;
+        }
+        long serial = adminTokens.incrementAndGet();
+        JSONObject response = new JSONObject();
+        response.put(NAMConstants.ACCESS_TOKEN, ISSUER + "-admin-" + serial);
+        response.put(NAMConstants.REFRESH_TOKEN, ISSUER + "-refresh-" + serial);
+        response.put(NAMConstants.EXPIRES_IN, ADMIN_TOKEN_LIFETIME);
+        response.put("token_type", "Bearer");
+        respond(exchange, 200, response);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void validate(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        String authorization = exchange.getRequestHeaders().getFirst(NAMConstants.AUTHORIZATION);
+        Token token = null;
+        if (authorization != null && authorization.startsWith(NAMConstants.BEARER)) {
+            token = tokens.get(authorization.substring(NAMConstants.BEARER.length()));
+        }
+        long expiresIn = token == null ? 0 : (token.expiresAt - System.currentTimeMillis()) / 1000;
+        if (token == null || !token.valid || expiresIn <= 0) {
+            respond(exchange, 401, error("invalid_token"));
+            return;
+        }
+        JSONArray scopes = new JSONArray();
+        for (String scope : token.scopes) {
+            scopes.add(scope);
+        }
+        JSONObject response = new JSONObject();
+        response.put(NAMConstants.USER_ID, token.userId);
+        response.put(NAMConstants.EXPIRES_IN, expiresIn);
+        response.put(NAMConstants.SCOPE, scopes);
+        response.put(NAMConstants.AUDIENCE, token.audience);
+        response.put(NAMConstants.TOKEN_ID, Integer.toHexString(System.identityHashCode(token)));
+        response.put(NAMConstants.ISSUER, ISSUER);
+        respond(exchange, 200, response);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void getClient(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        String path = exchange.getRequestURI().getPath();
+        String clientId = path.length() > CLIENTS_PATH.length() + 1
+                ? path.substring(CLIENTS_PATH.length() + 1) : null;
+        if (!"GET".equals(exchange.getRequestMethod()) || clientId == null) {
+            respond(exchange, 405, error("invalid_request"));
+            return;
+        }
+        JSONArray redirectUris = new JSONArray();
+        redirectUris.add(NAMConstants.DEFAULT_REDIRECT_URI);
+        JSONArray grantTypes = new JSONArray();
+        grantTypes.add(NAMConstants.PASSWORD);
+        grantTypes.add(NAMConstants.CLIENT_CREDENTIALS);
+        JSONObject response = new JSONObject();
+        response.put(NAMConstants.CLIENT_ID, clientId);
+        response.put(NAMConstants.CLIENT_NAME, clientId);
+        response.put(NAMConstants.CLIENT_SECRET, ISSUER + "-secret");
+        response.put(NAMConstants.REDIRECT_URIS, redirectUris);
+        response.put(NAMConstants.GRANT_TYPES, grantTypes);
+        respond(exchange, 200, response);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject error(String code) {
+        JSONObject response = new JSONObject();
+        response.put("error", code);
+        return response;
+    }
+
+    private void respond(HttpExchange exchange, int statusCode, JSONObject body) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] bytes = body.toJSONString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(NAMConstants.CONTENT_TYPE, NAMConstants.APPLICATION_JSON);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static void drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (input.read(buffer) >= 0) {
+            // The request bodies are not needed.
+        }
+        input.close();
+    }
+}
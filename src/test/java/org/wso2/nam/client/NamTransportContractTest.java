@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Contract every {@link NamTransport} has to fulfil, checked against {@link H2cStubServer}. A subclass runs the
+ * contract for each transport.
+ */
+public abstract class NamTransportContractTest {
+    private static final String TOKEN_INFO_PATH = "/nidp/oauth/nam/tokeninfo";
+
+    protected H2cStubServer server;
+    protected NamTransport transport;
+
+    /**
+     * @return a new transport, which is not initialised yet
+     */
+    protected abstract NamTransport newTransport();
+
+    /**
+     * @return protocol version the transport is expected to reach the stub with
+     */
+    protected abstract ProtocolVersion expectedProtocolVersion();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new H2cStubServer(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", "{\"path\":\"" + request.path + "\"}");
+            }
+        });
+        transport = newTransport();
+        transport.init(server.host());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsGetAndReadsResponse() throws IOException {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", "{\"active\":true}")
+                        .header("X-Stub", "yes");
+            }
+        });
+        HttpGet request = new HttpGet(server.url(TOKEN_INFO_PATH + "?access_token=abc"));
+        request.setHeader("Authorization", "Bearer admin-token");
+        request.setHeader("Accept", "application/json");
+
+        try (CloseableHttpResponse response = transport.execute(request)) {
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(expectedProtocolVersion(), response.getStatusLine().getProtocolVersion());
+            Assert.assertEquals("yes", response.getFirstHeader("x-stub").getValue());
+            Assert.assertEquals("application/json", response.getEntity().getContentType().getValue());
+            Assert.assertEquals("{\"active\":true}", EntityUtils.toString(response.getEntity()));
+        }
+        H2cStubServer.StubRequest received = lastRequest();
+        Assert.assertEquals("GET", received.method);
+        Assert.assertEquals(TOKEN_INFO_PATH + "?access_token=abc", received.path);
+        Assert.assertEquals("Bearer admin-token", received.headers.get("authorization"));
+        Assert.assertEquals("application/json", received.headers.get("accept"));
+        Assert.assertEquals(0, received.body.length);
+    }
+
+    @Test
+    public void sendsFormBody() throws IOException {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("grant_type", "password"));
+        params.add(new BasicNameValuePair("username", "admin@carbon.super"));
+        HttpPost request = new HttpPost(server.url("/nidp/oauth/nam/token"));
+        request.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+
+        try (CloseableHttpResponse response = transport.execute(request)) {
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            EntityUtils.consume(response.getEntity());
+        }
+        H2cStubServer.StubRequest received = lastRequest();
+        Assert.assertEquals("POST", received.method);
+        Assert.assertTrue(received.headers.get("content-type").startsWith("application/x-www-form-urlencoded"));
+        Assert.assertEquals("grant_type=password&username=admin%40carbon.super", received.bodyAsString());
+    }
+
+    @Test
+    public void sendsJsonBodyWithPut() throws IOException {
+        String document = "{\"client_name\":\"app\",\"redirect_uris\":[\"https://localhost/cb\"]}";
+        HttpPut request = new HttpPut(server.url("/nidp/oauth/nam/clients/1"));
+        request.setEntity(new StringEntity(document, ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = transport.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+        }
+        H2cStubServer.StubRequest received = lastRequest();
+        Assert.assertEquals("PUT", received.method);
+        Assert.assertTrue(received.headers.get("content-type").startsWith("application/json"));
+        Assert.assertEquals(document, received.bodyAsString());
+    }
+
+    @Test
+    public void readsResponseWithoutBody() throws IOException {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.empty(204);
+            }
+        });
+
+        try (CloseableHttpResponse response = transport.execute(new HttpDelete(
+                server.url("/nidp/oauth/nam/clients/1")))) {
+            Assert.assertEquals(204, response.getStatusLine().getStatusCode());
+            if (response.getEntity() != null) {
+                byte[] body = EntityUtils.toByteArray(response.getEntity());
+                Assert.assertTrue(body == null || body.length == 0);
+            }
+        }
+        Assert.assertEquals("DELETE", lastRequest().method);
+    }
+
+    @Test
+    public void returnsErrorStatusWithBody() throws IOException {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(401, "application/json", "{\"error\":\"invalid_token\"}");
+            }
+        });
+
+        try (CloseableHttpResponse response = transport.execute(new HttpGet(server.url(TOKEN_INFO_PATH)))) {
+            Assert.assertEquals(401, response.getStatusLine().getStatusCode());
+            Assert.assertEquals("{\"error\":\"invalid_token\"}", EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    @Test
+    public void handsResponseToCallback() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        transport.execute(new HttpGet(server.url(TOKEN_INFO_PATH)), new RecordingCallback(result, done));
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("{\"path\":\"" + TOKEN_INFO_PATH + "\"}", result.get());
+    }
+
+    @Test
+    public void completesConcurrentRequests() throws Exception {
+        int requests = 20;
+        final CountDownLatch done = new CountDownLatch(requests);
+        final Map<String, Object> results = new ConcurrentHashMap<>();
+        for (int i = 0; i < requests; i++) {
+            final String path = TOKEN_INFO_PATH + "?access_token=" + i;
+            final AtomicReference<Object> result = new AtomicReference<>();
+            transport.execute(new HttpGet(server.url(path)), new RecordingCallback(result, done) {
+                @Override
+                void record(Object value) {
+                    results.put(path, value);
+                }
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(requests, results.size());
+        for (Map.Entry<String, Object> result : results.entrySet()) {
+            Assert.assertEquals("{\"path\":\"" + result.getKey() + "\"}", result.getValue());
+        }
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            try (CloseableHttpResponse response = transport.execute(new HttpGet(server.url(TOKEN_INFO_PATH)))) {
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+
+        Assert.assertEquals(5, server.requests().size());
+        assertConnections(1);
+    }
+
+    @Test
+    public void usesConnectionsOpenedInAdvance() throws Exception {
+        int opened = transport.preOpen(server.url(TOKEN_INFO_PATH), 2, 5000);
+        Assert.assertTrue(opened >= 1);
+        assertConnections(opened);
+
+        try (CloseableHttpResponse response = transport.execute(new HttpGet(server.url(TOKEN_INFO_PATH)))) {
+            EntityUtils.consume(response.getEntity());
+        }
+        assertConnections(opened);
+    }
+
+    @Test
+    public void timesOutWaitingForResponse() {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", "{}").delay(3000);
+            }
+        });
+        HttpGet request = new HttpGet(server.url(TOKEN_INFO_PATH));
+        request.setConfig(RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(300).build());
+
+        long start = System.nanoTime();
+        try {
+            transport.execute(request).close();
+            Assert.fail("The request did not time out.");
+        } catch (IOException e) {
+            assertElapsedBelow(start, 2000);
+        }
+    }
+
+    @Test
+    public void timesOutReadingStalledBody() {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", stalledBody()).stallBody(100, 3000);
+            }
+        });
+        HttpGet request = new HttpGet(server.url(TOKEN_INFO_PATH));
+        request.setConfig(RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(300).build());
+
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = transport.execute(request)) {
+            EntityUtils.toString(response.getEntity());
+            Assert.fail("Reading the body did not time out.");
+        } catch (IOException e) {
+            assertElapsedBelow(start, 2000);
+        }
+    }
+
+    @Test
+    public void reportsStalledBodyToCallback() throws Exception {
+        server.setHandler(new H2cStubServer.Handler() {
+            @Override
+            public H2cStubServer.StubResponse handle(H2cStubServer.StubRequest request) {
+                return H2cStubServer.StubResponse.of(200, "application/json", stalledBody()).stallBody(100, 3000);
+            }
+        });
+        HttpGet request = new HttpGet(server.url(TOKEN_INFO_PATH));
+        request.setConfig(RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(300).build());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        long start = System.nanoTime();
+        transport.execute(request, new RecordingCallback(result, done));
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(String.valueOf(result.get()), result.get() instanceof IOException);
+        assertElapsedBelow(start, 2000);
+    }
+
+    @Test
+    public void timesOutConnecting() throws IOException {
+        try (ServerSocket unresponsive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            List<Socket> backlog = fillBacklog(unresponsive);
+            try {
+                transport.setConnectTimeout(300);
+                HttpGet request = new HttpGet("http://" + unresponsive.getInetAddress().getHostAddress() + ":"
+                        + unresponsive.getLocalPort() + TOKEN_INFO_PATH);
+                request.setConfig(RequestConfig.custom().setConnectTimeout(300).setSocketTimeout(10000).build());
+
+                long start = System.nanoTime();
+                try {
+                    transport.execute(request).close();
+                    Assert.fail("The connect did not time out.");
+                } catch (IOException e) {
+                    assertElapsedBelow(start, 3000);
+                }
+            } finally {
+                for (Socket socket : backlog) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reportsRefusedConnection() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        String url = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + TOKEN_INFO_PATH;
+        try {
+            transport.execute(new HttpGet(url)).close();
+            Assert.fail("The connection was not refused.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        transport.execute(new HttpGet(url), new RecordingCallback(result, done));
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(String.valueOf(result.get()), result.get() instanceof IOException);
+    }
+
+    /**
+     * @return a JSON body of a few kilobytes, which is larger than the part the stub sends before it stalls
+     */
+    private static String stalledBody() {
+        StringBuilder body = new StringBuilder("{\"scope\":\"");
+        for (int i = 0; i < 200; i++) {
+            body.append("scope").append(i).append(' ');
+        }
+        return body.append("\"}").toString();
+    }
+
+        protected H2cStubServer.StubRequest lastRequest() {
+        List<H2cStubServer.StubRequest> requests = server.requests();
+        Assert.assertFalse(requests.isEmpty());
+        return requests.get(requests.size() - 1);
+    }
+
+    /**
+     * This method waits until the stub has accepted the given number of connections, since a connect completes
+     * before the stub has accepted it, and checks that it accepts no more meanwhile.
+     */
+    protected void assertConnections(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.connections() < expected && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        Assert.assertEquals(expected, server.connections());
+    }
+
+    protected static void assertElapsedBelow(long startNanos, long maxMillis) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Assert.assertTrue("took " + elapsedMillis + " ms", elapsedMillis < maxMillis);
+    }
+
+    /**
+     * This method fills the accept queue of a server socket which never accepts, so that further connects to it
+     * hang until they time out.
+     */
+    protected static List<Socket> fillBacklog(ServerSocket serverSocket) throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(serverSocket.getLocalSocketAddress(), 200);
+                sockets.add(socket);
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                return sockets;
+            }
+        }
+        throw new IOException("The accept queue could not be filled.");
+    }
+
+    /**
+     * Callback which records the response body or the failure of a request.
+     */
+    protected static class RecordingCallback implements FutureCallback<CloseableHttpResponse> {
+        private final AtomicReference<Object> result;
+        private final CountDownLatch done;
+
+        protected RecordingCallback(AtomicReference<Object> result, CountDownLatch done) {
+            this.result = result;
+            this.done = done;
+        }
+
+        void record(Object value) {
+            result.set(value);
+        }
+
+        @Override
+        public void completed(CloseableHttpResponse response) {
+            try {
+                record(EntityUtils.toString(response.getEntity()));
+                response.close();
+            } catch (IOException e) {
+                record(e);
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Exception e) {
+            record(e);
+            done.countDown();
+        }
+
+        @Override
+        public void cancelled() {
+            record("cancelled");
+            done.countDown();
+        }
+    }
+}
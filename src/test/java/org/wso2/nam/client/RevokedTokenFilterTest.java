@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.nam.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the answers of the {@link RevokedTokenFilter} and of how long it remembers revocations.
+ */
+public class RevokedTokenFilterTest {
+
+    @Test
+    public void remembersEveryRevokedToken() {
+        RevokedTokenFilter filter = new RevokedTokenFilter(10000, 3600000);
+        Assert.assertFalse("an empty filter contains nothing", filter.mightContain(TokenFingerprint.of("token-0")));
+        for (int i = 0; i < 10000; i++) {
+            filter.add(TokenFingerprint.of("token-" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain(TokenFingerprint.of("token-" + i)));
+        }
+    }
+
+    @Test
+    public void keepsFalsePositivesRareUpToExpectedRevocations() {
+        RevokedTokenFilter filter = new RevokedTokenFilter(10000, 3600000);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(TokenFingerprint.of("revoked-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(TokenFingerprint.of("live-" + i))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test
+    public void forgetsRevocationsAfterTwoRetentionPeriods() throws InterruptedException {
+        RevokedTokenFilter filter = new RevokedTokenFilter(100, 100);
+        TokenFingerprint revoked = TokenFingerprint.of("revoked");
+        filter.add(revoked);
+
+        // The first rotation moves the revocation to the previous generation.
+        Thread.sleep(120);
+        Assert.assertTrue(filter.mightContain(revoked));
+
+        // The second rotation drops it.
+        Thread.sleep(120);
+        Assert.assertFalse(filter.mightContain(revoked));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of how {@link TokenValidationCache} behaves when the wall clock, which the entries expire by, and the
+ * monotonic clock, which drives the {@link ExpiryWheel}, move apart.
+ */
+public class TokenValidationCacheTest {
+    private static final long TIME_TO_LIVE = 60000;
+    private static final long VALIDITY_PERIOD = 3600000;
+
+    private final long start = System.nanoTime();
+    private final ExpiryWheel wheel = new ExpiryWheel(1000, start);
+    private final TokenValidationCache cache = new TokenValidationCache(TIME_TO_LIVE, 10, new WeakInterner<String>(),
+            wheel);
+    private final ScopeSet scopes = new ScopeRegistry().toScopeSet(Collections.singletonList("read"));
+
+    @Test
+    public void keepsEntryWhenWallClockIsSetBack() {
+        TokenFingerprint fingerprint = TokenFingerprint.of("token");
+        cache.put(fingerprint, tokenInfo(VALIDITY_PERIOD), scopes);
+
+        // The wheel reaches the removal time while the wall clock stays behind, as if it had been set back.
+        wheel.advance(start + TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE + 1000));
+
+        Assert.assertNotNull(cache.get(fingerprint));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("entry is scheduled again", 1, wheel.size());
+    }
+
+    @Test
+    public void removesEntryOnLookupWhenWallClockIsAhead() throws InterruptedException {
+        TokenFingerprint fingerprint = TokenFingerprint.of("token");
+        cache.put(fingerprint, tokenInfo(200), scopes);
+        Assert.assertNotNull(cache.get(fingerprint));
+
+        // The token expires by the wall clock before the wheel has been advanced.
+        Thread.sleep(300);
+
+        Assert.assertNull(cache.get(fingerprint));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("timer is cancelled", 0, wheel.size());
+    }
+
+    @Test
+    public void prunesEntriesWhenWallClockIsAhead() throws InterruptedException {
+        cache.put(TokenFingerprint.of("expiring"), tokenInfo(200), scopes);
+        cache.put(TokenFingerprint.of("live"), tokenInfo(VALIDITY_PERIOD), scopes);
+
+        Thread.sleep(300);
+
+        Assert.assertEquals(1, cache.prune());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void removesEntryOnceWheelCatchesUp() throws InterruptedException {
+        TokenFingerprint fingerprint = TokenFingerprint.of("token");
+        cache.put(fingerprint, tokenInfo(200), scopes);
+
+        Thread.sleep(300);
+        wheel.advance(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelsTimerOfRemovedEntry() {
+        cache.configure(TIME_TO_LIVE, 10, 30000);
+        TokenFingerprint fingerprint = TokenFingerprint.of("token");
+        cache.put(fingerprint, tokenInfo(VALIDITY_PERIOD), scopes);
+
+        Assert.assertNotNull(cache.getStale(fingerprint, Long.MAX_VALUE));
+        cache.remove(fingerprint);
+        Assert.assertNull(cache.getStale(fingerprint, Long.MAX_VALUE));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    private static AccessTokenInfo tokenInfo(long remainingMillis) {
+        AccessTokenInfo tokenInfo = new AccessTokenInfo();
+        tokenInfo.setTokenValid(true);
+        tokenInfo.setConsumerKey("consumer");
+        tokenInfo.setEndUserName("user");
+        tokenInfo.setIssuedTime(System.currentTimeMillis() - VALIDITY_PERIOD + remainingMillis);
+        tokenInfo.setValidityPeriod(VALIDITY_PERIOD);
+        return tokenInfo;
+    }
+}
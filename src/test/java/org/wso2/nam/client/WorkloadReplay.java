@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.nam.client;
+
+import org.wso2.carbon.apimgt.api.APIManagementException;
+import org.wso2.carbon.apimgt.api.model.AccessTokenInfo;
+import org.wso2.carbon.apimgt.api.model.KeyManagerConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a workload recorded by the {@link WorkloadRecorder} through a key manager which talks to a local
+ * {@link NamStandIn} instead of NetIQ, so that tuning changes can be evaluated against the production traffic offline.
+ * <p>
+ * Operations are started with the gaps between them recorded in the trace, divided by the speed-up. Tokens are
+ * replaced by synthetic tokens, one per recorded token fingerprint, which the stand-in validates with the scopes,
+ * client and validity recorded for the original token. Token lifetimes are compressed by the speed-up as well, while
+ * the time to live of the local state of the key manager is not. Token validations and application lookups are
+ * replayed. The other operations create, change or issue state the trace does not capture, hence they are only
+ * counted. Latencies are measured from the time an operation was due, so that operations waiting for a free replay
+ * thread are not reported as fast.
+ * <p>
+ * Usage: {@code WorkloadReplay [--speed 1-50] [--threads n] [--latency ms] [--config file] trace...}, where the
+ * configuration file holds key manager properties in the {@link Properties} format. The endpoint properties are
+ * always pointed at the stand-in. Unless the configuration disables it, the key manager is warmed up before the
+ * replay starts. The tool is not part of the bundle, run it with the test classes on the class path.
+ */
+public final class WorkloadReplay {
+    private static final double MAX_SPEED = 50;
+    private static final int DEFAULT_THREADS = 64;
+    /**
+     * Records are written in the order the operations completed. Records which complete this much later than others
+     * which started after them are replayed late.
+     */
+    private static final long REORDER_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(10);
+    private static final String REPLAY_PREFIX = "replay-";
+
+    private final NamOauthClient keyManager;
+    private final NamStandIn standIn;
+    private final double speed;
+    private final ThreadPoolExecutor workers;
+    private final OperationStats[] stats = new OperationStats[WorkloadTrace.OPERATIONS.length];
+    private final Set<TokenFingerprint> invalidTokens = new HashSet<>();
+    private long firstStartMicros = -1;
+    private long replayStartNanos;
+    private long replayStartMillis;
+    private long maxLagNanos;
+    private long lateRecords;
+
+    WorkloadReplay(NamOauthClient keyManager, NamStandIn standIn, double speed, int threads) {
+        this.keyManager = keyManager;
+        this.standIn = standIn;
+        this.speed = speed;
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                NamExecutors.daemonThreadFactory("nam-workload-replay"));
+        workers.prestartAllCoreThreads();
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        double speed = 1;
+        int threads = DEFAULT_THREADS;
+        long latency = 0;
+        String configFile = null;
+        List<File> traces = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--speed".equals(args[i])) {
+                    speed = Double.parseDouble(args[++i]);
+                } else if ("--threads".equals(args[i])) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--latency".equals(args[i])) {
+                    latency = Long.parseLong(args[++i]);
+                } else if ("--config".equals(args[i])) {
+                    configFile = args[++i];
+                } else {
+                    traces.add(new File(args[i]));
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            traces.clear();
+        }
+        if (traces.isEmpty() || !(speed >= 1 && speed <= MAX_SPEED) || threads < 1 || latency < 0) {
+            System.err.println("Usage: WorkloadReplay [--speed 1-50] [--threads n] [--latency ms] [--config file] "
+                    + "trace...");
+            System.exit(2);
+        }
+
+        NamStandIn standIn = new NamStandIn(latency);
+        standIn.start();
+        try {
+            NamOauthClient keyManager = new NamOauthClient();
+            keyManager.loadConfiguration(configurationOf(configFile, standIn.getBaseUrl()));
+            // Operations due at the start of the replay would otherwise queue behind the first, cold calls.
+            while (!keyManager.isReady()) {
+                Thread.sleep(10);
+            }
+            WorkloadReplay replay = new WorkloadReplay(keyManager, standIn, speed, threads);
+            long started = System.nanoTime();
+            replay.replay(openInOrder(traces));
+            replay.printSummary(System.out, System.nanoTime() - started);
+        } catch (APIManagementException e) {
+            System.err.println("Could not configure the key manager. " + e.getMessage());
+            System.exit(1);
+        } finally {
+            standIn.stop();
+        }
+    }
+
+    /**
+     * @param configFile key manager properties, may be null
+     * @param baseUrl URL of the stand-in
+     * @return configuration of a key manager which talks to the stand-in
+     * @throws IOException if the configuration file could not be read
+     */
+    static KeyManagerConfiguration configurationOf(String configFile, String baseUrl) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(NAMConstants.CONFIG_CLIENT_ID, REPLAY_PREFIX + "key-manager");
+        properties.setProperty(NAMConstants.CONFIG_CLIENT_SECRET, REPLAY_PREFIX + "secret");
+        properties.setProperty(NAMConstants.CONFIG_USERNAME, REPLAY_PREFIX + "admin");
+        properties.setProperty(NAMConstants.CONFIG_PASSWORD, REPLAY_PREFIX + "password");
+        properties.setProperty(NAMConstants.CONFIG_WARM_UP_ENABLED, Boolean.TRUE.toString());
+        if (configFile != null) {
+            try (InputStream input = new FileInputStream(configFile)) {
+                properties.load(input);
+            }
+        }
+        properties.setProperty(NAMConstants.CONFIG_NAM_TOKEN_ENDPOINT, baseUrl + NamStandIn.TOKEN_PATH);
+        properties.setProperty(NAMConstants.CONFIG_NAM_TOKENINFO_ENDPOINT, baseUrl + NamStandIn.TOKEN_INFO_PATH);
+        properties.setProperty(NAMConstants.CONFIG_NAM_CLIENT_ENDPOINT, baseUrl + NamStandIn.CLIENTS_PATH);
+        // The replay must not overwrite the trace it reads.
+        properties.remove(NAMConstants.CONFIG_WORKLOAD_RECORDING_FILE);
+        KeyManagerConfiguration configuration = new KeyManagerConfiguration();
+        for (String name : properties.stringPropertyNames()) {
+            configuration.addParameter(name, properties.getProperty(name));
+        }
+        return configuration;
+    }
+
+    /**
+     * This method opens the given trace files, ordered by the time they were started.
+     *
+     * @param traces the trace files
+     * @return streams positioned at the first record of each file
+     * @throws IOException if a file could not be opened or is not a workload trace
+     */
+    static List<DataInputStream> openInOrder(List<File> traces) throws IOException {
+        final List<DataInputStream> inputs = new ArrayList<>();
+        final List<Long> startTimes = new ArrayList<>();
+        for (File trace : traces) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(trace),
+                    64 * 1024));
+            try {
+                startTimes.add(WorkloadTrace.readHeader(input));
+            } catch (IOException e) {
+                input.close();
+                throw new IOException(String.format("Could not read %s. %s", trace, e.getMessage()), e);
+            }
+            inputs.add(input);
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(startTimes.get(a), startTimes.get(b));
+            }
+        });
+        List<DataInputStream> ordered = new ArrayList<>();
+        for (Integer i : order) {
+            ordered.add(inputs.get(i));
+        }
+        return ordered;
+    }
+
+    /**
+     * This method replays the records of the given traces and waits until all replayed operations have completed.
+     *
+     * @param inputs streams positioned at the first record of each trace, in the order they have to be replayed
+     * @throws IOException if a trace could not be read
+     * @throws InterruptedException if the replay was interrupted
+     */
+    void replay(List<DataInputStream> inputs) throws IOException, InterruptedException {
+        PriorityQueue<WorkloadTrace.Record> pending = new PriorityQueue<>(1024,
+                new Comparator<WorkloadTrace.Record>() {
+                    @Override
+                    public int compare(WorkloadTrace.Record a, WorkloadTrace.Record b) {
+                        return Long.compare(a.startMicros, b.startMicros);
+                    }
+                });
+        long latestStart = Long.MIN_VALUE;
+        try {
+            for (DataInputStream input : inputs) {
+                while (true) {
+                    WorkloadTrace.Record record;
+                    try {
+                        record = WorkloadTrace.read(input);
+                    } catch (EOFException e) {
+                        // The last record may be incomplete if the recording key manager was stopped abruptly.
+                        break;
+                    }
+                    pending.add(record);
+                    latestStart = Math.max(latestStart, record.startMicros);
+                    while (pending.peek().startMicros < latestStart - REORDER_WINDOW_MICROS) {
+                        schedule(pending.poll());
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                schedule(pending.poll());
+            }
+        } finally {
+            for (DataInputStream input : inputs) {
+                input.close();
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedule(final WorkloadTrace.Record record) {
+        if (firstStartMicros < 0) {
+            firstStartMicros = record.startMicros;
+            replayStartNanos = System.nanoTime();
+            replayStartMillis = System.currentTimeMillis();
+        }
+        long offsetMicros = record.startMicros - firstStartMicros;
+        if (offsetMicros < 0) {
+            lateRecords++;
+            offsetMicros = 0;
+        }
+        final long dueNanos = replayStartNanos + (long) (offsetMicros * 1000 / speed);
+        long wait;
+        while ((wait = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        maxLagNanos = Math.max(maxLagNanos, -wait);
+        final String accessToken = record.hasToken() ? prepareToken(record) : null;
+        final OperationStats operationStats = stats[record.operation];
+        operationStats.recorded(record);
+        if (record.operation != WorkloadTrace.OP_GET_TOKEN_METADATA
+                && record.operation != WorkloadTrace.OP_RETRIEVE_APPLICATION) {
+            return;
+        }
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte outcome = WorkloadTrace.OUTCOME_OK;
+                try {
+                    if (record.operation == WorkloadTrace.OP_GET_TOKEN_METADATA) {
+                        AccessTokenInfo tokenInfo = keyManager.getTokenMetaData(accessToken);
+                        if (!tokenInfo.isTokenValid()) {
+                            outcome = WorkloadTrace.OUTCOME_INVALID_TOKEN;
+                        }
+                    } else {
+                        keyManager.retrieveApplication(clientIdOf(record));
+                    }
+                } catch (APIManagementException | RuntimeException e) {
+                    outcome = WorkloadTrace.outcomeOf(e);
+                }
+                operationStats.replayed(outcome, (System.nanoTime() - dueNanos) / 1000);
+            }
+        });
+    }
+
+    /**
+     * This method registers the synthetic token of a record with the stand-in, or updates it if the recorded
+     * validation result of the token has changed.
+     *
+     * @param record record of an operation on a token
+     * @return the synthetic token
+     */
+    private String prepareToken(WorkloadTrace.Record record) {
+        TokenFingerprint fingerprint = record.token();
+        String accessToken = REPLAY_PREFIX + fingerprint;
+        if (record.outcome == WorkloadTrace.OUTCOME_INVALID_TOKEN) {
+            if (invalidTokens.add(fingerprint)) {
+                standIn.addToken(accessToken, new NamStandIn.Token(null, null, null, 0, false));
+            }
+        } else if (record.outcome == WorkloadTrace.OUTCOME_OK && (standIn.getToken(accessToken) == null
+                || invalidTokens.remove(fingerprint))) {
+            String[] scopes = new String[record.scopeCount];
+            for (int i = 0; i < scopes.length; i++) {
+                scopes[i] = String.format("scope-%08x-%s", record.scopeHash, i);
+            }
+            // The token expires at the point of the replay which corresponds to its recorded expiry.
+            long expiresAt = replayStartMillis + (long) ((record.startMicros - firstStartMicros) / 1000
+                    + record.validitySeconds * 1000L / speed);
+            standIn.addToken(accessToken, new NamStandIn.Token("user-" + fingerprint.toString().substring(0, 8),
+                    clientIdOf(record), scopes, expiresAt, true));
+        }
+        return accessToken;
+    }
+
+    private static String clientIdOf(WorkloadTrace.Record record) {
+        return String.format("%s%016x", REPLAY_PREFIX, record.clientHash);
+    }
+
+    void printSummary(PrintStream out, long elapsedNanos) {
+        out.println(String.format("Replayed at %sx in %.1f s, operations were started up to %.1f ms late, %s records "
+                        + "were out of order.", speed, elapsedNanos / 1e9, maxLagNanos / 1e6, lateRecords));
+        out.println();
+        out.println(String.format("%-36s %10s %10s %-28s %s", "operation", "recorded", "replayed",
+                "latency p50/p99/max (ms)", "outcomes"));
+        for (int i = 0; i < stats.length; i++) {
+            OperationStats operation = stats[i];
+            if (operation.recordedCount == 0) {
+                continue;
+            }
+            out.println(String.format("%-36s %10s %10s %-28s %s", WorkloadTrace.OPERATIONS[i],
+                    operation.recordedCount, "", operation.recordedLatency, counts(operation.recordedOutcomes,
+                            WorkloadTrace.OUTCOMES)));
+            if (operation.replayedCount > 0) {
+                out.println(String.format("%-36s %10s %10s %-28s %s", "", "", operation.replayedCount,
+                        operation.replayedLatency, counts(operation.replayedOutcomes, WorkloadTrace.OUTCOMES)));
+            }
+        }
+        OperationStats validations = stats[WorkloadTrace.OP_GET_TOKEN_METADATA];
+        NamKeyManagerMetrics metrics = keyManager.getMetrics();
+        out.println();
+        out.println("Recorded token validations served from: " + counts(validations.recordedSources,
+                WorkloadTrace.SOURCES));
+        out.println(String.format("Replayed token validations: cache hits=%s, cache misses=%s, stale=%s, grace=%s, "
+                        + "background revalidations=%s", metrics.getTokenCacheHits(), metrics.getTokenCacheMisses(),
+                metrics.getStaleTokenResponses(), metrics.getGraceTokenResponses(),
+                metrics.getBackgroundRevalidations()));
+        out.println(String.format("Requests to the stand-in: tokenInfo=%s, clients=%s, adminToken=%s",
+                standIn.getTokenInfoRequests(), standIn.getClientRequests(), standIn.getAdminTokenRequests()));
+    }
+
+    private static String counts(long[] counts, String[] names) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                builder.append(builder.length() == 0 ? "" : ", ").append(names[i]).append('=').append(counts[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Recorded and replayed counts and latencies of an operation.
+     */
+    private static final class OperationStats {
+        private long recordedCount;
+        private final long[] recordedOutcomes = new long[WorkloadTrace.OUTCOMES.length];
+        private final long[] recordedSources = new long[WorkloadTrace.SOURCES.length];
+        private final LatencyHistogram recordedLatency = new LatencyHistogram();
+        private long replayedCount;
+        private final long[] replayedOutcomes = new long[WorkloadTrace.OUTCOMES.length];
+        private final LatencyHistogram replayedLatency = new LatencyHistogram();
+
+        synchronized void recorded(WorkloadTrace.Record record) {
+            recordedCount++;
+            recordedOutcomes[record.outcome]++;
+            recordedSources[record.source]++;
+            recordedLatency.add(record.latencyMicros);
+        }
+
+        synchronized void replayed(byte outcome, long latencyMicros) {
+            replayedCount++;
+            replayedOutcomes[outcome]++;
+            replayedLatency.add(latencyMicros);
+        }
+    }
+
+    /**
+     * Histogram of latencies in microseconds, with 16 buckets per power of two, hence percentiles are reported with
+     * an error of at most 6%.
+     */
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final long[] buckets = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void add(long micros) {
+            long value = Math.max(0, micros);
+            buckets[indexOf(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(max, lowerBoundOf(i));
+                }
+            }
+            return max;
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long lowerBoundOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f/%.2f/%.2f", percentile(0.5) / 1000.0, percentile(0.99) / 1000.0,
+                    max / 1000.0);
+        }
+    }
+}